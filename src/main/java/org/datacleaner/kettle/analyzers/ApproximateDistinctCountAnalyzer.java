@@ -0,0 +1,94 @@
+package org.datacleaner.kettle.analyzers;
+
+import javax.inject.Named;
+
+import org.datacleaner.api.Analyzer;
+import org.datacleaner.api.Configured;
+import org.datacleaner.api.Description;
+import org.datacleaner.api.Initialize;
+import org.datacleaner.api.InputColumn;
+import org.datacleaner.api.InputRow;
+import org.datacleaner.result.Crosstab;
+import org.datacleaner.result.CrosstabDimension;
+import org.datacleaner.result.CrosstabNavigator;
+import org.datacleaner.result.CrosstabResult;
+import org.pentaho.di.profiling.datacleaner.sketch.HyperLogLog;
+
+/**
+ * Estimates the number of distinct values of columns with a {@link HyperLogLog} per column, so the memory used does
+ * not depend on the number of rows. Used instead of the unique key check for very large captures.
+ */
+@Named("Approximate distinct count")
+@Description("Estimates the number of distinct and duplicate values of columns in a fixed amount of memory "
+        + "(HyperLogLog). For inputs too large to keep every value.")
+public class ApproximateDistinctCountAnalyzer implements Analyzer<CrosstabResult> {
+
+    public static final String MEASURE_ROW_COUNT = "Row count";
+    public static final String MEASURE_NULL_COUNT = "Null count";
+    public static final String MEASURE_DISTINCT_COUNT = "Approximate distinct count";
+    public static final String MEASURE_DUPLICATE_COUNT = "Approximate duplicate count";
+    public static final String MEASURE_STANDARD_ERROR = "Standard error (%)";
+
+    @Configured
+    InputColumn<?>[] columns;
+
+    @Configured("Precision")
+    @Description("The number of hash bits that select a register, from 4 to 16. Every extra bit doubles the memory "
+            + "and divides the error by 1.4.")
+    int precision = HyperLogLog.DEFAULT_PRECISION;
+
+    private HyperLogLog[] sketches;
+    private long[] nullCounts;
+    private long rowCount;
+
+    @Initialize
+    public void init() {
+        sketches = new HyperLogLog[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            sketches[i] = new HyperLogLog(precision);
+        }
+        nullCounts = new long[columns.length];
+        rowCount = 0;
+    }
+
+    @Override
+    public void run(InputRow row, int distinctCount) {
+        rowCount += distinctCount;
+        for (int i = 0; i < columns.length; i++) {
+            final Object value = row.getValue(columns[i]);
+            if (value == null) {
+                nullCounts[i] += distinctCount;
+            } else {
+                sketches[i].add(value);
+            }
+        }
+    }
+
+    @Override
+    public CrosstabResult getResult() {
+        final CrosstabDimension measureDimension = new CrosstabDimension("Measure");
+        measureDimension.addCategory(MEASURE_ROW_COUNT);
+        measureDimension.addCategory(MEASURE_NULL_COUNT);
+        measureDimension.addCategory(MEASURE_DISTINCT_COUNT);
+        measureDimension.addCategory(MEASURE_DUPLICATE_COUNT);
+        measureDimension.addCategory(MEASURE_STANDARD_ERROR);
+
+        final CrosstabDimension columnDimension = new CrosstabDimension("Column");
+        final Crosstab<Number> crosstab = new Crosstab<Number>(Number.class, columnDimension, measureDimension);
+        for (int i = 0; i < columns.length; i++) {
+            final String columnName = columns[i].getName();
+            columnDimension.addCategory(columnName);
+
+            final long valueCount = rowCount - nullCounts[i];
+            final long distinct = Math.min(valueCount, sketches[i].estimate());
+            final CrosstabNavigator<Number> nav = crosstab.where(columnDimension, columnName);
+            nav.where(measureDimension, MEASURE_ROW_COUNT).put(rowCount);
+            nav.where(measureDimension, MEASURE_NULL_COUNT).put(nullCounts[i]);
+            nav.where(measureDimension, MEASURE_DISTINCT_COUNT).put(distinct);
+            nav.where(measureDimension, MEASURE_DUPLICATE_COUNT).put(valueCount - distinct);
+            nav.where(measureDimension, MEASURE_STANDARD_ERROR).put(
+                    Math.round(sketches[i].getStandardError() * 10000) / 100.0);
+        }
+        return new CrosstabResult(crosstab);
+    }
+}
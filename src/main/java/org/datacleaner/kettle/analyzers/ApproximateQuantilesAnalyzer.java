@@ -0,0 +1,102 @@
+package org.datacleaner.kettle.analyzers;
+
+import javax.inject.Named;
+
+import org.datacleaner.api.Analyzer;
+import org.datacleaner.api.Configured;
+import org.datacleaner.api.Description;
+import org.datacleaner.api.Initialize;
+import org.datacleaner.api.InputColumn;
+import org.datacleaner.api.InputRow;
+import org.datacleaner.result.Crosstab;
+import org.datacleaner.result.CrosstabDimension;
+import org.datacleaner.result.CrosstabNavigator;
+import org.datacleaner.result.CrosstabResult;
+import org.pentaho.di.profiling.datacleaner.sketch.TDigest;
+
+/**
+ * Estimates the median and other percentiles of number columns with a {@link TDigest} per column, so the memory used
+ * does not depend on the number of rows. Used instead of the descriptive statistics of the number analyzer, which keep
+ * every value, for very large captures.
+ */
+@Named("Approximate quantiles")
+@Description("Estimates the median and percentiles of number columns in a fixed amount of memory (t-digest). "
+        + "For inputs too large to keep every value.")
+public class ApproximateQuantilesAnalyzer implements Analyzer<CrosstabResult> {
+
+    public static final String MEASURE_ROW_COUNT = "Row count";
+    public static final String MEASURE_NULL_COUNT = "Null count";
+    public static final String MEASURE_RANK_ERROR = "Max rank error (%)";
+
+    private static final double[] QUANTILES = { 0.05, 0.25, 0.5, 0.75, 0.95 };
+    private static final String[] QUANTILE_MEASURES = { "Approximate 5th percentile",
+            "Approximate 25th percentile", "Approximate median", "Approximate 75th percentile",
+            "Approximate 95th percentile" };
+
+    @Configured
+    InputColumn<Number>[] columns;
+
+    @Configured("Compression")
+    @Description("The number of centroids kept per column, roughly. Higher values use more memory and give more "
+            + "accurate percentiles.")
+    double compression = TDigest.DEFAULT_COMPRESSION;
+
+    private TDigest[] digests;
+    private long[] nullCounts;
+    private long rowCount;
+
+    @Initialize
+    public void init() {
+        digests = new TDigest[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            digests[i] = new TDigest(compression);
+        }
+        nullCounts = new long[columns.length];
+        rowCount = 0;
+    }
+
+    @Override
+    public void run(InputRow row, int distinctCount) {
+        rowCount += distinctCount;
+        for (int i = 0; i < columns.length; i++) {
+            final Number value = row.getValue(columns[i]);
+            if (value == null) {
+                nullCounts[i] += distinctCount;
+            } else {
+                digests[i].add(value.doubleValue(), distinctCount);
+            }
+        }
+    }
+
+    @Override
+    public CrosstabResult getResult() {
+        final CrosstabDimension measureDimension = new CrosstabDimension("Measure");
+        measureDimension.addCategory(MEASURE_ROW_COUNT);
+        measureDimension.addCategory(MEASURE_NULL_COUNT);
+        for (String quantileMeasure : QUANTILE_MEASURES) {
+            measureDimension.addCategory(quantileMeasure);
+        }
+        measureDimension.addCategory(MEASURE_RANK_ERROR);
+
+        final CrosstabDimension columnDimension = new CrosstabDimension("Column");
+        final Crosstab<Number> crosstab = new Crosstab<Number>(Number.class, columnDimension, measureDimension);
+        for (int i = 0; i < columns.length; i++) {
+            final String columnName = columns[i].getName();
+            columnDimension.addCategory(columnName);
+
+            final CrosstabNavigator<Number> nav = crosstab.where(columnDimension, columnName);
+            nav.where(measureDimension, MEASURE_ROW_COUNT).put(rowCount);
+            nav.where(measureDimension, MEASURE_NULL_COUNT).put(nullCounts[i]);
+            if (digests[i].getCount() == 0) {
+                continue;
+            }
+            double rankError = 0;
+            for (int j = 0; j < QUANTILES.length; j++) {
+                nav.where(measureDimension, QUANTILE_MEASURES[j]).put(digests[i].quantile(QUANTILES[j]));
+                rankError = Math.max(rankError, digests[i].rankError(QUANTILES[j]));
+            }
+            nav.where(measureDimension, MEASURE_RANK_ERROR).put(Math.round(rankError * 10000) / 100.0);
+        }
+        return new CrosstabResult(crosstab);
+    }
+}
@@ -0,0 +1,113 @@
+package org.datacleaner.kettle.analyzers;
+
+import java.io.Serializable;
+import java.util.List;
+
+import javax.inject.Named;
+
+import org.datacleaner.api.Analyzer;
+import org.datacleaner.api.Configured;
+import org.datacleaner.api.Description;
+import org.datacleaner.api.Initialize;
+import org.datacleaner.api.InputColumn;
+import org.datacleaner.api.InputRow;
+import org.datacleaner.api.Validate;
+import org.datacleaner.result.Crosstab;
+import org.datacleaner.result.CrosstabDimension;
+import org.datacleaner.result.CrosstabNavigator;
+import org.datacleaner.result.CrosstabResult;
+import org.pentaho.di.profiling.datacleaner.sketch.SpaceSaving;
+
+/**
+ * Finds the most frequent values of columns with a fixed number of {@link SpaceSaving} counters per column, so the
+ * memory used does not depend on the number of distinct values. Used instead of the string analyzer for very large
+ * captures.
+ */
+@Named("Approximate top values")
+@Description("Finds the most frequent values of columns in a fixed amount of memory (Space-Saving). "
+        + "For inputs with too many distinct values to count them all.")
+public class ApproximateTopValuesAnalyzer implements Analyzer<CrosstabResult> {
+
+    public static final String MEASURE_VALUE = "Value";
+    public static final String MEASURE_COUNT = "Count";
+    public static final String MEASURE_MAX_OVERCOUNT = "Max overcount";
+
+    public static final int DEFAULT_TOP_VALUES = 10;
+    public static final int DEFAULT_COUNTERS = 100;
+
+    @Configured
+    InputColumn<?>[] columns;
+
+    @Configured("Top values")
+    @Description("The number of values to report per column.")
+    int topValues = DEFAULT_TOP_VALUES;
+
+    @Configured("Counters")
+    @Description("The number of values counted per column. Every value that makes up more than 1 / counters of the "
+            + "rows is found, and more counters make the counts more accurate.")
+    int counters = DEFAULT_COUNTERS;
+
+    private SpaceSaving<Object>[] summaries;
+
+    @Validate
+    public void validate() {
+        if (topValues < 1) {
+            throw new IllegalStateException("Top values must be positive: " + topValues);
+        }
+        if (counters < topValues) {
+            throw new IllegalStateException("Counters (" + counters + ") must be at least the number of top values ("
+                    + topValues + ")");
+        }
+    }
+
+    @Initialize
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void init() {
+        summaries = new SpaceSaving[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            summaries[i] = new SpaceSaving<>(counters);
+        }
+    }
+
+    @Override
+    public void run(InputRow row, int distinctCount) {
+        for (int i = 0; i < columns.length; i++) {
+            final Object value = row.getValue(columns[i]);
+            if (value != null) {
+                summaries[i].add(value, distinctCount);
+            }
+        }
+    }
+
+    @Override
+    public CrosstabResult getResult() {
+        final CrosstabDimension measureDimension = new CrosstabDimension("Measure");
+        measureDimension.addCategory(MEASURE_VALUE);
+        measureDimension.addCategory(MEASURE_COUNT);
+        measureDimension.addCategory(MEASURE_MAX_OVERCOUNT);
+
+        final CrosstabDimension rankDimension = new CrosstabDimension("Rank");
+        for (int rank = 1; rank <= topValues; rank++) {
+            rankDimension.addCategory(Integer.toString(rank));
+        }
+
+        final CrosstabDimension columnDimension = new CrosstabDimension("Column");
+        final Crosstab<Serializable> crosstab =
+                new Crosstab<Serializable>(Serializable.class, columnDimension, rankDimension, measureDimension);
+        for (int i = 0; i < columns.length; i++) {
+            final String columnName = columns[i].getName();
+            columnDimension.addCategory(columnName);
+
+            final List<SpaceSaving.Counter<Object>> top = summaries[i].getTop(topValues);
+            for (int j = 0; j < top.size(); j++) {
+                final SpaceSaving.Counter<Object> counter = top.get(j);
+                final CrosstabNavigator<Serializable> nav =
+                        crosstab.where(columnDimension, columnName).where(rankDimension, Integer.toString(j + 1));
+                nav.where(measureDimension, MEASURE_VALUE).put(counter.getValue().toString());
+                nav.where(measureDimension, MEASURE_COUNT).put(counter.getCount());
+                nav.where(measureDimension, MEASURE_MAX_OVERCOUNT).put(counter.getError());
+            }
+        }
+        return new CrosstabResult(crosstab);
+    }
+}
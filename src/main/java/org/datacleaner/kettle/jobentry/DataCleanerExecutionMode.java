@@ -0,0 +1,22 @@
+package org.datacleaner.kettle.jobentry;
+
+/**
+ * How the job entry runs a DataCleaner job.
+ */
+public enum DataCleanerExecutionMode {
+
+    /**
+     * Starts a DataCleaner process for every job
+     */
+    PROCESS,
+
+    /**
+     * Runs the job in the JVM of Kettle
+     */
+    IN_PROCESS,
+
+    /**
+     * Submits the job to a long lived DataCleaner worker process, shared by the job entries of the Kettle JVM
+     */
+    WORKER;
+}
@@ -11,6 +11,13 @@ public class DataCleanerJobEntryConfiguration implements Serializable, Cloneable
     private String outputFilename;
     private String additionalArguments;
     private boolean outputFileInResult = true;
+    private DataCleanerExecutionMode executionMode;
+    private int maxThreads = 0;
+    private boolean executeForEveryRow = false;
+    private int parallelRuns = 1;
+    private boolean failFast = false;
+    private boolean resultCache = false;
+    private boolean resultCacheHashInputs = false;
 
     public String getJobFilename() {
         if (jobFilename == null) {
@@ -63,4 +70,83 @@ public class DataCleanerJobEntryConfiguration implements Serializable, Cloneable
     public boolean isOutputFileInResult() {
         return outputFileInResult;
     }
+
+    public DataCleanerExecutionMode getExecutionMode() {
+        if (executionMode == null) {
+            executionMode = DataCleanerExecutionMode.PROCESS;
+        }
+        return executionMode;
+    }
+
+    public void setExecutionMode(DataCleanerExecutionMode executionMode) {
+        this.executionMode = executionMode;
+    }
+
+    /**
+     * @return the number of threads of a job run in process or on a worker, or 0 to size them from the job
+     */
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    /**
+     * @return true to run the job once for every row of the result of the previous job entry, with the fields of the
+     *         row as variables
+     */
+    public boolean isExecuteForEveryRow() {
+        return executeForEveryRow;
+    }
+
+    public void setExecuteForEveryRow(boolean executeForEveryRow) {
+        this.executeForEveryRow = executeForEveryRow;
+    }
+
+    /**
+     * @return the number of runs for result rows that may execute at the same time
+     */
+    public int getParallelRuns() {
+        return parallelRuns;
+    }
+
+    public void setParallelRuns(int parallelRuns) {
+        this.parallelRuns = Math.max(1, parallelRuns);
+    }
+
+    /**
+     * @return true to skip the runs for the remaining result rows once a run has failed
+     */
+    public boolean isFailFast() {
+        return failFast;
+    }
+
+    public void setFailFast(boolean failFast) {
+        this.failFast = failFast;
+    }
+
+    /**
+     * @return true to reuse the result of a previous run when neither the job nor its input files changed
+     */
+    public boolean isResultCache() {
+        return resultCache;
+    }
+
+    public void setResultCache(boolean resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * @return true to compare the contents of the input files for the result cache, not only their sizes and
+     *         modification times
+     */
+    public boolean isResultCacheHashInputs() {
+        return resultCacheHashInputs;
+    }
+
+    public void setResultCacheHashInputs(boolean resultCacheHashInputs) {
+        this.resultCacheHashInputs = resultCacheHashInputs;
+    }
 }
@@ -4,9 +4,12 @@ import org.datacleaner.kettle.ui.AbstractJobEntryDialog;
 import org.datacleaner.kettle.ui.EnumCombo;
 import org.datacleaner.kettle.ui.WidgetFactory;
 import org.eclipse.swt.SWT;
+import org.eclipse.swt.widgets.Button;
 import org.eclipse.swt.widgets.Group;
 import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.Shell;
+import org.eclipse.swt.widgets.Text;
+import org.pentaho.di.core.Const;
 import org.pentaho.di.job.JobMeta;
 import org.pentaho.di.job.entry.JobEntryDialogInterface;
 import org.pentaho.di.job.entry.JobEntryInterface;
@@ -21,6 +24,13 @@ public class DataCleanerJobEntryDialog extends AbstractJobEntryDialog implements
     private TextVar additionalArgumentsField;
     private OutputFileSelectionWidget outputFileSelectionWidget;
     private EnumCombo<DataCleanerOutputType> outputTypeCombo;
+    private EnumCombo<DataCleanerExecutionMode> executionModeCombo;
+    private Text maxThreadsField;
+    private Button executeForEveryRowButton;
+    private Text parallelRunsField;
+    private Button failFastButton;
+    private Button resultCacheButton;
+    private Button resultCacheHashInputsButton;
 
     public DataCleanerJobEntryDialog(Shell parent, JobEntryInterface jobEntry, Repository rep, JobMeta jobMeta) {
         super(parent, jobEntry, rep, jobMeta);
@@ -69,6 +79,89 @@ public class DataCleanerJobEntryDialog extends AbstractJobEntryDialog implements
             additionalArgumentsField.setLayoutData(WidgetFactory.createGridData());
         }
 
+        // Execution mode
+        {
+            final Label fieldLabel = new Label(propertiesGroup, SWT.RIGHT);
+            fieldLabel.setLayoutData(WidgetFactory.createGridData());
+            fieldLabel.setText("Execution mode:");
+
+            executionModeCombo =
+                    new EnumCombo<DataCleanerExecutionMode>(propertiesGroup, DataCleanerExecutionMode.class, false);
+            executionModeCombo.setToolTipText("Start DataCleaner for the job, run it in the Kettle JVM or submit it "
+                    + "to a shared DataCleaner worker (the latter two not for HTML output or additional arguments)");
+        }
+
+        // Threads when running in process
+        {
+            final Label fieldLabel = new Label(propertiesGroup, SWT.RIGHT);
+            fieldLabel.setLayoutData(WidgetFactory.createGridData());
+            fieldLabel.setText("Max threads:");
+
+            maxThreadsField = new Text(propertiesGroup, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+            maxThreadsField.setLayoutData(WidgetFactory.createGridData());
+            maxThreadsField.setToolTipText("Number of threads when running in process or on a worker, "
+                    + "0 to size from the processors and the job");
+        }
+
+        // Execute for every result row
+        {
+            final Label fieldLabel = new Label(propertiesGroup, SWT.RIGHT);
+            fieldLabel.setLayoutData(WidgetFactory.createGridData());
+            fieldLabel.setText("Execute for every result row:");
+
+            executeForEveryRowButton = new Button(propertiesGroup, SWT.CHECK);
+            executeForEveryRowButton.setLayoutData(WidgetFactory.createGridData());
+            executeForEveryRowButton.setToolTipText("Run the job once for every result row of the previous job "
+                    + "entry, with the fields of the row as variables, e.g. ${filename}");
+        }
+
+        // Parallel runs
+        {
+            final Label fieldLabel = new Label(propertiesGroup, SWT.RIGHT);
+            fieldLabel.setLayoutData(WidgetFactory.createGridData());
+            fieldLabel.setText("Parallel runs:");
+
+            parallelRunsField = new Text(propertiesGroup, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+            parallelRunsField.setLayoutData(WidgetFactory.createGridData());
+            parallelRunsField.setToolTipText("Number of result rows to run the job for at the same time, the "
+                    + "output file must use a field of the row when more than 1");
+        }
+
+        // Fail fast
+        {
+            final Label fieldLabel = new Label(propertiesGroup, SWT.RIGHT);
+            fieldLabel.setLayoutData(WidgetFactory.createGridData());
+            fieldLabel.setText("Stop at first failure:");
+
+            failFastButton = new Button(propertiesGroup, SWT.CHECK);
+            failFastButton.setLayoutData(WidgetFactory.createGridData());
+            failFastButton.setToolTipText("Do not start the job for the remaining result rows once a run failed");
+        }
+
+        // Result cache
+        {
+            final Label fieldLabel = new Label(propertiesGroup, SWT.RIGHT);
+            fieldLabel.setLayoutData(WidgetFactory.createGridData());
+            fieldLabel.setText("Reuse unchanged results:");
+
+            resultCacheButton = new Button(propertiesGroup, SWT.CHECK);
+            resultCacheButton.setLayoutData(WidgetFactory.createGridData());
+            resultCacheButton.setToolTipText("Skip the run and reuse the result of the previous run when neither the "
+                    + "job, the arguments nor the input files of its datastores changed");
+        }
+
+        // Hash inputs for the result cache
+        {
+            final Label fieldLabel = new Label(propertiesGroup, SWT.RIGHT);
+            fieldLabel.setLayoutData(WidgetFactory.createGridData());
+            fieldLabel.setText("Compare input file contents:");
+
+            resultCacheHashInputsButton = new Button(propertiesGroup, SWT.CHECK);
+            resultCacheHashInputsButton.setLayoutData(WidgetFactory.createGridData());
+            resultCacheHashInputsButton.setToolTipText("Hash the contents of the input files to detect changes, "
+                    + "instead of only comparing their sizes and modification times");
+        }
+
         // initialize values
         {
             final DataCleanerJobEntryConfiguration configuration = getConfiguration();
@@ -77,6 +170,13 @@ public class DataCleanerJobEntryDialog extends AbstractJobEntryDialog implements
             outputFileSelectionWidget.setOutputFilename(configuration.getOutputFilename());
             outputFileSelectionWidget.setOutputFileInResult(configuration.isOutputFileInResult());
             additionalArgumentsField.setText(configuration.getAdditionalArguments());
+            executionModeCombo.setValue(configuration.getExecutionMode());
+            maxThreadsField.setText(Integer.toString(configuration.getMaxThreads()));
+            executeForEveryRowButton.setSelection(configuration.isExecuteForEveryRow());
+            parallelRunsField.setText(Integer.toString(configuration.getParallelRuns()));
+            failFastButton.setSelection(configuration.isFailFast());
+            resultCacheButton.setSelection(configuration.isResultCache());
+            resultCacheHashInputsButton.setSelection(configuration.isResultCacheHashInputs());
         }
     }
 
@@ -88,6 +188,13 @@ public class DataCleanerJobEntryDialog extends AbstractJobEntryDialog implements
         configuration.setOutputFileInResult(outputFileSelectionWidget.isOutputFileInResult());
         configuration.setOutputType(outputTypeCombo.getValue());
         configuration.setAdditionalArguments(additionalArgumentsField.getText());
+        configuration.setExecutionMode(executionModeCombo.getValue());
+        configuration.setMaxThreads(Const.toInt(maxThreadsField.getText(), 0));
+        configuration.setExecuteForEveryRow(executeForEveryRowButton.getSelection());
+        configuration.setParallelRuns(Const.toInt(parallelRunsField.getText(), 1));
+        configuration.setFailFast(failFastButton.getSelection());
+        configuration.setResultCache(resultCacheButton.getSelection());
+        configuration.setResultCacheHashInputs(resultCacheHashInputsButton.getSelection());
     }
 
     private DataCleanerJobEntryConfiguration getConfiguration() {
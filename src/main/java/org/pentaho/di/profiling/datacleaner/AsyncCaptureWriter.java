@@ -0,0 +1,221 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.profiling.datacleaner.sampling.RowSampler;
+import org.pentaho.di.trans.step.RowAdapter;
+import org.pentaho.di.trans.step.RowListener;
+
+/**
+ * Decouples capturing from the profiled step. The row listeners only put row references in a {@link RowRingBuffer}
+ * per step copy, and a dedicated writer thread serializes, compresses and writes the rows. What happens when a queue
+ * is full is decided by the {@link CaptureBackpressure} policy of the {@link CaptureOptions}.
+ */
+final class AsyncCaptureWriter implements Closeable {
+
+    /**
+     * The number of rows the writer thread takes from one queue before moving on to the next.
+     */
+    private static final int DRAIN_BATCH_SIZE = 1024;
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final CaptureOptions options;
+    private final List<Segment> segments;
+    private final Thread writerThread;
+
+    private volatile boolean closing;
+    private volatile Throwable error;
+
+    AsyncCaptureWriter(CaptureOptions options) {
+        this.options = options;
+        this.segments = new CopyOnWriteArrayList<>();
+        this.writerThread = new Thread(this::writeRows, "DataCleaner capture writer");
+        this.writerThread.setDaemon(true);
+        this.closing = false;
+        this.error = null;
+    }
+
+    /**
+     * Creates the listener for one step copy. The listener must only be called by the thread of that copy.
+     *
+     * @param segmentWriter the writer for the rows of the step copy, created by the {@link KettleStreamWriter}
+     * @param sampler the sampler deciding which rows are queued, or null to queue all rows
+     * @return
+     */
+    public RowListener createRowListener(KettleStreamSegmentWriter segmentWriter, RowSampler sampler) {
+        final Segment segment = new Segment(segmentWriter, sampler, options.getQueueSize());
+        segments.add(segment);
+        return segment;
+    }
+
+    public void start() {
+        writerThread.start();
+    }
+
+    private void writeRows() {
+        try {
+            while (true) {
+                // read the flag before draining, so that nothing offered before closing can be missed
+                final boolean stop = closing;
+                int drained = 0;
+                for (Segment segment : segments) {
+                    drained += segment.queue.drain(segment.segmentWriter::writeRow, DRAIN_BATCH_SIZE);
+                }
+                if (drained == 0) {
+                    if (stop) {
+                        return;
+                    }
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            }
+        } catch (Throwable e) {
+            error = e;
+        }
+    }
+
+    /**
+     * @return the largest number of rows that were waiting in a single queue
+     */
+    public long getHighWaterMark() {
+        long highWaterMark = 0;
+        for (Segment segment : segments) {
+            highWaterMark = Math.max(highWaterMark, segment.queue.getHighWaterMark());
+        }
+        return highWaterMark;
+    }
+
+    /**
+     * @return the capacity of the queue of each step copy
+     */
+    public int getQueueCapacity() {
+        return segments.isEmpty() ? 0 : segments.get(0).queue.getCapacity();
+    }
+
+    /**
+     * @return the number of rows that were not captured because of the backpressure policy
+     */
+    public long getDroppedRows() {
+        long droppedRows = 0;
+        for (Segment segment : segments) {
+            droppedRows += segment.overflow.getDroppedRows();
+        }
+        return droppedRows;
+    }
+
+    /**
+     * Waits for the writer thread to write all queued rows. Must only be called when the profiled step has finished.
+     * Does not close the {@link KettleStreamWriter} of the segments.
+     */
+    @Override
+    public void close() throws IOException {
+        closing = true;
+        if (writerThread.isAlive()) {
+            LockSupport.unpark(writerThread);
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the capture writer", e);
+            }
+        }
+        if (error != null) {
+            throw new IOException("Capture writer failed", error);
+        }
+    }
+
+    private void checkError() throws KettleStepException {
+        final Throwable e = error;
+        if (e != null) {
+            throw new KettleStepException("Capture writer failed", e);
+        }
+    }
+
+    /**
+     * The queue and row listener of one step copy.
+     */
+    private final class Segment extends RowAdapter {
+
+        private final KettleStreamSegmentWriter segmentWriter;
+        private final RowSampler sampler;
+        private final RowRingBuffer queue;
+        private final Overflow overflow;
+
+        Segment(KettleStreamSegmentWriter segmentWriter, RowSampler sampler, int queueSize) {
+            this.segmentWriter = segmentWriter;
+            this.sampler = sampler;
+            this.queue = new RowRingBuffer(queueSize);
+            this.overflow = new Overflow(options.getBackpressure(), options.getSampleInterval());
+        }
+
+        @Override
+        public void rowWrittenEvent(RowMetaInterface rowMeta, Object[] row) throws KettleStepException {
+            checkError();
+            if (sampler != null && !sampler.offer(rowMeta, row)) {
+                return;
+            }
+            if (queue.offer(rowMeta, row)) {
+                return;
+            }
+
+            if (overflow.drop()) {
+                return;
+            }
+            while (!queue.offer(rowMeta, row)) {
+                checkError();
+                LockSupport.parkNanos(FULL_PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Decides which rows that find the queue of a step copy full are dropped, following the
+     * {@link CaptureBackpressure} policy. The other rows wait for room in the queue. Called only by the thread of the
+     * step copy.
+     */
+    static final class Overflow {
+
+        private final CaptureBackpressure backpressure;
+        private final int sampleInterval;
+        private long overflowCount;
+        private volatile long droppedRows;
+
+        Overflow(CaptureBackpressure backpressure, int sampleInterval) {
+            this.backpressure = backpressure;
+            this.sampleInterval = sampleInterval;
+            this.overflowCount = 0;
+            this.droppedRows = 0;
+        }
+
+        /**
+         * @return true if the row that did not fit is dropped, false if it waits for room
+         */
+        boolean drop() {
+            switch (backpressure) {
+            case DROP:
+                droppedRows++;
+                return true;
+            case SAMPLE:
+                if (overflowCount++ % sampleInterval != 0) {
+                    droppedRows++;
+                    return true;
+                }
+                return false;
+            default:
+                return false;
+            }
+        }
+
+        long getDroppedRows() {
+            return droppedRows;
+        }
+    }
+}
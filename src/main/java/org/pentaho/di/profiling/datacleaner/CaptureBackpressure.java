@@ -0,0 +1,44 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.util.Arrays;
+
+/**
+ * What an asynchronous capture does with a row when the writer thread cannot keep up with the profiled step.
+ */
+public enum CaptureBackpressure {
+
+    /**
+     * Wait until there is room for the row. No rows are lost, but the step slows down to the speed of the writer.
+     */
+    BLOCK,
+
+    /**
+     * Drop the row and count it. The step never waits, the capture is incomplete under load.
+     */
+    DROP,
+
+    /**
+     * Wait for room for every n'th row and drop the rest, so that a capture made under load is still spread evenly
+     * over the data instead of having gaps.
+     */
+    SAMPLE;
+
+    /**
+     * @param name the policy name, case insensitive
+     * @param defaultValue the policy to use when the name is empty
+     * @return the policy
+     * @throws IllegalArgumentException if no policy with the name exists
+     */
+    public static CaptureBackpressure fromName(String name, CaptureBackpressure defaultValue) {
+        if (name == null || name.trim().isEmpty()) {
+            return defaultValue;
+        }
+        for (CaptureBackpressure backpressure : values()) {
+            if (backpressure.name().equalsIgnoreCase(name.trim())) {
+                return backpressure;
+            }
+        }
+        throw new IllegalArgumentException("No such capture backpressure policy: " + name + ". Available policies: "
+                + Arrays.toString(values()));
+    }
+}
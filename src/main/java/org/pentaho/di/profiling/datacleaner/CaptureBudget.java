@@ -0,0 +1,188 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+/**
+ * The capture row budgets of the steps profiled in one run of a transformation, see
+ * {@link CaptureOptions#getRowBudget()}. Once every step has captured its budget or has finished, the transformation
+ * is stopped, so its upstream steps don't run to completion for rows nobody captures.
+ * <p>
+ * A capture is marked truncated only if its step produced a row beyond the budget, or was still running when the
+ * transformation was stopped. A step that ends by itself with exactly the budget has a complete capture.
+ */
+final class CaptureBudget {
+
+    /**
+     * The time the steps that captured their budget get to end by themselves before the transformation is stopped,
+     * which tells a complete capture from a truncated one.
+     */
+    static final long STOP_GRACE_MILLIS = 100;
+
+    private final Runnable stopper;
+    private final LogChannelInterface log;
+    private final Object lock = new Object();
+    private final List<Step> steps = new ArrayList<>();
+    private boolean stopIssued;
+
+    /**
+     * @param stopper stops the transformation
+     * @param log
+     */
+    CaptureBudget(Runnable stopper, LogChannelInterface log) {
+        this.stopper = stopper;
+        this.log = log;
+    }
+
+    /**
+     * @param stepName
+     * @param rowBudget the number of rows to capture of the step
+     * @param stepRunning tells if a copy of the step is still running
+     * @return the budget of the step
+     */
+    Step register(String stepName, long rowBudget, BooleanSupplier stepRunning) {
+        final Step step = new Step(stepName, rowBudget, stepRunning);
+        synchronized (lock) {
+            steps.add(step);
+        }
+        return step;
+    }
+
+    boolean isStopIssued() {
+        synchronized (lock) {
+            return stopIssued;
+        }
+    }
+
+    /**
+     * Stops the transformation if every step has captured its budget or has finished, and at least one of them
+     * captured its budget.
+     */
+    private void checkStop() {
+        final List<Step> budgetedSteps = new ArrayList<>();
+        synchronized (lock) {
+            if (stopIssued) {
+                return;
+            }
+            for (Step step : steps) {
+                if (step.budgetReached) {
+                    budgetedSteps.add(step);
+                } else if (step.stepRunning.getAsBoolean()) {
+                    return;
+                }
+            }
+            if (budgetedSteps.isEmpty()) {
+                return;
+            }
+            stopIssued = true;
+        }
+
+        // not on the thread of a step, stopping waits for the steps
+        final Thread stopThread = new Thread("DataCleaner capture budget") {
+            @Override
+            public void run() {
+                final long deadline = System.currentTimeMillis() + STOP_GRACE_MILLIS;
+                while (isAnyRunning(budgetedSteps) && System.currentTimeMillis() < deadline) {
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+                for (Step step : budgetedSteps) {
+                    if (step.stepRunning.getAsBoolean()) {
+                        step.truncated = true;
+                    }
+                }
+                log.logMinimal("Stopping the transformation to profile, the capture row budget has been reached");
+                stopper.run();
+            }
+        };
+        stopThread.setDaemon(true);
+        stopThread.start();
+    }
+
+    private static boolean isAnyRunning(List<Step> budgetedSteps) {
+        for (Step step : budgetedSteps) {
+            if (!step.truncated && step.stepRunning.getAsBoolean()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The budget of one profiled step, shared by its copies.
+     */
+    final class Step {
+
+        private final String stepName;
+        private final long rowBudget;
+        private final BooleanSupplier stepRunning;
+        private final AtomicLong rows = new AtomicLong();
+        private volatile boolean budgetReached;
+        private volatile boolean truncated;
+
+        private Step(String stepName, long rowBudget, BooleanSupplier stepRunning) {
+            this.stepName = stepName;
+            this.rowBudget = rowBudget;
+            this.stepRunning = stepRunning;
+        }
+
+        /**
+         * Called by a step copy for every row it produces. Every row gets a number of its own, also when several
+         * copies produce rows at the same time.
+         *
+         * @return the number of the row within the step, starting at 1
+         */
+        long nextRow() {
+            final long rowNumber = rows.incrementAndGet();
+            if (rowNumber > rowBudget) {
+                truncated = true;
+            }
+            return rowNumber;
+        }
+
+        /**
+         * @param rowNumber a number returned by {@link #nextRow()}
+         * @return true to capture the row, false if it is beyond the budget
+         */
+        boolean isWithinBudget(long rowNumber) {
+            return rowNumber <= rowBudget;
+        }
+
+        /**
+         * Called by a step copy after it captured a row. The copy that captured the last row of the budget stops the
+         * transformation, whatever the other copies did in the meantime.
+         *
+         * @param rowNumber the number of the captured row, returned by {@link #nextRow()}
+         */
+        void rowCaptured(long rowNumber) {
+            if (rowNumber != rowBudget) {
+                return;
+            }
+            budgetReached = true;
+            log.logBasic("Captured the budget of " + rowBudget + " rows of step " + stepName);
+            checkStop();
+        }
+
+        /**
+         * Called when a copy of the step has finished, to stop the transformation if only the steps that captured
+         * their budget are left.
+         */
+        void stepFinished() {
+            checkStop();
+        }
+
+        /**
+         * @return true if the step had more rows than the budget
+         */
+        boolean isTruncated() {
+            return truncated;
+        }
+    }
+}
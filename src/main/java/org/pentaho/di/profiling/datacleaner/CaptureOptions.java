@@ -0,0 +1,263 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.variables.VariableSpace;
+import org.pentaho.di.profiling.datacleaner.codec.CaptureCodec;
+import org.pentaho.di.profiling.datacleaner.codec.CaptureCodecs;
+import org.pentaho.di.profiling.datacleaner.sampling.SamplingPolicies;
+import org.pentaho.di.profiling.datacleaner.sampling.SamplingPolicy;
+
+/**
+ * Options for capturing the rows of a profiled step, see {@link DataCleanerKettleFileWriter}. The options can be set
+ * with variables on the transformation, see {@link #fromVariables(VariableSpace)}.
+ */
+public class CaptureOptions {
+
+    /**
+     * Variable with the name of the {@link CaptureCodec} to compress the capture with, see {@link CaptureCodecs}.
+     */
+    public static final String VARIABLE_CODEC = "DATACLEANER_CAPTURE_CODEC";
+
+    /**
+     * Variable to turn asynchronous capture on ("Y") or off ("N").
+     */
+    public static final String VARIABLE_ASYNC = "DATACLEANER_CAPTURE_ASYNC";
+
+    /**
+     * Variable with the number of rows that can be queued per step copy in asynchronous mode.
+     */
+    public static final String VARIABLE_QUEUE_SIZE = "DATACLEANER_CAPTURE_QUEUE_SIZE";
+
+    /**
+     * Variable with the {@link CaptureBackpressure} policy for asynchronous mode.
+     */
+    public static final String VARIABLE_BACKPRESSURE = "DATACLEANER_CAPTURE_BACKPRESSURE";
+
+    /**
+     * Variable with the interval of the {@link CaptureBackpressure#SAMPLE} policy.
+     */
+    public static final String VARIABLE_SAMPLE_INTERVAL = "DATACLEANER_CAPTURE_SAMPLE_INTERVAL";
+
+    /**
+     * Variable with the name of the sampling policy: "none", "first", "bernoulli" or "reservoir", see
+     * {@link SamplingPolicies}.
+     */
+    public static final String VARIABLE_SAMPLING = "DATACLEANER_CAPTURE_SAMPLING";
+
+    /**
+     * Variable with the number of rows to capture for the "first" and "reservoir" sampling policies.
+     */
+    public static final String VARIABLE_SAMPLE_SIZE = "DATACLEANER_CAPTURE_SAMPLE_SIZE";
+
+    /**
+     * Variable with the sampling rate (0-1) for the "bernoulli" sampling policy.
+     */
+    public static final String VARIABLE_SAMPLE_RATE = "DATACLEANER_CAPTURE_SAMPLE_RATE";
+
+    /**
+     * Variable with the seed for sampling, to reproduce a previous sample. A random seed is used if not set.
+     */
+    public static final String VARIABLE_SAMPLE_SEED = "DATACLEANER_CAPTURE_SAMPLE_SEED";
+
+    /**
+     * Variable to turn streaming on ("Y") or off ("N"). When streaming, DataCleaner is started as soon as the capture
+     * header has been written and reads the rows while they are being captured.
+     */
+    public static final String VARIABLE_STREAMING = "DATACLEANER_CAPTURE_STREAMING";
+
+    /**
+     * Variable with the number of milliseconds a streaming reader waits for more data before it assumes the capture
+     * has been abandoned.
+     */
+    public static final String VARIABLE_STREAMING_TIMEOUT = "DATACLEANER_CAPTURE_STREAMING_TIMEOUT";
+
+    /**
+     * Variable with the maximum number of rows of the step to capture. Once the profiled steps have produced that many
+     * rows, the transformation is stopped. Not set or 0 means no limit.
+     */
+    public static final String VARIABLE_ROW_BUDGET = "DATACLEANER_CAPTURE_ROW_BUDGET";
+
+    /**
+     * Variable to turn the per column sketches (counts, minimum and maximum, string lengths and distinct count) of the
+     * captured rows on ("Y") or off ("N", the default). They are stored with the capture, see
+     * {@link KettleDataContext#getCaptureSketch()}. Unless the capture is asynchronous, the sketches are computed on
+     * the threads of the profiled steps.
+     */
+    public static final String VARIABLE_SKETCHES = "DATACLEANER_CAPTURE_SKETCHES";
+
+    public static final int DEFAULT_QUEUE_SIZE = 8192;
+    public static final long DEFAULT_SAMPLE_SIZE = 100000;
+    public static final double DEFAULT_SAMPLE_RATE = 0.01;
+    public static final int DEFAULT_SAMPLE_INTERVAL = 10;
+    public static final long DEFAULT_STREAMING_TIMEOUT = 60000;
+
+    private CaptureCodec codec;
+    private boolean async;
+    private int queueSize;
+    private CaptureBackpressure backpressure;
+    private int sampleInterval;
+    private SamplingPolicy samplingPolicy;
+    private boolean streaming;
+    private long streamingTimeout;
+    private long rowBudget;
+    private boolean sketching;
+
+    public CaptureOptions() {
+        codec = CaptureCodecs.getCodec(CaptureCodecs.DEFAULT_CODEC);
+        async = false;
+        queueSize = DEFAULT_QUEUE_SIZE;
+        backpressure = CaptureBackpressure.BLOCK;
+        sampleInterval = DEFAULT_SAMPLE_INTERVAL;
+        samplingPolicy = null;
+        streaming = false;
+        streamingTimeout = DEFAULT_STREAMING_TIMEOUT;
+        rowBudget = 0;
+        sketching = false;
+    }
+
+    /**
+     * Creates options from the capture variables, using defaults for the variables that are not set.
+     *
+     * @param space the variables, typically the transformation being profiled
+     * @return
+     * @throws IllegalArgumentException if a codec, backpressure policy or sampling policy does not exist
+     */
+    public static CaptureOptions fromVariables(VariableSpace space) {
+        final CaptureOptions options = new CaptureOptions();
+        options.setCodec(CaptureCodecs.getCodec(Const.NVL(space.getVariable(VARIABLE_CODEC),
+                CaptureCodecs.DEFAULT_CODEC)));
+        options.setAsync(space.getBooleanValueOfVariable("${" + VARIABLE_ASYNC + "}", false));
+        options.setQueueSize(Const.toInt(space.getVariable(VARIABLE_QUEUE_SIZE), DEFAULT_QUEUE_SIZE));
+        options.setBackpressure(CaptureBackpressure.fromName(space.getVariable(VARIABLE_BACKPRESSURE),
+                CaptureBackpressure.BLOCK));
+        options.setSampleInterval(Const.toInt(space.getVariable(VARIABLE_SAMPLE_INTERVAL), DEFAULT_SAMPLE_INTERVAL));
+        options.setSamplingPolicy(SamplingPolicies.create(space.getVariable(VARIABLE_SAMPLING),
+                Const.toLong(space.getVariable(VARIABLE_SAMPLE_SIZE), DEFAULT_SAMPLE_SIZE),
+                Const.toDouble(space.getVariable(VARIABLE_SAMPLE_RATE), DEFAULT_SAMPLE_RATE),
+                Const.toLong(space.getVariable(VARIABLE_SAMPLE_SEED), System.nanoTime())));
+        options.setStreaming(space.getBooleanValueOfVariable("${" + VARIABLE_STREAMING + "}", false));
+        options.setStreamingTimeout(
+                Const.toLong(space.getVariable(VARIABLE_STREAMING_TIMEOUT), DEFAULT_STREAMING_TIMEOUT));
+        options.setRowBudget(Const.toLong(space.getVariable(VARIABLE_ROW_BUDGET), 0));
+        options.setSketching(space.getBooleanValueOfVariable("${" + VARIABLE_SKETCHES + "}", false));
+        return options;
+    }
+
+    public CaptureCodec getCodec() {
+        return codec;
+    }
+
+    public void setCodec(CaptureCodec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * @return true if rows are handed to a writer thread instead of being written on the thread of the step
+     */
+    public boolean isAsync() {
+        return async;
+    }
+
+    public void setAsync(boolean async) {
+        this.async = async;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+        if (queueSize < 1) {
+            throw new IllegalArgumentException("Queue size must be positive: " + queueSize);
+        }
+        this.queueSize = queueSize;
+    }
+
+    public CaptureBackpressure getBackpressure() {
+        return backpressure;
+    }
+
+    public void setBackpressure(CaptureBackpressure backpressure) {
+        this.backpressure = backpressure;
+    }
+
+    public int getSampleInterval() {
+        return sampleInterval;
+    }
+
+    public void setSampleInterval(int sampleInterval) {
+        if (sampleInterval < 1) {
+            throw new IllegalArgumentException("Sample interval must be positive: " + sampleInterval);
+        }
+        this.sampleInterval = sampleInterval;
+    }
+
+    /**
+     * @return the policy for capturing a sample of the rows, or null to capture all rows
+     */
+    public SamplingPolicy getSamplingPolicy() {
+        return samplingPolicy;
+    }
+
+    public void setSamplingPolicy(SamplingPolicy samplingPolicy) {
+        this.samplingPolicy = samplingPolicy;
+    }
+
+    /**
+     * @return true if DataCleaner reads the capture while it is being written
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * @return the number of milliseconds a streaming reader waits for more data
+     */
+    public long getStreamingTimeout() {
+        return streamingTimeout;
+    }
+
+    public void setStreamingTimeout(long streamingTimeout) {
+        if (streamingTimeout < 1) {
+            throw new IllegalArgumentException("Streaming timeout must be positive: " + streamingTimeout);
+        }
+        this.streamingTimeout = streamingTimeout;
+    }
+
+    /**
+     * @return the number of rows of the step after which the transformation is stopped, or 0 for no limit
+     */
+    public long getRowBudget() {
+        return rowBudget;
+    }
+
+    public void setRowBudget(long rowBudget) {
+        if (rowBudget < 0) {
+            throw new IllegalArgumentException("Row budget cannot be negative: " + rowBudget);
+        }
+        this.rowBudget = rowBudget;
+    }
+
+    /**
+     * @return true if the per column sketches of the captured rows are computed and stored with the capture
+     */
+    public boolean isSketching() {
+        return sketching;
+    }
+
+    public void setSketching(boolean sketching) {
+        this.sketching = sketching;
+    }
+
+    @Override
+    public String toString() {
+        return "CaptureOptions[codec=" + codec.getName() + ",async=" + async + ",queueSize=" + queueSize
+                + ",backpressure=" + backpressure + ",sampleInterval=" + sampleInterval + ",samplingPolicy="
+                + samplingPolicy + ",streaming=" + streaming + ",streamingTimeout=" + streamingTimeout + ",rowBudget="
+                + rowBudget + ",sketching=" + sketching + "]";
+    }
+}
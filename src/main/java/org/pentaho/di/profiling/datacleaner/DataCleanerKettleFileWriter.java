@@ -1,45 +1,106 @@
 package org.pentaho.di.profiling.datacleaner;
 
-import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.vfs2.FileObject;
-import org.pentaho.di.core.exception.KettleFileException;
+import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettleStepException;
 import org.pentaho.di.core.logging.LogChannelInterface;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.vfs.KettleVFS;
+import org.pentaho.di.profiling.datacleaner.codec.CaptureCodec;
+import org.pentaho.di.profiling.datacleaner.sampling.RowSampler;
+import org.pentaho.di.profiling.datacleaner.sampling.SamplingPolicy;
 import org.pentaho.di.trans.Trans;
 import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.step.RowAdapter;
+import org.pentaho.di.trans.step.RowListener;
 import org.pentaho.di.trans.step.StepInterface;
+import org.pentaho.di.trans.step.StepListener;
 import org.pentaho.di.trans.step.StepMeta;
 
 public class DataCleanerKettleFileWriter extends RowAdapter {
 
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
     private TransMeta transMeta;
     private StepMeta stepMeta;
 
-    private DataOutputStream outputStream;
+    private KettleStreamWriter streamWriter;
+    private AsyncCaptureWriter asyncWriter;
+    private final List<KettleStreamSegmentWriter> segmentWriters;
+    private final List<RowSampler> samplers;
+    private final List<StepInterface> steps;
+    private final Set<StepInterface> finishedSteps;
+    private CaptureBudget budget;
+    private CaptureBudget.Step stepBudget;
+    private long rowsSeen;
     private Trans trans;
     private LogChannelInterface log;
 
     private String filename;
+    private CaptureOptions options;
 
     public DataCleanerKettleFileWriter(Trans trans, StepMeta stepMeta) throws Exception {
         this.trans = trans;
         this.transMeta = trans.getTransMeta();
         this.stepMeta = stepMeta;
         this.log = trans.getLogChannel();
+        this.options = CaptureOptions.fromVariables(trans);
+        this.segmentWriters = new ArrayList<>();
+        this.samplers = new ArrayList<>();
+        this.steps = new ArrayList<>();
+        this.finishedSteps = Collections.newSetFromMap(new ConcurrentHashMap<StepInterface, Boolean>());
+        this.budget = new CaptureBudget(trans::stopAll, log);
+        this.rowsSeen = -1;
     }
 
+    /**
+     * Runs the transformation and captures the rows of the step, returning when the transformation has finished.
+     */
     public void run() throws Exception {
+        start();
+        waitUntilFinished();
+    }
+
+    /**
+     * Writes the capture header and starts the transformation, without waiting for it to finish. When streaming, the
+     * capture can be read as soon as this method returns.
+     */
+    public void start() throws Exception {
+        prepare();
+
+        // Now start the transformation...
+        //
+        trans.startThreads();
+        log.logBasic("Started the transformation to profile");
+    }
+
+    /**
+     * Writes the capture header and adds the row listeners to the step, without starting the transformation. To
+     * capture several steps in one run of the transformation, prepare a writer per step and then start the
+     * transformation once, see {@link #startAll(List)}.
+     */
+    public void prepare() throws Exception {
         final FileObject tempFile =
                 KettleVFS.createTempFile("datacleaner", ".kettlestream", System.getProperty("java.io.tmpdir"));
         filename = KettleVFS.getFilename(tempFile);
 
-        outputStream = new DataOutputStream(KettleVFS.getOutputStream(tempFile, false));
-        log.logBasic("DataCleaner temp file created: " + filename);
+        final CaptureCodec codec = options.getCodec();
+        streamWriter = new KettleStreamWriter(openOutputStream(tempFile), codec, KettleStreamFormat.DEFAULT_BLOCK_SIZE);
+        log.logBasic("DataCleaner temp file created: " + filename + " (compression: " + codec.getName() + ")");
 
         final RowMetaInterface rowMeta = transMeta.getStepFields(stepMeta);
 
@@ -48,52 +109,313 @@ public class DataCleanerKettleFileWriter extends RowAdapter {
         // Write the transformation name, the step name and the row metadata
         // first...
         //
-        outputStream.writeUTF(transMeta.getName());
-        log.logBasic("wrote the transformation name.");
+        if (options.isStreaming()) {
+            streamWriter.setStreaming(options.getStreamingTimeout());
+            log.logBasic("Streaming the capture to DataCleaner while the transformation runs");
+        }
+        streamWriter.setSketching(options.isSketching());
+        final SamplingPolicy samplingPolicy = options.getSamplingPolicy();
+        final Map<String, String> properties = new LinkedHashMap<>();
+        if (samplingPolicy != null) {
+            properties.putAll(samplingPolicy.getProperties());
+            log.logBasic("Capturing a sample: " + samplingPolicy.getDescription() + " (seed: "
+                    + samplingPolicy.getSeed() + ")");
+        }
+        final long rowBudget = options.getRowBudget();
+        if (rowBudget > 0) {
+            properties.put(KettleStreamFormat.PROPERTY_ROW_BUDGET, Long.toString(rowBudget));
+            log.logBasic("Stopping the transformation after " + rowBudget + " rows of step " + stepMeta.getName());
+        }
+        streamWriter.writeHeader(transMeta.getName(), stepMeta.getName(), rowMeta, properties);
+        log.logBasic("Wrote the header (transformation name, step name and row metadata)");
 
-        outputStream.writeUTF(stepMeta.getName());
-        log.logBasic("wrote the step name.");
+        // Add a row listener to every copy of the selected step. Each copy gets its own segment writer, so the copies
+        // don't have to wait for each other while serializing and compressing rows. In asynchronous mode the copies
+        // only queue the rows, and a writer thread takes care of the rest...
+        //
+        if (options.isAsync()) {
+            asyncWriter = new AsyncCaptureWriter(options);
+            log.logBasic("Capturing asynchronously (queue size: " + options.getQueueSize() + ", backpressure: "
+                    + options.getBackpressure() + ")");
+        }
+        steps.addAll(trans.findBaseSteps(stepMeta.getName()));
+        stepBudget = budget.register(stepMeta.getName(), rowBudget > 0 ? rowBudget : Long.MAX_VALUE,
+                this::isStepRunning);
+        for (StepInterface step : steps) {
+            final KettleStreamSegmentWriter segmentWriter = streamWriter.createSegmentWriter(step.getCopy());
+            final RowSampler sampler = samplingPolicy == null ? null : samplingPolicy.createSampler(step.getCopy());
+            segmentWriters.add(segmentWriter);
+            samplers.add(sampler);
+            RowListener rowListener;
+            if (asyncWriter == null) {
+                rowListener = new StepCopyRowListener(segmentWriter, sampler);
+            } else {
+                rowListener = asyncWriter.createRowListener(segmentWriter, sampler);
+            }
+            if (rowBudget > 0) {
+                rowListener = new BudgetRowListener(rowListener);
+            }
+            step.addRowListener(rowListener);
+            step.addStepListener(new StepListener() {
+                @Override
+                public void stepActive(Trans trans, StepMeta stepMeta, StepInterface step) {
+                }
 
-        rowMeta.writeMeta(outputStream);
-        log.logBasic("Wrote the row metadata");
+                @Override
+                public void stepFinished(Trans trans, StepMeta stepMeta, StepInterface step) {
+                    finishedSteps.add(step);
+                    stepBudget.stepFinished();
+                }
+            });
+            log.logBasic("Added the row listener to step: " + step.toString());
+        }
+        if (asyncWriter != null) {
+            asyncWriter.start();
+        }
+    }
 
-        // Add a row listener to the selected step...
-        //
-        List<StepInterface> steps = trans.findBaseSteps(stepMeta.getName());
+    /**
+     * Prepares writers for several steps of the same transformation and starts the transformation once, so that all
+     * steps are captured in a single run.
+     *
+     * @param writers the writers, all created with the same {@link Trans}
+     */
+    public static void startAll(List<DataCleanerKettleFileWriter> writers) throws Exception {
+        final Trans trans = writers.get(0).trans;
+        for (DataCleanerKettleFileWriter writer : writers) {
+            if (writer.trans != trans) {
+                throw new IllegalArgumentException(
+                        "Writers of different transformation runs can't be started together");
+            }
+            writer.budget = writers.get(0).budget;
+            writer.prepare();
+        }
+        trans.startThreads();
+        writers.get(0).log.logBasic("Started the transformation to profile " + writers.size() + " steps");
+    }
 
-        // Just do one step copy for the time being...
-        //
-        final StepInterface step = steps.get(0);
+    /**
+     * Runs the transformation and captures the rows of several of its steps, returning when the transformation has
+     * finished.
+     *
+     * @param writers the writers, all created with the same {@link Trans}
+     */
+    public static void runAll(List<DataCleanerKettleFileWriter> writers) throws Exception {
+        startAll(writers);
+        writers.get(0).waitUntilFinished();
+    }
 
-        step.addRowListener(this);
-        log.logBasic("Added the row listener to step: " + step.toString());
+    private boolean isStepRunning() {
+        for (StepInterface step : steps) {
+            if (!finishedSteps.contains(step) && step.isRunning()) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        // Now start the transformation...
-        //
-        trans.startThreads();
-        log.logBasic("Started the transformation to profile... waiting until the transformation has finished");
+    /**
+     * Opens the capture file for writing. Local files are written through a file channel with a large direct buffer,
+     * other VFS targets through a buffered VFS stream.
+     */
+    private OutputStream openOutputStream(FileObject file) throws IOException, KettleException {
+        if ("file".equals(file.getName().getScheme())) {
+            final FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            return new FileChannelOutputStream(channel, FileChannelOutputStream.DEFAULT_BUFFER_SIZE);
+        }
+        return new BufferedOutputStream(KettleVFS.getOutputStream(file, false), OUTPUT_BUFFER_SIZE);
+    }
+
+    /**
+     * Waits until the transformation started by {@link #start()} has finished.
+     */
+    public void waitUntilFinished() {
+        log.logBasic("Waiting until the transformation to profile has finished");
 
         trans.waitUntilFinished();
 
         log.logBasic("The transformation to profile finished.");
     }
 
+    public StepMeta getStepMeta() {
+        return stepMeta;
+    }
+
     public String getFilename() {
         return filename;
     }
 
+    public CaptureCodec getCodec() {
+        return options.getCodec();
+    }
+
+    /**
+     * Sets the codec to compress the capture with. Must be called before {@link #run()}.
+     *
+     * @param codec
+     */
+    public void setCodec(CaptureCodec codec) {
+        options.setCodec(codec);
+    }
+
+    /**
+     * @return the policy the capture was sampled with, or null if all rows were captured
+     */
+    public SamplingPolicy getSamplingPolicy() {
+        return options.getSamplingPolicy();
+    }
+
+    /**
+     * @return the number of rows the profiled step produced, available after {@link #close()}. When sampling this is
+     *         more than the number of captured rows.
+     */
+    public long getRowsSeen() {
+        return rowsSeen;
+    }
+
+    /**
+     * @return the number of rows in the capture, available after {@link #close()}
+     */
+    public long getRowsCaptured() {
+        return streamWriter == null ? 0 : streamWriter.getRowCount();
+    }
+
+    /**
+     * @return true if the transformation was stopped at the row budget, so the capture holds only the first rows of
+     *         the step
+     */
+    public boolean isTruncated() {
+        return stepBudget != null && stepBudget.isTruncated();
+    }
+
+    public boolean isStreaming() {
+        return options.isStreaming();
+    }
+
+    public CaptureOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * Sets the capture options. Must be called before {@link #run()}.
+     *
+     * @param options
+     */
+    public void setOptions(CaptureOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * Writes a row to the default segment of the capture. Only suitable when rows arrive from a single thread, the
+     * listeners added by {@link #run()} write each step copy to a segment of its own.
+     */
     @Override
     public void rowWrittenEvent(RowMetaInterface rowMeta, Object[] row) throws KettleStepException {
         try {
-            rowMeta.writeData(outputStream, row);
-        } catch (KettleFileException e) {
+            streamWriter.writeRow(rowMeta, row);
+        } catch (IOException | KettleException e) {
             throw new KettleStepException(e);
         }
     }
 
     public void close() throws Exception {
-        outputStream.flush();
-        outputStream.close();
+        if (asyncWriter != null) {
+            try {
+                asyncWriter.close();
+            } finally {
+                log.logBasic("Asynchronous capture queue high-water mark: " + asyncWriter.getHighWaterMark() + " of "
+                        + asyncWriter.getQueueCapacity() + " rows per step copy");
+                final long droppedRows = asyncWriter.getDroppedRows();
+                if (droppedRows > 0) {
+                    log.logMinimal("Dropped " + droppedRows + " rows because the capture writer could not keep up ("
+                            + options.getBackpressure() + " backpressure), the profile is based on a partial capture");
+                }
+            }
+        }
+        if (streamWriter != null) {
+            if (isTruncated()) {
+                streamWriter.setFooterProperty(KettleStreamFormat.PROPERTY_TRUNCATED, "true");
+            }
+            writeSample();
+            streamWriter.close();
+            if (rowsSeen == -1) {
+                rowsSeen = streamWriter.getRowCount();
+            }
+            log.logBasic("Wrote " + streamWriter.getRowCount() + " rows to: " + filename + " ("
+                    + streamWriter.getUncompressedBytes() + " bytes of row data stored in "
+                    + streamWriter.getWrittenBytes() + " bytes)");
+        }
     }
 
+    /**
+     * Writes the rows held back by the samplers and records the number of rows the step produced.
+     */
+    private void writeSample() throws IOException, KettleException {
+        final SamplingPolicy samplingPolicy = options.getSamplingPolicy();
+        if (samplingPolicy == null || samplers.isEmpty()) {
+            return;
+        }
+        final List<List<Object[]>> retainedRows = samplingPolicy.selectRetainedRows(samplers);
+        rowsSeen = 0;
+        for (int i = 0; i < samplers.size(); i++) {
+            final RowSampler sampler = samplers.get(i);
+            rowsSeen += sampler.getRowsSeen();
+            for (Object[] row : retainedRows.get(i)) {
+                segmentWriters.get(i).writeRow(sampler.getRowMeta(), row);
+            }
+        }
+        streamWriter.setFooterProperty(SamplingPolicy.PROPERTY_ROWS_SEEN, Long.toString(rowsSeen));
+        log.logBasic("Sampled " + streamWriter.getRowCount() + " of " + rowsSeen + " rows ("
+                + samplingPolicy.getDescription() + ")");
+    }
+
+    /**
+     * Passes the rows of one step copy on until the step as a whole has produced the row budget, see
+     * {@link CaptureBudget}.
+     */
+    private final class BudgetRowListener extends RowAdapter {
+
+        private final RowListener delegate;
+
+        BudgetRowListener(RowListener delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void rowWrittenEvent(RowMetaInterface rowMeta, Object[] row) throws KettleStepException {
+            final long rowNumber = stepBudget.nextRow();
+            if (!stepBudget.isWithinBudget(rowNumber)) {
+                return;
+            }
+            delegate.rowWrittenEvent(rowMeta, row);
+            stepBudget.rowCaptured(rowNumber);
+        }
+    }
+
+    /**
+     * Captures the rows of one step copy. Called only from the thread of that copy.
+     */
+    private static final class StepCopyRowListener extends RowAdapter {
+
+        private final KettleStreamSegmentWriter segmentWriter;
+        private final RowSampler sampler;
+
+        StepCopyRowListener(KettleStreamSegmentWriter segmentWriter, RowSampler sampler) {
+            this.segmentWriter = segmentWriter;
+            this.sampler = sampler;
+        }
+
+        @Override
+        public void rowWrittenEvent(RowMetaInterface rowMeta, Object[] row) throws KettleStepException {
+            if (sampler != null && !sampler.offer(rowMeta, row)) {
+                return;
+            }
+            try {
+                segmentWriter.writeRow(rowMeta, row);
+            } catch (IOException | KettleException e) {
+                throw new KettleStepException(e);
+            }
+        }
+    }
 }
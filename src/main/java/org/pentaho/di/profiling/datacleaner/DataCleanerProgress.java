@@ -0,0 +1,99 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The progress of a DataCleaner job, parsed from the log lines of the DataCleaner process, see {@link ProcessLog}.
+ * Progress lines are not written to the Kettle log one by one; the progress is logged as a summary instead, and the
+ * job entry reports the processed rows in its result.
+ */
+public final class DataCleanerProgress {
+
+    private static final Pattern ROWS_PROCESSED = Pattern.compile("(\\d[\\d,]*)\\s+rows?\\s+processed",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern TABLE = Pattern.compile("(?:table:?|progress of)\\s+'?([^\\s:']+)",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern COMPONENT_FINISHED = Pattern.compile(
+            "\\b(?:component|analyzer|transformer|filter)\\s+'?(.+?)'?\\s+(?:has\\s+)?(?:finished|completed)",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern JOB_FINISHED =
+            Pattern.compile("\\bjob\\s+(?:has\\s+)?(?:finished|completed|succeeded)", Pattern.CASE_INSENSITIVE);
+
+    private final Map<String, Long> rowsProcessed = new LinkedHashMap<>();
+    private final List<String> finishedComponents = new ArrayList<>();
+    private boolean jobFinished;
+
+    /**
+     * @param line a log line of DataCleaner
+     * @return true if the line reports progress, false if it is a normal line
+     */
+    synchronized boolean parse(String line) {
+        final Matcher rows = ROWS_PROCESSED.matcher(line);
+        if (rows.find()) {
+            final long count;
+            try {
+                count = Long.parseLong(rows.group(1).replace(",", ""));
+            } catch (NumberFormatException e) {
+                // too many digits for a row count
+                return false;
+            }
+            final Matcher table = TABLE.matcher(line);
+            final String tableName = table.find() ? table.group(1) : "";
+            final Long previous = rowsProcessed.get(tableName);
+            rowsProcessed.put(tableName, previous == null ? count : Math.max(previous, count));
+            return true;
+        }
+        final Matcher component = COMPONENT_FINISHED.matcher(line);
+        if (component.find()) {
+            finishedComponents.add(component.group(1));
+            return true;
+        }
+        if (JOB_FINISHED.matcher(line).find()) {
+            jobFinished = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of rows processed from all tables
+     */
+    public synchronized long getRowsProcessed() {
+        long total = 0;
+        for (Long count : rowsProcessed.values()) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * @param tableName
+     * @return the number of rows processed from the table
+     */
+    public synchronized long getRowsProcessed(String tableName) {
+        final Long count = rowsProcessed.get(tableName);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * @return the names of the components that have finished, in the order they finished
+     */
+    public synchronized List<String> getFinishedComponents() {
+        return new ArrayList<>(finishedComponents);
+    }
+
+    public synchronized boolean isJobFinished() {
+        return jobFinished;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return getRowsProcessed() + " rows processed, " + finishedComponents.size() + " components finished"
+                + (jobFinished ? ", job finished" : "");
+    }
+}
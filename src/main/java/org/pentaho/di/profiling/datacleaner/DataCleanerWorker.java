@@ -0,0 +1,205 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A long lived DataCleaner process that runs the jobs submitted by {@link DataCleanerWorkerClient}, so that the
+ * classpath scan, configuration parsing and JIT warm up are paid once instead of for every job. See
+ * {@link WorkerProtocol} for the protocol.
+ * <p>
+ * Jobs are run concurrently by {@link InProcessAnalysisRunner}, up to a maximum number at a time, further jobs wait for
+ * one to finish. Health checks are answered right away, also while jobs are waiting.
+ */
+public final class DataCleanerWorker {
+
+    private static final Logger logger = LoggerFactory.getLogger(DataCleanerWorker.class);
+
+    /**
+     * The time a connection has to send the token, so that unauthenticated connections don't hold a thread.
+     */
+    static final int AUTHENTICATION_TIMEOUT = 10000;
+
+    private final String token;
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+    private final Semaphore jobPermits;
+    private final AtomicInteger activeJobs;
+    private final AtomicInteger completedJobs;
+    private volatile boolean shutdown;
+
+    private DataCleanerWorker(String token, int maxConcurrentJobs) throws IOException {
+        this.token = token;
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        this.executor = Executors.newCachedThreadPool();
+        this.jobPermits = new Semaphore(maxConcurrentJobs);
+        this.activeJobs = new AtomicInteger();
+        this.completedJobs = new AtomicInteger();
+    }
+
+    /**
+     * @param args the maximum number of concurrent jobs, and optionally a configuration file to load before accepting
+     *            jobs
+     */
+    public static void main(String[] args) throws Exception {
+        final int maxConcurrentJobs =
+                args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        final BufferedReader stdin = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        final String token = stdin.readLine();
+        if (token == null) {
+            return;
+        }
+
+        if (args.length > 1 && new File(args[1]).exists()) {
+            // warm up: scan the classpath and parse the configuration the jobs will most likely use
+            InProcessAnalysisRunner
+                    .warmUp(new String(Files.readAllBytes(new File(args[1]).toPath()), StandardCharsets.UTF_8));
+        }
+
+        final DataCleanerWorker worker = new DataCleanerWorker(token, maxConcurrentJobs);
+
+        // the client keeps our standard input open for as long as it lives, or until it has shut us down
+        final Thread parentWatcher = new Thread("DataCleaner worker parent watcher") {
+            @Override
+            public void run() {
+                try {
+                    while (stdin.readLine() != null) {
+                        // nothing is sent after the token
+                    }
+                } catch (IOException e) {
+                    // the same as the end of the stream
+                }
+                if (!worker.shutdown) {
+                    System.exit(1);
+                }
+            }
+        };
+        parentWatcher.setDaemon(true);
+        parentWatcher.start();
+
+        System.out.println(WorkerProtocol.READY + " " + worker.serverSocket.getLocalPort());
+        System.out.flush();
+        worker.serve();
+        System.exit(0);
+    }
+
+    private void serve() throws InterruptedException {
+        while (!shutdown) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (!shutdown) {
+                    logger.error("Failed to accept a connection, the worker stops", e);
+                }
+                break;
+            }
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    handle(socket);
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket) {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            s.setSoTimeout(AUTHENTICATION_TIMEOUT);
+            if (!token.equals(WorkerProtocol.readString(in, WorkerProtocol.MAX_TOKEN_LENGTH))) {
+                logger.warn("Rejected a connection without a valid token");
+                return;
+            }
+            s.setSoTimeout(0);
+            final int command = in.readInt();
+            switch (command) {
+            case WorkerProtocol.PING:
+                out.writeInt(activeJobs.get());
+                out.writeInt(completedJobs.get());
+                break;
+            case WorkerProtocol.RUN:
+                run(in, out);
+                break;
+            case WorkerProtocol.SHUTDOWN:
+                shutdown = true;
+                out.writeInt(activeJobs.get());
+                serverSocket.close();
+                break;
+            default:
+                return;
+            }
+            out.flush();
+        } catch (SocketTimeoutException e) {
+            logger.warn("Closed a connection that did not authenticate in time");
+        } catch (SocketException e) {
+            // the client went away
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to handle a request", e);
+        }
+    }
+
+    private void run(DataInputStream in, DataOutputStream out) throws IOException {
+        final String confXml = WorkerProtocol.readString(in);
+        final String jobXml = WorkerProtocol.readString(in);
+        final String outputType = WorkerProtocol.readString(in);
+        final String outputFilename = WorkerProtocol.readString(in);
+        final int maxThreads = in.readInt();
+
+        final StringBuilder log = new StringBuilder();
+        final Consumer<String> logConsumer = new Consumer<String>() {
+            @Override
+            public void accept(String message) {
+                log.append(message).append('\n');
+            }
+        };
+
+        int exitCode;
+        jobPermits.acquireUninterruptibly();
+        activeJobs.incrementAndGet();
+        try {
+            exitCode = InProcessAnalysisRunner.run(confXml, jobXml, outputType, outputFilename, maxThreads,
+                    logConsumer);
+        } catch (Throwable e) {
+            final StringWriter stackTrace = new StringWriter();
+            e.printStackTrace(new PrintWriter(stackTrace));
+            log.append(stackTrace);
+            exitCode = 1;
+        } finally {
+            activeJobs.decrementAndGet();
+            completedJobs.incrementAndGet();
+            jobPermits.release();
+        }
+
+        out.writeInt(exitCode);
+        WorkerProtocol.writeString(out, outputFilename == null ? null : new File(outputFilename).getAbsolutePath());
+        WorkerProtocol.writeString(out, log.toString());
+    }
+}
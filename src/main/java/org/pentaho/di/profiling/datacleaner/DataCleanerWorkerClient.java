@@ -0,0 +1,361 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.pentaho.di.core.logging.LogChannel;
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+/**
+ * Submits DataCleaner jobs to a long lived {@link DataCleanerWorker} process, which is shared by all job entries of
+ * the Kettle JVM that use the same DataCleaner installation.
+ * <p>
+ * The worker is started on first use. Before every job it is health checked, and a worker that crashed or stopped
+ * answering is replaced by a new one. After a maximum number of jobs the worker is recycled: it finishes the jobs it
+ * is running and exits, while new jobs go to a fresh worker.
+ */
+public final class DataCleanerWorkerClient {
+
+    public static final String LOGCHANNEL_NAME = "DataCleaner worker";
+
+    public static final int DEFAULT_MAX_JOBS = 100;
+
+    /**
+     * Referred to by name, the worker needs DataCleaner on the classpath, which the Kettle JVM does not have.
+     */
+    private static final String WORKER_CLASS_NAME = "org.pentaho.di.profiling.datacleaner.DataCleanerWorker";
+
+    private static final int CONNECT_TIMEOUT = 5000;
+    private static final int PING_TIMEOUT = 5000;
+
+    /**
+     * The time a new worker has to announce it is ready, which includes the warm up with the classpath scan.
+     */
+    private static final int READY_TIMEOUT = 120000;
+
+    private static final Map<String, DataCleanerWorkerClient> clients = new HashMap<>();
+
+    private final String classPath;
+    private final String dataCleanerHome;
+    private final String confFilename;
+    private final LogChannelInterface log;
+    private WorkerProcess worker;
+
+    private DataCleanerWorkerClient(String classPath, String dataCleanerHome, String confFilename) {
+        this.classPath = classPath;
+        this.dataCleanerHome = dataCleanerHome;
+        this.confFilename = confFilename;
+        this.log = new LogChannel(LOGCHANNEL_NAME);
+    }
+
+    /**
+     * @param classPath the classpath of the DataCleaner installation and the plugin
+     * @param dataCleanerHome the DATACLEANER_HOME of the worker
+     * @param confFilename the configuration to load when the worker starts, or null
+     * @return the client of the worker for the classpath
+     */
+    public static synchronized DataCleanerWorkerClient getInstance(String classPath, String dataCleanerHome,
+            String confFilename) {
+        DataCleanerWorkerClient client = clients.get(classPath);
+        if (client == null) {
+            client = new DataCleanerWorkerClient(classPath, dataCleanerHome, confFilename);
+            clients.put(classPath, client);
+        }
+        return client;
+    }
+
+    /**
+     * Runs a job on the worker and waits for it to finish.
+     *
+     * @param confXml the DataCleaner configuration, or null for an empty configuration
+     * @param jobXml the analysis job
+     * @param outputType the type of result to write
+     * @param outputFilename the file to write the result to
+     * @param maxThreads the number of threads the job may use
+     * @param maxJobs the number of jobs after which a worker is recycled
+     * @return the outcome of the job
+     * @throws IOException if the worker could not be started or crashed while running the job
+     */
+    public WorkerResult run(String confXml, String jobXml, String outputType, String outputFilename, int maxThreads,
+            int maxJobs) throws IOException {
+        WorkerProcess process = acquire(maxJobs);
+        try {
+            return process.run(confXml, jobXml, outputType, outputFilename, maxThreads);
+        } catch (ConnectException e) {
+            // the worker died between the health check and the job, which has not been submitted yet
+            log.logBasic("DataCleaner worker is not accepting jobs, restarting it");
+            process.destroy();
+            process = acquire(maxJobs);
+            return process.run(confXml, jobXml, outputType, outputFilename, maxThreads);
+        } catch (IOException e) {
+            if (!process.isAlive()) {
+                log.logError("DataCleaner worker crashed while running a job, it will be restarted for the next job");
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return a healthy worker, started, restarted or recycled as needed
+     */
+    private synchronized WorkerProcess acquire(int maxJobs) throws IOException {
+        if (worker != null && !worker.isHealthy()) {
+            log.logBasic("DataCleaner worker failed its health check, restarting it");
+            worker.destroy();
+            worker = null;
+        }
+        if (worker != null && worker.getJobCount() >= maxJobs) {
+            log.logBasic("DataCleaner worker ran " + worker.getJobCount() + " jobs, recycling it");
+            worker.retire();
+            worker = null;
+        }
+        if (worker == null) {
+            worker = WorkerProcess.start(classPath, dataCleanerHome, confFilename, log);
+        }
+        worker.incrementJobCount();
+        return worker;
+    }
+
+    /**
+     * The outcome of a job run on a worker.
+     */
+    public static final class WorkerResult {
+
+        private final int exitCode;
+        private final String outputFilename;
+        private final String log;
+
+        WorkerResult(int exitCode, String outputFilename, String log) {
+            this.exitCode = exitCode;
+            this.outputFilename = outputFilename;
+            this.log = log;
+        }
+
+        public int getExitCode() {
+            return exitCode;
+        }
+
+        /**
+         * @return the absolute path of the result file
+         */
+        public String getOutputFilename() {
+            return outputFilename;
+        }
+
+        /**
+         * @return the messages of the job
+         */
+        public String getLog() {
+            return log;
+        }
+    }
+
+    /**
+     * A worker process and the connections to it.
+     */
+    private static final class WorkerProcess {
+
+        private final Process process;
+        private final String token;
+        private final int port;
+        private final OutputStream stdin;
+        private int jobCount;
+
+        private WorkerProcess(Process process, String token, int port, OutputStream stdin) {
+            this.process = process;
+            this.token = token;
+            this.port = port;
+            this.stdin = stdin;
+        }
+
+        static WorkerProcess start(String classPath, String dataCleanerHome, String confFilename,
+                LogChannelInterface log) throws IOException {
+            final List<String> cmds = new ArrayList<>();
+            cmds.add(System.getProperty("java.home") + "/bin/java");
+            cmds.add("-cp");
+            cmds.add(classPath);
+            cmds.add(WORKER_CLASS_NAME);
+            cmds.add(Integer.toString(Runtime.getRuntime().availableProcessors()));
+            if (confFilename != null) {
+                cmds.add(confFilename);
+            }
+            log.logBasic("Starting DataCleaner worker: " + cmds);
+
+            final ProcessBuilder processBuilder = new ProcessBuilder(cmds);
+            processBuilder.environment().put("DATACLEANER_HOME", dataCleanerHome);
+            final Process process = processBuilder.start();
+
+            // the token is not passed on the command line, where other users could see it
+            final String token = UUID.randomUUID().toString();
+            final OutputStream stdin = process.getOutputStream();
+            stdin.write((token + "\n").getBytes(StandardCharsets.UTF_8));
+            stdin.flush();
+
+            final ProcessLog processLog = new ProcessLog(log,
+                    ProcessLog.createSpillFile(new File(dataCleanerHome, ProcessLog.SPILL_FOLDER), "worker"), null);
+            processLog.pump(process.getErrorStream(), true);
+
+            // read on a thread of its own, a worker that hangs must not block the callers of acquire()
+            final CompletableFuture<Integer> ready = new CompletableFuture<>();
+            final Thread readyReader = new Thread("DataCleaner worker startup") {
+                @Override
+                public void run() {
+                    try {
+                        String line;
+                        while ((line = WorkerProtocol.readLine(process.getInputStream())) != null) {
+                            if (line.startsWith(WorkerProtocol.READY + " ")) {
+                                final int port =
+                                        Integer.parseInt(line.substring(WorkerProtocol.READY.length() + 1).trim());
+                                processLog.pump(process.getInputStream(), false);
+                                ready.complete(port);
+                                return;
+                            }
+                            log.logBasic("DC: " + line);
+                        }
+                        ready.complete(null);
+                    } catch (IOException | RuntimeException e) {
+                        ready.completeExceptionally(e);
+                    }
+                }
+            };
+            readyReader.setDaemon(true);
+            readyReader.start();
+
+            final Integer port;
+            try {
+                port = ready.get(READY_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                process.destroyForcibly();
+                throw new IOException("DataCleaner worker was not ready within " + READY_TIMEOUT / 1000 + " seconds");
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the DataCleaner worker");
+            } catch (ExecutionException e) {
+                process.destroyForcibly();
+                throw new IOException("Failed to read the port of the DataCleaner worker", e.getCause());
+            }
+            if (port == null) {
+                process.destroy();
+                throw new IOException("DataCleaner worker exited before it was ready");
+            }
+            log.logBasic("DataCleaner worker listening on port " + port);
+            return new WorkerProcess(process, token, port, stdin);
+        }
+
+        int getJobCount() {
+            return jobCount;
+        }
+
+        void incrementJobCount() {
+            jobCount++;
+        }
+
+        boolean isAlive() {
+            return process.isAlive();
+        }
+
+        boolean isHealthy() {
+            if (!isAlive()) {
+                return false;
+            }
+            try (Socket socket = connect()) {
+                socket.setSoTimeout(PING_TIMEOUT);
+                final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                WorkerProtocol.writeString(out, token);
+                out.writeInt(WorkerProtocol.PING);
+                out.flush();
+                final DataInputStream in = new DataInputStream(socket.getInputStream());
+                in.readInt();
+                in.readInt();
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        WorkerResult run(String confXml, String jobXml, String outputType, String outputFilename, int maxThreads)
+                throws IOException {
+            try (Socket socket = connect()) {
+                final DataOutputStream out =
+                        new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                WorkerProtocol.writeString(out, token);
+                out.writeInt(WorkerProtocol.RUN);
+                WorkerProtocol.writeString(out, confXml);
+                WorkerProtocol.writeString(out, jobXml);
+                WorkerProtocol.writeString(out, outputType);
+                WorkerProtocol.writeString(out, outputFilename);
+                out.writeInt(maxThreads);
+                out.flush();
+
+                final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                final int exitCode = in.readInt();
+                final String resultFilename = WorkerProtocol.readString(in);
+                final String log = WorkerProtocol.readString(in);
+                return new WorkerResult(exitCode, resultFilename, log);
+            }
+        }
+
+        /**
+         * Lets the worker finish its jobs and exit. Its standard input is closed once it has acknowledged the
+         * shutdown, which it then no longer takes for the death of this process.
+         */
+        void retire() {
+            try (Socket socket = connect()) {
+                final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                WorkerProtocol.writeString(out, token);
+                out.writeInt(WorkerProtocol.SHUTDOWN);
+                out.flush();
+                new DataInputStream(socket.getInputStream()).readInt();
+            } catch (IOException e) {
+                destroy();
+                return;
+            }
+            closeStdin();
+        }
+
+        void destroy() {
+            closeStdin();
+            process.destroy();
+        }
+
+        private void closeStdin() {
+            try {
+                stdin.close();
+            } catch (IOException e) {
+                // do nothing
+            }
+        }
+
+        private Socket connect() throws IOException {
+            final Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+            return socket;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The components of a DataCleaner installation, listed once so that DataCleaner and the job builder in Spoon load
+ * their descriptors by class name instead of scanning thousands of classes on every start, see
+ * {@link IndexedDescriptorProvider}.
+ * <p>
+ * The index file is kept in the plugin folder. Its name contains a hash of the names, sizes and modification times of
+ * the jars that are scanned, the jar of this plugin included, so upgrading DataCleaner or the plugin or adding an
+ * extension leads to a new index. Every line holds the kind of component and its class name, separated by a space.
+ */
+final class DescriptorIndex {
+
+    /**
+     * The packages that are scanned to build the index.
+     */
+    static final String[] PACKAGES = { "org.datacleaner", "com.hi", "com.neopost" };
+
+    static final String ANALYZER = "analyzer";
+    static final String TRANSFORMER = "transformer";
+    static final String FILTER = "filter";
+    static final String RENDERER = "renderer";
+
+    private static final String FILENAME_PREFIX = "descriptor-index-";
+    private static final String FILENAME_SUFFIX = ".txt";
+
+    private DescriptorIndex() {
+    }
+
+    /**
+     * @param folder the folder to keep the index in
+     * @param classPathFiles the jars and folders that are scanned for components
+     * @return the index file for the installation, which may not exist yet
+     */
+    static File getIndexFile(File folder, List<File> classPathFiles) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        for (File file : classPathFiles) {
+            final String entry = file.getAbsolutePath() + '|' + file.length() + '|' + file.lastModified() + '\n';
+            digest.update(entry.getBytes(StandardCharsets.UTF_8));
+        }
+        final StringBuilder key = new StringBuilder();
+        final byte[] hash = digest.digest();
+        for (int i = 0; i < 8; i++) {
+            key.append(String.format("%02x", hash[i]));
+        }
+        return new File(folder, FILENAME_PREFIX + key + FILENAME_SUFFIX);
+    }
+
+    /**
+     * Deletes the indexes of other, previously installed versions.
+     */
+    static void deleteStaleIndexFiles(final File indexFile) {
+        final File[] staleFiles = indexFile.getAbsoluteFile().getParentFile().listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                final String name = file.getName();
+                return name.startsWith(FILENAME_PREFIX) && name.endsWith(FILENAME_SUFFIX)
+                        && !name.equals(indexFile.getName());
+            }
+        });
+        if (staleFiles != null) {
+            for (File staleFile : staleFiles) {
+                staleFile.delete();
+            }
+        }
+    }
+
+    /**
+     * @return the class names of the index per kind of component
+     * @throws IOException
+     */
+    static Map<String, List<String>> read(File indexFile) throws IOException {
+        final Map<String, List<String>> classNames = new LinkedHashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(indexFile.toPath(), StandardCharsets.UTF_8)) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                final int separator = line.indexOf(' ');
+                if (separator == -1) {
+                    continue;
+                }
+                final String kind = line.substring(0, separator);
+                List<String> list = classNames.get(kind);
+                if (list == null) {
+                    list = new ArrayList<>();
+                    classNames.put(kind, list);
+                }
+                list.add(line.substring(separator + 1).trim());
+            }
+        }
+        return classNames;
+    }
+
+    /**
+     * Writes an index. The file is replaced at once, so a DataCleaner process starting at the same time reads either no
+     * index or a complete one.
+     *
+     * @param indexFile
+     * @param classNames the class names per kind of component
+     * @throws IOException
+     */
+    static void write(File indexFile, Map<String, List<String>> classNames) throws IOException {
+        final File tempFile =
+                File.createTempFile(FILENAME_PREFIX, ".tmp", indexFile.getAbsoluteFile().getParentFile());
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tempFile.toPath(), StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, List<String>> entry : classNames.entrySet()) {
+                    for (String className : entry.getValue()) {
+                        writer.write(entry.getKey());
+                        writer.write(' ');
+                        writer.write(className);
+                        writer.newLine();
+                    }
+                }
+            }
+            try {
+                Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            tempFile.delete();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a file through a {@link FileChannel} and a large direct buffer, so that the many small reads done while
+ * decoding rows are served from memory instead of being system calls. The file is not memory mapped: a mapping is
+ * only released when it is garbage collected, and keeps the file locked on Windows until then.
+ * <p>
+ * The stream reads up to the length the file had when the stream was created. It reads at explicit positions, so the
+ * position of the channel is left alone.
+ */
+final class FileChannelInputStream extends InputStream {
+
+    static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long length;
+    private final ByteBuffer buffer;
+
+    private long bufferOffset;
+    private long markPosition;
+
+    /**
+     * @param channel the channel of the file, closed when the stream is closed
+     * @param position the file position to start reading at
+     * @throws IOException
+     */
+    FileChannelInputStream(FileChannel channel, long position) throws IOException {
+        this(channel, position, DEFAULT_BUFFER_SIZE);
+    }
+
+    FileChannelInputStream(FileChannel channel, long position, int bufferSize) throws IOException {
+        this.channel = channel;
+        this.length = channel.size();
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.markPosition = position;
+        moveTo(position);
+    }
+
+    /**
+     * Empties the buffer, the next read fills it from the given position.
+     */
+    private void moveTo(long position) {
+        bufferOffset = position;
+        buffer.clear();
+        buffer.limit(0);
+    }
+
+    /**
+     * @return the file position of the next byte to read
+     */
+    public long getPosition() {
+        return bufferOffset + buffer.position();
+    }
+
+    /**
+     * Fills the buffer if it has been read.
+     *
+     * @return false at the end of the file
+     */
+    private boolean ensureAvailable() throws IOException {
+        if (buffer.hasRemaining()) {
+            return true;
+        }
+        final long position = getPosition();
+        if (position >= length) {
+            return false;
+        }
+        buffer.clear();
+        buffer.limit((int) Math.min(buffer.capacity(), length - position));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                // the file was truncated while reading it
+                break;
+            }
+        }
+        buffer.flip();
+        bufferOffset = position;
+        return buffer.hasRemaining();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining() && len >= buffer.capacity()) {
+            // no point in copying it through the buffer
+            final long position = getPosition();
+            final int count = channel.read(ByteBuffer.wrap(bytes, offset, (int) Math.min(len, length - position)),
+                    position);
+            if (count <= 0) {
+                return -1;
+            }
+            moveTo(position + count);
+            return count;
+        }
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        final int count = Math.min(len, buffer.remaining());
+        buffer.get(bytes, offset, count);
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        final long position = getPosition();
+        final long skipped = Math.max(0, Math.min(n, length - position));
+        if (skipped <= buffer.remaining()) {
+            buffer.position(buffer.position() + (int) skipped);
+        } else {
+            moveTo(position + skipped);
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, length - getPosition());
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        markPosition = getPosition();
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        if (markPosition >= bufferOffset && markPosition <= bufferOffset + buffer.limit()) {
+            buffer.position((int) (markPosition - bufferOffset));
+        } else {
+            moveTo(markPosition);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
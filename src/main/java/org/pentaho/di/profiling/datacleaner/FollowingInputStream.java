@@ -0,0 +1,95 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Follows a file that is still being written, like "tail -f". When the end of the file is reached, reading blocks
+ * until more data has been appended. The stream only ends when no data has been appended for the duration of the
+ * timeout, which means that the writer has gone away without finishing the file.
+ * <p>
+ * The underlying stream must return new data after it has reported the end of the file once, which is the case for
+ * streams reading from a {@link java.nio.channels.FileChannel}.
+ */
+final class FollowingInputStream extends FilterInputStream {
+
+    private static final long POLL_INTERVAL_MILLIS = 20;
+
+    private final long timeoutMillis;
+
+    /**
+     * @param in the stream to follow
+     * @param timeoutMillis how long to wait for more data before giving up
+     */
+    FollowingInputStream(InputStream in, long timeoutMillis) {
+        super(in);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final long start = System.currentTimeMillis();
+        while (true) {
+            final int b = in.read();
+            if (b != -1 || !awaitData(start)) {
+                return b;
+            }
+        }
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        final long start = System.currentTimeMillis();
+        while (true) {
+            final int count = in.read(buffer, offset, length);
+            if (count != -1 || !awaitData(start)) {
+                return count;
+            }
+        }
+    }
+
+    /**
+     * Waits a little for the writer to append data.
+     *
+     * @param start when the waiting started
+     * @return false if the timeout has passed
+     * @throws InterruptedIOException
+     */
+    private boolean awaitData(long start) throws InterruptedIOException {
+        if (System.currentTimeMillis() - start >= timeoutMillis) {
+            return false;
+        }
+        try {
+            Thread.sleep(POLL_INTERVAL_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for more data");
+        }
+        return true;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // reading makes sure that skipping waits for data as well
+        final byte[] buffer = new byte[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            final int count = read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+            if (count == -1) {
+                break;
+            }
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
@@ -0,0 +1,169 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.datacleaner.api.AnalyzerResult;
+import org.datacleaner.api.Renderer;
+import org.datacleaner.configuration.DataCleanerConfiguration;
+import org.datacleaner.configuration.DataCleanerConfigurationImpl;
+import org.datacleaner.configuration.DataCleanerEnvironment;
+import org.datacleaner.configuration.DataCleanerEnvironmentImpl;
+import org.datacleaner.configuration.JaxbConfigurationReader;
+import org.datacleaner.job.AnalysisJob;
+import org.datacleaner.job.ComponentJob;
+import org.datacleaner.job.JaxbJobReader;
+import org.datacleaner.job.concurrent.MultiThreadedTaskRunner;
+import org.datacleaner.job.runner.AnalysisResultFuture;
+import org.datacleaner.job.runner.AnalysisRunnerImpl;
+import org.datacleaner.result.SimpleAnalysisResult;
+import org.datacleaner.result.renderer.RendererFactory;
+import org.datacleaner.result.renderer.TextRenderingFormat;
+import org.datacleaner.util.LabelUtils;
+
+/**
+ * Runs an analysis job with DataCleaner's analysis runner in the JVM of Kettle, see {@link InProcessDataCleaner}.
+ * <p>
+ * This class is loaded by the isolated class loader of the DataCleaner installation, not by the class loader of the
+ * plugin, so {@link #run(String, String, String, String, int, Consumer)} only takes JDK types.
+ */
+public final class InProcessAnalysisRunner {
+
+    public static final String OUTPUT_TYPE_TEXT = "TEXT";
+    public static final String OUTPUT_TYPE_SERIALIZED = "SERIALIZED";
+
+    /**
+     * The number of parsed configurations kept, parsing one scans the classpath for components
+     */
+    private static final int MAX_CACHED_CONFIGURATIONS = 4;
+
+    private static final Map<String, DataCleanerConfiguration> configurations =
+            new LinkedHashMap<String, DataCleanerConfiguration>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, DataCleanerConfiguration> eldest) {
+                    return size() > MAX_CACHED_CONFIGURATIONS;
+                }
+            };
+
+    private InProcessAnalysisRunner() {
+    }
+
+    /**
+     * Parses a configuration ahead of the jobs that will use it.
+     *
+     * @param confXml
+     */
+    public static void warmUp(String confXml) {
+        getConfiguration(confXml);
+    }
+
+    /**
+     * Runs an analysis job and writes its result.
+     *
+     * @param confXml the DataCleaner configuration, or null for an empty configuration
+     * @param jobXml the analysis job
+     * @param outputType {@link #OUTPUT_TYPE_TEXT} or {@link #OUTPUT_TYPE_SERIALIZED}
+     * @param outputFilename the file to write the result to, or null to write a text result to the log
+     * @param maxThreads the number of threads the job may use
+     * @param log receives progress and the text result
+     * @return the exit code, 0 if the job succeeded
+     * @throws Exception
+     */
+    public static int run(String confXml, String jobXml, String outputType, String outputFilename, int maxThreads,
+            Consumer<String> log) throws Exception {
+        final MultiThreadedTaskRunner taskRunner = new MultiThreadedTaskRunner(maxThreads);
+        try {
+            final DataCleanerConfiguration configuration = createConfiguration(confXml, taskRunner);
+            final AnalysisJob job = new JaxbJobReader(configuration)
+                    .read(new ByteArrayInputStream(jobXml.getBytes(StandardCharsets.UTF_8)));
+
+            log.accept("Running DataCleaner job in process with " + maxThreads + " threads");
+            final AnalysisResultFuture resultFuture = new AnalysisRunnerImpl(configuration).run(job);
+            resultFuture.await();
+            if (resultFuture.isErrornous()) {
+                for (Throwable error : resultFuture.getErrors()) {
+                    log.accept("DataCleaner job failed: " + error);
+                }
+                return 1;
+            }
+
+            final Map<ComponentJob, AnalyzerResult> resultMap = resultFuture.getResultMap();
+            if (OUTPUT_TYPE_SERIALIZED.equals(outputType)) {
+                try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(outputFilename))) {
+                    out.writeObject(new SimpleAnalysisResult(resultMap));
+                }
+            } else if (outputFilename == null) {
+                final StringBuilder sb = new StringBuilder();
+                writeText(configuration, resultMap, sb);
+                log.accept(sb.toString());
+            } else {
+                try (Writer writer = new OutputStreamWriter(new FileOutputStream(outputFilename),
+                        StandardCharsets.UTF_8)) {
+                    writeText(configuration, resultMap, writer);
+                }
+            }
+            log.accept("DataCleaner job finished");
+            return 0;
+        } finally {
+            taskRunner.shutdown();
+        }
+    }
+
+    private static DataCleanerConfiguration createConfiguration(String confXml, MultiThreadedTaskRunner taskRunner) {
+        final DataCleanerConfiguration configuration = getConfiguration(confXml);
+
+        // the task runner of the configuration is replaced, the job gets the thread budget it was given
+        final DataCleanerEnvironment environment =
+                new DataCleanerEnvironmentImpl(configuration.getEnvironment()).withTaskRunner(taskRunner);
+        return new DataCleanerConfigurationImpl(environment, configuration.getHomeFolder(),
+                configuration.getDatastoreCatalog(), configuration.getReferenceDataCatalog());
+    }
+
+    /**
+     * @return the parsed configuration, from the cache if the same configuration was used recently
+     */
+    private static DataCleanerConfiguration getConfiguration(String confXml) {
+        if (confXml == null) {
+            return new DataCleanerConfigurationImpl();
+        }
+        synchronized (configurations) {
+            DataCleanerConfiguration configuration = configurations.get(confXml);
+            if (configuration == null) {
+                configuration = new JaxbConfigurationReader()
+                        .create(new ByteArrayInputStream(confXml.getBytes(StandardCharsets.UTF_8)));
+                configurations.put(confXml, configuration);
+            }
+            return configuration;
+        }
+    }
+
+    /**
+     * Writes the results like the text output of the DataCleaner command line.
+     */
+    private static void writeText(DataCleanerConfiguration configuration, Map<ComponentJob, AnalyzerResult> resultMap,
+            Appendable out) throws IOException {
+        final RendererFactory rendererFactory = new RendererFactory(configuration);
+        out.append("SUCCESS!\n");
+        for (Map.Entry<ComponentJob, AnalyzerResult> entry : resultMap.entrySet()) {
+            out.append("\nRESULT: ").append(LabelUtils.getLabel(entry.getKey())).append('\n');
+            final AnalyzerResult result = entry.getValue();
+            final Renderer<? super AnalyzerResult, ? extends CharSequence> renderer =
+                    rendererFactory.getRenderer(result, TextRenderingFormat.class);
+            if (renderer == null) {
+                out.append(result.toString()).append('\n');
+            } else {
+                out.append(renderer.render(result)).append('\n');
+            }
+        }
+    }
+}
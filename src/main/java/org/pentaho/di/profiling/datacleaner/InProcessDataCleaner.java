@@ -0,0 +1,155 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+/**
+ * Runs DataCleaner jobs in the JVM of Kettle instead of forking a DataCleaner process, which saves starting a JVM,
+ * scanning the classpath and warming up for every job.
+ * <p>
+ * DataCleaner is loaded from its installation by a class loader that does not delegate to the class loader of Kettle
+ * or the plugin, so its libraries can't conflict with the ones of Kettle. The class loader is kept for the next job
+ * with the same classpath, which then runs on classes that are already loaded and compiled. The job is handed to
+ * {@link InProcessAnalysisRunner}, inside the isolated class loader, as XML.
+ */
+public final class InProcessDataCleaner {
+
+    /**
+     * Loaded by name, it belongs to the isolated class loader and not to the one of this class.
+     */
+    private static final String RUNNER_CLASS_NAME = "org.pentaho.di.profiling.datacleaner.InProcessAnalysisRunner";
+
+    private static final String DESCRIPTOR_PROVIDER_CLASS_NAME =
+            "org.pentaho.di.profiling.datacleaner.IndexedDescriptorProvider";
+
+    private static final Map<String, URLClassLoader> classLoaders = new HashMap<>();
+
+    private InProcessDataCleaner() {
+    }
+
+    /**
+     * Runs an analysis job, see {@link InProcessAnalysisRunner#run(String, String, String, String, int, Consumer)}.
+     *
+     * @param classPath the classpath of the DataCleaner installation and the plugin, as used to fork DataCleaner
+     * @param confXml the DataCleaner configuration, or null for an empty configuration
+     * @param jobXml the analysis job
+     * @param outputType the type of result to write
+     * @param outputFilename the file to write the result to, or null to write a text result to the log
+     * @param maxThreads the number of threads the job may use
+     * @param log
+     * @return the exit code, 0 if the job succeeded
+     * @throws Exception
+     */
+    public static int run(String classPath, String confXml, String jobXml, String outputType, String outputFilename,
+            int maxThreads, final LogChannelInterface log) throws Exception {
+        final ClassLoader classLoader = getClassLoader(classPath);
+        final Method method = classLoader.loadClass(RUNNER_CLASS_NAME).getMethod("run",
+                String.class, String.class, String.class, String.class, int.class, Consumer.class);
+        final Consumer<String> logConsumer = new Consumer<String>() {
+            @Override
+            public void accept(String message) {
+                log.logBasic(message);
+            }
+        };
+
+        return (Integer) invoke(classLoader, method, confXml, jobXml, outputType, outputFilename, maxThreads,
+                logConsumer);
+    }
+
+    /**
+     * Scans the DataCleaner installation for components and writes a {@link DescriptorIndex}, see
+     * {@link IndexedDescriptorProvider#writeIndex(String)}.
+     *
+     * @param classPath the classpath of the DataCleaner installation and the plugin
+     * @param indexFile
+     * @throws Exception
+     */
+    public static void writeDescriptorIndex(String classPath, File indexFile) throws Exception {
+        final ClassLoader classLoader = getClassLoader(classPath);
+        final Method method =
+                classLoader.loadClass(DESCRIPTOR_PROVIDER_CLASS_NAME).getMethod("writeIndex", String.class);
+        invoke(classLoader, method, indexFile.getAbsolutePath());
+    }
+
+    private static Object invoke(ClassLoader classLoader, Method method, Object... args) throws Exception {
+        final Thread thread = Thread.currentThread();
+        final ClassLoader contextClassLoader = thread.getContextClassLoader();
+        thread.setContextClassLoader(classLoader);
+        try {
+            return method.invoke(null, args);
+        } catch (InvocationTargetException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        } finally {
+            thread.setContextClassLoader(contextClassLoader);
+        }
+    }
+
+    private static synchronized ClassLoader getClassLoader(String classPath) throws MalformedURLException {
+        URLClassLoader classLoader = classLoaders.get(classPath);
+        if (classLoader == null) {
+            final List<URL> urls = new ArrayList<>();
+            for (File file : getClassPathFiles(classPath)) {
+                urls.add(file.toURI().toURL());
+            }
+            // the parent of the system class loader only has the JDK classes
+            classLoader = new URLClassLoader(urls.toArray(new URL[urls.size()]),
+                    ClassLoader.getSystemClassLoader().getParent());
+            classLoaders.put(classPath, classLoader);
+        }
+        return classLoader;
+    }
+
+    /**
+     * Expands the wildcards of a classpath the way the java launcher does.
+     *
+     * @param classPath entries separated by {@link File#pathSeparator}, possibly ending with "*" for all jar files in
+     *            a folder
+     * @return the files on the classpath
+     */
+    static List<File> getClassPathFiles(String classPath) {
+        final List<File> files = new ArrayList<>();
+        for (String entry : classPath.split(File.pathSeparator)) {
+            if (entry.isEmpty()) {
+                continue;
+            }
+            if (entry.endsWith("*")) {
+                final File folder = new File(entry.substring(0, entry.length() - 1));
+                final File[] jarFiles = folder.listFiles(new FileFilter() {
+                    @Override
+                    public boolean accept(File file) {
+                        return file.isFile() && file.getName().toLowerCase().endsWith(".jar");
+                    }
+                });
+                if (jarFiles != null) {
+                    Arrays.sort(jarFiles);
+                    for (File jarFile : jarFiles) {
+                        files.add(jarFile);
+                    }
+                }
+            } else {
+                files.add(new File(entry));
+            }
+        }
+        return files;
+    }
+}
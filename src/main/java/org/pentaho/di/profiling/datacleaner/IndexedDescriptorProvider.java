@@ -0,0 +1,162 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.datacleaner.api.Analyzer;
+import org.datacleaner.api.Configured;
+import org.datacleaner.api.Filter;
+import org.datacleaner.api.Initialize;
+import org.datacleaner.api.Renderer;
+import org.datacleaner.api.Transformer;
+import org.datacleaner.descriptors.AnalyzerDescriptor;
+import org.datacleaner.descriptors.ClasspathScanDescriptorProvider;
+import org.datacleaner.descriptors.Descriptors;
+import org.datacleaner.descriptors.FilterDescriptor;
+import org.datacleaner.descriptors.RendererBeanDescriptor;
+import org.datacleaner.descriptors.SimpleDescriptorProvider;
+import org.datacleaner.descriptors.TransformerDescriptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Provides the descriptors of the components listed in a {@link DescriptorIndex}. If there is no index yet, the
+ * packages are scanned once and the index is written for the next start.
+ * <p>
+ * Used as the custom descriptor provider of the configurations generated for DataCleaner, and by the job builder in
+ * Spoon. Classes of the index that can't be loaded, for instance because Spoon bundles a different set of DataCleaner
+ * extensions than the installation, are skipped.
+ */
+public class IndexedDescriptorProvider extends SimpleDescriptorProvider {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndexedDescriptorProvider.class);
+
+    private static final Map<String, IndexedDescriptorProvider> instances = new HashMap<>();
+
+    @Configured("Index file")
+    String indexFilename;
+
+    @Configured(value = "Packages", required = false)
+    String packages = String.join(",", DescriptorIndex.PACKAGES);
+
+    public IndexedDescriptorProvider() {
+        super(false);
+    }
+
+    /**
+     * @param indexFilename
+     * @return the descriptors of the index, loaded once per JVM
+     */
+    public static synchronized IndexedDescriptorProvider getInstance(String indexFilename) {
+        IndexedDescriptorProvider descriptorProvider = instances.get(indexFilename);
+        if (descriptorProvider == null) {
+            descriptorProvider = new IndexedDescriptorProvider();
+            descriptorProvider.indexFilename = indexFilename;
+            descriptorProvider.init();
+            instances.put(indexFilename, descriptorProvider);
+        }
+        return descriptorProvider;
+    }
+
+    /**
+     * Scans the packages and writes the index. Invoked by name in the class loader of the DataCleaner installation.
+     *
+     * @param indexFilename
+     * @throws IOException
+     */
+    public static void writeIndex(String indexFilename) throws IOException {
+        final IndexedDescriptorProvider descriptorProvider = new IndexedDescriptorProvider();
+        descriptorProvider.indexFilename = indexFilename;
+        descriptorProvider.scan();
+    }
+
+    @Initialize
+    public void init() {
+        final File indexFile = new File(indexFilename);
+        if (indexFile.exists()) {
+            try {
+                load(DescriptorIndex.read(indexFile));
+                return;
+            } catch (IOException e) {
+                logger.warn("Could not read descriptor index {}, scanning the classpath", indexFilename, e);
+            }
+        }
+        try {
+            scan();
+        } catch (IOException e) {
+            logger.warn("Could not write descriptor index {}", indexFilename, e);
+        }
+    }
+
+    private void scan() throws IOException {
+        final ClasspathScanDescriptorProvider scanner = new ClasspathScanDescriptorProvider();
+        for (String packageName : packages.split(",")) {
+            if (!packageName.trim().isEmpty()) {
+                scanner.scanPackage(packageName.trim(), true);
+            }
+        }
+
+        final Map<String, List<String>> classNames = new LinkedHashMap<>();
+        classNames.put(DescriptorIndex.ANALYZER, new ArrayList<String>());
+        classNames.put(DescriptorIndex.TRANSFORMER, new ArrayList<String>());
+        classNames.put(DescriptorIndex.FILTER, new ArrayList<String>());
+        classNames.put(DescriptorIndex.RENDERER, new ArrayList<String>());
+        for (AnalyzerDescriptor<?> descriptor : scanner.getAnalyzerDescriptors()) {
+            addAnalyzerBeanDescriptor(descriptor);
+            classNames.get(DescriptorIndex.ANALYZER).add(descriptor.getComponentClass().getName());
+        }
+        for (TransformerDescriptor<?> descriptor : scanner.getTransformerDescriptors()) {
+            addTransformerBeanDescriptor(descriptor);
+            classNames.get(DescriptorIndex.TRANSFORMER).add(descriptor.getComponentClass().getName());
+        }
+        for (FilterDescriptor<?, ?> descriptor : scanner.getFilterDescriptors()) {
+            addFilterBeanDescriptor(descriptor);
+            classNames.get(DescriptorIndex.FILTER).add(descriptor.getComponentClass().getName());
+        }
+        for (RendererBeanDescriptor<?> descriptor : scanner.getRendererBeanDescriptors()) {
+            addRendererBeanDescriptor(descriptor);
+            classNames.get(DescriptorIndex.RENDERER).add(descriptor.getComponentClass().getName());
+        }
+
+        final File indexFile = new File(indexFilename);
+        DescriptorIndex.write(indexFile, classNames);
+        DescriptorIndex.deleteStaleIndexFiles(indexFile);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void load(Map<String, List<String>> classNames) {
+        final ClassLoader classLoader = getClass().getClassLoader();
+        for (Map.Entry<String, List<String>> entry : classNames.entrySet()) {
+            for (String className : entry.getValue()) {
+                final Class<?> cls;
+                try {
+                    cls = Class.forName(className, false, classLoader);
+                } catch (ClassNotFoundException | LinkageError e) {
+                    logger.debug("Skipping component of the descriptor index: {}", className);
+                    continue;
+                }
+                switch (entry.getKey()) {
+                case DescriptorIndex.ANALYZER:
+                    addAnalyzerBeanDescriptor(Descriptors.ofAnalyzer((Class<? extends Analyzer>) cls));
+                    break;
+                case DescriptorIndex.TRANSFORMER:
+                    addTransformerBeanDescriptor(Descriptors.ofTransformer((Class<? extends Transformer>) cls));
+                    break;
+                case DescriptorIndex.FILTER:
+                    addFilterBeanDescriptor(Descriptors.ofFilter((Class<? extends Filter>) cls));
+                    break;
+                case DescriptorIndex.RENDERER:
+                    addRendererBeanDescriptor(Descriptors.ofRenderer((Class<? extends Renderer>) cls));
+                    break;
+                default:
+                    break;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+/**
+ * The results of previous runs of DataCleaner jobs, so the job entry can skip a run when neither the job nor its input
+ * files changed since the last successful run.
+ * <p>
+ * A run is identified by a fingerprint of the job, the DataCleaner configuration, the output type, the additional
+ * arguments and the names, sizes and modification times (and optionally the contents) of the files of the datastores
+ * the job reads. Jobs that read a datastore which is not a file, like a database, are not cached. Every entry is a
+ * copy of the output file and a properties file with the exit code and the absolute path of the output file, named
+ * after the fingerprint. The least recently used entries are deleted when the cache grows beyond its maximum size.
+ */
+public final class JobResultCache {
+
+    /**
+     * Variable with the folder of the cache, the "result-cache" folder of the plugin folder if not set.
+     */
+    public static final String VARIABLE_DIRECTORY = "DATACLEANER_RESULT_CACHE_DIRECTORY";
+
+    /**
+     * Variable with the maximum size of the cache in megabytes.
+     */
+    public static final String VARIABLE_MAX_MB = "DATACLEANER_RESULT_CACHE_MAX_MB";
+
+    public static final String DEFAULT_DIRECTORY_NAME = "result-cache";
+    public static final int DEFAULT_MAX_MB = 1024;
+
+    private static final String RESULT_SUFFIX = ".result";
+    private static final String ENTRY_SUFFIX = ".properties";
+    private static final String PROPERTY_EXIT_CODE = "exit.code";
+    private static final String PROPERTY_OUTPUT_TYPE = "output.type";
+    private static final String PROPERTY_OUTPUT_FILENAME = "output.filename";
+    private static final String PROPERTY_OUTPUT_FILE = "output.file";
+
+    /**
+     * The datastore elements of a conf.xml that point to a file.
+     */
+    private static final List<String> FILE_ELEMENTS = Arrays.asList("filename", "file");
+
+    private static final Object LOCK = new Object();
+
+    private final File directory;
+    private final long maxBytes;
+
+    /**
+     * @param directory the folder to keep the entries in, created when needed
+     * @param maxBytes the size of the output files to keep at most
+     */
+    public JobResultCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param jobXml the analysis job
+     * @param confXml the DataCleaner configuration with the datastores of the job, or null if there is none
+     * @param outputType the type of result the job writes
+     * @param additionalArguments the additional command line arguments
+     * @param baseFolder the folder relative file names of datastores are resolved against
+     * @param hashContents whether to hash the contents of the input files, instead of only their sizes and
+     *            modification times
+     * @return the fingerprint of the run, or null if the job reads a datastore that is not a file
+     * @throws IOException if an input file could not be read
+     */
+    public static String fingerprint(String jobXml, String confXml, String outputType, String additionalArguments,
+            File baseFolder, boolean hashContents) throws IOException {
+        final List<File> inputFiles = getInputFiles(jobXml, confXml, baseFolder);
+        if (inputFiles == null) {
+            return null;
+        }
+
+        final MessageDigest digest = createDigest();
+        update(digest, jobXml);
+        update(digest, confXml);
+        update(digest, outputType);
+        update(digest, additionalArguments);
+        for (File file : inputFiles) {
+            update(digest, file.getAbsolutePath() + '|' + file.length() + '|' + file.lastModified());
+            if (hashContents) {
+                final byte[] buffer = new byte[64 * 1024];
+                try (InputStream in = Files.newInputStream(file.toPath())) {
+                    for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+                        digest.update(buffer, 0, n);
+                    }
+                }
+            }
+        }
+        final StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(String.format("%02x", b));
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return the files of the datastores the job reads, or null if one of them is not a file or is not defined in the
+     *         configuration
+     */
+    static List<File> getInputFiles(String jobXml, String confXml, File baseFolder) {
+        if (confXml == null) {
+            return null;
+        }
+        final Document job = parse(jobXml);
+        final Document conf = parse(confXml);
+        if (job == null || conf == null) {
+            return null;
+        }
+
+        final Set<String> datastoreNames = new LinkedHashSet<>();
+        final NodeList dataContexts = job.getElementsByTagName("data-context");
+        for (int i = 0; i < dataContexts.getLength(); i++) {
+            datastoreNames.add(((Element) dataContexts.item(i)).getAttribute("ref"));
+        }
+
+        final List<File> files = new ArrayList<>();
+        for (String datastoreName : datastoreNames) {
+            final Element datastore = findDatastore(conf, datastoreName);
+            if (datastore == null) {
+                return null;
+            }
+            final String filename = getFilename(datastore);
+            if (filename == null) {
+                return null;
+            }
+            File file = new File(filename);
+            if (!file.isAbsolute()) {
+                file = new File(baseFolder, filename);
+            }
+            if (!file.isFile()) {
+                return null;
+            }
+            files.add(file);
+        }
+        return files;
+    }
+
+    private static Element findDatastore(Document conf, String name) {
+        final NodeList datastoreCatalogs = conf.getElementsByTagName("datastore-catalog");
+        for (int i = 0; i < datastoreCatalogs.getLength(); i++) {
+            final NodeList datastores = datastoreCatalogs.item(i).getChildNodes();
+            for (int j = 0; j < datastores.getLength(); j++) {
+                final Node datastore = datastores.item(j);
+                if (datastore instanceof Element && name.equals(((Element) datastore).getAttribute("name"))) {
+                    return (Element) datastore;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String getFilename(Element datastore) {
+        final NodeList children = datastore.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            final Node child = children.item(i);
+            if (child instanceof Element && FILE_ELEMENTS.contains(child.getNodeName())) {
+                final String filename = child.getTextContent().trim();
+                return filename.isEmpty() ? null : filename;
+            }
+        }
+        return null;
+    }
+
+    private static Document parse(String xml) {
+        try {
+            final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(false);
+            // the job file is not trusted, no document type declarations and no external entities
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+            factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+            factory.setXIncludeAware(false);
+            factory.setExpandEntityReferences(false);
+            return factory.newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update((value == null ? "<null>" : value).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    /**
+     * Copies the output of a previous run with the same fingerprint to the output file, and marks the entry as recently
+     * used.
+     * <p>
+     * A relative output filename is resolved by the run itself, against the plugin folder when DataCleaner is forked
+     * and against the working directory of the JVM that runs the job otherwise. So it is restored to the file the
+     * previous run with the same output filename wrote, and there is no result to restore if the previous run had
+     * another one.
+     *
+     * @param fingerprint
+     * @param outputType the type of result the job writes
+     * @param outputFilename the output filename of the job, after variable substitution
+     * @return the restored result, or null if there is none
+     * @throws IOException
+     */
+    public CachedResult restore(String fingerprint, String outputType, String outputFilename) throws IOException {
+        synchronized (LOCK) {
+            final File entryFile = new File(directory, fingerprint + ENTRY_SUFFIX);
+            final File resultFile = new File(directory, fingerprint + RESULT_SUFFIX);
+            if (!entryFile.isFile() || !resultFile.isFile()) {
+                return null;
+            }
+            final Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(entryFile.toPath())) {
+                properties.load(in);
+            }
+            if (!outputType.equals(properties.getProperty(PROPERTY_OUTPUT_TYPE))) {
+                return null;
+            }
+            File outputFile = new File(outputFilename);
+            if (!outputFile.isAbsolute()) {
+                final String storedOutputFile = properties.getProperty(PROPERTY_OUTPUT_FILE);
+                if (storedOutputFile == null
+                        || !outputFilename.equals(properties.getProperty(PROPERTY_OUTPUT_FILENAME))) {
+                    return null;
+                }
+                outputFile = new File(storedOutputFile);
+            }
+            final File outputFolder = outputFile.getParentFile();
+            if (outputFolder != null) {
+                outputFolder.mkdirs();
+            }
+            Files.copy(resultFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            entryFile.setLastModified(System.currentTimeMillis());
+            return new CachedResult(Integer.parseInt(properties.getProperty(PROPERTY_EXIT_CODE, "0")), outputFile);
+        }
+    }
+
+    /**
+     * Keeps the output of a run, and deletes the least recently used entries if the cache has grown too large. An
+     * output larger than the cache is not kept.
+     *
+     * @param fingerprint
+     * @param outputType the type of result the job wrote
+     * @param exitCode the exit code of the run
+     * @param outputFilename the output filename of the job, after variable substitution
+     * @param outputFile the file the run wrote its result to
+     * @throws IOException
+     */
+    public void store(String fingerprint, String outputType, int exitCode, String outputFilename, File outputFile)
+            throws IOException {
+        if (outputFile.length() > maxBytes) {
+            return;
+        }
+        synchronized (LOCK) {
+            directory.mkdirs();
+            final File resultFile = new File(directory, fingerprint + RESULT_SUFFIX);
+            final File entryFile = new File(directory, fingerprint + ENTRY_SUFFIX);
+
+            // the entry file is written last, so another process reads either no entry or a complete one
+            final File tempResultFile = File.createTempFile("entry-", ".tmp", directory);
+            final File tempEntryFile = File.createTempFile("entry-", ".tmp", directory);
+            try {
+                Files.copy(outputFile.toPath(), tempResultFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                move(tempResultFile, resultFile);
+
+                final Properties properties = new Properties();
+                properties.setProperty(PROPERTY_EXIT_CODE, Integer.toString(exitCode));
+                properties.setProperty(PROPERTY_OUTPUT_TYPE, outputType);
+                properties.setProperty(PROPERTY_OUTPUT_FILENAME, outputFilename);
+                properties.setProperty(PROPERTY_OUTPUT_FILE, outputFile.getAbsolutePath());
+                try (OutputStream out = Files.newOutputStream(tempEntryFile.toPath())) {
+                    properties.store(out, "DataCleaner job result");
+                }
+                move(tempEntryFile, entryFile);
+            } finally {
+                tempResultFile.delete();
+                tempEntryFile.delete();
+            }
+            evict();
+        }
+    }
+
+    private static void move(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries until the output files fit in the maximum size.
+     */
+    private void evict() {
+        final File[] entryFiles = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.getName().endsWith(ENTRY_SUFFIX);
+            }
+        });
+        if (entryFiles == null) {
+            return;
+        }
+        long size = 0;
+        for (File entryFile : entryFiles) {
+            size += getResultFile(entryFile).length();
+        }
+        if (size <= maxBytes) {
+            return;
+        }
+        Arrays.sort(entryFiles, new Comparator<File>() {
+            @Override
+            public int compare(File file1, File file2) {
+                return Long.compare(file1.lastModified(), file2.lastModified());
+            }
+        });
+        for (int i = 0; i < entryFiles.length && size > maxBytes; i++) {
+            final File resultFile = getResultFile(entryFiles[i]);
+            size -= resultFile.length();
+            entryFiles[i].delete();
+            resultFile.delete();
+        }
+    }
+
+    private static File getResultFile(File entryFile) {
+        final String name = entryFile.getName();
+        return new File(entryFile.getParentFile(),
+                name.substring(0, name.length() - ENTRY_SUFFIX.length()) + RESULT_SUFFIX);
+    }
+
+    /**
+     * @return the folder the entries are kept in
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * A result restored from the cache.
+     */
+    public static final class CachedResult {
+
+        private final int exitCode;
+        private final File outputFile;
+
+        CachedResult(int exitCode, File outputFile) {
+            this.exitCode = exitCode;
+            this.outputFile = outputFile;
+        }
+
+        /**
+         * @return the exit code of the run that wrote the result
+         */
+        public int getExitCode() {
+            return exitCode;
+        }
+
+        /**
+         * @return the absolute file the result was restored to
+         */
+        public File getOutputFile() {
+            return outputFile;
+        }
+    }
+}
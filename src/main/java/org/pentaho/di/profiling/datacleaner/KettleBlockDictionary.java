@@ -0,0 +1,101 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The dictionaries of the block being read from a version 4 capture, see {@link KettleDictionaryEncoder}. The
+ * dictionaries are shared by everything reading rows from the same stream, so they are kept with the stream rather
+ * than with a row decoder.
+ * <p>
+ * Values are canonicalized across blocks, so equal values of a column are handed out as the same {@link String}
+ * instance for the whole scan, as long as the column has few distinct values.
+ */
+final class KettleBlockDictionary {
+
+    /**
+     * The maximum number of canonical values kept per column.
+     */
+    static final int MAX_CANONICAL_VALUES = 4096;
+
+    private final boolean[] encoded;
+    private final List<String>[] entries;
+    private final Map<String, String>[] canonicalValues;
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    KettleBlockDictionary(int columnCount) {
+        this.encoded = new boolean[columnCount];
+        this.entries = new List[columnCount];
+        this.canonicalValues = new Map[columnCount];
+    }
+
+    /**
+     * Reads the encoding of the columns at the start of a block, and starts with empty dictionaries.
+     *
+     * @param inputStream
+     * @throws IOException
+     */
+    void startBlock(DataInputStream inputStream) throws IOException {
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = inputStream.readBoolean();
+            if (encoded[i]) {
+                if (entries[i] == null) {
+                    entries[i] = new ArrayList<>();
+                    canonicalValues[i] = new HashMap<>();
+                } else {
+                    entries[i].clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param index the column index
+     * @return whether the column is dictionary encoded in the current block
+     */
+    boolean isEncoded(int index) {
+        return encoded[index];
+    }
+
+    /**
+     * Reads a dictionary encoded value, after its null flag.
+     *
+     * @param inputStream
+     * @param index the column index
+     * @return the value
+     * @throws IOException
+     */
+    String readValue(DataInputStream inputStream, int index) throws IOException {
+        final List<String> dictionary = entries[index];
+        final int id = KettleStreamFormat.readVarInt(inputStream);
+        if (id < dictionary.size()) {
+            return dictionary.get(id);
+        }
+        if (id != dictionary.size()) {
+            throw new IOException("Invalid dictionary id " + id + " for column " + index);
+        }
+
+        final byte[] bytes = new byte[inputStream.readInt()];
+        inputStream.readFully(bytes);
+        final String value = canonicalize(index, new String(bytes, StandardCharsets.UTF_8));
+        dictionary.add(value);
+        return value;
+    }
+
+    private String canonicalize(int index, String value) {
+        final Map<String, String> canonical = canonicalValues[index];
+        final String existing = canonical.get(value);
+        if (existing != null) {
+            return existing;
+        }
+        if (canonical.size() < MAX_CANONICAL_VALUES) {
+            canonical.put(value, value);
+        }
+        return value;
+    }
+}
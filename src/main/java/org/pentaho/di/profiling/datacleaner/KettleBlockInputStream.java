@@ -0,0 +1,117 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Presents the blocks of a version 2 or later capture file as one continuous stream of row data, so that rows can be
+ * read with {@link KettleRowDecoder} as if it was a version 1 file. The stream ends when the end-of-data marker is
+ * reached.
+ * <p>
+ * For version 4 files the column encodings at the start of every block are consumed by the stream itself, and kept in
+ * its {@link KettleBlockDictionary}.
+ */
+final class KettleBlockInputStream extends InputStream {
+
+    private final KettleBlockReader blockReader;
+    private final KettleBlockDictionary dictionary;
+    private final DataInputStream blockHeaderInputStream;
+    private byte[] block;
+    private int position;
+    private boolean endOfData;
+
+    KettleBlockInputStream(KettleBlockReader blockReader) {
+        this(blockReader, null);
+    }
+
+    /**
+     * @param blockReader
+     * @param dictionary the dictionaries to read the column encodings of every block into, or null if the blocks have
+     *            no column encodings (before version 4)
+     */
+    KettleBlockInputStream(KettleBlockReader blockReader, KettleBlockDictionary dictionary) {
+        this.blockReader = blockReader;
+        this.dictionary = dictionary;
+        this.blockHeaderInputStream = new DataInputStream(this);
+        this.block = null;
+        this.position = 0;
+        this.endOfData = false;
+    }
+
+    KettleBlockDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Advances to the next block if the current one has been consumed. Rows never span blocks, so when called before
+     * reading a row, this makes sure the dictionaries are those of the block holding the row.
+     *
+     * @return false if there are no more rows
+     * @throws IOException
+     */
+    boolean startRow() throws IOException {
+        return ensureAvailable();
+    }
+
+    /**
+     * Advances to the next block if the current one has been consumed.
+     *
+     * @return false if there is no more data
+     * @throws IOException
+     */
+    private boolean ensureAvailable() throws IOException {
+        while (block == null || position == block.length) {
+            if (endOfData) {
+                return false;
+            }
+            block = blockReader.readBlock();
+            position = 0;
+            if (block == null) {
+                endOfData = true;
+                return false;
+            }
+            if (dictionary != null && block.length > 0) {
+                dictionary.startBlock(blockHeaderInputStream);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        return block[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        final int count = Math.min(length, block.length - position);
+        System.arraycopy(block, position, buffer, offset, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0 || !ensureAvailable()) {
+            return 0;
+        }
+        final int count = (int) Math.min(n, block.length - position);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        blockReader.close();
+    }
+}
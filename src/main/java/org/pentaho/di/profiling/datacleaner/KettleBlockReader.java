@@ -0,0 +1,123 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+import org.pentaho.di.profiling.datacleaner.codec.CaptureCodec;
+
+/**
+ * Reads the blocks of a version 2 capture file one at a time and decompresses their payload.
+ */
+class KettleBlockReader implements Closeable {
+
+    private final DataInputStream in;
+    private final CaptureCodec codec;
+    private final boolean[] selectedBlocks;
+    private byte[] compressedBuffer;
+    private boolean endOfData;
+    private int blockIndex;
+
+    /**
+     * @param in the raw file stream, positioned at the start of a block
+     * @param codec the codec that the blocks were written with
+     */
+    KettleBlockReader(DataInputStream in, CaptureCodec codec) {
+        this(in, codec, null, 0);
+    }
+
+    /**
+     * @param in the raw file stream, positioned at the start of a block
+     * @param codec the codec that the blocks were written with
+     * @param selectedBlocks the blocks to read, by their index in the footer, or null to read all blocks. The other
+     *            blocks are skipped without decompressing them.
+     * @param blockIndex the footer index of the block the stream is positioned at
+     */
+    KettleBlockReader(DataInputStream in, CaptureCodec codec, boolean[] selectedBlocks, int blockIndex) {
+        this.in = in;
+        this.codec = codec;
+        this.selectedBlocks = selectedBlocks;
+        this.compressedBuffer = new byte[0];
+        this.endOfData = false;
+        this.blockIndex = blockIndex;
+    }
+
+    /**
+     * Reads the next block.
+     *
+     * @return the uncompressed payload of the block, or null if there are no more blocks
+     * @throws IOException
+     */
+    byte[] readBlock() throws IOException {
+        if (endOfData) {
+            return null;
+        }
+
+        int length;
+        int storedLength;
+        while (true) {
+            if (selectedBlocks != null && blockIndex >= selectedBlocks.length) {
+                // none of the remaining blocks are selected
+                endOfData = true;
+                return null;
+            }
+
+            final int rowCount;
+            try {
+                rowCount = in.readInt();
+            } catch (EOFException e) {
+                // a truncated file, e.g. from a crashed transformation
+                endOfData = true;
+                return null;
+            }
+            if (rowCount == KettleStreamFormat.END_OF_DATA) {
+                endOfData = true;
+                return null;
+            }
+
+            length = in.readInt();
+            storedLength = in.readInt();
+            if (length == 0) {
+                // an empty block written to keep a streaming capture alive
+                return new byte[0];
+            }
+            if (selectedBlocks == null || selectedBlocks[blockIndex++]) {
+                break;
+            }
+            skipFully(storedLength);
+        }
+        if (compressedBuffer.length < storedLength) {
+            compressedBuffer = new byte[storedLength];
+        }
+        try {
+            in.readFully(compressedBuffer, 0, storedLength);
+        } catch (EOFException e) {
+            endOfData = true;
+            return null;
+        }
+
+        final byte[] payload = new byte[length];
+        codec.decompress(compressedBuffer, storedLength, payload, length);
+        return payload;
+    }
+
+    private void skipFully(int length) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            final int skipped = in.skipBytes(remaining);
+            if (skipped <= 0) {
+                // let reading report the end of the stream
+                in.readByte();
+                remaining--;
+            } else {
+                remaining -= skipped;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -1,14 +1,30 @@
 package org.pentaho.di.profiling.datacleaner;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 import org.apache.metamodel.MetaModelException;
+import org.apache.metamodel.MetaModelHelper;
 import org.apache.metamodel.QueryPostprocessDataContext;
 import org.apache.metamodel.data.DataSet;
 import org.apache.metamodel.data.MaxRowsDataSet;
+import org.apache.metamodel.query.FilterItem;
+import org.apache.metamodel.query.Query;
+import org.apache.metamodel.query.SelectItem;
 import org.apache.metamodel.schema.Column;
 import org.apache.metamodel.schema.ColumnType;
 import org.apache.metamodel.schema.MutableColumn;
@@ -19,11 +35,14 @@ import org.apache.metamodel.schema.Table;
 import org.apache.metamodel.schema.TableType;
 import org.apache.metamodel.util.FileHelper;
 import org.pentaho.di.core.exception.KettleException;
-import org.pentaho.di.core.plugins.PluginRegistry;
-import org.pentaho.di.core.row.RowMeta;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.row.ValueMetaInterface;
-import org.pentaho.di.core.row.value.ValueMetaPluginType;
+import org.pentaho.di.profiling.datacleaner.codec.CaptureCodec;
+import org.pentaho.di.profiling.datacleaner.codec.CaptureCodecs;
+import org.pentaho.di.profiling.datacleaner.codec.NoCompressionCodec;
+import org.pentaho.di.profiling.datacleaner.sampling.SamplingPolicy;
+import org.pentaho.di.profiling.datacleaner.sketch.CaptureSketch;
+import org.pentaho.di.profiling.datacleaner.sketch.ColumnSketch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,6 +50,23 @@ public class KettleDataContext extends QueryPostprocessDataContext {
 
     private static final Logger logger = LoggerFactory.getLogger(KettleDataContext.class);
 
+    /**
+     * The number of compressed blocks to read ahead of the row decoding
+     */
+    private static final int PREFETCH_BLOCKS = 4;
+
+    /**
+     * The number of rows (version 1) or blocks (later versions) read to estimate the average row width of a capture
+     * that has no recorded row count.
+     */
+    private static final int ESTIMATE_SAMPLE_ROWS = 1000;
+    private static final int ESTIMATE_SAMPLE_BLOCKS = 16;
+
+    /**
+     * Separates the captures of the steps in the filename of a context with a table per step.
+     */
+    public static final String FILENAME_SEPARATOR = File.pathSeparator;
+
     /**
      * The filename containing the data produced by Kettle
      */
@@ -38,6 +74,17 @@ public class KettleDataContext extends QueryPostprocessDataContext {
     private String transformationName;
     private String stepName;
     private RowMetaInterface rowMeta;
+    private Map<String, String> captureProperties;
+    private long rowCount = -1;
+    private KettleRowIndex rowIndex;
+    private boolean reuseRows;
+    private CaptureSketch captureSketch;
+
+    /**
+     * The contexts of the individual steps, by step name, when several steps of a transformation were captured in one
+     * run. Null for a single step.
+     */
+    private final Map<String, KettleDataContext> stepContexts;
 
     /**
      * This constructor opens up a file containing all the metadata and data needed to profile The data in the file is
@@ -49,7 +96,13 @@ public class KettleDataContext extends QueryPostprocessDataContext {
      * - The RowMeta object of the output of the step<br>
      * - Rows of data corresponding to RowMeta<br>
      * <br>
-     * 
+     * Both the original (version 1) layout and the block framed version 2 layout are supported, see
+     * {@link KettleStreamFormat}.
+     * <p>
+     * The filename may list the captures of several steps of the same transformation, separated by
+     * {@link #FILENAME_SEPARATOR}. The schema then has a table per step, and the single step accessors like
+     * {@link #getRowMeta()} describe the first one.
+     *
      * @param filename the filename to read from
      */
     public KettleDataContext(String filename) {
@@ -60,6 +113,16 @@ public class KettleDataContext extends QueryPostprocessDataContext {
         }
 
         this.filename = filename;
+        final List<String> filenames = splitFilenames(filename);
+        if (filenames.size() == 1) {
+            this.stepContexts = null;
+        } else {
+            this.stepContexts = new LinkedHashMap<>();
+            for (String stepFilename : filenames) {
+                final KettleDataContext stepContext = new KettleDataContext(stepFilename);
+                stepContexts.put(stepContext.getStepName(), stepContext);
+            }
+        }
     }
 
     /**
@@ -75,46 +138,500 @@ public class KettleDataContext extends QueryPostprocessDataContext {
         this.transformationName = transformationName;
         this.stepName = stepName;
         this.rowMeta = rowMeta;
+        this.stepContexts = null;
+    }
+
+    /**
+     * Constructor used only for schema navigation (while building DC job) of several steps of a transformation
+     *
+     * @param transformationName
+     * @param stepFields the row metadata of the steps, by step name
+     */
+    public KettleDataContext(String transformationName, Map<String, RowMetaInterface> stepFields) {
+        super(false);
+        if (stepFields.isEmpty()) {
+            throw new IllegalArgumentException("You need to provide at least one step to profile");
+        }
+        this.filename = null;
+        this.transformationName = transformationName;
+        this.stepContexts = new LinkedHashMap<>();
+        for (Map.Entry<String, RowMetaInterface> entry : stepFields.entrySet()) {
+            stepContexts.put(entry.getKey(),
+                    new KettleDataContext(transformationName, entry.getKey(), entry.getValue()));
+        }
+        this.stepName = getFirstStepContext().getStepName();
+        this.rowMeta = getFirstStepContext().getRowMeta();
+    }
+
+    /**
+     * @param filenames the captures of the steps of one transformation run
+     * @return the filename of a context with a table per step
+     */
+    public static String joinFilenames(List<String> filenames) {
+        final StringBuilder sb = new StringBuilder();
+        for (String filename : filenames) {
+            if (sb.length() > 0) {
+                sb.append(FILENAME_SEPARATOR);
+            }
+            sb.append(filename);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param filename a filename as accepted by {@link #KettleDataContext(String)}
+     * @return the captures it consists of
+     */
+    public static List<String> splitFilenames(String filename) {
+        final List<String> filenames = new ArrayList<>();
+        for (String part : filename.split(Pattern.quote(FILENAME_SEPARATOR))) {
+            if (!part.isEmpty()) {
+                filenames.add(part);
+            }
+        }
+        return filenames;
+    }
+
+    /**
+     * @return the contexts of the steps captured in one run, or a list with just this context for a single step
+     */
+    public List<KettleDataContext> getStepContexts() {
+        if (stepContexts == null) {
+            return Collections.singletonList(this);
+        }
+        return new ArrayList<>(stepContexts.values());
+    }
+
+    private KettleDataContext getFirstStepContext() {
+        return stepContexts.values().iterator().next();
+    }
+
+    /**
+     * @return the context that reads the rows of a table, which is this context unless several steps were captured
+     */
+    private KettleDataContext getStepContext(Table table) {
+        if (stepContexts == null) {
+            return this;
+        }
+        final KettleDataContext stepContext = stepContexts.get(table.getName());
+        if (stepContext == null) {
+            throw new MetaModelException("No capture of step: " + table.getName());
+        }
+        return stepContext;
     }
 
     @Override
     protected DataSet materializeMainSchemaTable(Table table, List<Column> columns, int maxRows) {
-        DataInputStream inputStream = createInputStream();
+        return materializeMainSchemaTable(table, columns, 1, maxRows);
+    }
+
+    @Override
+    protected DataSet materializeMainSchemaTable(Table table, List<Column> columns, int firstRow, int maxRows) {
+        final KettleDataContext stepContext = getStepContext(table);
+        if (stepContext != this) {
+            return stepContext.materializeMainSchemaTable(table, columns, firstRow, maxRows);
+        }
 
-        // skip through the metadata section
+        final RandomAccessFile file = openFile();
+        final DataInputStream inputStream;
         try {
-            readMetadataSection(inputStream);
+            final KettleStreamHeader header = readMetadataSection(file);
+            inputStream = createRowInputStream(file, header, firstRow - 1);
         } catch (RuntimeException e) {
-            FileHelper.safeClose(inputStream);
+            FileHelper.safeClose(file);
             throw e;
         }
 
-        DataSet dataSet = new KettleDataSet(columns, inputStream, rowMeta);
+        DataSet dataSet = new KettleDataSet(columns, inputStream, rowMeta, reuseRows);
         if (maxRows >= 0) {
             dataSet = new MaxRowsDataSet(dataSet, maxRows);
         }
         return dataSet;
     }
 
-    private void readMetadataSection(DataInputStream inputStream) {
+    /**
+     * Materializes a filtered table, skipping the blocks whose {@link KettleZoneMap}s show that they can't contain
+     * matching rows. The remaining rows are filtered as usual. Captures without zone maps and queries on anything but
+     * plain columns are left to the default implementation.
+     */
+    @Override
+    protected DataSet materializeMainSchemaTable(Table table, List<SelectItem> selectItems,
+            List<FilterItem> whereItems, int firstRow, int maxRows) {
+        final KettleDataContext stepContext = getStepContext(table);
+        if (stepContext != this) {
+            return stepContext.materializeMainSchemaTable(table, selectItems, whereItems, firstRow, maxRows);
+        }
+
+        final List<Column> columns = filename == null ? null : getReferencedColumns(selectItems, whereItems);
+        if (whereItems.isEmpty() || columns == null) {
+            return super.materializeMainSchemaTable(table, selectItems, whereItems, firstRow, maxRows);
+        }
+
+        final RandomAccessFile file = openFile();
+        final DataInputStream inputStream;
+        try {
+            final KettleStreamHeader header = readMetadataSection(file);
+            inputStream = createFilteredRowInputStream(file, header, whereItems);
+        } catch (RuntimeException e) {
+            FileHelper.safeClose(file);
+            throw e;
+        }
+        if (inputStream == null) {
+            FileHelper.safeClose(file);
+            return super.materializeMainSchemaTable(table, selectItems, whereItems, firstRow, maxRows);
+        }
+
+        DataSet dataSet = new KettleDataSet(columns, inputStream, rowMeta, reuseRows);
+        dataSet = MetaModelHelper.getFiltered(dataSet, whereItems);
+        dataSet = MetaModelHelper.getPaged(dataSet, firstRow, maxRows);
+        return MetaModelHelper.getSelection(selectItems, dataSet);
+    }
+
+    /**
+     * @return the columns referenced by the select and where items, or null if any of them is more than a plain
+     *         column
+     */
+    private static List<Column> getReferencedColumns(List<SelectItem> selectItems, List<FilterItem> whereItems) {
+        final Set<Column> columns = new LinkedHashSet<>();
+        for (SelectItem selectItem : selectItems) {
+            if (!addColumn(columns, selectItem)) {
+                return null;
+            }
+        }
+        for (FilterItem whereItem : whereItems) {
+            if (!addColumns(columns, whereItem)) {
+                return null;
+            }
+        }
+        return new ArrayList<>(columns);
+    }
+
+    private static boolean addColumns(Set<Column> columns, FilterItem filterItem) {
+        if (filterItem.isCompoundFilter()) {
+            for (FilterItem childItem : filterItem.getChildItems()) {
+                if (!addColumns(columns, childItem)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (filterItem.getExpression() != null || !addColumn(columns, filterItem.getSelectItem())) {
+            return false;
+        }
+        if (filterItem.getOperand() instanceof SelectItem) {
+            return addColumn(columns, (SelectItem) filterItem.getOperand());
+        }
+        return true;
+    }
+
+    private static boolean addColumn(Set<Column> columns, SelectItem selectItem) {
+        if (selectItem == null || selectItem.getColumn() == null || selectItem.hasFunction()
+                || selectItem.getExpression() != null || selectItem.getSubQuerySelectItem() != null) {
+            return false;
+        }
+        columns.add(selectItem.getColumn());
+        return true;
+    }
+
+    /**
+     * Creates a stream of the rows in the blocks that may match the filters.
+     *
+     * @return the stream, or null if the capture has no zone maps to select blocks with
+     */
+    private DataInputStream createFilteredRowInputStream(RandomAccessFile file, KettleStreamHeader header,
+            List<FilterItem> whereItems) {
+        if (header.getVersion() < KettleStreamFormat.VERSION_3) {
+            return null;
+        }
         try {
-            ValueMetaPluginType pluginType = ValueMetaPluginType.getInstance();
-            pluginType.searchPlugins();
+            final KettleStreamFooter footer = KettleStreamFooter.read(file);
+            if (footer == null) {
+                return null;
+            }
+            final List<KettleZoneMap> zoneMaps = footer.readZoneMaps(file, rowMeta);
+            if (zoneMaps == null) {
+                return null;
+            }
 
-            PluginRegistry.init();
-            PluginRegistry.addPluginType(pluginType);
-        } catch (KettleException e) {
-            throw new MetaModelException(e);
+            final List<KettleStreamBlock> blocks = footer.getBlocks();
+            final boolean[] selectedBlocks =
+                    new KettleZoneMapFilter(rowMeta).selectBlocks(whereItems, blocks, zoneMaps);
+            int firstBlock = 0;
+            int selectedCount = 0;
+            for (int i = selectedBlocks.length - 1; i >= 0; i--) {
+                if (selectedBlocks[i]) {
+                    firstBlock = i;
+                    selectedCount++;
+                }
+            }
+            logger.debug("Reading {} of {} blocks for filters {}", selectedCount, blocks.size(), whereItems);
+            if (selectedCount == 0) {
+                file.close();
+                return createEmptyInputStream();
+            }
+
+            file.seek(blocks.get(firstBlock).getOffset());
+            return createRowInputStream(header, createBlockReader(file, header, false, selectedBlocks, firstBlock));
+        } catch (IOException e) {
+            throw new MetaModelException("Unable to read the zone maps of the capture", e);
         }
+    }
+
+    /**
+     * Creates a stream of row data, positioned at a particular row. For version 2 files the footer index is used to
+     * seek directly to the block containing the row, for version 1 files the sidecar {@link KettleRowIndex}.
+     * 
+     * @param file
+     * @param header
+     * @param skipRows the number of rows to skip
+     * @return
+     */
+    private DataInputStream createRowInputStream(RandomAccessFile file, KettleStreamHeader header, long skipRows) {
+        DataInputStream inputStream = null;
+        try {
+            long rowsToRead = skipRows;
+            if (header.getVersion() == KettleStreamFormat.VERSION_1) {
+                long position = header.getDataOffset();
+                if (skipRows >= KettleRowIndex.INTERVAL) {
+                    final KettleRowIndex index = getRowIndex(file, header);
+                    if (skipRows >= index.getRowCount()) {
+                        file.close();
+                        return createEmptyInputStream();
+                    }
+                    position = index.getOffset(skipRows);
+                    rowsToRead = skipRows - KettleRowIndex.getIndexedRow(skipRows);
+                }
+                inputStream = createChannelInputStream(file, position);
+            } else {
+                final KettleStreamFooter footer = KettleStreamFooter.read(file);
+                boolean follow = false;
+                if (footer == null) {
+                    // no index (yet), scan from the first block. If the capture is being written while we read,
+                    // follow it until the writer marks the end of the data
+                    file.seek(header.getDataOffset());
+                    follow = isStreaming(header);
+                } else {
+                    final int blockIndex = footer.indexOfBlock(skipRows);
+                    if (blockIndex == -1) {
+                        file.close();
+                        return createEmptyInputStream();
+                    }
+                    final KettleStreamBlock block = footer.getBlocks().get(blockIndex);
+                    file.seek(block.getOffset());
+                    rowsToRead = skipRows - block.getFirstRow();
+                }
+                inputStream = createRowInputStream(header, createBlockReader(file, header, follow, null, 0));
+            }
 
+            // skip the rows without decoding their values
+            final KettleRowDecoder skipper = new KettleRowDecoder(rowMeta, new int[0]);
+            for (long i = 0; i < rowsToRead; i++) {
+                if (skipper.readRow(inputStream) == null) {
+                    logger.debug("Reached end of data while skipping {} rows", skipRows);
+                    FileHelper.safeClose(inputStream, file);
+                    return createEmptyInputStream();
+                }
+            }
+            return inputStream;
+        } catch (Exception e) {
+            FileHelper.safeClose(inputStream);
+            throw new MetaModelException("Unable to position input stream at row " + (skipRows + 1), e);
+        }
+    }
+
+    /**
+     * Gets the row index of a version 1 capture, reading it from the sidecar file or building it in one pass over the
+     * capture if there is no valid sidecar yet.
+     */
+    private synchronized KettleRowIndex getRowIndex(RandomAccessFile file, KettleStreamHeader header)
+            throws IOException, KettleException {
+        if (rowIndex == null) {
+            final File captureFile = new File(filename);
+            final File indexFile = KettleRowIndex.getIndexFile(filename);
+            KettleRowIndex index = KettleRowIndex.read(indexFile, captureFile);
+            if (index == null) {
+                logger.info("Building row index of capture: {}", filename);
+                index = KettleRowIndex.build(file, header.getDataOffset(), rowMeta);
+                try {
+                    index.write(indexFile, captureFile);
+                } catch (IOException e) {
+                    // the index is still cached in memory
+                    logger.warn("Failed to write row index file: " + indexFile, e);
+                }
+            }
+            rowIndex = index;
+        }
+        return rowIndex;
+    }
+
+    /**
+     * Answers unfiltered COUNT(*) queries without reading the rows: from the trailer of a finished capture, or from
+     * the row index of a version 1 capture. When an approximation is allowed, the count of a capture without either is
+     * estimated from the file size and the average width of its first rows.
+     */
+    @Override
+    protected Number executeCountQuery(Table table, List<FilterItem> whereItems, boolean functionApproximationAllowed) {
+        final KettleDataContext stepContext = getStepContext(table);
+        if (stepContext != this) {
+            return stepContext.executeCountQuery(table, whereItems, functionApproximationAllowed);
+        }
+        if (filename == null || !whereItems.isEmpty()) {
+            return null;
+        }
+        final long count = countRows(functionApproximationAllowed);
+        if (count == -1) {
+            // let the query be evaluated by reading all rows
+            return null;
+        }
+        return count;
+    }
+
+    /**
+     * @param estimate whether to estimate the count if it is not recorded
+     * @return the number of rows, or -1 if not known
+     */
+    private long countRows(boolean estimate) {
+        final RandomAccessFile file = openFile();
+        try {
+            final KettleStreamHeader header = readMetadataSection(file);
+            if (header.getVersion() == KettleStreamFormat.VERSION_1) {
+                final KettleRowIndex index = readRowIndex();
+                if (index != null) {
+                    return index.getRowCount();
+                }
+                return estimate ? estimateRowCountOfRows(file, header) : -1;
+            }
+
+            final long count = KettleStreamFooter.readRowCount(file, header.getVersion());
+            if (count != -1) {
+                return count;
+            }
+            return estimate ? estimateRowCountOfBlocks(file, header) : -1;
+        } catch (MetaModelException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new MetaModelException("Unable to count the rows of the capture", e);
+        } finally {
+            FileHelper.safeClose(file);
+        }
+    }
+
+    /**
+     * @return the row index of a version 1 capture if it was built before, without building it
+     */
+    private synchronized KettleRowIndex readRowIndex() {
+        if (rowIndex == null) {
+            rowIndex = KettleRowIndex.read(KettleRowIndex.getIndexFile(filename), new File(filename));
+        }
+        return rowIndex;
+    }
+
+    /**
+     * Estimates the row count of a version 1 capture from the width of its first rows.
+     */
+    private long estimateRowCountOfRows(RandomAccessFile file, KettleStreamHeader header)
+            throws IOException, KettleException {
+        final FileChannelInputStream in = new FileChannelInputStream(file.getChannel(), header.getDataOffset());
+        final DataInputStream inputStream = new DataInputStream(in);
+        final KettleRowDecoder skipper = new KettleRowDecoder(rowMeta, new int[0]);
+        long rows = 0;
+        while (rows < ESTIMATE_SAMPLE_ROWS) {
+            if (skipper.readRow(inputStream) == null) {
+                // read all of them
+                return rows;
+            }
+            rows++;
+        }
+        final long bytes = in.getPosition() - header.getDataOffset();
+        return rows * (file.length() - header.getDataOffset()) / bytes;
+    }
+
+    /**
+     * Estimates the row count of a capture that is still being written from the sizes and row counts of its first
+     * blocks. Only the block headers are read.
+     */
+    private long estimateRowCountOfBlocks(RandomAccessFile file, KettleStreamHeader header) throws IOException {
+        final long length = file.length();
+        long position = header.getDataOffset();
+        long rows = 0;
+        for (int i = 0; i < ESTIMATE_SAMPLE_BLOCKS && position + 12 <= length; i++) {
+            file.seek(position);
+            final int rowCount = file.readInt();
+            if (rowCount == KettleStreamFormat.END_OF_DATA) {
+                // read all of them
+                return rows;
+            }
+            file.readInt();
+            final int storedLength = file.readInt();
+            rows += rowCount;
+            position += 12 + storedLength;
+        }
+        if (rows == 0) {
+            return 0;
+        }
+        final long bytes = Math.min(position, length) - header.getDataOffset();
+        return rows * (length - header.getDataOffset()) / bytes;
+    }
+
+    private static DataInputStream createEmptyInputStream() {
+        return new DataInputStream(new ByteArrayInputStream(new byte[0]));
+    }
+
+    private static boolean isStreaming(KettleStreamHeader header) {
+        return Boolean.parseBoolean(header.getProperties().get(KettleStreamFormat.PROPERTY_STREAMING));
+    }
+
+    /**
+     * Creates a stream of the row data in the blocks of a version 2 or later file.
+     */
+    private KettleRowInputStream createRowInputStream(KettleStreamHeader header, KettleBlockReader blockReader) {
+        final KettleBlockDictionary dictionary = header.getVersion() < KettleStreamFormat.VERSION_4 ? null
+                : new KettleBlockDictionary(header.getRowMeta().size());
+        return new KettleRowInputStream(new KettleBlockInputStream(blockReader, dictionary));
+    }
+
+    /**
+     * Creates a reader for the blocks of a version 2 file. Compressed blocks are read and decompressed on a separate
+     * thread, so that decompression does not add to the time spent decoding rows.
+     *
+     * @param follow whether to wait for more blocks at the end of the file, for captures that are being written
+     * @param selectedBlocks the blocks to read, or null to read all of them
+     * @param blockIndex the footer index of the block the file is positioned at
+     */
+    private KettleBlockReader createBlockReader(RandomAccessFile file, KettleStreamHeader header, boolean follow,
+            boolean[] selectedBlocks, int blockIndex) throws IOException {
+        final CaptureCodec codec =
+                CaptureCodecs.getCodec(header.getProperties().get(KettleStreamFormat.PROPERTY_CODEC));
+        final DataInputStream inputStream;
+        if (follow) {
+            final String timeoutProperty = header.getProperties().get(KettleStreamFormat.PROPERTY_STREAMING_TIMEOUT);
+            final long timeout = timeoutProperty == null ? CaptureOptions.DEFAULT_STREAMING_TIMEOUT
+                    : Long.parseLong(timeoutProperty);
+            inputStream = new DataInputStream(new BufferedInputStream(
+                    new FollowingInputStream(Channels.newInputStream(file.getChannel()), timeout)));
+        } else {
+            inputStream = createChannelInputStream(file, file.getFilePointer());
+        }
+        if (NoCompressionCodec.NAME.equals(codec.getName())) {
+            return new KettleBlockReader(inputStream, codec, selectedBlocks, blockIndex);
+        }
+        return new PrefetchingBlockReader(inputStream, codec, selectedBlocks, blockIndex, PREFETCH_BLOCKS);
+    }
+
+    private KettleStreamHeader readMetadataSection(RandomAccessFile file) {
         // transformation name, step name & RowMeta ...
         try {
-            transformationName = inputStream.readUTF();
+            KettleValueMetaPlugins.ensureRegistered();
+
+            final KettleStreamHeader header = KettleStreamHeaderCache.getHeader(new File(filename), file);
+            logger.debug("Read capture file version: {}", header.getVersion());
+            transformationName = header.getTransformationName();
             logger.debug("Read transformation name: {}", transformationName);
-            stepName = inputStream.readUTF();
+            stepName = header.getStepName();
             logger.debug("Read step name: {}", stepName);
-            rowMeta = new RowMeta(inputStream);
+            rowMeta = header.getRowMeta();
             logger.debug("Read row meta: {}", rowMeta);
+            return header;
         } catch (Exception e) {
             throw new MetaModelException("Error while reading metadata section", e);
         }
@@ -123,8 +640,28 @@ public class KettleDataContext extends QueryPostprocessDataContext {
     @Override
     protected Schema getMainSchema() throws MetaModelException {
         MutableSchema schema = new MutableSchema(getTransformationName());
+        for (KettleDataContext stepContext : getStepContexts()) {
+            schema.addTable(stepContext.createTable(schema));
+        }
+        return schema;
+    }
+
+    private MutableTable createTable(MutableSchema schema) {
         MutableTable table = new MutableTable(getStepName(), TableType.TABLE);
         table.setSchema(schema);
+        if (isSampled()) {
+            final String sampling = getCaptureProperties().get(SamplingPolicy.PROPERTY_POLICY) + " sampling, seed "
+                    + getCaptureProperties().get(SamplingPolicy.PROPERTY_SEED);
+            if (getPopulationRowCount() == -1) {
+                // still being written
+                table.setRemarks("Sample (" + sampling + ")");
+            } else {
+                table.setRemarks("Sample of " + getRowCount() + " out of " + getPopulationRowCount() + " rows ("
+                        + sampling + ")");
+            }
+        } else if (isTruncated()) {
+            table.setRemarks("First " + getRowCount() + " rows, the transformation was stopped at the row budget");
+        }
         RowMetaInterface rowMeta = getRowMeta();
         for (int i = 0; i < rowMeta.size(); i++) {
             ValueMetaInterface valueMeta = rowMeta.getValueMeta(i);
@@ -133,8 +670,7 @@ public class KettleDataContext extends QueryPostprocessDataContext {
                     false, "");
             table.addColumn(column);
         }
-        schema.addTable(table);
-        return schema;
+        return table;
     }
 
     private ColumnType getColumnType(ValueMetaInterface valueMeta) {
@@ -166,11 +702,35 @@ public class KettleDataContext extends QueryPostprocessDataContext {
         return getTransformationName();
     }
 
+    public boolean isReuseRows() {
+        return reuseRows;
+    }
+
+    /**
+     * Sets whether the data sets of this context return one row object for all rows, overwriting it on every call to
+     * {@link DataSet#next()}. This avoids allocating a row per record, but is only safe when every row is consumed
+     * before the next one is read: no ordering, grouping or distinct in the query, and no consumer that keeps rows
+     * around, like the multi threaded DataCleaner task runner. Disabled by default.
+     *
+     * @param reuseRows
+     */
+    public void setReuseRows(boolean reuseRows) {
+        this.reuseRows = reuseRows;
+        if (stepContexts != null) {
+            for (KettleDataContext stepContext : stepContexts.values()) {
+                stepContext.setReuseRows(reuseRows);
+            }
+        }
+    }
+
     public String getFilename() {
         return filename;
     }
 
     public RowMetaInterface getRowMeta() {
+        if (stepContexts != null && filename != null) {
+            return getFirstStepContext().getRowMeta();
+        }
         if (rowMeta == null) {
             readMetadata();
         }
@@ -178,6 +738,9 @@ public class KettleDataContext extends QueryPostprocessDataContext {
     }
 
     public String getStepName() {
+        if (stepContexts != null && filename != null) {
+            return getFirstStepContext().getStepName();
+        }
         if (stepName == null) {
             readMetadata();
         }
@@ -185,26 +748,156 @@ public class KettleDataContext extends QueryPostprocessDataContext {
     }
 
     public String getTransformationName() {
+        if (stepContexts != null && filename != null) {
+            return getFirstStepContext().getTransformationName();
+        }
         if (transformationName == null) {
             readMetadata();
         }
         return transformationName;
     }
 
-    private DataInputStream createInputStream() {
+    /**
+     * @return the properties recorded in the header and footer of the capture, e.g. the codec and sampling policy.
+     *         Empty for version 1 files.
+     */
+    public Map<String, String> getCaptureProperties() {
+        if (stepContexts != null) {
+            return getFirstStepContext().getCaptureProperties();
+        }
+        if (captureProperties == null) {
+            if (filename == null) {
+                return Collections.emptyMap();
+            }
+            readMetadata();
+        }
+        return captureProperties;
+    }
+
+    /**
+     * @return the number of rows in the capture, or -1 if not known without reading all rows (version 1 files and
+     *         captures that are still being written)
+     */
+    public long getRowCount() {
+        if (stepContexts != null) {
+            return getFirstStepContext().getRowCount();
+        }
+        if (captureProperties == null && filename != null) {
+            readMetadata();
+        }
+        if (rowCount == -1 && rowIndex != null) {
+            return rowIndex.getRowCount();
+        }
+        return rowCount;
+    }
+
+    /**
+     * @return true if the capture only holds a sample of the rows the step produced
+     */
+    public boolean isSampled() {
+        return getCaptureProperties().containsKey(SamplingPolicy.PROPERTY_POLICY);
+    }
+
+    /**
+     * @return true if the transformation was stopped at the row budget of the capture, so the step would have produced
+     *         more rows
+     */
+    public boolean isTruncated() {
+        return Boolean.parseBoolean(getCaptureProperties().get(KettleStreamFormat.PROPERTY_TRUNCATED));
+    }
+
+    /**
+     * @return the number of rows the step produced, including the rows that are not in the sample, or -1 if not known
+     */
+    public long getPopulationRowCount() {
+        final String rowsSeen = getCaptureProperties().get(SamplingPolicy.PROPERTY_ROWS_SEEN);
+        if (rowsSeen != null) {
+            return Long.parseLong(rowsSeen);
+        }
+        return isSampled() ? -1 : getRowCount();
+    }
+
+    /**
+     * Gives the per column statistics computed while the rows were captured, without reading the rows. For a capture
+     * of a sample they describe the sample.
+     *
+     * @return the sketch of the captured rows, or null if the capture has none (written with sketching off, by an
+     *         older version, or still being written)
+     */
+    public synchronized CaptureSketch getCaptureSketch() {
+        if (stepContexts != null) {
+            return getFirstStepContext().getCaptureSketch();
+        }
+        if (captureSketch == null && filename != null) {
+            final String sketchOffset = getCaptureProperties().get(KettleStreamFormat.PROPERTY_SKETCH_OFFSET);
+            if (sketchOffset != null) {
+                captureSketch = readSketch(Long.parseLong(sketchOffset));
+            }
+        }
+        return captureSketch;
+    }
+
+    /**
+     * @param column a column of the schema of this context
+     * @return the sketch of the column, see {@link #getCaptureSketch()}, or null if the capture has none
+     */
+    public ColumnSketch getColumnSketch(Column column) {
+        final CaptureSketch sketch = getStepContext(column.getTable()).getCaptureSketch();
+        return sketch == null ? null : sketch.getColumnSketch(column.getName());
+    }
+
+    private CaptureSketch readSketch(long offset) {
+        final RandomAccessFile file = openFile();
         try {
-            return new DataInputStream(new FileInputStream(filename));
+            file.seek(offset);
+            final DataInputStream inputStream =
+                    new DataInputStream(new BufferedInputStream(Channels.newInputStream(file.getChannel())));
+            return CaptureSketch.read(inputStream, getRowMeta());
+        } catch (IOException e) {
+            throw new MetaModelException("Unable to read the sketch of the capture", e);
+        } finally {
+            FileHelper.safeClose(file);
+        }
+    }
+
+    private RandomAccessFile openFile() {
+        try {
+            return new RandomAccessFile(filename, "r");
         } catch (FileNotFoundException e) {
             throw new MetaModelException("Unable to open input stream", e);
         }
     }
 
+    /**
+     * Creates a stream that reads the (complete) file through a large buffer, for decoding the rows without system
+     * calls for every few bytes.
+     *
+     * @param file
+     * @param position the position to start reading at
+     * @return
+     * @throws IOException
+     */
+    private static DataInputStream createChannelInputStream(RandomAccessFile file, long position) throws IOException {
+        return new DataInputStream(new FileChannelInputStream(file.getChannel(), position));
+    }
+
     private void readMetadata() {
-        final DataInputStream inputStream = createInputStream();
+        final RandomAccessFile file = openFile();
         try {
-            readMetadataSection(inputStream);
+            final KettleStreamHeader header = readMetadataSection(file);
+            final Map<String, String> properties = new LinkedHashMap<>(header.getProperties());
+            if (header.getVersion() != KettleStreamFormat.VERSION_1) {
+                final KettleStreamFooter footer = KettleStreamFooter.read(file);
+                if (footer != null) {
+                    rowCount = footer.getRowCount();
+                    properties.putAll(footer.getProperties());
+                }
+            }
+            captureProperties = properties;
+        } catch (IOException e) {
+            throw new MetaModelException("Error while reading footer", e);
         } finally {
-            FileHelper.safeClose(inputStream);
+            FileHelper.safeClose(file);
         }
     }
 }
@@ -1,61 +1,108 @@
 package org.pentaho.di.profiling.datacleaner;
 
 import java.io.DataInputStream;
+import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
 
 import org.apache.metamodel.MetaModelException;
 import org.apache.metamodel.data.AbstractDataSet;
 import org.apache.metamodel.data.DataSet;
-import org.apache.metamodel.data.DataSetHeader;
 import org.apache.metamodel.data.DefaultRow;
 import org.apache.metamodel.data.Row;
 import org.apache.metamodel.query.SelectItem;
 import org.apache.metamodel.schema.Column;
 import org.apache.metamodel.util.FileHelper;
-import org.pentaho.di.core.exception.KettleEOFException;
 import org.pentaho.di.core.exception.KettleValueException;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.row.ValueMetaInterface;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Data set over the rows of a capture. The columns of the header are mapped to the Kettle row once, and values that
+ * are already in their native representation are passed on without conversion.
+ * <p>
+ * By default every {@link #getRow()} call returns a new row. When the data set is created with row reuse enabled, one
+ * row object is returned for all rows and overwritten by {@link #next()}, which avoids all per row allocations but is
+ * only correct for consumers that are done with a row before asking for the next one.
+ */
 final class KettleDataSet extends AbstractDataSet implements DataSet {
 
     private static final Logger logger = LoggerFactory.getLogger(KettleDataSet.class);
 
     private final DataInputStream inputStream;
-    private final RowMetaInterface rowMeta;
+    private final KettleRowDecoder rowDecoder;
+    private final int[] kettleIndexes;
+    private final ValueMetaInterface[] convertedValueMetas;
+    private final boolean reuseRows;
+    private final Object[] rowBuffer;
+    private final Object[] reusedValues;
+    private final Row reusedRow;
 
     private Object[] row;
 
     public KettleDataSet(List<Column> columns, DataInputStream inputStream, RowMetaInterface rowMeta) {
+        this(columns, inputStream, rowMeta, false);
+    }
+
+    /**
+     * @param columns the columns to return
+     * @param inputStream the row data
+     * @param rowMeta the metadata of the rows
+     * @param reuseRows whether one row object is returned for all rows
+     */
+    public KettleDataSet(List<Column> columns, DataInputStream inputStream, RowMetaInterface rowMeta,
+            boolean reuseRows) {
         super(columns.stream().map(c -> new SelectItem(c)).collect(Collectors.toList()));
         this.inputStream = inputStream;
-        this.rowMeta = rowMeta;
+        this.kettleIndexes = columns.stream().mapToInt(c -> rowMeta.indexOfValue(c.getName())).toArray();
+        this.rowDecoder = new KettleRowDecoder(rowMeta, kettleIndexes);
+
+        // values with normal storage already have the type of their column
+        this.convertedValueMetas = new ValueMetaInterface[kettleIndexes.length];
+        for (int i = 0; i < kettleIndexes.length; i++) {
+            final ValueMetaInterface valueMeta = rowMeta.getValueMeta(kettleIndexes[i]);
+            if (valueMeta.getStorageType() != ValueMetaInterface.STORAGE_TYPE_NORMAL) {
+                convertedValueMetas[i] = valueMeta;
+            }
+        }
+
+        this.reuseRows = reuseRows;
+        this.rowBuffer = new Object[rowMeta.size()];
+        if (reuseRows) {
+            this.reusedValues = new Object[kettleIndexes.length];
+            this.reusedRow = new DefaultRow(getHeader(), reusedValues);
+        } else {
+            this.reusedValues = null;
+            this.reusedRow = null;
+        }
         this.row = null;
     }
 
     @Override
     public Row getRow() {
-        final DataSetHeader header = getHeader();
-        final Object[] values = new Object[header.size()];
+        final Object[] values = reuseRows ? reusedValues : new Object[kettleIndexes.length];
 
-        if (row != null) {
-            for (int i = 0; i < header.size(); i++) {
-                final Column column = header.getSelectItem(i).getColumn();
-                final int kettleIndex = rowMeta.indexOfValue(column.getName());
-                final Object rawValue = row[kettleIndex];
-                try {
-                    final ValueMetaInterface valueMeta = rowMeta.getValueMeta(kettleIndex);
-                    values[i] = valueMeta.convertData(valueMeta, rawValue);
-                } catch (KettleValueException e) {
-                    throw new MetaModelException(e);
+        if (row == null) {
+            Arrays.fill(values, null);
+        } else {
+            for (int i = 0; i < kettleIndexes.length; i++) {
+                final Object rawValue = row[kettleIndexes[i]];
+                final ValueMetaInterface valueMeta = convertedValueMetas[i];
+                if (valueMeta == null) {
+                    values[i] = rawValue;
+                } else {
+                    try {
+                        values[i] = valueMeta.convertData(valueMeta, rawValue);
+                    } catch (KettleValueException e) {
+                        throw new MetaModelException(e);
+                    }
                 }
             }
         }
 
-        return new DefaultRow(header, values);
+        return reuseRows ? reusedRow : new DefaultRow(getHeader(), values);
     }
 
     @Override
@@ -67,10 +114,10 @@ final class KettleDataSet extends AbstractDataSet implements DataSet {
     @Override
     public boolean next() {
         try {
-            row = rowMeta.readData(inputStream);
-        } catch (KettleEOFException e) {
-            logger.debug("No more data to read from input");
-            row = null;
+            row = rowDecoder.readRow(inputStream, rowBuffer);
+            if (row == null) {
+                logger.debug("No more data to read from input");
+            }
         } catch (Exception e) {
             logger.info("Next row not readable, ending stream", e);
             row = null;
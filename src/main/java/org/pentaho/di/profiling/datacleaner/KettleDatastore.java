@@ -1,5 +1,8 @@
 package org.pentaho.di.profiling.datacleaner;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import org.datacleaner.api.Configured;
 import org.datacleaner.connection.Datastore;
 import org.datacleaner.connection.DatastoreConnectionImpl;
@@ -21,6 +24,8 @@ public class KettleDatastore extends UsageAwareDatastore<KettleDataContext> impl
 
     private RowMetaInterface rowMeta;
 
+    private Map<String, RowMetaInterface> stepFields;
+
     public KettleDatastore(String name, String filename) {
         super(name);
         this.name = name;
@@ -35,14 +40,28 @@ public class KettleDatastore extends UsageAwareDatastore<KettleDataContext> impl
         this.rowMeta = rowMeta;
     }
 
+    /**
+     * Creates a datastore for building a job on several steps of a transformation, before they are captured.
+     *
+     * @param name
+     * @param stepFields the row metadata of the steps, by step name
+     */
+    public KettleDatastore(String name, Map<String, RowMetaInterface> stepFields) {
+        super(name);
+        this.name = name;
+        this.stepFields = new LinkedHashMap<>(stepFields);
+    }
+
     public KettleDatastore() {
-        this(null, null);
+        this(null, (String) null);
     }
 
     @Override
     protected UsageAwareDatastoreConnection<KettleDataContext> createDatastoreConnection() {
         KettleDataContext kettleDataContext;
-        if (rowMeta == null) {
+        if (stepFields != null) {
+            kettleDataContext = new KettleDataContext(name, stepFields);
+        } else if (rowMeta == null) {
             // Get the row metadata from the remote socket
             kettleDataContext = new KettleDataContext(filename);
         } else {
@@ -54,7 +73,8 @@ public class KettleDatastore extends UsageAwareDatastore<KettleDataContext> impl
 
     @Override
     public PerformanceCharacteristics getPerformanceCharacteristics() {
-        return new PerformanceCharacteristicsImpl(false, true);
+        // row ranges, max rows and counts are answered natively by the data context, so let DataCleaner push them down
+        return new PerformanceCharacteristicsImpl(true, true);
     }
 
     @Override
@@ -0,0 +1,140 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+/**
+ * Writes the rows of a block, dictionary encoding the string columns with few distinct values, see
+ * {@link KettleStreamFormat}. The other columns are written like RowMeta.writeData would.
+ * <p>
+ * All string columns start out dictionary encoded. A column whose dictionary grows beyond half the rows of a block has
+ * too many distinct values to benefit, and is written plain from the next block on. The distinct values of a plain
+ * column are still counted, up to half the rows of the previous block, so the column goes back to its dictionary as
+ * soon as a block has few distinct values again.
+ * <p>
+ * Instances are not thread safe, there is one per segment writer.
+ */
+final class KettleDictionaryEncoder {
+
+    /**
+     * Blocks with fewer rows than this say too little about the cardinality of a column to give up on its dictionary.
+     */
+    static final int MIN_ADAPTIVE_ROWS = 32;
+
+    private final RowMetaInterface rowMeta;
+    private final boolean[] encoded;
+    private final Map<String, Integer>[] dictionaries;
+
+    /**
+     * The distinct values of the plain string columns in the current block, null once there are too many.
+     */
+    private final Set<String>[] distinctValues;
+
+    /**
+     * The number of distinct values beyond which a plain column stays plain.
+     */
+    private int maxDistinctValues;
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    KettleDictionaryEncoder(RowMetaInterface rowMeta) {
+        this.rowMeta = rowMeta;
+        this.encoded = new boolean[rowMeta.size()];
+        this.dictionaries = new Map[rowMeta.size()];
+        this.distinctValues = new Set[rowMeta.size()];
+        for (int i = 0; i < encoded.length; i++) {
+            final ValueMetaInterface valueMeta = rowMeta.getValueMeta(i);
+            if (valueMeta.getType() == ValueMetaInterface.TYPE_STRING
+                    && valueMeta.getStorageType() == ValueMetaInterface.STORAGE_TYPE_NORMAL) {
+                encoded[i] = true;
+                dictionaries[i] = new HashMap<>();
+            }
+        }
+    }
+
+    /**
+     * Writes the encoding of the columns at the start of a block.
+     *
+     * @param outputStream
+     * @throws IOException
+     */
+    void startBlock(DataOutputStream outputStream) throws IOException {
+        for (int i = 0; i < encoded.length; i++) {
+            outputStream.writeBoolean(encoded[i]);
+            if (encoded[i]) {
+                dictionaries[i].clear();
+            } else if (dictionaries[i] != null) {
+                if (distinctValues[i] == null) {
+                    distinctValues[i] = new HashSet<>();
+                } else {
+                    distinctValues[i].clear();
+                }
+            }
+        }
+    }
+
+    void writeRow(DataOutputStream outputStream, Object[] row) throws IOException, KettleException {
+        for (int i = 0; i < encoded.length; i++) {
+            if (!encoded[i]) {
+                rowMeta.getValueMeta(i).writeData(outputStream, row[i]);
+                final Set<String> distinct = distinctValues[i];
+                if (distinct != null && row[i] != null && distinct.add((String) row[i])
+                        && distinct.size() > maxDistinctValues) {
+                    // too many to go back to the dictionary, stop counting
+                    distinct.clear();
+                    distinctValues[i] = null;
+                }
+                continue;
+            }
+
+            final String value = (String) row[i];
+            outputStream.writeBoolean(value == null);
+            if (value == null) {
+                continue;
+            }
+            final Map<String, Integer> dictionary = dictionaries[i];
+            final Integer id = dictionary.get(value);
+            if (id != null) {
+                KettleStreamFormat.writeVarInt(outputStream, id);
+            } else {
+                final int newId = dictionary.size();
+                dictionary.put(value, newId);
+                KettleStreamFormat.writeVarInt(outputStream, newId);
+                final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                outputStream.writeInt(bytes.length);
+                outputStream.write(bytes);
+            }
+        }
+    }
+
+    /**
+     * Decides the encoding of the columns for the next block, based on the block that was just written.
+     *
+     * @param rowCount the number of rows in the block
+     */
+    void endBlock(int rowCount) {
+        if (rowCount < MIN_ADAPTIVE_ROWS) {
+            return;
+        }
+        final int maxDistinct = rowCount / 2;
+        for (int i = 0; i < encoded.length; i++) {
+            if (dictionaries[i] == null) {
+                continue;
+            }
+            if (encoded[i]) {
+                encoded[i] = dictionaries[i].size() <= maxDistinct;
+            } else {
+                encoded[i] = distinctValues[i] != null && distinctValues[i].size() <= maxDistinct;
+            }
+        }
+        maxDistinctValues = maxDistinct;
+    }
+}
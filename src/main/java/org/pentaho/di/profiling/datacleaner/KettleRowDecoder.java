@@ -0,0 +1,182 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+import org.pentaho.di.core.exception.KettleEOFException;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+/**
+ * Decodes rows written with {@link RowMetaInterface#writeData(java.io.DataOutputStream, Object[])}, but only the values
+ * of the selected columns. The values of the other columns are skipped using their length, without being decoded.
+ * <p>
+ * Skipping relies on the serialized layout of the Kettle value types: a null flag, followed by a fixed size value or
+ * a length prefixed one. Types with another layout, like timestamps, are decoded and then discarded.
+ * <p>
+ * When reading from a {@link KettleRowInputStream}, dictionary encoded columns are decoded with the
+ * {@link KettleBlockDictionary} of the stream.
+ */
+final class KettleRowDecoder {
+
+    /**
+     * Value size marking a length prefixed value
+     */
+    private static final int LENGTH_PREFIXED = -1;
+
+    /**
+     * Value size marking a value that cannot be skipped without decoding it
+     */
+    private static final int DECODE = -2;
+
+    private final RowMetaInterface rowMeta;
+    private final boolean[] selected;
+    private final int[] valueSizes;
+    private final boolean decodeAll;
+
+    /**
+     * @param rowMeta the metadata of the rows
+     * @param selectedIndexes the indexes of the values to decode
+     */
+    KettleRowDecoder(RowMetaInterface rowMeta, int[] selectedIndexes) {
+        this.rowMeta = rowMeta;
+        this.selected = new boolean[rowMeta.size()];
+        for (int index : selectedIndexes) {
+            selected[index] = true;
+        }
+        this.valueSizes = new int[rowMeta.size()];
+        boolean all = true;
+        for (int i = 0; i < valueSizes.length; i++) {
+            valueSizes[i] = getValueSize(rowMeta.getValueMeta(i));
+            all &= selected[i];
+        }
+        this.decodeAll = all;
+    }
+
+    /**
+     * @return the number of bytes of a serialized value (after the null flag), or one of the markers
+     *         {@link #LENGTH_PREFIXED} and {@link #DECODE}
+     */
+    private static int getValueSize(ValueMetaInterface valueMeta) {
+        switch (valueMeta.getStorageType()) {
+        case ValueMetaInterface.STORAGE_TYPE_BINARY_STRING:
+            return LENGTH_PREFIXED;
+        case ValueMetaInterface.STORAGE_TYPE_INDEXED:
+            return 4;
+        case ValueMetaInterface.STORAGE_TYPE_NORMAL:
+            break;
+        default:
+            return DECODE;
+        }
+
+        switch (valueMeta.getType()) {
+        case ValueMetaInterface.TYPE_STRING:
+        case ValueMetaInterface.TYPE_BIGNUMBER:
+        case ValueMetaInterface.TYPE_BINARY:
+            return LENGTH_PREFIXED;
+        case ValueMetaInterface.TYPE_NUMBER:
+        case ValueMetaInterface.TYPE_INTEGER:
+        case ValueMetaInterface.TYPE_DATE:
+            return 8;
+        case ValueMetaInterface.TYPE_BOOLEAN:
+            return 1;
+        default:
+            return DECODE;
+        }
+    }
+
+    /**
+     * Reads the next row.
+     *
+     * @param inputStream
+     * @return the row, with values only for the selected columns, or null if there are no more rows
+     * @throws KettleException
+     * @throws IOException
+     */
+    public Object[] readRow(DataInputStream inputStream) throws KettleException, IOException {
+        if (decodeAll && !(inputStream instanceof KettleRowInputStream
+                && ((KettleRowInputStream) inputStream).getDictionary() != null)) {
+            try {
+                return rowMeta.readData(inputStream);
+            } catch (KettleEOFException e) {
+                return null;
+            }
+        }
+        return readRow(inputStream, new Object[valueSizes.length]);
+    }
+
+    /**
+     * Reads the next row into an existing buffer, so that no row array has to be allocated. The values of the columns
+     * that are not selected are left as they are.
+     *
+     * @param inputStream
+     * @param row the buffer to read into, as long as the row metadata
+     * @return the buffer, or null if there are no more rows
+     * @throws KettleException
+     * @throws IOException
+     */
+    public Object[] readRow(DataInputStream inputStream, Object[] row) throws KettleException, IOException {
+        KettleBlockDictionary dictionary = null;
+        if (inputStream instanceof KettleRowInputStream) {
+            final KettleRowInputStream rowInputStream = (KettleRowInputStream) inputStream;
+            if (!rowInputStream.startRow()) {
+                return null;
+            }
+            dictionary = rowInputStream.getDictionary();
+        }
+
+        for (int i = 0; i < valueSizes.length; i++) {
+            if (dictionary != null && dictionary.isEncoded(i)) {
+                // new entries are read even when not selected, later rows of the block may refer to them
+                final boolean isNull = inputStream.readBoolean();
+                final String value = isNull ? null : dictionary.readValue(inputStream, i);
+                if (selected[i]) {
+                    row[i] = value;
+                }
+            } else if (selected[i] || valueSizes[i] == DECODE) {
+                try {
+                    row[i] = rowMeta.getValueMeta(i).readData(inputStream);
+                } catch (KettleEOFException e) {
+                    if (i == 0) {
+                        return null;
+                    }
+                    throw e;
+                }
+                if (!selected[i]) {
+                    row[i] = null;
+                }
+            } else {
+                final boolean isNull;
+                try {
+                    isNull = inputStream.readBoolean();
+                } catch (EOFException e) {
+                    if (i == 0) {
+                        return null;
+                    }
+                    throw e;
+                }
+                if (!isNull) {
+                    final int size = valueSizes[i] == LENGTH_PREFIXED ? inputStream.readInt() : valueSizes[i];
+                    skipFully(inputStream, size);
+                }
+            }
+        }
+        return row;
+    }
+
+    private static void skipFully(DataInputStream inputStream, int length) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            final int skipped = inputStream.skipBytes(remaining);
+            if (skipped <= 0) {
+                // skipBytes gives up at the end of the stream, reading reports it properly
+                inputStream.readByte();
+                remaining--;
+            } else {
+                remaining -= skipped;
+            }
+        }
+    }
+}
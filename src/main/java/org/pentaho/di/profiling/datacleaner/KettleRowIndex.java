@@ -0,0 +1,149 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMetaInterface;
+
+/**
+ * Sparse row offset index for version 1 capture files, which have no footer index of their own. The offset of every
+ * {@link #INTERVAL}th row is recorded, so that a reader can seek close to any row and only has to decode the rows in
+ * between.
+ * <p>
+ * The index is built in one pass over the capture and stored next to it in a sidecar file, see
+ * {@link #getIndexFile(String)}. The sidecar records the length and modification time of the capture, so that a stale
+ * index is never used.
+ */
+final class KettleRowIndex {
+
+    /**
+     * The number of rows between two indexed offsets.
+     */
+    static final int INTERVAL = 4096;
+
+    private static final int MAGIC = 0x4B534958;
+
+    private final long[] offsets;
+    private final long rowCount;
+
+    KettleRowIndex(long[] offsets, long rowCount) {
+        this.offsets = offsets;
+        this.rowCount = rowCount;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @param row the zero based row number, must be less than the row count
+     * @return the file offset of the indexed row at or before the row
+     */
+    public long getOffset(long row) {
+        return offsets[(int) (row / INTERVAL)];
+    }
+
+    /**
+     * @param row the zero based row number
+     * @return the number of the indexed row at or before the row
+     */
+    public static long getIndexedRow(long row) {
+        return row - row % INTERVAL;
+    }
+
+    static File getIndexFile(String filename) {
+        return new File(filename + ".idx");
+    }
+
+    /**
+     * Builds the index by reading all rows of a version 1 capture.
+     *
+     * @param file the capture file
+     * @param dataOffset the offset of the first row
+     * @param rowMeta
+     * @return
+     * @throws IOException
+     * @throws KettleException
+     */
+    static KettleRowIndex build(RandomAccessFile file, long dataOffset, RowMetaInterface rowMeta)
+            throws IOException, KettleException {
+        final FileChannelInputStream in = new FileChannelInputStream(file.getChannel(), dataOffset);
+        final DataInputStream dataInputStream = new DataInputStream(in);
+        final KettleRowDecoder skipper = new KettleRowDecoder(rowMeta, new int[0]);
+        long[] offsets = new long[16];
+        long rowCount = 0;
+        while (true) {
+            final long offset = in.getPosition();
+            if (skipper.readRow(dataInputStream) == null) {
+                break;
+            }
+            if (rowCount % INTERVAL == 0) {
+                final int index = (int) (rowCount / INTERVAL);
+                if (index == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                }
+                offsets[index] = offset;
+            }
+            rowCount++;
+        }
+        return new KettleRowIndex(Arrays.copyOf(offsets, (int) ((rowCount + INTERVAL - 1) / INTERVAL)), rowCount);
+    }
+
+    /**
+     * Writes the index to a sidecar file.
+     *
+     * @param indexFile
+     * @param captureFile the capture the index belongs to
+     * @throws IOException
+     */
+    void write(File indexFile, File captureFile) throws IOException {
+        try (DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+            out.writeInt(MAGIC);
+            out.writeLong(captureFile.length());
+            out.writeLong(captureFile.lastModified());
+            out.writeInt(INTERVAL);
+            out.writeLong(rowCount);
+            out.writeInt(offsets.length);
+            for (long offset : offsets) {
+                out.writeLong(offset);
+            }
+        }
+    }
+
+    /**
+     * Reads the index from a sidecar file.
+     *
+     * @param indexFile
+     * @param captureFile the capture the index should belong to
+     * @return the index, or null if there is no valid index for the capture in its current state
+     */
+    static KettleRowIndex read(File indexFile, File captureFile) {
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readLong() != captureFile.length()
+                    || in.readLong() != captureFile.lastModified() || in.readInt() != INTERVAL) {
+                return null;
+            }
+            final long rowCount = in.readLong();
+            final long[] offsets = new long[in.readInt()];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = in.readLong();
+            }
+            return new KettleRowIndex(offsets, rowCount);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * The row data of a block framed capture, with access to the state of the block being read, which
+ * {@link KettleRowDecoder} needs for dictionary encoded columns.
+ */
+final class KettleRowInputStream extends DataInputStream {
+
+    private final KettleBlockInputStream blockInputStream;
+
+    KettleRowInputStream(KettleBlockInputStream blockInputStream) {
+        super(blockInputStream);
+        this.blockInputStream = blockInputStream;
+    }
+
+    /**
+     * Moves to the next block if the current one has been read, so that the dictionaries match the next row.
+     *
+     * @return false if there are no more rows
+     * @throws IOException
+     */
+    boolean startRow() throws IOException {
+        return blockInputStream.startRow();
+    }
+
+    /**
+     * @return the dictionaries of the current block, or null if the capture has no dictionary encoded columns
+     */
+    KettleBlockDictionary getDictionary() {
+        return blockInputStream.getDictionary();
+    }
+}
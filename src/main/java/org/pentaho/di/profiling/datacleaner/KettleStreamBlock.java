@@ -0,0 +1,63 @@
+package org.pentaho.di.profiling.datacleaner;
+
+/**
+ * Footer index entry of a version 2 capture file, describing where a block of rows starts.
+ */
+final class KettleStreamBlock {
+
+    private final long offset;
+    private final long firstRow;
+    private final int rowCount;
+    private final int segment;
+    private final KettleZoneMap zoneMap;
+
+    KettleStreamBlock(long offset, long firstRow, int rowCount, int segment) {
+        this(offset, firstRow, rowCount, segment, null);
+    }
+
+    KettleStreamBlock(long offset, long firstRow, int rowCount, int segment, KettleZoneMap zoneMap) {
+        this.offset = offset;
+        this.firstRow = firstRow;
+        this.rowCount = rowCount;
+        this.segment = segment;
+        this.zoneMap = zoneMap;
+    }
+
+    /**
+     * @return the file offset of the block, pointing at its row count
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the (zero based) number of the first row in the block
+     */
+    public long getFirstRow() {
+        return firstRow;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return the segment (step copy) that produced the rows of the block
+     */
+    public int getSegment() {
+        return segment;
+    }
+
+    /**
+     * @return the statistics of the values in the block, or null if they are not known
+     */
+    public KettleZoneMap getZoneMap() {
+        return zoneMap;
+    }
+
+    @Override
+    public String toString() {
+        return "KettleStreamBlock[offset=" + offset + ",firstRow=" + firstRow + ",rowCount=" + rowCount + ",segment="
+                + segment + "]";
+    }
+}
@@ -0,0 +1,206 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.pentaho.di.core.row.RowMetaInterface;
+
+import com.google.common.io.CountingInputStream;
+
+/**
+ * The footer of a version 2 or later capture file: an index mapping row numbers to block offsets, plus any properties
+ * that are only known once the capture has finished. It may be followed by the {@link KettleZoneMap}s of the blocks,
+ * which are only read when asked for.
+ */
+final class KettleStreamFooter {
+
+    /**
+     * Marks the start of the zone maps section. Without zone maps the properties are followed by the trailer, which
+     * starts with a row count or footer offset whose high bytes are zero in practice.
+     */
+    static final int ZONE_MAPS_MARKER = 0x5A4D4150;
+
+    private final List<KettleStreamBlock> blocks;
+    private final Map<String, String> properties;
+    private final long zoneMapsOffset;
+
+    KettleStreamFooter(List<KettleStreamBlock> blocks, Map<String, String> properties) {
+        this(blocks, properties, -1);
+    }
+
+    private KettleStreamFooter(List<KettleStreamBlock> blocks, Map<String, String> properties, long zoneMapsOffset) {
+        this.blocks = Collections.unmodifiableList(blocks);
+        this.properties = Collections.unmodifiableMap(properties);
+        this.zoneMapsOffset = zoneMapsOffset;
+    }
+
+    public List<KettleStreamBlock> getBlocks() {
+        return blocks;
+    }
+
+    public Map<String, String> getProperties() {
+        return properties;
+    }
+
+    public long getRowCount() {
+        if (blocks.isEmpty()) {
+            return 0;
+        }
+        final KettleStreamBlock lastBlock = blocks.get(blocks.size() - 1);
+        return lastBlock.getFirstRow() + lastBlock.getRowCount();
+    }
+
+    /**
+     * Finds the index of the block that contains a particular row.
+     *
+     * @param row the zero based row number
+     * @return the block index, or -1 if the row is beyond the end of the capture
+     */
+    public int indexOfBlock(long row) {
+        int low = 0;
+        int high = blocks.size() - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final KettleStreamBlock block = blocks.get(middle);
+            if (row < block.getFirstRow()) {
+                high = middle - 1;
+            } else if (row >= block.getFirstRow() + block.getRowCount()) {
+                low = middle + 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    void write(DataOutputStream outputStream) throws IOException {
+        outputStream.writeInt(blocks.size());
+        for (KettleStreamBlock block : blocks) {
+            outputStream.writeLong(block.getOffset());
+            outputStream.writeLong(block.getFirstRow());
+            outputStream.writeInt(block.getRowCount());
+            outputStream.writeInt(block.getSegment());
+        }
+        KettleStreamFormat.writeProperties(outputStream, properties);
+    }
+
+    /**
+     * Writes the footer, followed by the zone maps of the blocks if all blocks have one.
+     *
+     * @param outputStream
+     * @param rowMeta the metadata of the rows, for serializing the minimum and maximum values
+     * @throws IOException
+     */
+    void write(DataOutputStream outputStream, RowMetaInterface rowMeta) throws IOException {
+        write(outputStream);
+        if (rowMeta == null || blocks.isEmpty() || blocks.stream().anyMatch(block -> block.getZoneMap() == null)) {
+            return;
+        }
+        outputStream.writeInt(ZONE_MAPS_MARKER);
+        for (KettleStreamBlock block : blocks) {
+            block.getZoneMap().write(outputStream, rowMeta);
+        }
+    }
+
+    /**
+     * Reads the footer of a version 2 or later capture file.
+     *
+     * @param file the capture file
+     * @return the footer, or null if the file has no (complete) trailer, e.g. because it is still being written
+     * @throws IOException
+     */
+    static KettleStreamFooter read(RandomAccessFile file) throws IOException {
+        final long footerOffset = readFooterOffset(file);
+        if (footerOffset == -1) {
+            return null;
+        }
+
+        file.seek(footerOffset);
+        final CountingInputStream countingInputStream =
+                new CountingInputStream(new BufferedInputStream(Channels.newInputStream(file.getChannel())));
+        final DataInputStream inputStream = new DataInputStream(countingInputStream);
+        final int blockCount = inputStream.readInt();
+        final List<KettleStreamBlock> blocks = new ArrayList<>(blockCount);
+        for (int i = 0; i < blockCount; i++) {
+            final long offset = inputStream.readLong();
+            final long firstRow = inputStream.readLong();
+            final int rowCount = inputStream.readInt();
+            final int segment = inputStream.readInt();
+            blocks.add(new KettleStreamBlock(offset, firstRow, rowCount, segment));
+        }
+        final Map<String, String> properties = KettleStreamFormat.readProperties(inputStream);
+        final long zoneMapsOffset = footerOffset + countingInputStream.getCount();
+        final boolean hasZoneMaps = !blocks.isEmpty() && inputStream.readInt() == ZONE_MAPS_MARKER;
+        return new KettleStreamFooter(blocks, properties, hasZoneMaps ? zoneMapsOffset + 4 : -1);
+    }
+
+    /**
+     * Reads the zone maps of the blocks.
+     *
+     * @param file the capture file the footer was read from
+     * @param rowMeta the metadata of the rows
+     * @return the zone maps, in the order of the blocks, or null if the capture has none
+     * @throws IOException
+     */
+    List<KettleZoneMap> readZoneMaps(RandomAccessFile file, RowMetaInterface rowMeta) throws IOException {
+        if (zoneMapsOffset == -1) {
+            return null;
+        }
+        file.seek(zoneMapsOffset);
+        final DataInputStream inputStream =
+                new DataInputStream(new BufferedInputStream(Channels.newInputStream(file.getChannel())));
+        final List<KettleZoneMap> zoneMaps = new ArrayList<>(blocks.size());
+        for (int i = 0; i < blocks.size(); i++) {
+            zoneMaps.add(KettleZoneMap.read(inputStream, rowMeta));
+        }
+        return zoneMaps;
+    }
+
+    /**
+     * Reads the number of rows of a version 2 or later capture file from its trailer, without reading the footer
+     * (version 3) or from the footer (version 2).
+     *
+     * @param file the capture file
+     * @param version the version of the capture file
+     * @return the row count, or -1 if the file has no (complete) trailer, e.g. because it is still being written
+     * @throws IOException
+     */
+    static long readRowCount(RandomAccessFile file, int version) throws IOException {
+        if (version < KettleStreamFormat.VERSION_3) {
+            final KettleStreamFooter footer = read(file);
+            return footer == null ? -1 : footer.getRowCount();
+        }
+        if (readFooterOffset(file) == -1 || file.length() < KettleStreamFormat.ROW_COUNT_TRAILER_LENGTH) {
+            return -1;
+        }
+        file.seek(file.length() - KettleStreamFormat.ROW_COUNT_TRAILER_LENGTH);
+        return file.readLong();
+    }
+
+    /**
+     * @return the offset of the footer recorded in the trailer, or -1 if there is no valid trailer
+     */
+    private static long readFooterOffset(RandomAccessFile file) throws IOException {
+        final long length = file.length();
+        if (length < KettleStreamFormat.TRAILER_LENGTH) {
+            return -1;
+        }
+
+        file.seek(length - KettleStreamFormat.TRAILER_LENGTH);
+        final long footerOffset = file.readLong();
+        final int magic = file.readInt();
+        if (magic != KettleStreamFormat.MAGIC || footerOffset < 0
+                || footerOffset > length - KettleStreamFormat.TRAILER_LENGTH) {
+            return -1;
+        }
+        return footerOffset;
+    }
+}
@@ -0,0 +1,172 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Describes the layout of the ".kettlestream" capture files written by {@link DataCleanerKettleFileWriter} and read by
+ * {@link KettleDataContext}.
+ * <p>
+ * Version 1 files consist of the transformation name, the step name and the {@link org.pentaho.di.core.row.RowMeta}
+ * followed by back-to-back rows, which means they can only be read sequentially.
+ * <p>
+ * Version 2 files are laid out like this:
+ *
+ * <pre>
+ * header:  magic (int), version (int), transformation name (UTF), step name (UTF), row meta, properties
+ * blocks:  row count (int), uncompressed length (int), stored length (int), payload
+ *          ... terminated by an END_OF_DATA row count. Blocks with no rows and no payload may occur, they keep a
+ *          streaming capture alive and are not in the footer.
+ * sketch:  optional (version 4 and later), see {@link org.pentaho.di.profiling.datacleaner.sketch.CaptureSketch}
+ * footer:  block count (int), per block: offset (long), first row (long), row count (int), segment (int),
+ *          properties
+ * zones:   optional (version 3 and later), zone maps marker (int), per block and column: tracked (boolean), and if
+ *          so null count (int), minimum and maximum (values as in the rows)
+ * trailer: row count (long, version 3 and later), footer offset (long), magic (int)
+ * </pre>
+ *
+ * Version 3 adds the row count to the trailer, so that it can be read without reading the footer, and may carry the
+ * per block statistics used to skip blocks when filtering, see {@link KettleZoneMap}.
+ * <p>
+ * The footer makes it possible to seek directly to the block containing a particular row. The payload of a block is
+ * the rows written with RowMeta.writeData, compressed with the codec named by the {@link #PROPERTY_CODEC} header
+ * property.
+ * <p>
+ * In version 4 the payload of a block starts with one boolean per column, telling whether the string values of the
+ * column are dictionary encoded in the block. A dictionary encoded value is the null flag followed by an id (a
+ * variable length int, see {@link #writeVarInt(DataOutputStream, int)}). An id equal to the number of distinct values
+ * seen so far in the block introduces a new value, which follows as a length (int) and UTF-8 bytes. Dictionaries
+ * start empty in every block, so blocks can still be read on their own, and the encoding of a column may change from
+ * block to block, see {@link KettleDictionaryEncoder}.
+ * <p>
+ * When a step runs in multiple copies, each copy writes its own blocks (its "segment"). The blocks of the segments are
+ * interleaved in the file and row numbers run across all of them, so readers see a single sequence of rows.
+ * <p>
+ * A version 4 capture may hold the per column sketches of its rows between the END_OF_DATA marker and the footer. The
+ * {@link #PROPERTY_SKETCH_OFFSET} footer property points at them, readers that don't know about sketches never get
+ * there.
+ * <p>
+ * A capture of a sample of the rows carries the sampling policy in its header properties and the number of rows the
+ * step produced in its footer properties, see {@link org.pentaho.di.profiling.datacleaner.sampling.SamplingPolicy}.
+ */
+final class KettleStreamFormat {
+
+    /**
+     * Marks a version 2 (or later) file. A version 1 file starts with the length of the UTF encoded transformation
+     * name, which can never be 0xFFFF in practice.
+     */
+    static final int MAGIC = 0xFFFF4B53;
+
+    static final int VERSION_1 = 1;
+    static final int VERSION_2 = 2;
+    static final int VERSION_3 = 3;
+    static final int VERSION_4 = 4;
+
+    static final int CURRENT_VERSION = VERSION_4;
+
+    /**
+     * Block row count that marks the end of the data section.
+     */
+    static final int END_OF_DATA = -1;
+
+    /**
+     * Number of bytes in the trailer at the very end of a version 2 file, and in the part of a version 3 trailer after
+     * the row count.
+     */
+    static final int TRAILER_LENGTH = 8 + 4;
+
+    /**
+     * Number of bytes in the trailer at the very end of a version 3 file.
+     */
+    static final int ROW_COUNT_TRAILER_LENGTH = 8 + TRAILER_LENGTH;
+
+    /**
+     * Header property holding the name of the {@link org.pentaho.di.profiling.datacleaner.codec.CaptureCodec} used for
+     * the blocks. Absent means no compression.
+     */
+    static final String PROPERTY_CODEC = "codec";
+
+    /**
+     * Header property that is "true" when the capture is read while it is being written. Readers then wait for more
+     * blocks at the end of the file, until the END_OF_DATA marker is written.
+     */
+    static final String PROPERTY_STREAMING = "streaming";
+
+    /**
+     * Header property with the number of milliseconds a streaming reader waits for more data before it considers the
+     * capture abandoned. The writer appends empty blocks when it has nothing to write for a while.
+     */
+    static final String PROPERTY_STREAMING_TIMEOUT = "streaming.timeout";
+
+    /**
+     * Header property with the row budget of the capture, see {@link CaptureOptions#getRowBudget()}.
+     */
+    static final String PROPERTY_ROW_BUDGET = "row_budget";
+
+    /**
+     * Footer property that is "true" when the transformation was stopped at the row budget, so the capture holds the
+     * first rows of the step rather than all of them.
+     */
+    static final String PROPERTY_TRUNCATED = "truncated";
+
+    /**
+     * Footer property with the offset of the sketch of the captured rows, see {@link KettleStreamWriter#setSketching}.
+     * Absent when the capture has no sketch.
+     */
+    static final String PROPERTY_SKETCH_OFFSET = "sketch.offset";
+
+    /**
+     * Number of serialized row bytes that are collected before a block is written.
+     */
+    static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    private KettleStreamFormat() {
+        // prevent instantiation
+    }
+
+    static void writeProperties(DataOutputStream outputStream, Map<String, String> properties) throws IOException {
+        outputStream.writeInt(properties.size());
+        for (Map.Entry<String, String> entry : properties.entrySet()) {
+            outputStream.writeUTF(entry.getKey());
+            outputStream.writeUTF(entry.getValue());
+        }
+    }
+
+    static Map<String, String> readProperties(DataInputStream inputStream) throws IOException {
+        final int size = inputStream.readInt();
+        final Map<String, String> properties = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            final String key = inputStream.readUTF();
+            final String value = inputStream.readUTF();
+            properties.put(key, value);
+        }
+        return properties;
+    }
+
+    /**
+     * Writes a non-negative int in 7 bit groups, least significant first, so that small values take a single byte.
+     */
+    static void writeVarInt(DataOutputStream outputStream, int value) throws IOException {
+        int remaining = value;
+        while ((remaining & ~0x7F) != 0) {
+            outputStream.writeByte((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        outputStream.writeByte(remaining);
+    }
+
+    static int readVarInt(DataInputStream inputStream) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            final int b = inputStream.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length int");
+    }
+}
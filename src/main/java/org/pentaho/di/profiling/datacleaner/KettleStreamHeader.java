@@ -0,0 +1,111 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+
+import com.google.common.io.CountingInputStream;
+
+/**
+ * The header of a capture file, see {@link KettleStreamFormat}.
+ */
+final class KettleStreamHeader {
+
+    private final int version;
+    private final String transformationName;
+    private final String stepName;
+    private final RowMetaInterface rowMeta;
+    private final Map<String, String> properties;
+    private final long dataOffset;
+
+    KettleStreamHeader(int version, String transformationName, String stepName, RowMetaInterface rowMeta,
+            Map<String, String> properties, long dataOffset) {
+        this.version = version;
+        this.transformationName = transformationName;
+        this.stepName = stepName;
+        this.rowMeta = rowMeta;
+        this.properties = Collections.unmodifiableMap(properties);
+        this.dataOffset = dataOffset;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public String getTransformationName() {
+        return transformationName;
+    }
+
+    public String getStepName() {
+        return stepName;
+    }
+
+    public RowMetaInterface getRowMeta() {
+        return rowMeta;
+    }
+
+    public Map<String, String> getProperties() {
+        return properties;
+    }
+
+    /**
+     * @return the file offset where the data section (rows in version 1, blocks in version 2) begins
+     */
+    public long getDataOffset() {
+        return dataOffset;
+    }
+
+    void write(DataOutputStream outputStream) throws IOException, KettleException {
+        outputStream.writeInt(KettleStreamFormat.MAGIC);
+        outputStream.writeInt(version);
+        outputStream.writeUTF(transformationName);
+        outputStream.writeUTF(stepName);
+        rowMeta.writeMeta(outputStream);
+        KettleStreamFormat.writeProperties(outputStream, properties);
+    }
+
+    /**
+     * Reads a header from the start of a capture file. All versions are supported.
+     *
+     * @param in a stream positioned at the start of the file. Must support mark/reset.
+     * @return the header
+     * @throws IOException
+     * @throws KettleException
+     */
+    static KettleStreamHeader read(InputStream in) throws IOException, KettleException {
+        final CountingInputStream countingInputStream = new CountingInputStream(in);
+        final DataInputStream inputStream = new DataInputStream(countingInputStream);
+
+        countingInputStream.mark(4);
+        final int version;
+        if (inputStream.readInt() == KettleStreamFormat.MAGIC) {
+            version = inputStream.readInt();
+            if (version > KettleStreamFormat.CURRENT_VERSION) {
+                throw new IOException("Unsupported capture file version: " + version);
+            }
+        } else {
+            countingInputStream.reset();
+            version = KettleStreamFormat.VERSION_1;
+        }
+
+        final String transformationName = inputStream.readUTF();
+        final String stepName = inputStream.readUTF();
+        final RowMetaInterface rowMeta = new RowMeta(inputStream);
+        final Map<String, String> properties;
+        if (version == KettleStreamFormat.VERSION_1) {
+            properties = Collections.emptyMap();
+        } else {
+            properties = KettleStreamFormat.readProperties(inputStream);
+        }
+
+        return new KettleStreamHeader(version, transformationName, stepName, rowMeta, properties,
+                countingInputStream.getCount());
+    }
+}
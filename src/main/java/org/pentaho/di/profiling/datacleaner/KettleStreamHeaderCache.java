@@ -0,0 +1,91 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.pentaho.di.core.exception.KettleException;
+
+/**
+ * Process wide cache of parsed capture headers, so that the many queries DataCleaner runs against one capture do not
+ * each parse its header again. Entries are keyed by the path, length and modification time of the file, so a capture
+ * that is rewritten or still growing is parsed again instead of being served a stale header.
+ */
+final class KettleStreamHeaderCache {
+
+    static final int MAX_ENTRIES = 32;
+
+    private static final Map<Key, KettleStreamHeader> headers =
+            new LinkedHashMap<Key, KettleStreamHeader>(16, 0.75f, true) {
+
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, KettleStreamHeader> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+
+    private KettleStreamHeaderCache() {
+        // prevent instantiation
+    }
+
+    /**
+     * Gets the header of a capture file from the cache, or reads it and caches it.
+     *
+     * @param file the capture file
+     * @param randomAccessFile the opened capture file, only read when the header is not cached
+     * @return the header
+     * @throws IOException
+     * @throws KettleException
+     */
+    static KettleStreamHeader getHeader(File file, RandomAccessFile randomAccessFile) throws IOException, KettleException {
+        final Key key = new Key(file.getAbsolutePath(), file.length(), file.lastModified());
+        synchronized (headers) {
+            final KettleStreamHeader header = headers.get(key);
+            if (header != null) {
+                return header;
+            }
+        }
+
+        randomAccessFile.seek(0);
+        final KettleStreamHeader header = KettleStreamHeader
+                .read(new BufferedInputStream(Channels.newInputStream(randomAccessFile.getChannel())));
+        synchronized (headers) {
+            headers.put(key, header);
+        }
+        return header;
+    }
+
+    private static final class Key {
+
+        private final String path;
+        private final long length;
+        private final long lastModified;
+
+        Key(String path, long length, long lastModified) {
+            this.path = path;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return path.equals(other.path) && length == other.length && lastModified == other.lastModified;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, length, lastModified);
+        }
+    }
+}
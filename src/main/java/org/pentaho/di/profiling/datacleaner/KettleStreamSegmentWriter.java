@@ -0,0 +1,119 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.profiling.datacleaner.codec.CaptureCodec;
+import org.pentaho.di.profiling.datacleaner.sketch.CaptureSketch;
+
+/**
+ * Collects the rows of one segment of a capture (typically one step copy) into blocks. Serialization (with
+ * {@link KettleDictionaryEncoder}), compression and keeping the {@link KettleZoneMap} of the block and the
+ * {@link CaptureSketch} of the segment happen on the calling thread, finished blocks are handed to the shared
+ * {@link KettleStreamWriter}.
+ * <p>
+ * Instances are not thread safe, each one should only be used by a single thread.
+ */
+final class KettleStreamSegmentWriter {
+
+    private final KettleStreamWriter streamWriter;
+    private final int segment;
+    private final CaptureCodec codec;
+    private final int blockSize;
+    private final boolean sketching;
+
+    private final BlockBuffer blockBuffer;
+    private final DataOutputStream blockOutputStream;
+    private int blockRowCount;
+    private KettleDictionaryEncoder dictionaryEncoder;
+    private KettleZoneMap zoneMap;
+    private CaptureSketch sketch;
+    private byte[] compressBuffer;
+
+    KettleStreamSegmentWriter(KettleStreamWriter streamWriter, int segment, CaptureCodec codec, int blockSize,
+            boolean sketching) {
+        this.streamWriter = streamWriter;
+        this.segment = segment;
+        this.codec = codec;
+        this.blockSize = blockSize;
+        this.sketching = sketching;
+        this.blockBuffer = new BlockBuffer(blockSize + blockSize / 4);
+        this.blockOutputStream = new DataOutputStream(blockBuffer);
+        this.blockRowCount = 0;
+        this.compressBuffer = new byte[codec.getMaxCompressedLength(blockSize + blockSize / 4)];
+    }
+
+    public int getSegment() {
+        return segment;
+    }
+
+    /**
+     * @return the sketch of the rows written so far, or null if sketching is off or no rows were written
+     */
+    CaptureSketch getSketch() {
+        return sketch;
+    }
+
+    public void writeRow(RowMetaInterface rowMeta, Object[] row) throws IOException, KettleException {
+        if (dictionaryEncoder == null) {
+            dictionaryEncoder = new KettleDictionaryEncoder(rowMeta);
+            if (sketching) {
+                sketch = CaptureSketch.create(rowMeta);
+            }
+        }
+        if (blockRowCount == 0) {
+            dictionaryEncoder.startBlock(blockOutputStream);
+            zoneMap = KettleZoneMap.create(rowMeta);
+        }
+        dictionaryEncoder.writeRow(blockOutputStream, row);
+        zoneMap.add(row);
+        if (sketch != null) {
+            sketch.add(row);
+        }
+        blockRowCount++;
+        if (blockBuffer.size() >= blockSize) {
+            flushBlock();
+        }
+    }
+
+    /**
+     * Compresses the rows collected so far and appends them to the file as a block, if there are any.
+     *
+     * @throws IOException
+     */
+    public void flushBlock() throws IOException {
+        if (blockRowCount == 0) {
+            return;
+        }
+        final int length = blockBuffer.size();
+        final int maxCompressedLength = codec.getMaxCompressedLength(length);
+        if (compressBuffer.length < maxCompressedLength) {
+            compressBuffer = new byte[maxCompressedLength];
+        }
+        final int storedLength = codec.compress(blockBuffer.getBuffer(), length, compressBuffer);
+
+        streamWriter.appendBlock(segment, blockRowCount, length, compressBuffer, storedLength, zoneMap);
+        dictionaryEncoder.endBlock(blockRowCount);
+
+        blockRowCount = 0;
+        zoneMap = null;
+        blockBuffer.reset();
+    }
+
+    /**
+     * Gives access to the internal buffer, to avoid copying every block before compressing it.
+     */
+    private static final class BlockBuffer extends ByteArrayOutputStream {
+
+        BlockBuffer(int size) {
+            super(size);
+        }
+
+        byte[] getBuffer() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.profiling.datacleaner.codec.CaptureCodec;
+import org.pentaho.di.profiling.datacleaner.codec.NoCompressionCodec;
+import org.pentaho.di.profiling.datacleaner.sketch.CaptureSketch;
+
+import com.google.common.io.CountingOutputStream;
+
+/**
+ * Writes a version 4 capture file, see {@link KettleStreamFormat}. Rows are collected into blocks which are compressed
+ * with a {@link CaptureCodec} and written with a length prefix, and the offsets of the blocks are written to the footer
+ * when the writer is closed.
+ * <p>
+ * Rows are written through {@link KettleStreamSegmentWriter}s, typically one per step copy. Each segment writer
+ * serializes and compresses its blocks on its own thread, and only appending a finished block to the file is
+ * synchronized. The blocks of the segments are interleaved in the file, so the reading side sees one table.
+ * <p>
+ * When sketching is on, every segment also keeps a {@link CaptureSketch} of its rows. They are merged and written
+ * after the blocks when the writer is closed.
+ */
+final class KettleStreamWriter implements Closeable {
+
+    private final CountingOutputStream countingOutputStream;
+    private final DataOutputStream outputStream;
+    private final CaptureCodec codec;
+    private final int blockSize;
+
+    private final List<KettleStreamSegmentWriter> segments;
+    private final List<KettleStreamBlock> blocks;
+    private final Map<String, String> footerProperties;
+    private RowMetaInterface rowMeta;
+    private KettleStreamSegmentWriter defaultSegment;
+    private long rowCount;
+    private long uncompressedBytes;
+    private boolean closed;
+    private boolean streaming;
+    private boolean sketching;
+    private long streamingTimeout;
+    private Thread heartbeatThread;
+    private long lastWriteMillis;
+
+    KettleStreamWriter(OutputStream out) {
+        this(out, new NoCompressionCodec(), KettleStreamFormat.DEFAULT_BLOCK_SIZE);
+    }
+
+    KettleStreamWriter(OutputStream out, CaptureCodec codec, int blockSize) {
+        this.countingOutputStream = new CountingOutputStream(out);
+        this.outputStream = new DataOutputStream(countingOutputStream);
+        this.codec = codec;
+        this.blockSize = blockSize;
+        this.segments = new ArrayList<>();
+        this.blocks = new ArrayList<>();
+        this.footerProperties = new LinkedHashMap<>();
+        this.rowCount = 0;
+        this.uncompressedBytes = 0;
+        this.closed = false;
+        this.streaming = false;
+        this.sketching = false;
+    }
+
+    /**
+     * Makes the capture readable while it is being written. Every block is flushed as soon as it is complete, and empty
+     * blocks are appended when nothing has been written for a while, so that readers can tell a slow step from an
+     * abandoned capture. Must be called before the header is written.
+     *
+     * @param timeoutMillis the number of milliseconds readers wait for more data, see
+     *            {@link KettleStreamFormat#PROPERTY_STREAMING_TIMEOUT}
+     */
+    public synchronized void setStreaming(long timeoutMillis) {
+        streaming = true;
+        streamingTimeout = timeoutMillis;
+    }
+
+    public synchronized boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Turns the per column sketches of the captured rows on or off, see {@link CaptureSketch}. Must be called before
+     * the segment writers are created.
+     *
+     * @param sketching
+     */
+    public synchronized void setSketching(boolean sketching) {
+        this.sketching = sketching;
+    }
+
+    public synchronized boolean isSketching() {
+        return sketching;
+    }
+
+    private void writeHeartbeats(long heartbeatMillis) {
+        try {
+            while (true) {
+                Thread.sleep(heartbeatMillis);
+                synchronized (this) {
+                    if (closed) {
+                        return;
+                    }
+                    if (System.currentTimeMillis() - lastWriteMillis >= heartbeatMillis) {
+                        outputStream.writeInt(0);
+                        outputStream.writeInt(0);
+                        outputStream.writeInt(0);
+                        outputStream.flush();
+                        lastWriteMillis = System.currentTimeMillis();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } catch (IOException e) {
+            // the next block or the footer will fail as well and report it
+        }
+    }
+
+    public synchronized void writeHeader(String transformationName, String stepName, RowMetaInterface rowMeta,
+            Map<String, String> properties) throws IOException, KettleException {
+        final Map<String, String> headerProperties = new LinkedHashMap<>(properties);
+        headerProperties.put(KettleStreamFormat.PROPERTY_CODEC, codec.getName());
+        if (streaming) {
+            headerProperties.put(KettleStreamFormat.PROPERTY_STREAMING, "true");
+            headerProperties.put(KettleStreamFormat.PROPERTY_STREAMING_TIMEOUT, Long.toString(streamingTimeout));
+        }
+        final KettleStreamHeader header = new KettleStreamHeader(KettleStreamFormat.CURRENT_VERSION,
+                transformationName, stepName, rowMeta, headerProperties, -1);
+        header.write(outputStream);
+        outputStream.flush();
+        this.rowMeta = rowMeta;
+
+        if (streaming) {
+            final long heartbeatMillis = Math.max(10, streamingTimeout / 4);
+            lastWriteMillis = System.currentTimeMillis();
+            heartbeatThread = new Thread(() -> writeHeartbeats(heartbeatMillis), "DataCleaner capture heartbeat");
+            heartbeatThread.setDaemon(true);
+            heartbeatThread.start();
+        }
+    }
+
+    /**
+     * Creates a writer for the rows of one segment, e.g. one step copy. The returned writer is not thread safe, but
+     * separate segment writers can be used concurrently.
+     *
+     * @param segment the segment number, recorded in the footer index
+     * @return
+     */
+    public synchronized KettleStreamSegmentWriter createSegmentWriter(int segment) {
+        final KettleStreamSegmentWriter segmentWriter =
+                new KettleStreamSegmentWriter(this, segment, codec, blockSize, sketching);
+        segments.add(segmentWriter);
+        return segmentWriter;
+    }
+
+    /**
+     * Writes a row to the default segment (0). Convenient when rows are written by a single thread only.
+     *
+     * @param rowMeta
+     * @param row
+     * @throws IOException
+     * @throws KettleException
+     */
+    public void writeRow(RowMetaInterface rowMeta, Object[] row) throws IOException, KettleException {
+        if (defaultSegment == null) {
+            defaultSegment = createSegmentWriter(0);
+        }
+        defaultSegment.writeRow(rowMeta, row);
+    }
+
+    /**
+     * Appends a compressed block to the file.
+     *
+     * @param segment the segment the block belongs to
+     * @param blockRowCount the number of rows in the block
+     * @param length the uncompressed length of the block payload
+     * @param payload the compressed payload
+     * @param storedLength the length of the compressed payload
+     * @param zoneMap the statistics of the rows in the block, may be null
+     * @throws IOException
+     */
+    synchronized void appendBlock(int segment, int blockRowCount, int length, byte[] payload, int storedLength,
+            KettleZoneMap zoneMap) throws IOException {
+        if (closed) {
+            throw new IOException("Capture writer has been closed");
+        }
+        blocks.add(
+                new KettleStreamBlock(countingOutputStream.getCount(), rowCount, blockRowCount, segment, zoneMap));
+        outputStream.writeInt(blockRowCount);
+        outputStream.writeInt(length);
+        outputStream.writeInt(storedLength);
+        outputStream.write(payload, 0, storedLength);
+        if (streaming) {
+            outputStream.flush();
+            lastWriteMillis = System.currentTimeMillis();
+        }
+
+        rowCount += blockRowCount;
+        uncompressedBytes += length;
+    }
+
+    /**
+     * Sets a property that will be written to the footer, for information that is only known when the capture ends.
+     *
+     * @param key
+     * @param value
+     */
+    public synchronized void setFooterProperty(String key, String value) {
+        footerProperties.put(key, value);
+    }
+
+    /**
+     * @return the number of rows written to blocks so far
+     */
+    public synchronized long getRowCount() {
+        return rowCount;
+    }
+
+    public CaptureCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * @return the number of serialized row bytes written so far, before compression
+     */
+    public synchronized long getUncompressedBytes() {
+        return uncompressedBytes;
+    }
+
+    /**
+     * @return the number of bytes written to the file so far
+     */
+    public synchronized long getWrittenBytes() {
+        return countingOutputStream.getCount();
+    }
+
+    /**
+     * Flushes the remaining rows of all segments and writes the footer. Must only be called when no more rows are
+     * being written to any of the segments.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            for (KettleStreamSegmentWriter segment : segments) {
+                segment.flushBlock();
+            }
+            closed = true;
+            outputStream.writeInt(KettleStreamFormat.END_OF_DATA);
+            writeSketch();
+
+            final long footerOffset = countingOutputStream.getCount();
+            final KettleStreamFooter footer = new KettleStreamFooter(blocks, footerProperties);
+            footer.write(outputStream, rowMeta);
+
+            outputStream.writeLong(footer.getRowCount());
+            outputStream.writeLong(footerOffset);
+            outputStream.writeInt(KettleStreamFormat.MAGIC);
+            outputStream.flush();
+        } finally {
+            closed = true;
+            if (heartbeatThread != null) {
+                heartbeatThread.interrupt();
+            }
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Merges the sketches of the segments and writes them between the blocks and the footer, recording their offset
+     * in the footer properties.
+     */
+    private void writeSketch() throws IOException {
+        if (!sketching || rowMeta == null) {
+            return;
+        }
+        final CaptureSketch sketch = CaptureSketch.create(rowMeta);
+        for (KettleStreamSegmentWriter segment : segments) {
+            if (segment.getSketch() != null) {
+                sketch.merge(segment.getSketch());
+            }
+        }
+        final long sketchOffset = countingOutputStream.getCount();
+        footerProperties.put(KettleStreamFormat.PROPERTY_SKETCH_OFFSET, Long.toString(sketchOffset));
+        sketch.write(outputStream, rowMeta);
+    }
+}
@@ -0,0 +1,40 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.plugins.PluginRegistry;
+import org.pentaho.di.core.row.value.ValueMetaPluginType;
+
+/**
+ * Registers the value meta plugins that are needed to deserialize the row metadata of a capture. Scanning for the
+ * plugins is expensive, so it is done once per process, no matter how many captures are read or queried.
+ */
+final class KettleValueMetaPlugins {
+
+    private static volatile boolean registered = false;
+
+    private KettleValueMetaPlugins() {
+        // prevent instantiation
+    }
+
+    /**
+     * Registers the value meta plugins, unless that has already been done.
+     *
+     * @throws KettleException if the plugins could not be registered, in which case a later call tries again
+     */
+    static void ensureRegistered() throws KettleException {
+        if (registered) {
+            return;
+        }
+        synchronized (KettleValueMetaPlugins.class) {
+            if (registered) {
+                return;
+            }
+            final ValueMetaPluginType pluginType = ValueMetaPluginType.getInstance();
+            pluginType.searchPlugins();
+
+            PluginRegistry.init();
+            PluginRegistry.addPluginType(pluginType);
+            registered = true;
+        }
+    }
+}
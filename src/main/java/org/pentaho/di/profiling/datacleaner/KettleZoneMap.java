@@ -0,0 +1,181 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Date;
+
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+/**
+ * Statistics of the values in one block of a capture: per column the number of nulls and the smallest and largest
+ * value. Readers use them to skip blocks that cannot contain rows matching a filter, see {@link KettleZoneMapFilter}.
+ * <p>
+ * Only columns with normal storage and an ordered type are tracked. A column stops being tracked for the block when
+ * it holds a very long string, to keep the footer small.
+ */
+final class KettleZoneMap {
+
+    /**
+     * Strings longer than this are not recorded as the minimum or maximum of a column.
+     */
+    static final int MAX_STRING_LENGTH = 256;
+
+    private final boolean[] tracked;
+    private final int[] nullCounts;
+    private final Object[] minimums;
+    private final Object[] maximums;
+
+    private KettleZoneMap(int size) {
+        this.tracked = new boolean[size];
+        this.nullCounts = new int[size];
+        this.minimums = new Object[size];
+        this.maximums = new Object[size];
+    }
+
+    /**
+     * Creates an empty zone map for the rows of a block.
+     *
+     * @param rowMeta
+     * @return
+     */
+    static KettleZoneMap create(RowMetaInterface rowMeta) {
+        final KettleZoneMap zoneMap = new KettleZoneMap(rowMeta.size());
+        for (int i = 0; i < rowMeta.size(); i++) {
+            zoneMap.tracked[i] = isTrackable(rowMeta.getValueMeta(i));
+        }
+        return zoneMap;
+    }
+
+    private static boolean isTrackable(ValueMetaInterface valueMeta) {
+        if (valueMeta.getStorageType() != ValueMetaInterface.STORAGE_TYPE_NORMAL) {
+            return false;
+        }
+        switch (valueMeta.getType()) {
+        case ValueMetaInterface.TYPE_STRING:
+        case ValueMetaInterface.TYPE_NUMBER:
+        case ValueMetaInterface.TYPE_INTEGER:
+        case ValueMetaInterface.TYPE_DATE:
+        case ValueMetaInterface.TYPE_BIGNUMBER:
+        case ValueMetaInterface.TYPE_BOOLEAN:
+        case ValueMetaInterface.TYPE_TIMESTAMP:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Adds the values of a row to the statistics.
+     *
+     * @param row
+     */
+    @SuppressWarnings("unchecked")
+    void add(Object[] row) {
+        for (int i = 0; i < tracked.length; i++) {
+            if (!tracked[i]) {
+                continue;
+            }
+            final Object value = row[i];
+            if (value == null) {
+                nullCounts[i]++;
+                continue;
+            }
+            if (value instanceof String && ((String) value).length() > MAX_STRING_LENGTH) {
+                untrack(i);
+                continue;
+            }
+            try {
+                if (minimums[i] == null || ((Comparable<Object>) value).compareTo(minimums[i]) < 0) {
+                    minimums[i] = copy(value);
+                }
+                if (maximums[i] == null || ((Comparable<Object>) value).compareTo(maximums[i]) > 0) {
+                    maximums[i] = copy(value);
+                }
+            } catch (ClassCastException e) {
+                // mixed value classes in one column, don't guess at their order
+                untrack(i);
+            }
+        }
+    }
+
+    private void untrack(int index) {
+        tracked[index] = false;
+        minimums[index] = null;
+        maximums[index] = null;
+    }
+
+    /**
+     * Dates are mutable, and the row may be reused by the step that produced it.
+     */
+    private static Object copy(Object value) {
+        if (value instanceof Date) {
+            return ((Date) value).clone();
+        }
+        return value;
+    }
+
+    /**
+     * @param index the column index
+     * @return true if there are statistics for the column
+     */
+    public boolean isTracked(int index) {
+        return tracked[index];
+    }
+
+    public int getNullCount(int index) {
+        return nullCounts[index];
+    }
+
+    /**
+     * @param index the column index
+     * @return the smallest value of the column, or null if the column only holds nulls
+     */
+    public Object getMinimum(int index) {
+        return minimums[index];
+    }
+
+    /**
+     * @param index the column index
+     * @return the largest value of the column, or null if the column only holds nulls
+     */
+    public Object getMaximum(int index) {
+        return maximums[index];
+    }
+
+    void write(DataOutputStream outputStream, RowMetaInterface rowMeta) throws IOException {
+        for (int i = 0; i < tracked.length; i++) {
+            outputStream.writeBoolean(tracked[i]);
+            if (tracked[i]) {
+                outputStream.writeInt(nullCounts[i]);
+                try {
+                    final ValueMetaInterface valueMeta = rowMeta.getValueMeta(i);
+                    valueMeta.writeData(outputStream, minimums[i]);
+                    valueMeta.writeData(outputStream, maximums[i]);
+                } catch (KettleException e) {
+                    throw new IOException("Unable to write statistics of column " + i, e);
+                }
+            }
+        }
+    }
+
+    static KettleZoneMap read(DataInputStream inputStream, RowMetaInterface rowMeta) throws IOException {
+        final KettleZoneMap zoneMap = new KettleZoneMap(rowMeta.size());
+        for (int i = 0; i < rowMeta.size(); i++) {
+            zoneMap.tracked[i] = inputStream.readBoolean();
+            if (zoneMap.tracked[i]) {
+                zoneMap.nullCounts[i] = inputStream.readInt();
+                try {
+                    final ValueMetaInterface valueMeta = rowMeta.getValueMeta(i);
+                    zoneMap.minimums[i] = valueMeta.readData(inputStream);
+                    zoneMap.maximums[i] = valueMeta.readData(inputStream);
+                } catch (KettleException e) {
+                    throw new IOException("Unable to read statistics of column " + i, e);
+                }
+            }
+        }
+        return zoneMap;
+    }
+}
@@ -0,0 +1,145 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.metamodel.query.FilterItem;
+import org.apache.metamodel.query.LogicalOperator;
+import org.apache.metamodel.query.OperatorType;
+import org.apache.metamodel.query.SelectItem;
+import org.apache.metamodel.schema.Column;
+import org.apache.metamodel.util.ObjectComparator;
+import org.pentaho.di.core.row.RowMetaInterface;
+
+/**
+ * Decides which blocks of a capture may contain rows matching the WHERE clause of a query, based on the
+ * {@link KettleZoneMap}s of the blocks. It mirrors how {@link FilterItem#evaluate(org.apache.metamodel.data.Row)}
+ * treats nulls and compares values, and keeps a block whenever it can't tell for sure.
+ */
+final class KettleZoneMapFilter {
+
+    private final RowMetaInterface rowMeta;
+    private final Comparator<Object> comparator;
+
+    KettleZoneMapFilter(RowMetaInterface rowMeta) {
+        this.rowMeta = rowMeta;
+        this.comparator = ObjectComparator.getComparator();
+    }
+
+    /**
+     * @param whereItems the filters, all of which have to match
+     * @param blocks the blocks of the capture
+     * @param zoneMaps the zone maps of the blocks
+     * @return per block whether it may contain matching rows
+     */
+    boolean[] selectBlocks(List<FilterItem> whereItems, List<KettleStreamBlock> blocks, List<KettleZoneMap> zoneMaps) {
+        final boolean[] selected = new boolean[blocks.size()];
+        for (int i = 0; i < selected.length; i++) {
+            selected[i] = true;
+            for (FilterItem whereItem : whereItems) {
+                if (!canMatch(whereItem, blocks.get(i), zoneMaps.get(i))) {
+                    selected[i] = false;
+                    break;
+                }
+            }
+        }
+        return selected;
+    }
+
+    private boolean canMatch(FilterItem filterItem, KettleStreamBlock block, KettleZoneMap zoneMap) {
+        if (filterItem.isCompoundFilter()) {
+            final boolean and = filterItem.getLogicalOperator() == LogicalOperator.AND;
+            for (FilterItem childItem : filterItem.getChildItems()) {
+                if (canMatch(childItem, block, zoneMap) != and) {
+                    return !and;
+                }
+            }
+            return and;
+        }
+
+        final SelectItem selectItem = filterItem.getSelectItem();
+        if (filterItem.getExpression() != null || selectItem == null || filterItem.getOperand() instanceof SelectItem
+                || selectItem.hasFunction() || selectItem.getColumn() == null) {
+            return true;
+        }
+        final Column column = selectItem.getColumn();
+        final int index = rowMeta.indexOfValue(column.getName());
+        if (index == -1 || !zoneMap.isTracked(index)) {
+            return true;
+        }
+
+        final OperatorType operator = filterItem.getOperator();
+        final Object operand = filterItem.getOperand();
+        final int nullCount = zoneMap.getNullCount(index);
+        if (operand == null) {
+            if (operator == OperatorType.EQUALS_TO) {
+                return nullCount > 0;
+            }
+            if (operator == OperatorType.DIFFERENT_FROM) {
+                return nullCount < block.getRowCount();
+            }
+            return false;
+        }
+        if (operator == OperatorType.DIFFERENT_FROM) {
+            // matches the nulls, and anything but a block of identical values
+            return true;
+        }
+
+        final Object minimum = zoneMap.getMinimum(index);
+        final Object maximum = zoneMap.getMaximum(index);
+        if (minimum == null) {
+            // only nulls, which match nothing but DIFFERENT_FROM
+            return false;
+        }
+
+        try {
+            if (operator == OperatorType.EQUALS_TO) {
+                return isInRange(operand, minimum, maximum);
+            }
+            if (operator == OperatorType.GREATER_THAN) {
+                return comparator.compare(maximum, operand) > 0;
+            }
+            if (operator == OperatorType.GREATER_THAN_OR_EQUAL) {
+                return comparator.compare(maximum, operand) >= 0;
+            }
+            if (operator == OperatorType.LESS_THAN) {
+                return comparator.compare(minimum, operand) < 0;
+            }
+            if (operator == OperatorType.LESS_THAN_OR_EQUAL) {
+                return comparator.compare(minimum, operand) <= 0;
+            }
+            if (operator == OperatorType.IN) {
+                final Collection<?> values = getInValues(operand);
+                if (values == null) {
+                    return true;
+                }
+                for (Object value : values) {
+                    if (value != null && isInRange(value, minimum, maximum)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        } catch (RuntimeException e) {
+            // an operand that can't be compared to the values, let the filter itself decide
+            return true;
+        }
+        return true;
+    }
+
+    private boolean isInRange(Object value, Object minimum, Object maximum) {
+        return comparator.compare(minimum, value) <= 0 && comparator.compare(maximum, value) >= 0;
+    }
+
+    private static Collection<?> getInValues(Object operand) {
+        if (operand instanceof Collection) {
+            return (Collection<?>) operand;
+        }
+        if (operand instanceof Object[]) {
+            return Arrays.asList((Object[]) operand);
+        }
+        return null;
+    }
+}
@@ -1,19 +1,27 @@
 package org.pentaho.di.profiling.datacleaner;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FilenameFilter;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 
 import org.apache.commons.vfs2.FileObject;
 import org.apache.metamodel.DataContext;
-import org.apache.metamodel.schema.Column;
+import org.apache.metamodel.schema.ColumnType;
+import org.apache.metamodel.schema.Table;
 import org.datacleaner.api.InputColumn;
 import org.datacleaner.beans.BooleanAnalyzer;
 import org.datacleaner.beans.CompletenessAnalyzer;
@@ -23,14 +31,19 @@ import org.datacleaner.beans.StringAnalyzer;
 import org.datacleaner.beans.uniqueness.UniqueKeyCheckAnalyzer;
 import org.datacleaner.configuration.DataCleanerConfiguration;
 import org.datacleaner.configuration.DataCleanerConfigurationImpl;
+import org.datacleaner.configuration.DataCleanerEnvironmentImpl;
 import org.datacleaner.connection.Datastore;
 import org.datacleaner.connection.DatastoreConnection;
 import org.datacleaner.data.MetaModelInputColumn;
 import org.datacleaner.descriptors.ConfiguredPropertyDescriptor;
 import org.datacleaner.job.AnalysisJob;
+import org.datacleaner.job.ImmutableAnalysisJobMetadata;
 import org.datacleaner.job.JaxbJobWriter;
 import org.datacleaner.job.builder.AnalysisJobBuilder;
 import org.datacleaner.job.builder.AnalyzerComponentBuilder;
+import org.datacleaner.kettle.analyzers.ApproximateDistinctCountAnalyzer;
+import org.datacleaner.kettle.analyzers.ApproximateQuantilesAnalyzer;
+import org.datacleaner.kettle.analyzers.ApproximateTopValuesAnalyzer;
 import org.datacleaner.kettle.configuration.DataCleanerSpoonConfiguration;
 import org.datacleaner.kettle.configuration.DataCleanerSpoonConfigurationException;
 import org.datacleaner.kettle.configuration.utils.SoftwareVersionHelper;
@@ -45,9 +58,12 @@ import org.pentaho.di.core.exception.KettleStepException;
 import org.pentaho.di.core.gui.SpoonFactory;
 import org.pentaho.di.core.logging.LogChannel;
 import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.variables.Variables;
 import org.pentaho.di.core.vfs.KettleVFS;
 import org.pentaho.di.core.xml.XMLHandler;
+import org.pentaho.di.profiling.datacleaner.sampling.SamplingPolicy;
+import org.pentaho.di.profiling.datacleaner.sketch.HyperLogLog;
 import org.pentaho.di.trans.Trans;
 import org.pentaho.di.trans.TransExecutionConfiguration;
 import org.pentaho.di.trans.TransMeta;
@@ -61,16 +77,45 @@ import org.pentaho.ui.xul.dom.Document;
 import org.pentaho.ui.xul.impl.AbstractXulEventHandler;
 
 import com.google.common.base.CharMatcher;
+import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 
 public class ModelerHelper extends AbstractXulEventHandler implements ISpoonMenuController {
 
-    private static final String LOGCHANNEL_NAME = "DataCleaner";
+    static final String LOGCHANNEL_NAME = "DataCleaner";
 
     private static final String MAIN_CLASS_COMMUNITY = "org.datacleaner.Main";
     private static final String MAIN_CLASS_ENTERPRISE = "com.hi.datacleaner.Main";
 
+    /**
+     * Variable on the profiled transformation to run generated profiling jobs in the JVM of Spoon ("Y") instead of
+     * forking DataCleaner ("N"), see {@link InProcessDataCleaner}. The results are written to the log.
+     */
+    public static final String VARIABLE_IN_PROCESS = "DATACLEANER_IN_PROCESS";
+
+    /**
+     * Variable on the profiled transformation, or in kettle.properties for the database explorer, with the number of
+     * threads of the DataCleaner task runner. Without it the task runner is sized by {@link TaskRunnerSizing}.
+     */
+    public static final String VARIABLE_MAX_THREADS = "DATACLEANER_MAX_THREADS";
+
+    /**
+     * Variable with the number of jobs after which a DataCleaner worker is replaced by a fresh one, see
+     * {@link DataCleanerWorkerClient}.
+     */
+    public static final String VARIABLE_WORKER_MAX_JOBS = "DATACLEANER_WORKER_MAX_JOBS";
+
+    /**
+     * Variable on the profiled transformation with the number of captured rows above which the generated job uses
+     * analyzers with a fixed memory footprint and approximate results, see
+     * {@link #addAnalyzers(AnalysisJobBuilder, List, String, boolean)}. Streaming captures without a row budget count
+     * as very large, their size isn't known when the job is built.
+     */
+    public static final String VARIABLE_APPROXIMATE_ROWS = "DATACLEANER_APPROXIMATE_ROWS";
+
+    public static final long DEFAULT_APPROXIMATE_ROWS = 10000000;
+
     private static final Set<String> ID_COLUMN_TOKENS =
             new HashSet<>(Arrays.asList("id", "pk", "number", "no", "nr", "key"));
 
@@ -131,35 +176,30 @@ public class ModelerHelper extends AbstractXulEventHandler implements ISpoonMenu
     }
 
     public static int launchDataCleanerSimple(DataCleanerSpoonConfiguration dataCleanerSpoonConfiguration,
-            String jobFile, String outputFiletype, String outputFilename, String additionalArguments) {
+            String jobFile, String outputFiletype, String outputFilename, String additionalArguments,
+            DataCleanerProgress progress) {
         return launchDataCleaner(dataCleanerSpoonConfiguration, null, jobFile, null, null, outputFiletype,
-                outputFilename, additionalArguments, false);
+                outputFilename, additionalArguments, false, progress);
     }
 
+    /**
+     * Starts DataCleaner and waits until it exits. Its output is logged as described in {@link ProcessLog}, and the
+     * full output is kept in the logs folder of the plugin folder.
+     *
+     * @param progress the progress to update from the output of DataCleaner, or null
+     */
     public static int launchDataCleaner(DataCleanerSpoonConfiguration dataCleanerSpoonConfiguration, String confFile,
             String jobFile, String datastore, String dataFile, String outputFiletype, String outputFilename,
-            String additionalArguments, boolean profileStep) {
+            String additionalArguments, boolean profileStep, DataCleanerProgress progress) {
 
         final LogChannelInterface log = new LogChannel(LOGCHANNEL_NAME);
         int exitCode = 0;
 
         try {
-            final String dcInstallationPath = dataCleanerSpoonConfiguration.getDataCleanerInstallationFolderPath()
-                    + "/DataCleaner.jar" + File.pathSeparatorChar
-                    + dataCleanerSpoonConfiguration.getDataCleanerInstallationFolderPath() + "/modules/*"
-                    + File.pathSeparatorChar + dataCleanerSpoonConfiguration.getDataCleanerInstallationFolderPath()
-                    + "/lib/*";
-            final StringBuilder classPathBuilder;
-            if (profileStep) {
-                classPathBuilder = addAdditionalJars(dataCleanerSpoonConfiguration, dcInstallationPath);
-            } else {
-                classPathBuilder = new StringBuilder();
-                classPathBuilder.append(dcInstallationPath);
-            }
             final List<String> cmds = new ArrayList<String>();
             cmds.add(System.getProperty("java.home") + "/bin/java");
             cmds.add("-cp");
-            cmds.add(classPathBuilder.toString());
+            cmds.add(getClassPath(dataCleanerSpoonConfiguration, profileStep));
             if (profileStep) {
                 cmds.add("-Ddatacleaner.ui.visible=true");
                 cmds.add("-Ddatacleaner.embed.client=Kettle");
@@ -225,15 +265,15 @@ public class ModelerHelper extends AbstractXulEventHandler implements ISpoonMenu
 
             final Process process = processBuilder.start();
 
-            ProcessStreamReader psrStdout = new ProcessStreamReader(process.getInputStream(), log, false);
-            ProcessStreamReader psrStderr = new ProcessStreamReader(process.getErrorStream(), log, true);
-            psrStdout.start();
-            psrStderr.start();
+            final ProcessLog processLog = new ProcessLog(log, ProcessLog.createSpillFile(
+                    new File(dataCleanerSpoonConfiguration.getPluginFolderPath(), ProcessLog.SPILL_FOLDER), "job"),
+                    progress);
+            processLog.pump(process.getInputStream(), false);
+            processLog.pump(process.getErrorStream(), true);
 
             exitCode = process.waitFor();
 
-            psrStdout.join();
-            psrStderr.join();
+            processLog.join();
 
             // When DC finishes we clean up the temporary files... only if it'a profiling step job
             if (profileStep) {
@@ -243,9 +283,7 @@ public class ModelerHelper extends AbstractXulEventHandler implements ISpoonMenu
                 if (!Strings.isNullOrEmpty(jobFile)) {
                     new File(jobFile).delete();
                 }
-                if (!Strings.isNullOrEmpty(dataFile)) {
-                    new File(dataFile).delete();
-                }
+                deleteDataFiles(dataFile);
             }
 
             if (exitCode != 0) {
@@ -257,6 +295,177 @@ public class ModelerHelper extends AbstractXulEventHandler implements ISpoonMenu
         return exitCode;
     }
 
+    /**
+     * Runs a DataCleaner job in the JVM of Kettle, see {@link InProcessDataCleaner}.
+     *
+     * @param dataCleanerSpoonConfiguration
+     * @param confXml the DataCleaner configuration, or null for the configuration of the plugin folder
+     * @param jobXml the analysis job
+     * @param outputType the type of result to write
+     * @param outputFilename the file to write the result to, or null to write a text result to the log
+     * @param maxThreads the number of threads the job may use
+     * @param dataFile the captures to delete when the job has finished, or null
+     * @return the exit code, 0 if the job succeeded
+     */
+    public static int runDataCleanerInProcess(DataCleanerSpoonConfiguration dataCleanerSpoonConfiguration,
+            String confXml, String jobXml, String outputType, String outputFilename, int maxThreads,
+            String dataFile) {
+        final LogChannelInterface log = new LogChannel(LOGCHANNEL_NAME);
+        int exitCode = 0;
+        try {
+            if (confXml == null) {
+                confXml = readConfXml(dataCleanerSpoonConfiguration);
+            }
+            // the isolated class loader needs the plugin jar, which is only added to the classpath for profiling
+            exitCode = InProcessDataCleaner.run(getClassPath(dataCleanerSpoonConfiguration, true), confXml, jobXml,
+                    outputType, outputFilename, maxThreads, log);
+            if (exitCode != 0) {
+                showErrorMessage("Unexpected exit code", "DataCleaner job failed with exit code: " + exitCode, null);
+            }
+        } catch (final Exception e) {
+            exitCode = 1;
+            showErrorMessage("Error running DataCleaner", "An error occurred running DataCleaner in process", e);
+        } finally {
+            deleteDataFiles(dataFile);
+        }
+        return exitCode;
+    }
+
+    /**
+     * Runs a DataCleaner job on the shared worker process, see {@link DataCleanerWorkerClient}.
+     *
+     * @param dataCleanerSpoonConfiguration
+     * @param jobXml the analysis job
+     * @param outputType the type of result to write
+     * @param outputFilename the file to write the result to
+     * @param maxThreads the number of threads the job may use
+     * @param maxJobs the number of jobs after which the worker is replaced, or 0 or less for the default
+     * @return the outcome of the job
+     */
+    public static DataCleanerWorkerClient.WorkerResult runDataCleanerOnWorker(
+            DataCleanerSpoonConfiguration dataCleanerSpoonConfiguration, String jobXml, String outputType,
+            String outputFilename, int maxThreads, int maxJobs) {
+        final LogChannelInterface log = new LogChannel(LOGCHANNEL_NAME);
+        try {
+            final File confFile = new File(dataCleanerSpoonConfiguration.getPluginFolderPath(), "conf.xml");
+            final DataCleanerWorkerClient client =
+                    DataCleanerWorkerClient.getInstance(getClassPath(dataCleanerSpoonConfiguration, true),
+                            dataCleanerSpoonConfiguration.getPluginFolderPath(),
+                            confFile.exists() ? confFile.getAbsolutePath() : null);
+            final DataCleanerWorkerClient.WorkerResult result = client.run(readConfXml(dataCleanerSpoonConfiguration),
+                    jobXml, outputType, outputFilename, maxThreads,
+                    maxJobs > 0 ? maxJobs : DataCleanerWorkerClient.DEFAULT_MAX_JOBS);
+            if (!Strings.isNullOrEmpty(result.getLog())) {
+                for (String line : result.getLog().split("\n")) {
+                    log.logBasic("DC: " + line);
+                }
+            }
+            if (result.getExitCode() != 0) {
+                showErrorMessage("Unexpected exit code",
+                        "DataCleaner job failed with exit code: " + result.getExitCode(), null);
+            }
+            return result;
+        } catch (final Exception e) {
+            showErrorMessage("Error running DataCleaner", "An error occurred running DataCleaner on the worker", e);
+            return new DataCleanerWorkerClient.WorkerResult(1, outputFilename, null);
+        }
+    }
+
+    /**
+     * @return the configuration of the plugin folder, or null if there is none
+     */
+    public static String readConfXml(DataCleanerSpoonConfiguration dataCleanerSpoonConfiguration)
+            throws IOException {
+        final File confFile = new File(dataCleanerSpoonConfiguration.getPluginFolderPath(), "conf.xml");
+        if (!confFile.exists()) {
+            return null;
+        }
+        return new String(Files.readAllBytes(confFile.toPath()), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the {@link DescriptorIndex} of the DataCleaner installation, and builds it if it doesn't exist yet.
+     *
+     * @param dataCleanerSpoonConfiguration
+     * @return the index file, which doesn't exist if it could not be built
+     */
+    public static synchronized File getDescriptorIndexFile(
+            DataCleanerSpoonConfiguration dataCleanerSpoonConfiguration) {
+        // the index is keyed on the classpath that is scanned, so upgrading the plugin also leads to a new index
+        final String classPath = getClassPath(dataCleanerSpoonConfiguration, true);
+        final File indexFile = DescriptorIndex.getIndexFile(
+                new File(dataCleanerSpoonConfiguration.getPluginFolderPath()),
+                InProcessDataCleaner.getClassPathFiles(classPath));
+        if (!indexFile.exists()) {
+            final LogChannelInterface log = new LogChannel(LOGCHANNEL_NAME);
+            log.logBasic("Indexing the components of the DataCleaner installation: " + indexFile);
+            try {
+                InProcessDataCleaner.writeDescriptorIndex(classPath, indexFile);
+            } catch (Exception e) {
+                // DataCleaner will scan the classpath and write the index itself
+                log.logError("Failed to index the components of the DataCleaner installation", e);
+            }
+        }
+        return indexFile;
+    }
+
+    /**
+     * @param descriptorIndex
+     * @return a configuration for building jobs in Spoon, with the components of the index
+     */
+    public static DataCleanerConfiguration createDataCleanerConfiguration(File descriptorIndex) {
+        if (!descriptorIndex.exists()) {
+            return new DataCleanerConfigurationImpl();
+        }
+        return new DataCleanerConfigurationImpl().withEnvironment(new DataCleanerEnvironmentImpl()
+                .withDescriptorProvider(IndexedDescriptorProvider.getInstance(descriptorIndex.getAbsolutePath())));
+    }
+
+    /**
+     * @param descriptorIndex
+     * @return the descriptor provider element of a generated conf.xml, which loads the components of the index
+     */
+    public static String getDescriptorProviderXml(File descriptorIndex) {
+        final StringBuilder xml = new StringBuilder();
+        xml.append("<custom-descriptor-provider class-name=\"" + IndexedDescriptorProvider.class.getName() + "\">");
+        xml.append("<property name=\"Index file\" value=\"" + descriptorIndex.getAbsolutePath() + "\" />");
+        xml.append("</custom-descriptor-provider>");
+        return xml.toString();
+    }
+
+    private static void deleteDataFiles(String dataFile) {
+        if (!Strings.isNullOrEmpty(dataFile)) {
+            for (String filename : KettleDataContext.splitFilenames(dataFile)) {
+                deleteDataFile(new File(filename));
+                deleteDataFile(KettleRowIndex.getIndexFile(filename));
+            }
+        }
+    }
+
+    private static void deleteDataFile(File file) {
+        if (file.exists() && !file.delete()) {
+            new LogChannel(LOGCHANNEL_NAME)
+                    .logError("Unable to delete the captured data file, it may still be in use: " + file);
+        }
+    }
+
+    /**
+     * @return the classpath of the DataCleaner installation, with the plugin and the Kettle libraries it needs to read
+     *         captures when profiling a step
+     */
+    private static String getClassPath(DataCleanerSpoonConfiguration dataCleanerSpoonConfiguration,
+            boolean profileStep) {
+        final String dcInstallationPath = dataCleanerSpoonConfiguration.getDataCleanerInstallationFolderPath()
+                + "/DataCleaner.jar" + File.pathSeparatorChar
+                + dataCleanerSpoonConfiguration.getDataCleanerInstallationFolderPath() + "/modules/*"
+                + File.pathSeparatorChar + dataCleanerSpoonConfiguration.getDataCleanerInstallationFolderPath()
+                + "/lib/*";
+        if (profileStep) {
+            return addAdditionalJars(dataCleanerSpoonConfiguration, dcInstallationPath).toString();
+        }
+        return dcInstallationPath;
+    }
+
     private static StringBuilder addAdditionalJars(DataCleanerSpoonConfiguration dataCleanerSpoonConfiguration,
             final String dcInstallationPath) {
         final String pluginPath = dataCleanerSpoonConfiguration.getPluginFolderPath() + "/DataCleaner-PDI-plugin.jar";
@@ -313,7 +522,8 @@ public class ModelerHelper extends AbstractXulEventHandler implements ISpoonMenu
         new Thread() {
             @Override
             public void run() {
-                launchDataCleaner(dataCleanerSpoonConfiguration, null, null, null, null, null, null, null, true);
+                launchDataCleaner(dataCleanerSpoonConfiguration, null, null, null, null, null, null, null, true,
+                        null);
             }
         }.start();
     }
@@ -355,6 +565,7 @@ public class ModelerHelper extends AbstractXulEventHandler implements ISpoonMenu
             if (stepMeta == null) {
                 return;
             }
+            final List<StepMeta> stepMetas = getStepsToProfile(transMeta, stepMeta);
 
             // Show the transformation execution configuration dialog
             TransExecutionConfiguration executionConfiguration = spoon.getTransPreviewExecutionConfiguration();
@@ -393,168 +604,309 @@ public class ModelerHelper extends AbstractXulEventHandler implements ISpoonMenu
             trans.prepareExecution(args);
             trans.setRepository(spoon.rep);
 
-            // Write the data to a file that DataCleaner will read
-            final DataCleanerKettleFileWriter writer = new DataCleanerKettleFileWriter(trans, stepMeta);
-            try {
-                writer.run();
-            } finally {
-                writer.close();
+            // Write the data of every step to a file that DataCleaner will read, all in the same run
+            final List<DataCleanerKettleFileWriter> writers = new ArrayList<>();
+            for (StepMeta profiledStep : stepMetas) {
+                writers.add(new DataCleanerKettleFileWriter(trans, profiledStep));
             }
+            if (writers.get(0).isStreaming()) {
+                // launch DataCleaner as soon as the headers are written, it reads the rows while they are captured
+                final CountDownLatch capturesClosed = new CountDownLatch(1);
+                try {
+                    DataCleanerKettleFileWriter.startAll(writers);
+                    launchProfiler(dataCleanerSpoonConfiguration, transMeta, buildJob, writers, trans,
+                            capturesClosed);
+                    writers.get(0).waitUntilFinished();
+                } finally {
+                    try {
+                        close(writers);
+                    } finally {
+                        capturesClosed.countDown();
+                    }
+                }
+            } else {
+                try {
+                    DataCleanerKettleFileWriter.runAll(writers);
+                } finally {
+                    close(writers);
+                }
+                launchProfiler(dataCleanerSpoonConfiguration, transMeta, buildJob, writers, null, null);
+            }
+        } catch (final NoClassDefFoundError e) {
+            showErrorMessage("Unexpected error", "Failed to load DataCleaner plugin class: " + e.getMessage(), e);
+        } catch (final Exception e) {
+            showErrorMessage("Unexpected error", "An unexpected error occurred", e);
+        }
+    }
 
-            // Pass along the configuration of the KettleDatabaseStore...
-            final DataCleanerConfiguration dataCleanerConfiguration = new DataCleanerConfigurationImpl();
-            final AnalysisJob analysisJob = createAnalysisJob(transMeta, stepMeta, dataCleanerConfiguration, buildJob);
-
-            // Write the job.xml to a temporary file...
-            FileObject jobFile = KettleVFS.createTempFile("datacleaner-job", ".xml",
-                    System.getProperty("java.io.tmpdir"), new Variables());
-            OutputStream jobOutputStream = null;
+    /**
+     * @return the selected steps if several steps are selected, so that they are all profiled in one run of the
+     *         transformation, otherwise the current step
+     */
+    private static List<StepMeta> getStepsToProfile(TransMeta transMeta, StepMeta currentStep) {
+        final List<StepMeta> selectedSteps = transMeta.getSelectedSteps();
+        if (selectedSteps != null && selectedSteps.size() > 1 && selectedSteps.contains(currentStep)) {
+            return selectedSteps;
+        }
+        return Collections.singletonList(currentStep);
+    }
 
+    private static void close(List<DataCleanerKettleFileWriter> writers) throws Exception {
+        Exception exception = null;
+        for (DataCleanerKettleFileWriter writer : writers) {
             try {
-                jobOutputStream = KettleVFS.getOutputStream(jobFile, false);
-                final JaxbJobWriter jobWriter = new JaxbJobWriter(dataCleanerConfiguration);
-                jobWriter.write(analysisJob, jobOutputStream);
+                writer.close();
             } catch (Exception e) {
-                final LogChannelInterface log = new LogChannel(LOGCHANNEL_NAME);
-                log.logError("Failed to save DataCleaner job", e);
-                jobFile = null;
-            } finally {
-                if (jobOutputStream != null) {
-                    jobOutputStream.close();
+                if (exception == null) {
+                    exception = e;
+                } else {
+                    exception.addSuppressed(e);
+                }
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    /**
+     * Writes the analysis job and configuration for the captures of a run and launches DataCleaner on it in the
+     * background.
+     *
+     * @param trans the running transformation when streaming, or null if the captures are complete
+     * @param capturesClosed counted down when streaming and the writers have closed the captures, or null
+     */
+    private void launchProfiler(final DataCleanerSpoonConfiguration dataCleanerSpoonConfiguration,
+            final TransMeta transMeta, final boolean buildJob, final List<DataCleanerKettleFileWriter> writers,
+            final Trans trans, final CountDownLatch capturesClosed) throws Exception {
+        // Pass along the configuration of the KettleDatabaseStore...
+        final File descriptorIndex = getDescriptorIndexFile(dataCleanerSpoonConfiguration);
+        final DataCleanerConfiguration dataCleanerConfiguration = createDataCleanerConfiguration(descriptorIndex);
+        final AnalysisJob analysisJob = createAnalysisJob(transMeta, dataCleanerConfiguration, buildJob, writers);
+
+        final List<String> filenames = new ArrayList<>();
+        for (DataCleanerKettleFileWriter writer : writers) {
+            filenames.add(writer.getFilename());
+        }
+        final String dataFile = KettleDataContext.joinFilenames(filenames);
+
+        // when streaming the captures are still being written, they are deleted once DataCleaner and the writers are
+        // done with them
+        final String dataFileToDelete = trans == null ? dataFile : null;
+
+        final TaskRunnerSizing sizing = TaskRunnerSizing.size(
+                Const.toInt(transMeta.getVariable(VARIABLE_MAX_THREADS), 0), "variable " + VARIABLE_MAX_THREADS,
+                buildJob ? analysisJob.getAnalyzerJobs().size() : 0, writers.size(), TaskRunnerSizing.Source.CAPTURE);
+        new LogChannel(LOGCHANNEL_NAME).logBasic(sizing.getReport());
+
+        if (buildJob && transMeta.getBooleanValueOfVariable("${" + VARIABLE_IN_PROCESS + "}", false)) {
+            // run the generated job right here, without job and configuration files
+            final ByteArrayOutputStream jobXml = new ByteArrayOutputStream();
+            new JaxbJobWriter(dataCleanerConfiguration).write(analysisJob, jobXml);
+            final String confXml = generateConfXml(transMeta.getName(), dataFile, descriptorIndex, sizing);
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        runDataCleanerInProcess(dataCleanerSpoonConfiguration, confXml,
+                                new String(jobXml.toByteArray(), StandardCharsets.UTF_8),
+                                InProcessAnalysisRunner.OUTPUT_TYPE_TEXT, null, sizing.getThreads(),
+                                dataFileToDelete);
+                    } finally {
+                        profilerFinished(trans, capturesClosed, dataFile);
+                    }
                 }
+            }.start();
+            return;
+        }
+
+        // Write the job.xml to a temporary file...
+        FileObject jobFile = KettleVFS.createTempFile("datacleaner-job", ".xml",
+                System.getProperty("java.io.tmpdir"), new Variables());
+        OutputStream jobOutputStream = null;
+
+        try {
+            jobOutputStream = KettleVFS.getOutputStream(jobFile, false);
+            final JaxbJobWriter jobWriter = new JaxbJobWriter(dataCleanerConfiguration);
+            jobWriter.write(analysisJob, jobOutputStream);
+        } catch (Exception e) {
+            final LogChannelInterface log = new LogChannel(LOGCHANNEL_NAME);
+            log.logError("Failed to save DataCleaner job", e);
+            jobFile = null;
+        } finally {
+            if (jobOutputStream != null) {
+                jobOutputStream.close();
             }
+        }
 
-            // Write the conf.xml to a temporary file...
-            String confXml = generateConfXml(transMeta.getName(), stepMeta.getName(), writer.getFilename());
-            final FileObject confFile = KettleVFS.createTempFile("datacleaner-conf", ".xml",
-                    System.getProperty("java.io.tmpdir"), new Variables());
-            OutputStream confOutputStream = null;
-            try {
-                confOutputStream = KettleVFS.getOutputStream(confFile, false);
-                confOutputStream.write(confXml.getBytes(Const.XML_ENCODING));
+        // Write the conf.xml to a temporary file...
+        String confXml = generateConfXml(transMeta.getName(), dataFile, descriptorIndex, sizing);
+        final FileObject confFile = KettleVFS.createTempFile("datacleaner-conf", ".xml",
+                System.getProperty("java.io.tmpdir"), new Variables());
+        OutputStream confOutputStream = null;
+        try {
+            confOutputStream = KettleVFS.getOutputStream(confFile, false);
+            confOutputStream.write(confXml.getBytes(Const.XML_ENCODING));
+            confOutputStream.close();
+        } finally {
+            if (confOutputStream != null) {
                 confOutputStream.close();
-            } finally {
-                if (confOutputStream != null) {
-                    confOutputStream.close();
-                }
             }
+        }
 
-            // Launch DataCleaner and point to the generated
-            // configuration and job XML files...
+        // Launch DataCleaner and point to the generated
+        // configuration and job XML files...
 
-            final String jobFilename;
-            if (jobFile == null) {
-                jobFilename = null;
-            } else {
-                jobFilename = KettleVFS.getFilename(jobFile);
-            }
+        final String jobFilename;
+        if (jobFile == null) {
+            jobFilename = null;
+        } else {
+            jobFilename = KettleVFS.getFilename(jobFile);
+        }
 
-            new Thread() {
-                @Override
-                public void run() {
+        new Thread() {
+            @Override
+            public void run() {
+                try {
                     launchDataCleaner(dataCleanerSpoonConfiguration, KettleVFS.getFilename(confFile), jobFilename,
-                            transMeta.getName(), writer.getFilename(), null, null, null, true);
+                            transMeta.getName(), dataFileToDelete, null, null, null, true, null);
+                } finally {
+                    profilerFinished(trans, capturesClosed, dataFile);
                 }
-            }.start();
-        } catch (final NoClassDefFoundError e) {
-            showErrorMessage("Unexpected error", "Failed to load DataCleaner plugin class: " + e.getMessage(), e);
-        } catch (final Exception e) {
-            showErrorMessage("Unexpected error", "An unexpected error occurred", e);
+            }
+        }.start();
+    }
+
+    /**
+     * Called when DataCleaner has finished with the captures of a run. When streaming, DataCleaner may finish (or
+     * fail, or be closed by the user) while the transformation still runs: the transformation is stopped, and the
+     * captures are deleted once the writers have closed them.
+     *
+     * @param trans the running transformation when streaming, or null if the captures were deleted already
+     * @param capturesClosed counted down when the writers have closed the captures
+     * @param dataFile the captures
+     */
+    private static void profilerFinished(Trans trans, CountDownLatch capturesClosed, String dataFile) {
+        if (trans == null) {
+            return;
+        }
+        if (!trans.isFinished()) {
+            new LogChannel(LOGCHANNEL_NAME).logBasic(
+                    "DataCleaner finished before the transformation to profile, stopping the transformation");
+            trans.stopAll();
+        }
+        try {
+            capturesClosed.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
         }
+        deleteDataFiles(dataFile);
     }
 
-    private AnalysisJob createAnalysisJob(final TransMeta transMeta, final StepMeta stepMeta,
-            final DataCleanerConfiguration dataCleanerConfiguration, final boolean buildJob)
-            throws KettleStepException {
+    private AnalysisJob createAnalysisJob(final TransMeta transMeta,
+            final DataCleanerConfiguration dataCleanerConfiguration, final boolean buildJob,
+            final List<DataCleanerKettleFileWriter> writers) throws KettleStepException {
         try (AnalysisJobBuilder analysisJobBuilder = new AnalysisJobBuilder(dataCleanerConfiguration)) {
-            final Datastore datastore =
-                    new KettleDatastore(transMeta.getName(), stepMeta.getName(), transMeta.getStepFields(stepMeta));
+            final Datastore datastore;
+            if (writers.size() == 1) {
+                final StepMeta stepMeta = writers.get(0).getStepMeta();
+                datastore = new KettleDatastore(transMeta.getName(), stepMeta.getName(),
+                        transMeta.getStepFields(stepMeta));
+            } else {
+                final Map<String, RowMetaInterface> stepFields = new LinkedHashMap<>();
+                for (DataCleanerKettleFileWriter writer : writers) {
+                    stepFields.put(writer.getStepMeta().getName(), transMeta.getStepFields(writer.getStepMeta()));
+                }
+                datastore = new KettleDatastore(transMeta.getName(), stepFields);
+            }
             analysisJobBuilder.setDatastore(datastore);
 
+            // tell the user when the profile is based on a sample or on the first rows only
+            final SamplingPolicy samplingPolicy = writers.get(0).getSamplingPolicy();
+            final Map<String, String> properties = new LinkedHashMap<>();
+            final List<String> descriptions = new ArrayList<>();
+            if (samplingPolicy != null) {
+                properties.putAll(samplingPolicy.getProperties());
+                for (DataCleanerKettleFileWriter writer : writers) {
+                    final String stepName = writer.getStepMeta().getName();
+                    // with several steps the counts are recorded per step
+                    final String prefix = writers.size() == 1 ? "" : stepName + ".";
+                    if (writer.getRowsSeen() == -1) {
+                        // streaming, the counts are only known when the capture has finished
+                        descriptions.add("Profile of a sample of the rows of step '" + stepName + "' ("
+                                + samplingPolicy.getDescription() + ", seed " + samplingPolicy.getSeed() + ")");
+                    } else {
+                        properties.put(prefix + SamplingPolicy.PROPERTY_ROWS_SAMPLED,
+                                Long.toString(writer.getRowsCaptured()));
+                        properties.put(prefix + SamplingPolicy.PROPERTY_ROWS_SEEN,
+                                Long.toString(writer.getRowsSeen()));
+                        descriptions.add("Profile of a sample of " + writer.getRowsCaptured() + " out of "
+                                + writer.getRowsSeen() + " rows of step '" + stepName + "' ("
+                                + samplingPolicy.getDescription() + ", seed " + samplingPolicy.getSeed() + ")");
+                    }
+                }
+            }
+            for (DataCleanerKettleFileWriter writer : writers) {
+                if (writer.isTruncated()) {
+                    final String stepName = writer.getStepMeta().getName();
+                    properties.put((writers.size() == 1 ? "" : stepName + ".") + KettleStreamFormat.PROPERTY_TRUNCATED,
+                            "true");
+                    descriptions.add("Only the first " + writer.getRowsSeen() + " rows of step '" + stepName
+                            + "', the transformation was stopped at the capture row budget");
+                }
+            }
+            final long approximateRows =
+                    Const.toLong(transMeta.getVariable(VARIABLE_APPROXIMATE_ROWS), DEFAULT_APPROXIMATE_ROWS);
+            final Set<String> approximateSteps = new HashSet<>();
+            for (DataCleanerKettleFileWriter writer : writers) {
+                final long rows = getExpectedRows(writer);
+                if (rows > approximateRows) {
+                    final String stepName = writer.getStepMeta().getName();
+                    approximateSteps.add(stepName);
+                    properties.put((writers.size() == 1 ? "" : stepName + ".") + "approximate", "true");
+                    final String description = "Approximate results for step '" + stepName + "' ("
+                            + (rows == Long.MAX_VALUE ? "row count not known yet" : rows + " rows") + ", more than "
+                            + approximateRows + " set by " + VARIABLE_APPROXIMATE_ROWS
+                            + "): distinct counts by HyperLogLog (standard error "
+                            + String.format("%.1f%%", new HyperLogLog().getStandardError() * 100)
+                            + "), percentiles by t-digest (max rank error per column in the result) and top values "
+                            + "by Space-Saving (max overcount per value in the result)";
+                    descriptions.add(description);
+                    new LogChannel(LOGCHANNEL_NAME).logBasic(description);
+                }
+            }
+            if (!descriptions.isEmpty()) {
+                final String jobName = writers.size() == 1
+                        ? transMeta.getName() + " - " + writers.get(0).getStepMeta().getName() : transMeta.getName();
+                analysisJobBuilder.setAnalysisJobMetadata(new ImmutableAnalysisJobMetadata(jobName, null,
+                        Joiner.on("; ").join(descriptions), null, new Date(), null, datastore.getName(),
+                        Collections.<String> emptyList(), Collections.<ColumnType> emptyList(),
+                        Collections.<String, String> emptyMap(), properties));
+            }
+
             try (DatastoreConnection connection = datastore.openConnection();) {
                 final DataContext dataContext = connection.getDataContext();
 
-                // add all columns of a table
-                final List<Column> customerColumns =
-                        dataContext.getTableByQualifiedLabel(stepMeta.getName()).getColumns();
-                analysisJobBuilder.addSourceColumns(customerColumns);
-
-                final List<MetaModelInputColumn> sourceColumns = analysisJobBuilder.getSourceColumns();
-
-                if (buildJob && !sourceColumns.isEmpty()) {
-                    // if something looks like an ID, add a unique key analyzer
-                    // for it.
-                    final Set<InputColumn<?>> idColumns = new HashSet<>();
-                    {
-                        final CharMatcher charMatcher =
-                                CharMatcher.BREAKING_WHITESPACE.or(CharMatcher.anyOf("_-|#.,/+-!@&()[]"));
-                        final Splitter splitter = Splitter.on(charMatcher).trimResults().omitEmptyStrings();
-                        for (InputColumn<?> sourceColumn : sourceColumns) {
-                            final String columnName = sourceColumn.getName().toLowerCase();
-                            final List<String> columnTokens = splitter.splitToList(columnName);
-                            for (String token : columnTokens) {
-                                if (ID_COLUMN_TOKENS.contains(token)) {
-                                    // this looks like an ID column
-                                    idColumns.add(sourceColumn);
-                                    break;
-                                }
-                            }
-                        }
-                    }
-                    for (InputColumn<?> idColumn : idColumns) {
-                        final AnalyzerComponentBuilder<UniqueKeyCheckAnalyzer> uniqueKeyCheck =
-                                analysisJobBuilder.addAnalyzer(UniqueKeyCheckAnalyzer.class);
-                        uniqueKeyCheck.setName("Uniqueness of " + idColumn.getName());
-                        uniqueKeyCheck.addInputColumn(idColumn);
-                    }
-
-                    // add a completeness analyzer for all columns
-                    final AnalyzerComponentBuilder<CompletenessAnalyzer> completenessAnalyzer =
-                            analysisJobBuilder.addAnalyzer(CompletenessAnalyzer.class);
-                    completenessAnalyzer.addInputColumns(sourceColumns);
-                    final CompletenessAnalyzer.Condition[] conditions =
-                            new CompletenessAnalyzer.Condition[sourceColumns.size()];
-                    Arrays.fill(conditions, CompletenessAnalyzer.Condition.NOT_BLANK_OR_NULL);
-                    completenessAnalyzer.setConfiguredProperty(CompletenessAnalyzer.PROPERTY_CONDITIONS, conditions);
-
-                    // add a number analyzer for all number columns
-                    final List<InputColumn<?>> numberColumns =
-                            analysisJobBuilder.getAvailableInputColumns(Number.class);
-                    if (!numberColumns.isEmpty()) {
-                        final AnalyzerComponentBuilder<NumberAnalyzer> numberAnalyzer =
-                                analysisJobBuilder.addAnalyzer(NumberAnalyzer.class);
-                        final ConfiguredPropertyDescriptor descriptiveStatisticsProperty =
-                                numberAnalyzer.getDescriptor().getConfiguredProperty("Descriptive statistics");
-                        if (descriptiveStatisticsProperty != null) {
-                            numberAnalyzer.setConfiguredProperty(descriptiveStatisticsProperty, true);
-                        }
-                        numberAnalyzer.addInputColumns(numberColumns);
-                    }
+                for (DataCleanerKettleFileWriter writer : writers) {
+                    final String stepName = writer.getStepMeta().getName();
 
-                    // add a date/time analyzer for all date columns
-                    final List<InputColumn<?>> dateColumns = analysisJobBuilder.getAvailableInputColumns(Date.class);
-                    if (!dateColumns.isEmpty()) {
-                        final AnalyzerComponentBuilder<DateAndTimeAnalyzer> dateAndTimeAnalyzer =
-                                analysisJobBuilder.addAnalyzer(DateAndTimeAnalyzer.class);
-                        dateAndTimeAnalyzer.addInputColumns(dateColumns);
-                    }
+                    // add all columns of the table of the step
+                    final Table table = dataContext.getTableByQualifiedLabel(stepName);
+                    analysisJobBuilder.addSourceColumns(table.getColumns());
 
-                    // add a boolean analyzer for all boolean columns
-                    final List<InputColumn<?>> booleanColumns =
-                            analysisJobBuilder.getAvailableInputColumns(Boolean.class);
-                    if (!booleanColumns.isEmpty()) {
-                        final AnalyzerComponentBuilder<BooleanAnalyzer> booleanAnalyzer =
-                                analysisJobBuilder.addAnalyzer(BooleanAnalyzer.class);
-                        booleanAnalyzer.addInputColumns(booleanColumns);
+                    final List<InputColumn<?>> sourceColumns = new ArrayList<>();
+                    for (MetaModelInputColumn sourceColumn : analysisJobBuilder.getSourceColumns()) {
+                        if (table.equals(sourceColumn.getPhysicalColumn().getTable())) {
+                            sourceColumns.add(sourceColumn);
+                        }
                     }
 
-                    // add a string analyzer for all string columns
-                    final List<InputColumn<?>> stringColumns =
-                            analysisJobBuilder.getAvailableInputColumns(String.class);
-                    if (!stringColumns.isEmpty()) {
-                        final AnalyzerComponentBuilder<StringAnalyzer> stringAnalyzer =
-                                analysisJobBuilder.addAnalyzer(StringAnalyzer.class);
-                        stringAnalyzer.addInputColumns(stringColumns);
+                    if (buildJob && !sourceColumns.isEmpty()) {
+                        // an analyzer only takes the columns of one table, so name them after the step when there
+                        // are several
+                        addAnalyzers(analysisJobBuilder, sourceColumns, writers.size() == 1 ? null : stepName,
+                                approximateSteps.contains(stepName));
                     }
                 }
             }
@@ -567,7 +919,154 @@ public class ModelerHelper extends AbstractXulEventHandler implements ISpoonMenu
         }
     }
 
-    private String generateConfXml(String name, String stepname, String filename) {
+    /**
+     * @return the number of rows DataCleaner will read from the capture of a step, {@link Long#MAX_VALUE} if a
+     *         streaming capture has no row budget
+     */
+    private static long getExpectedRows(DataCleanerKettleFileWriter writer) {
+        if (writer.getRowsSeen() != -1) {
+            return writer.getRowsCaptured();
+        }
+        final long rowBudget = writer.getOptions().getRowBudget();
+        return rowBudget > 0 ? rowBudget : Long.MAX_VALUE;
+    }
+
+    /**
+     * Adds the default analyzers for the columns of one table to the job.
+     * <p>
+     * For very large captures the analyzers that keep every value (the unique key check, the descriptive statistics
+     * of the number analyzer and the string analyzer) are replaced by analyzers with a fixed memory footprint and
+     * approximate results: {@link ApproximateDistinctCountAnalyzer}, {@link ApproximateQuantilesAnalyzer} and
+     * {@link ApproximateTopValuesAnalyzer}.
+     *
+     * @param analysisJobBuilder
+     * @param sourceColumns the columns of the table
+     * @param stepName the step to mention in the analyzer names, or null
+     * @param approximate true to use the analyzers with a fixed memory footprint
+     */
+    private void addAnalyzers(final AnalysisJobBuilder analysisJobBuilder, final List<InputColumn<?>> sourceColumns,
+            final String stepName, final boolean approximate) {
+        // if something looks like an ID, add a unique key analyzer
+        // for it.
+        final Set<InputColumn<?>> idColumns = new HashSet<>();
+        {
+            final CharMatcher charMatcher = CharMatcher.BREAKING_WHITESPACE.or(CharMatcher.anyOf("_-|#.,/+-!@&()[]"));
+            final Splitter splitter = Splitter.on(charMatcher).trimResults().omitEmptyStrings();
+            for (InputColumn<?> sourceColumn : sourceColumns) {
+                final String columnName = sourceColumn.getName().toLowerCase();
+                final List<String> columnTokens = splitter.splitToList(columnName);
+                for (String token : columnTokens) {
+                    if (ID_COLUMN_TOKENS.contains(token)) {
+                        // this looks like an ID column
+                        idColumns.add(sourceColumn);
+                        break;
+                    }
+                }
+            }
+        }
+        final List<InputColumn<?>> stringColumns = getColumnsOfType(sourceColumns, String.class);
+        if (approximate) {
+            // distinct counts of the ID and string columns instead of finding every duplicate key
+            final List<InputColumn<?>> distinctColumns = new ArrayList<>();
+            for (InputColumn<?> sourceColumn : sourceColumns) {
+                if (idColumns.contains(sourceColumn) || stringColumns.contains(sourceColumn)) {
+                    distinctColumns.add(sourceColumn);
+                }
+            }
+            if (!distinctColumns.isEmpty()) {
+                final AnalyzerComponentBuilder<ApproximateDistinctCountAnalyzer> distinctCount =
+                        analysisJobBuilder.addAnalyzer(ApproximateDistinctCountAnalyzer.class);
+                setName(distinctCount, stepName);
+                distinctCount.addInputColumns(distinctColumns);
+            }
+            idColumns.clear();
+        }
+        for (InputColumn<?> idColumn : idColumns) {
+            final AnalyzerComponentBuilder<UniqueKeyCheckAnalyzer> uniqueKeyCheck =
+                    analysisJobBuilder.addAnalyzer(UniqueKeyCheckAnalyzer.class);
+            uniqueKeyCheck.setName("Uniqueness of " + (stepName == null ? "" : stepName + ".") + idColumn.getName());
+            uniqueKeyCheck.addInputColumn(idColumn);
+        }
+
+        // add a completeness analyzer for all columns
+        final AnalyzerComponentBuilder<CompletenessAnalyzer> completenessAnalyzer =
+                analysisJobBuilder.addAnalyzer(CompletenessAnalyzer.class);
+        setName(completenessAnalyzer, stepName);
+        completenessAnalyzer.addInputColumns(sourceColumns);
+        final CompletenessAnalyzer.Condition[] conditions = new CompletenessAnalyzer.Condition[sourceColumns.size()];
+        Arrays.fill(conditions, CompletenessAnalyzer.Condition.NOT_BLANK_OR_NULL);
+        completenessAnalyzer.setConfiguredProperty(CompletenessAnalyzer.PROPERTY_CONDITIONS, conditions);
+
+        // add a number analyzer for all number columns
+        final List<InputColumn<?>> numberColumns = getColumnsOfType(sourceColumns, Number.class);
+        if (!numberColumns.isEmpty()) {
+            final AnalyzerComponentBuilder<NumberAnalyzer> numberAnalyzer =
+                    analysisJobBuilder.addAnalyzer(NumberAnalyzer.class);
+            setName(numberAnalyzer, stepName);
+            final ConfiguredPropertyDescriptor descriptiveStatisticsProperty =
+                    numberAnalyzer.getDescriptor().getConfiguredProperty("Descriptive statistics");
+            if (descriptiveStatisticsProperty != null) {
+                numberAnalyzer.setConfiguredProperty(descriptiveStatisticsProperty, !approximate);
+            }
+            numberAnalyzer.addInputColumns(numberColumns);
+
+            if (approximate) {
+                final AnalyzerComponentBuilder<ApproximateQuantilesAnalyzer> quantilesAnalyzer =
+                        analysisJobBuilder.addAnalyzer(ApproximateQuantilesAnalyzer.class);
+                setName(quantilesAnalyzer, stepName);
+                quantilesAnalyzer.addInputColumns(numberColumns);
+            }
+        }
+
+        // add a date/time analyzer for all date columns
+        final List<InputColumn<?>> dateColumns = getColumnsOfType(sourceColumns, Date.class);
+        if (!dateColumns.isEmpty()) {
+            final AnalyzerComponentBuilder<DateAndTimeAnalyzer> dateAndTimeAnalyzer =
+                    analysisJobBuilder.addAnalyzer(DateAndTimeAnalyzer.class);
+            setName(dateAndTimeAnalyzer, stepName);
+            dateAndTimeAnalyzer.addInputColumns(dateColumns);
+        }
+
+        // add a boolean analyzer for all boolean columns
+        final List<InputColumn<?>> booleanColumns = getColumnsOfType(sourceColumns, Boolean.class);
+        if (!booleanColumns.isEmpty()) {
+            final AnalyzerComponentBuilder<BooleanAnalyzer> booleanAnalyzer =
+                    analysisJobBuilder.addAnalyzer(BooleanAnalyzer.class);
+            setName(booleanAnalyzer, stepName);
+            booleanAnalyzer.addInputColumns(booleanColumns);
+        }
+
+        // add a string analyzer for all string columns, or find their most frequent values in very large captures
+        if (!stringColumns.isEmpty() && approximate) {
+            final AnalyzerComponentBuilder<ApproximateTopValuesAnalyzer> topValuesAnalyzer =
+                    analysisJobBuilder.addAnalyzer(ApproximateTopValuesAnalyzer.class);
+            setName(topValuesAnalyzer, stepName);
+            topValuesAnalyzer.addInputColumns(stringColumns);
+        } else if (!stringColumns.isEmpty()) {
+            final AnalyzerComponentBuilder<StringAnalyzer> stringAnalyzer =
+                    analysisJobBuilder.addAnalyzer(StringAnalyzer.class);
+            setName(stringAnalyzer, stepName);
+            stringAnalyzer.addInputColumns(stringColumns);
+        }
+    }
+
+    private static void setName(AnalyzerComponentBuilder<?> analyzer, String stepName) {
+        if (stepName != null) {
+            analyzer.setName(analyzer.getDescriptor().getDisplayName() + " (" + stepName + ")");
+        }
+    }
+
+    private static List<InputColumn<?>> getColumnsOfType(List<InputColumn<?>> columns, Class<?> dataType) {
+        final List<InputColumn<?>> result = new ArrayList<>();
+        for (InputColumn<?> column : columns) {
+            if (column.getDataType() != null && dataType.isAssignableFrom(column.getDataType())) {
+                result.add(column);
+            }
+        }
+        return result;
+    }
+
+    private String generateConfXml(String name, String filename, File descriptorIndex, TaskRunnerSizing sizing) {
         StringBuilder xml = new StringBuilder();
 
         xml.append(XMLHandler.getXMLHeader());
@@ -575,7 +1074,7 @@ public class ModelerHelper extends AbstractXulEventHandler implements ISpoonMenu
                 "<configuration xmlns=\"http://eobjects.org/analyzerbeans/configuration/1.0\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">");
         xml.append(XMLHandler.openTag("datastore-catalog"));
 
-        // add a custom datastore
+        // add a custom datastore, the filename lists the captures of all profiled steps
         xml.append("<custom-datastore class-name=\"" + KettleDatastore.class.getName() + "\">");
         xml.append("<property name=\"Name\" value=\"" + name + "\" />");
         xml.append("<property name=\"Filename\" value=\"" + filename + "\" />");
@@ -583,17 +1082,9 @@ public class ModelerHelper extends AbstractXulEventHandler implements ISpoonMenu
 
         xml.append(XMLHandler.closeTag("datastore-catalog"));
 
-        // TODO: Eventually we want to rely on default here, not specifying the
-        // task runner type
-        xml.append("<multithreaded-taskrunner max-threads=\"30\" />");
-
-        // TODO: Eventually we want to rely on defaults here, not specifying any
-        // package names
-        xml.append(XMLHandler.openTag("classpath-scanner"));
-        xml.append(" <package recursive=\"true\">org.datacleaner</package>");
-        xml.append(" <package recursive=\"true\">com.hi</package>");
-        xml.append(" <package recursive=\"true\">com.neopost</package>");
-        xml.append(XMLHandler.closeTag("classpath-scanner"));
+        xml.append(sizing.getTaskRunnerXml());
+
+        xml.append(getDescriptorProviderXml(descriptorIndex));
 
         xml.append(XMLHandler.closeTag("configuration"));
 
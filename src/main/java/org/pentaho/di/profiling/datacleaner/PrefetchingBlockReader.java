@@ -0,0 +1,118 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.pentaho.di.profiling.datacleaner.codec.CaptureCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link KettleBlockReader} which reads and decompresses blocks ahead of time on a separate thread, so that the
+ * (single threaded) row decoding does not have to wait for I/O and decompression.
+ */
+final class PrefetchingBlockReader extends KettleBlockReader {
+
+    private static final Logger logger = LoggerFactory.getLogger(PrefetchingBlockReader.class);
+
+    private static final byte[] END_OF_DATA = new byte[0];
+
+    private final BlockingQueue<Object> queue;
+    private final Thread thread;
+    private volatile boolean closed;
+    private boolean endOfData;
+
+    /**
+     * @param in the raw file stream, positioned at the start of a block
+     * @param codec the codec that the blocks were written with
+     * @param selectedBlocks the blocks to read, or null to read all blocks, see
+     *            {@link KettleBlockReader#KettleBlockReader(DataInputStream, CaptureCodec, boolean[], int)}
+     * @param blockIndex the footer index of the block the stream is positioned at
+     * @param depth the maximum number of blocks to read ahead
+     */
+    PrefetchingBlockReader(DataInputStream in, CaptureCodec codec, boolean[] selectedBlocks, int blockIndex,
+            int depth) {
+        super(in, codec, selectedBlocks, blockIndex);
+        this.queue = new ArrayBlockingQueue<>(depth);
+        this.closed = false;
+        this.endOfData = false;
+        this.thread = new Thread(this::prefetch, "DataCleaner capture prefetch");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void prefetch() {
+        final Throwable failure;
+        try {
+            while (!closed) {
+                final byte[] block = super.readBlock();
+                if (block == null) {
+                    queue.put(END_OF_DATA);
+                    return;
+                }
+                if (block.length > 0) {
+                    queue.put(block);
+                }
+            }
+            return;
+        } catch (InterruptedException e) {
+            logger.debug("Prefetching of capture blocks interrupted");
+            return;
+        } catch (Throwable e) {
+            // also runtime failures on corrupt blocks, the consumer must not wait forever
+            failure = e;
+        }
+        if (!closed) {
+            try {
+                queue.put(new Failure(failure));
+            } catch (InterruptedException e) {
+                logger.debug("Prefetching of capture blocks interrupted");
+            }
+        }
+    }
+
+    @Override
+    byte[] readBlock() throws IOException {
+        if (endOfData) {
+            return null;
+        }
+        final Object item;
+        try {
+            item = queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the next capture block");
+        }
+        if (item instanceof Failure) {
+            endOfData = true;
+            throw new IOException("Failed to read capture block", ((Failure) item).cause);
+        }
+        if (item == END_OF_DATA) {
+            endOfData = true;
+            return null;
+        }
+        return (byte[]) item;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        thread.interrupt();
+        super.close();
+    }
+
+    /**
+     * A failure of the prefetch thread, handed to the consumer.
+     */
+    private static final class Failure {
+
+        private final Throwable cause;
+
+        Failure(Throwable cause) {
+            this.cause = cause;
+        }
+    }
+}
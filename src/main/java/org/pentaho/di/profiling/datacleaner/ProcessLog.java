@@ -0,0 +1,364 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+/**
+ * Pumps the output and error streams of a DataCleaner process to the Kettle log, with a thread per stream.
+ * <p>
+ * The pumps must keep up with the process, which blocks when a pipe is full, and a chatty process must not flood the
+ * Kettle log. So every line is written to a spill file, which holds the full log of the process, and the lines are
+ * written to the Kettle log in batches: the lines that are available at once end up in one log call. Similar lines in a
+ * row (lines that only differ in their numbers, like per row warnings) are summarized, and at most
+ * {@link #DEFAULT_MAX_LINES_PER_SECOND} lines per stream and second are logged. Progress lines on the output stream
+ * are parsed into {@link DataCleanerProgress}, which is logged every few seconds instead. Lines on the error stream
+ * are always logged, also when they look like progress.
+ */
+final class ProcessLog {
+
+    static final int DEFAULT_MAX_LINES_PER_SECOND = 50;
+    static final long DEFAULT_MAX_SPILL_BYTES = 100L * 1024 * 1024;
+
+    /**
+     * The folder of the spill files, in the plugin folder.
+     */
+    static final String SPILL_FOLDER = "logs";
+
+    /**
+     * The number of spill files that are kept, older ones are deleted.
+     */
+    static final int MAX_SPILL_FILES = 20;
+
+    private static final String SPILL_PREFIX = "datacleaner-";
+    private static final String SPILL_SUFFIX = ".log";
+    private static final int MAX_BATCH_LINES = 100;
+    private static final long PROGRESS_INTERVAL_MILLIS = 5000;
+    private static final Pattern DIGITS = Pattern.compile("\\d+");
+
+    private final LogChannelInterface log;
+    private final DataCleanerProgress progress;
+    private final int maxLinesPerSecond;
+    private final long maxSpillBytes;
+    private final File spillFile;
+    private final List<Pump> pumps = new ArrayList<>();
+    private final AtomicLong omittedLines = new AtomicLong();
+
+    private Writer spill;
+    private long spillBytes;
+    private int openPumps;
+    private long progressLogged;
+    private boolean progressChanged;
+
+    /**
+     * @param log
+     * @param spillFile the file to write the full log to, or null to not keep it
+     * @param progress the progress to update from the log, or null
+     */
+    ProcessLog(LogChannelInterface log, File spillFile, DataCleanerProgress progress) {
+        this(log, spillFile, progress, DEFAULT_MAX_LINES_PER_SECOND, DEFAULT_MAX_SPILL_BYTES);
+    }
+
+    ProcessLog(LogChannelInterface log, File spillFile, DataCleanerProgress progress, int maxLinesPerSecond,
+            long maxSpillBytes) {
+        this.log = log;
+        this.progress = progress == null ? new DataCleanerProgress() : progress;
+        this.maxLinesPerSecond = maxLinesPerSecond;
+        this.maxSpillBytes = maxSpillBytes;
+        File openedSpillFile = null;
+        if (spillFile != null) {
+            try {
+                spill = Files.newBufferedWriter(spillFile.toPath(), StandardCharsets.UTF_8);
+                openedSpillFile = spillFile;
+            } catch (IOException e) {
+                log.logError("Unable to write the DataCleaner log to " + spillFile, e);
+            }
+        }
+        this.spillFile = openedSpillFile;
+    }
+
+    /**
+     * Creates a spill file in a folder, and deletes the oldest spill files of the folder.
+     *
+     * @param folder
+     * @param name the kind of process, part of the file name
+     * @return the new file, or null if the folder is not writable
+     */
+    static File createSpillFile(File folder, String name) {
+        folder.mkdirs();
+        final File[] spillFiles = folder.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.getName().startsWith(SPILL_PREFIX) && file.getName().endsWith(SPILL_SUFFIX);
+            }
+        });
+        if (spillFiles != null && spillFiles.length >= MAX_SPILL_FILES) {
+            Arrays.sort(spillFiles, new Comparator<File>() {
+                @Override
+                public int compare(File file1, File file2) {
+                    return Long.compare(file1.lastModified(), file2.lastModified());
+                }
+            });
+            for (int i = 0; i <= spillFiles.length - MAX_SPILL_FILES; i++) {
+                spillFiles[i].delete();
+            }
+        }
+        try {
+            return File.createTempFile(SPILL_PREFIX + name + "-", SPILL_SUFFIX, folder);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Starts pumping a stream of the process.
+     *
+     * @param in the output or error stream of the process
+     * @param error true to log the lines as errors
+     */
+    synchronized void pump(InputStream in, boolean error) {
+        final Pump pump = new Pump(in, error);
+        pumps.add(pump);
+        openPumps++;
+        pump.start();
+    }
+
+    /**
+     * Waits until the streams have ended.
+     */
+    void join() throws InterruptedException {
+        final List<Pump> started;
+        synchronized (this) {
+            started = new ArrayList<>(pumps);
+        }
+        for (Pump pump : started) {
+            pump.join();
+        }
+    }
+
+    /**
+     * @return the file with the full log, or null if it is not kept
+     */
+    File getSpillFile() {
+        return spillFile;
+    }
+
+    DataCleanerProgress getProgress() {
+        return progress;
+    }
+
+    private synchronized void spill(String line, boolean error) {
+        if (spill == null) {
+            return;
+        }
+        try {
+            if (spillBytes > maxSpillBytes) {
+                return;
+            }
+            spillBytes += line.length() + 1;
+            if (spillBytes > maxSpillBytes) {
+                spill.write("(log truncated after " + maxSpillBytes + " bytes)\n");
+                return;
+            }
+            if (error) {
+                spill.write("[stderr] ");
+            }
+            spill.write(line);
+            spill.write('\n');
+        } catch (IOException e) {
+            log.logError("Unable to write the DataCleaner log to " + spillFile, e);
+            closeSpill();
+        }
+    }
+
+    private synchronized void progressParsed() {
+        progressChanged = true;
+        logProgress(false);
+    }
+
+    /**
+     * Logs the progress if it changed, at most every few seconds unless forced.
+     */
+    private synchronized void logProgress(boolean force) {
+        if (!progressChanged) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        if (force || now - progressLogged >= PROGRESS_INTERVAL_MILLIS) {
+            log.logBasic("DC progress: " + progress);
+            progressLogged = now;
+            progressChanged = false;
+        }
+    }
+
+    private synchronized void pumpFinished() {
+        openPumps--;
+        if (openPumps > 0) {
+            return;
+        }
+        logProgress(true);
+        closeSpill();
+        if (omittedLines.get() > 0 && spillFile != null) {
+            log.logBasic("DC: " + omittedLines.get() + " lines were summarized or not logged, the full DataCleaner "
+                    + "log is in " + spillFile);
+        }
+    }
+
+    private synchronized void flushSpill() {
+        if (spill != null) {
+            try {
+                spill.flush();
+            } catch (IOException e) {
+                log.logError("Unable to write the DataCleaner log to " + spillFile, e);
+                closeSpill();
+            }
+        }
+    }
+
+    private void closeSpill() {
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (IOException e) {
+                // do nothing
+            }
+            spill = null;
+        }
+    }
+
+    /**
+     * Reads a stream of the process, see {@link ProcessLog}.
+     */
+    private final class Pump extends Thread {
+
+        private final BufferedReader in;
+        private final boolean error;
+        private final StringBuilder batch = new StringBuilder();
+        private int batchLines;
+        private String lastKey;
+        private int repeats;
+        private long windowStart;
+        private int windowLines;
+        private int suppressed;
+
+        Pump(InputStream in, boolean error) {
+            super("DataCleaner process log " + (error ? "stderr" : "stdout"));
+            setDaemon(true);
+            this.in = new BufferedReader(new InputStreamReader(in));
+            this.error = error;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (String line = in.readLine(); line != null; line = in.readLine()) {
+                    spill(line, error);
+                    if (!error && progress.parse(line)) {
+                        progressParsed();
+                    } else {
+                        add(line);
+                    }
+                    // log what is available at once in one go
+                    final boolean drained = !in.ready();
+                    if (drained) {
+                        endRepeats();
+                        endWindow();
+                    }
+                    if (drained || batchLines >= MAX_BATCH_LINES) {
+                        flush();
+                    }
+                }
+            } catch (IOException e) {
+                log.logError("DC: Unexpected IO exception", e);
+            } finally {
+                endRepeats();
+                endWindow();
+                flush();
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // do nothing
+                }
+                pumpFinished();
+            }
+        }
+
+        private void add(String line) {
+            final String key = DIGITS.matcher(line).replaceAll("#");
+            if (key.equals(lastKey)) {
+                repeats++;
+                return;
+            }
+            endRepeats();
+            lastKey = key;
+            append(line);
+        }
+
+        private void endRepeats() {
+            if (repeats > 0) {
+                append("(similar line repeated " + repeats + " more times)");
+                omittedLines.addAndGet(repeats);
+                repeats = 0;
+            }
+        }
+
+        private void append(String line) {
+            final long now = System.currentTimeMillis();
+            if (now - windowStart >= 1000) {
+                endWindow();
+                windowStart = now;
+                windowLines = 0;
+            }
+            if (windowLines < maxLinesPerSecond) {
+                windowLines++;
+                batchLine(line);
+            } else {
+                suppressed++;
+            }
+        }
+
+        private void endWindow() {
+            if (suppressed > 0) {
+                batchLine("(" + suppressed + " more lines not logged)");
+                omittedLines.addAndGet(suppressed);
+                suppressed = 0;
+            }
+        }
+
+        private void batchLine(String line) {
+            if (batchLines > 0) {
+                batch.append('\n');
+            }
+            batch.append("DC: ").append(line);
+            batchLines++;
+        }
+
+        private void flush() {
+            flushSpill();
+            if (batchLines == 0) {
+                return;
+            }
+            if (error) {
+                log.logError(batch.toString());
+            } else {
+                log.logBasic(batch.toString());
+            }
+            batch.setLength(0);
+            batchLines = 0;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package org.pentaho.di.profiling.datacleaner;
 
+import java.io.File;
 import java.io.OutputStream;
 import java.util.Date;
 import java.util.List;
@@ -15,7 +16,6 @@ import org.datacleaner.beans.DateAndTimeAnalyzer;
 import org.datacleaner.beans.NumberAnalyzer;
 import org.datacleaner.beans.StringAnalyzer;
 import org.datacleaner.configuration.DataCleanerConfiguration;
-import org.datacleaner.configuration.DataCleanerConfigurationImpl;
 import org.datacleaner.connection.Datastore;
 import org.datacleaner.connection.DatastoreConnection;
 import org.datacleaner.connection.JdbcDatastore;
@@ -25,6 +25,7 @@ import org.datacleaner.kettle.configuration.DataCleanerSpoonConfiguration;
 import org.pentaho.di.core.Const;
 import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.gui.SpoonFactory;
+import org.pentaho.di.core.logging.LogChannel;
 import org.pentaho.di.core.variables.Variables;
 import org.pentaho.di.core.vfs.KettleVFS;
 import org.pentaho.di.core.xml.XMLHandler;
@@ -61,7 +62,9 @@ public class ProfilerDatabaseExplorerController extends AbstractXulEventHandler
             final String schemaTable = dbMeta.getQuotedSchemaTableCombination(schemaName, tableName);
 
             // Pass along the configuration of the KettleDatabaseStore...
-            final DataCleanerConfiguration dataCleanerConfiguration = new DataCleanerConfigurationImpl();
+            final File descriptorIndex = ModelerHelper.getDescriptorIndexFile(dataCleanerSpoonConfiguration);
+            final DataCleanerConfiguration dataCleanerConfiguration =
+                    ModelerHelper.createDataCleanerConfiguration(descriptorIndex);
             try (AnalysisJobBuilder analysisJobBuilder = new AnalysisJobBuilder(dataCleanerConfiguration)) {
 
                 final Datastore datastore = new JdbcDatastore(dbMeta.getName(), dbMeta.getURL(),
@@ -127,8 +130,14 @@ public class ProfilerDatabaseExplorerController extends AbstractXulEventHandler
 
                     // Write the conf.xml to a temporary file...
                     //
+                    final TaskRunnerSizing sizing = TaskRunnerSizing.size(
+                            Const.toInt(System.getProperty(ModelerHelper.VARIABLE_MAX_THREADS), 0),
+                            "variable " + ModelerHelper.VARIABLE_MAX_THREADS,
+                            analysisJobBuilder.getAnalyzerComponentBuilders().size(), 1,
+                            TaskRunnerSizing.Source.DATABASE);
+                    new LogChannel(ModelerHelper.LOGCHANNEL_NAME).logBasic(sizing.getReport());
                     String confXml = generateConfXml(dbMeta.getName(), dbMeta.getURL(), dbMeta.getDriverClass(),
-                            dbMeta.getUsername(), dbMeta.getPassword());
+                            dbMeta.getUsername(), dbMeta.getPassword(), descriptorIndex, sizing);
                     final FileObject confFile = KettleVFS.createTempFile("datacleaner-conf", ".xml",
                             System.getProperty("java.io.tmpdir"), new Variables());
                     OutputStream confOutputStream = null;
@@ -161,7 +170,7 @@ public class ProfilerDatabaseExplorerController extends AbstractXulEventHandler
                                     }
                                     ModelerHelper.launchDataCleaner(dataCleanerSpoonConfiguration,
                                             KettleVFS.getFilename(confFile), jobFileName, dbMeta.getName(), null, null,
-                                            null, null, true);
+                                            null, null, true, null);
                                 }
                             }.start();
                         }
@@ -175,7 +184,8 @@ public class ProfilerDatabaseExplorerController extends AbstractXulEventHandler
 
     }
 
-    private String generateConfXml(String name, String url, String driver, String username, String password) {
+    private String generateConfXml(String name, String url, String driver, String username, String password,
+            File descriptorIndex, TaskRunnerSizing sizing) {
         StringBuilder xml = new StringBuilder();
 
         xml.append(XMLHandler.getXMLHeader());
@@ -193,13 +203,8 @@ public class ProfilerDatabaseExplorerController extends AbstractXulEventHandler
         xml.append(XMLHandler.closeTag("jdbc-datastore"));
         xml.append(XMLHandler.closeTag("datastore-catalog"));
 
-        xml.append("<multithreaded-taskrunner max-threads=\"30\" />");
-        xml.append(XMLHandler.openTag("classpath-scanner"));
-        xml.append(
-                "<package recursive=\"true\">org.eobjects.analyzer.beans</package> <package>org.eobjects.analyzer.result.renderer</package> "
-                        + "<package>org.eobjects.datacleaner.output.beans</package> <package>org.eobjects.datacleaner.panels</package> "
-                        + "<package recursive=\"true\">org.eobjects.datacleaner.widgets.result</package> <package recursive=\"true\">com.hi</package>");
-        xml.append(XMLHandler.closeTag("classpath-scanner"));
+        xml.append(sizing.getTaskRunnerXml());
+        xml.append(ModelerHelper.getDescriptorProviderXml(descriptorIndex));
 
         xml.append(XMLHandler.closeTag("configuration"));
 
@@ -0,0 +1,111 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.pentaho.di.core.row.RowMetaInterface;
+
+/**
+ * Bounded lock-free queue of rows with a single producer (a step copy) and a single consumer (the capture writer
+ * thread). Only references are queued, the rows are serialized by the consumer.
+ */
+final class RowRingBuffer {
+
+    private final RowMetaInterface[] rowMetas;
+    private final Object[][] rows;
+    private final int mask;
+
+    /**
+     * Index of the next slot to read, only written by the consumer.
+     */
+    private final AtomicLong head;
+
+    /**
+     * Index of the next slot to write, only written by the producer.
+     */
+    private final AtomicLong tail;
+
+    private long highWaterMark;
+
+    /**
+     * @param minimumCapacity the minimum number of rows that can be queued, rounded up to a power of two
+     */
+    RowRingBuffer(int minimumCapacity) {
+        final int capacity = Integer.highestOneBit(Math.max(1, minimumCapacity - 1)) << 1;
+        this.rowMetas = new RowMetaInterface[capacity];
+        this.rows = new Object[capacity][];
+        this.mask = capacity - 1;
+        this.head = new AtomicLong();
+        this.tail = new AtomicLong();
+        this.highWaterMark = 0;
+    }
+
+    public int getCapacity() {
+        return rows.length;
+    }
+
+    /**
+     * Adds a row if there is room for it. Must only be called by the producer.
+     *
+     * @param rowMeta
+     * @param row
+     * @return false if the queue is full
+     */
+    public boolean offer(RowMetaInterface rowMeta, Object[] row) {
+        final long currentTail = tail.get();
+        final long size = currentTail - head.get();
+        if (size >= rows.length) {
+            return false;
+        }
+        final int index = (int) (currentTail & mask);
+        rowMetas[index] = rowMeta;
+        rows[index] = row;
+        // publishes the slot to the consumer
+        tail.lazySet(currentTail + 1);
+        if (size + 1 > highWaterMark) {
+            highWaterMark = size + 1;
+        }
+        return true;
+    }
+
+    /**
+     * Hands the queued rows to a consumer. Must only be called by the consumer.
+     *
+     * @param consumer
+     * @param maxRows the maximum number of rows to drain
+     * @return the number of rows drained
+     * @throws Exception if the consumer fails. The queue should not be drained any further in that case.
+     */
+    public int drain(RowConsumer consumer, int maxRows) throws Exception {
+        final long currentHead = head.get();
+        final int available = (int) Math.min(tail.get() - currentHead, maxRows);
+        for (int i = 0; i < available; i++) {
+            final int index = (int) ((currentHead + i) & mask);
+            consumer.accept(rowMetas[index], rows[index]);
+            rowMetas[index] = null;
+            rows[index] = null;
+            // frees the slot for the producer
+            head.lazySet(currentHead + i + 1);
+        }
+        return available;
+    }
+
+    public boolean isEmpty() {
+        return tail.get() == head.get();
+    }
+
+    /**
+     * @return the largest number of rows that have been queued at the same time. Only accurate when called by the
+     *         producer, or after the producer has finished.
+     */
+    public long getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    /**
+     * Receives the rows drained from a {@link RowRingBuffer}.
+     */
+    interface RowConsumer {
+
+        void accept(RowMetaInterface rowMeta, Object[] row) throws Exception;
+    }
+}
@@ -0,0 +1,137 @@
+package org.pentaho.di.profiling.datacleaner;
+
+/**
+ * Chooses the number of threads of the task runner of a DataCleaner job, instead of a fixed number that oversubscribes
+ * small machines and leaves large ones idle.
+ * <p>
+ * DataCleaner reads every source table on a thread of its own and hands the rows to the analyzers on the other
+ * threads. More reader threads than tables don't help, a capture is read sequentially, while a database keeps a
+ * reader waiting on the network so it gets one more thread per table. More analyzer threads than analyzers or
+ * processors only add contention.
+ */
+public final class TaskRunnerSizing {
+
+    /**
+     * The kind of datastore a job reads from.
+     */
+    public enum Source {
+        CAPTURE, DATABASE, OTHER
+    }
+
+    private final int threads;
+    private final String report;
+
+    private TaskRunnerSizing(int threads, String report) {
+        this.threads = threads;
+        this.report = report;
+    }
+
+    /**
+     * Sizes the task runner for a job on this machine.
+     *
+     * @param override the number of threads set by the user, or 0 or less to size from the job
+     * @param overrideOrigin where the override was set, for the report
+     * @param analyzers the number of analyzers of the job, or 0 if it isn't known
+     * @param sourceTables the number of tables the job reads
+     * @param source the kind of datastore the job reads
+     * @return the sizing
+     */
+    public static TaskRunnerSizing size(int override, String overrideOrigin, int analyzers, int sourceTables,
+            Source source) {
+        return size(Runtime.getRuntime().availableProcessors(), override, overrideOrigin, analyzers, sourceTables,
+                source);
+    }
+
+    /**
+     * Sizes the task runner for a job that gets a share of the processors, e.g. one of several jobs run at the same
+     * time.
+     *
+     * @param processors the number of processors for the job
+     * @param override the number of threads set by the user, or 0 or less to size from the job
+     * @param overrideOrigin where the override was set, for the report
+     * @param analyzers the number of analyzers of the job, or 0 if it isn't known
+     * @param sourceTables the number of tables the job reads
+     * @param source the kind of datastore the job reads
+     * @return the sizing
+     */
+    public static TaskRunnerSizing size(int processors, int override, String overrideOrigin, int analyzers,
+            int sourceTables, Source source) {
+        if (override > 0) {
+            return new TaskRunnerSizing(override, "DataCleaner task runner: " + override + " threads, set by "
+                    + overrideOrigin);
+        }
+
+        final int tables = Math.max(1, sourceTables);
+        final int readers;
+        final String readersReason;
+        switch (source) {
+        case CAPTURE:
+            readers = tables;
+            readersReason = tables + " for reading " + tables + " capture(s) sequentially";
+            break;
+        case DATABASE:
+            readers = 2 * tables;
+            readersReason = readers + " for reading " + tables + " database table(s), which wait on the network";
+            break;
+        default:
+            readers = tables;
+            readersReason = tables + " for reading " + tables + " table(s)";
+            break;
+        }
+
+        final int workers;
+        final String workersReason;
+        if (analyzers <= 0) {
+            // the job is built interactively, any number of analyzers may be added
+            workers = Math.max(1, processors);
+            workersReason = workers + " for the analyzers on " + processors + " processor(s)";
+        } else {
+            workers = Math.min(Math.max(1, processors), analyzers);
+            workersReason = workers + " for " + analyzers + " analyzer(s) on " + processors + " processor(s)";
+        }
+
+        final int threads = readers + workers;
+        return new TaskRunnerSizing(threads, "DataCleaner task runner: " + threads + " threads, " + readersReason
+                + " and " + workersReason + ". Set " + overrideOrigin + " to override.");
+    }
+
+    /**
+     * Counts the analyzers of a job without parsing it.
+     *
+     * @param jobXml a DataCleaner job
+     * @return the number of analyzer elements
+     */
+    public static int countAnalyzers(String jobXml) {
+        int count = 0;
+        int index = jobXml.indexOf("<analyzer");
+        while (index != -1) {
+            final char next = index + 9 < jobXml.length() ? jobXml.charAt(index + 9) : '>';
+            if (next == '>' || next == '/' || Character.isWhitespace(next)) {
+                count++;
+            }
+            index = jobXml.indexOf("<analyzer", index + 9);
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of threads
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return what was chosen and why, for the log
+     */
+    public String getReport() {
+        return report;
+    }
+
+    /**
+     * @return the task runner element of a conf.xml
+     */
+    public String getTaskRunnerXml() {
+        return "<multithreaded-taskrunner max-threads=\"" + threads + "\" />";
+    }
+}
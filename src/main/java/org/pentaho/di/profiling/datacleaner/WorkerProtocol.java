@@ -0,0 +1,102 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The protocol between {@link DataCleanerWorkerClient} and {@link DataCleanerWorker}.
+ * <p>
+ * The client starts the worker and writes a secret token and a newline to its standard input. The worker listens on
+ * a loopback port and announces it with a {@link #READY} line on its standard output. Standard input stays open, the
+ * worker exits when it is closed, so that it doesn't outlive the Kettle JVM.
+ * <p>
+ * Every connection carries one request: the token (string), a command (int) and its arguments, followed by the
+ * response:
+ * 
+ * <pre>
+ * PING:     response active jobs (int), completed jobs (int)
+ * RUN:      conf XML (string), job XML (string), output type (string), output file (string), max threads (int)
+ *           response exit code (int), output file (string), log (string)
+ * SHUTDOWN: response active jobs (int), the worker exits when they have finished
+ * </pre>
+ * 
+ * Strings are written as a length (int, -1 for null) followed by UTF-8 bytes, as job XML easily exceeds the limit of
+ * {@link DataOutputStream#writeUTF(String)}. The length is checked before anything is allocated, the token is read
+ * before the connection is authenticated and may come from any local process.
+ */
+final class WorkerProtocol {
+
+    static final String READY = "DATACLEANER-WORKER-READY";
+
+    static final int PING = 1;
+    static final int RUN = 2;
+    static final int SHUTDOWN = 3;
+
+    /**
+     * The maximum length of the token in bytes.
+     */
+    static final int MAX_TOKEN_LENGTH = 256;
+
+    /**
+     * The maximum length of any other string in bytes.
+     */
+    static final int MAX_STRING_LENGTH = 256 * 1024 * 1024;
+
+    private WorkerProtocol() {
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        return readString(in, MAX_STRING_LENGTH);
+    }
+
+    /**
+     * @param in
+     * @param maxLength the maximum length of the string in bytes
+     * @return the string, or null
+     * @throws IOException if the stream ended, or the length is not valid or exceeds the maximum
+     */
+    static String readString(DataInputStream in, int maxLength) throws IOException {
+        final int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < -1 || length > maxLength) {
+            throw new IOException("Invalid string length: " + length);
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a line from a process stream byte by byte, so that nothing after it is buffered away from the reader that
+     * takes over the stream.
+     *
+     * @return the line, or null at the end of the stream
+     */
+    static String readLine(InputStream in) throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        for (int b = in.read(); b != '\n'; b = in.read()) {
+            if (b == -1) {
+                return sb.length() == 0 ? null : sb.toString();
+            }
+            if (b != '\r') {
+                sb.append((char) b);
+            }
+        }
+        return sb.toString();
+    }
+}
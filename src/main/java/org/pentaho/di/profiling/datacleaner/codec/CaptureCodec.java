@@ -0,0 +1,46 @@
+package org.pentaho.di.profiling.datacleaner.codec;
+
+import java.io.IOException;
+
+/**
+ * Compresses and decompresses the row blocks of a capture file. The name of the codec is recorded in the capture file
+ * header, so that the reading side can pick the same codec through {@link CaptureCodecs#getCodec(String)}.
+ * <p>
+ * Implementations must be thread safe. Additional codecs can be registered using the {@link java.util.ServiceLoader}
+ * mechanism.
+ */
+public interface CaptureCodec {
+
+    /**
+     * @return the name of the codec, as recorded in the capture file header
+     */
+    String getName();
+
+    /**
+     * @param length the number of uncompressed bytes
+     * @return the maximum number of bytes that {@link #compress(byte[], int, byte[])} may produce
+     */
+    int getMaxCompressedLength(int length);
+
+    /**
+     * Compresses a block.
+     *
+     * @param source the uncompressed bytes
+     * @param length the number of bytes to compress from the source
+     * @param target the array to write to, at least {@link #getMaxCompressedLength(int)} long
+     * @return the number of compressed bytes written to the target
+     * @throws IOException
+     */
+    int compress(byte[] source, int length, byte[] target) throws IOException;
+
+    /**
+     * Decompresses a block.
+     *
+     * @param source the compressed bytes
+     * @param length the number of compressed bytes in the source
+     * @param target the array to write to
+     * @param targetLength the expected number of uncompressed bytes
+     * @throws IOException if the block is corrupt
+     */
+    void decompress(byte[] source, int length, byte[] target, int targetLength) throws IOException;
+}
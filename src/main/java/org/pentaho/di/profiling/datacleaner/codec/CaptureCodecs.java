@@ -0,0 +1,60 @@
+package org.pentaho.di.profiling.datacleaner.codec;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * Registry of the available {@link CaptureCodec}s.
+ */
+public final class CaptureCodecs {
+
+    /**
+     * The codec used when nothing else has been chosen for a profile run.
+     */
+    public static final String DEFAULT_CODEC = Lz4Codec.NAME;
+
+    private static final Map<String, CaptureCodec> CODECS = createCodecs();
+
+    private CaptureCodecs() {
+        // prevent instantiation
+    }
+
+    private static Map<String, CaptureCodec> createCodecs() {
+        final Map<String, CaptureCodec> codecs = new LinkedHashMap<>();
+        register(codecs, new NoCompressionCodec());
+        register(codecs, new Lz4Codec());
+        register(codecs, new DeflateCodec());
+        for (CaptureCodec codec : ServiceLoader.load(CaptureCodec.class, CaptureCodecs.class.getClassLoader())) {
+            register(codecs, codec);
+        }
+        return Collections.unmodifiableMap(codecs);
+    }
+
+    private static void register(Map<String, CaptureCodec> codecs, CaptureCodec codec) {
+        codecs.put(codec.getName().toLowerCase(), codec);
+    }
+
+    /**
+     * @param name the name of the codec, case insensitive. Null or empty means no compression.
+     * @return the codec
+     * @throws IllegalArgumentException if no codec with the name exists
+     */
+    public static CaptureCodec getCodec(String name) {
+        if (name == null || name.trim().isEmpty()) {
+            return CODECS.get(NoCompressionCodec.NAME);
+        }
+        final CaptureCodec codec = CODECS.get(name.trim().toLowerCase());
+        if (codec == null) {
+            throw new IllegalArgumentException("No such capture codec: " + name + ". Available codecs: "
+                    + CODECS.keySet());
+        }
+        return codec;
+    }
+
+    public static Collection<CaptureCodec> getCodecs() {
+        return CODECS.values();
+    }
+}
@@ -0,0 +1,178 @@
+package org.pentaho.di.profiling.datacleaner.codec;
+
+import java.io.IOException;
+
+/**
+ * A fast LZ77 codec producing the LZ4 block format, implemented in plain Java so that the plugin does not need an
+ * additional native or third party library. The compressor is a simple greedy single-hash matcher, which trades some
+ * compression ratio for speed.
+ */
+public final class Lz4Codec implements CaptureCodec {
+
+    public static final String NAME = "lz4";
+
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_DISTANCE = 65535;
+    private static final int HASH_LOG = 14;
+    private static final int RUN_MASK = 15;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public int getMaxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    @Override
+    public int compress(byte[] source, int length, byte[] target) throws IOException {
+        final int[] hashTable = new int[1 << HASH_LOG];
+        final int matchLimit = length - LAST_LITERALS;
+
+        int anchor = 0;
+        int sourceIndex = 0;
+        int targetIndex = 0;
+
+        if (length >= MF_LIMIT) {
+            final int sourceLimit = length - MF_LIMIT;
+            while (sourceIndex < sourceLimit) {
+                final int sequence = readInt(source, sourceIndex);
+                final int hash = hash(sequence);
+                // the table stores positions + 1, so that 0 means "empty"
+                final int reference = hashTable[hash] - 1;
+                hashTable[hash] = sourceIndex + 1;
+
+                if (reference < 0 || sourceIndex - reference > MAX_DISTANCE
+                        || readInt(source, reference) != sequence) {
+                    sourceIndex++;
+                    continue;
+                }
+
+                int matchLength = MIN_MATCH;
+                while (sourceIndex + matchLength < matchLimit
+                        && source[reference + matchLength] == source[sourceIndex + matchLength]) {
+                    matchLength++;
+                }
+
+                final int tokenIndex = targetIndex;
+                targetIndex = writeSequence(source, anchor, sourceIndex - anchor, target, targetIndex);
+                target[targetIndex++] = (byte) (sourceIndex - reference);
+                target[targetIndex++] = (byte) ((sourceIndex - reference) >>> 8);
+                targetIndex = writeMatchLength(target, targetIndex, tokenIndex, matchLength - MIN_MATCH);
+
+                sourceIndex += matchLength;
+                anchor = sourceIndex;
+            }
+        }
+
+        // the last sequence only has literals
+        targetIndex = writeSequence(source, anchor, length - anchor, target, targetIndex);
+        return targetIndex;
+    }
+
+    /**
+     * Writes a token followed by the literals of a sequence. The match length nibble of the token is filled in later
+     * by {@link #writeMatchLength(byte[], int, int, int)}.
+     */
+    private int writeSequence(byte[] source, int literalOffset, int literalLength, byte[] target, int targetIndex) {
+        int index = targetIndex;
+        final int tokenIndex = index++;
+        if (literalLength >= RUN_MASK) {
+            target[tokenIndex] = (byte) (RUN_MASK << 4);
+            int remaining = literalLength - RUN_MASK;
+            while (remaining >= 255) {
+                target[index++] = (byte) 255;
+                remaining -= 255;
+            }
+            target[index++] = (byte) remaining;
+        } else {
+            target[tokenIndex] = (byte) (literalLength << 4);
+        }
+        System.arraycopy(source, literalOffset, target, index, literalLength);
+        return index + literalLength;
+    }
+
+    private int writeMatchLength(byte[] target, int targetIndex, int tokenIndex, int matchLength) {
+        int index = targetIndex;
+        if (matchLength >= RUN_MASK) {
+            target[tokenIndex] |= RUN_MASK;
+            int remaining = matchLength - RUN_MASK;
+            while (remaining >= 255) {
+                target[index++] = (byte) 255;
+                remaining -= 255;
+            }
+            target[index++] = (byte) remaining;
+        } else {
+            target[tokenIndex] |= matchLength;
+        }
+        return index;
+    }
+
+    @Override
+    public void decompress(byte[] source, int length, byte[] target, int targetLength) throws IOException {
+        int sourceIndex = 0;
+        int targetIndex = 0;
+        try {
+            while (sourceIndex < length) {
+                final int token = source[sourceIndex++] & 0xFF;
+
+                int literalLength = token >>> 4;
+                if (literalLength == RUN_MASK) {
+                    int b;
+                    do {
+                        b = source[sourceIndex++] & 0xFF;
+                        literalLength += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(source, sourceIndex, target, targetIndex, literalLength);
+                sourceIndex += literalLength;
+                targetIndex += literalLength;
+
+                if (sourceIndex >= length) {
+                    // last sequence
+                    break;
+                }
+
+                final int offset = (source[sourceIndex] & 0xFF) | ((source[sourceIndex + 1] & 0xFF) << 8);
+                sourceIndex += 2;
+                if (offset == 0 || offset > targetIndex) {
+                    throw new IOException("Corrupt LZ4 block, invalid match offset: " + offset);
+                }
+
+                int matchLength = token & RUN_MASK;
+                if (matchLength == RUN_MASK) {
+                    int b;
+                    do {
+                        b = source[sourceIndex++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+
+                // byte by byte, since the match may overlap the bytes being written
+                int reference = targetIndex - offset;
+                for (int i = 0; i < matchLength; i++) {
+                    target[targetIndex++] = target[reference++];
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Corrupt LZ4 block", e);
+        }
+        if (targetIndex != targetLength) {
+            throw new IOException("Decompressed block has " + targetIndex + " bytes, expected " + targetLength);
+        }
+    }
+
+    private static int readInt(byte[] bytes, int index) {
+        return (bytes[index] & 0xFF) | ((bytes[index + 1] & 0xFF) << 8) | ((bytes[index + 2] & 0xFF) << 16)
+                | ((bytes[index + 3] & 0xFF) << 24);
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+}
@@ -0,0 +1,35 @@
+package org.pentaho.di.profiling.datacleaner.codec;
+
+import java.io.IOException;
+
+/**
+ * Codec that stores blocks as they are.
+ */
+public final class NoCompressionCodec implements CaptureCodec {
+
+    public static final String NAME = "none";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public int getMaxCompressedLength(int length) {
+        return length;
+    }
+
+    @Override
+    public int compress(byte[] source, int length, byte[] target) {
+        System.arraycopy(source, 0, target, 0, length);
+        return length;
+    }
+
+    @Override
+    public void decompress(byte[] source, int length, byte[] target, int targetLength) throws IOException {
+        if (length != targetLength) {
+            throw new IOException("Stored block length " + length + " does not match expected length " + targetLength);
+        }
+        System.arraycopy(source, 0, target, 0, length);
+    }
+}
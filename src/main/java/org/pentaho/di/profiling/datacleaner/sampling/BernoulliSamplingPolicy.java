@@ -0,0 +1,74 @@
+package org.pentaho.di.profiling.datacleaner.sampling;
+
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Captures every row independently with a fixed probability. Instead of drawing a random number per row, the number
+ * of rows to skip until the next row in the sample is drawn from the geometric distribution, so rows that are not
+ * sampled cost next to nothing.
+ */
+public class BernoulliSamplingPolicy extends SamplingPolicy {
+
+    public static final String NAME = "bernoulli";
+
+    private final double rate;
+
+    public BernoulliSamplingPolicy(double rate, long seed) {
+        super(seed);
+        if (!(rate >= 0 && rate <= 1)) {
+            throw new IllegalArgumentException("Sampling rate must be between 0 and 1: " + rate);
+        }
+        this.rate = rate;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    @Override
+    public RowSampler createSampler(int copy) {
+        final Random random = new Random(getSeed(copy));
+        return new RowSampler() {
+
+            private long nextRow = skip(random, -1);
+
+            @Override
+            protected boolean sample(long rowNumber, Object[] row) {
+                if (rowNumber != nextRow) {
+                    return false;
+                }
+                nextRow = skip(random, rowNumber);
+                return true;
+            }
+        };
+    }
+
+    private long skip(Random random, long rowNumber) {
+        if (rate >= 1) {
+            return rowNumber + 1;
+        }
+        if (rate <= 0) {
+            return Long.MAX_VALUE;
+        }
+        final double gap = Math.floor(Math.log(1 - random.nextDouble()) / Math.log(1 - rate));
+        return gap >= Long.MAX_VALUE - rowNumber - 1 ? Long.MAX_VALUE : rowNumber + 1 + (long) gap;
+    }
+
+    @Override
+    public Map<String, String> getProperties() {
+        final Map<String, String> properties = super.getProperties();
+        properties.put(PROPERTY_RATE, Double.toString(rate));
+        return properties;
+    }
+
+    @Override
+    public String getDescription() {
+        return "bernoulli sample at rate " + rate;
+    }
+}
@@ -0,0 +1,56 @@
+package org.pentaho.di.profiling.datacleaner.sampling;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Captures the first N rows produced by the step, over all step copies together.
+ */
+public class FirstRowsSamplingPolicy extends SamplingPolicy {
+
+    public static final String NAME = "first";
+
+    private final long size;
+    private final AtomicLong accepted;
+
+    public FirstRowsSamplingPolicy(long size, long seed) {
+        super(seed);
+        if (size < 0) {
+            throw new IllegalArgumentException("Sample size cannot be negative: " + size);
+        }
+        this.size = size;
+        this.accepted = new AtomicLong();
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public RowSampler createSampler(int copy) {
+        return new RowSampler() {
+            @Override
+            protected boolean sample(long rowNumber, Object[] row) {
+                // avoid contention on the counter once the sample is complete
+                return accepted.get() < size && accepted.incrementAndGet() <= size;
+            }
+        };
+    }
+
+    @Override
+    public Map<String, String> getProperties() {
+        final Map<String, String> properties = super.getProperties();
+        properties.put(PROPERTY_SIZE, Long.toString(size));
+        return properties;
+    }
+
+    @Override
+    public String getDescription() {
+        return "first " + size + " rows";
+    }
+}
@@ -0,0 +1,145 @@
+package org.pentaho.di.profiling.datacleaner.sampling;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Captures a uniform random sample of a fixed number of rows, using reservoir sampling. The sampled rows are kept in
+ * memory until the step has finished, so the size should be chosen accordingly.
+ * <p>
+ * The samplers use Algorithm L (Li, 1994), which computes how many rows to skip until the next row enters the
+ * reservoir, so the cost per row that is skipped is only a comparison. When the step runs in multiple copies, each
+ * copy keeps its own reservoir and the reservoirs are merged in proportion to the number of rows each copy has seen.
+ */
+public class ReservoirSamplingPolicy extends SamplingPolicy {
+
+    public static final String NAME = "reservoir";
+
+    private final int size;
+
+    public ReservoirSamplingPolicy(int size, long seed) {
+        super(seed);
+        if (size < 0) {
+            throw new IllegalArgumentException("Sample size cannot be negative: " + size);
+        }
+        this.size = size;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public RowSampler createSampler(int copy) {
+        return new ReservoirSampler(size, new Random(getSeed(copy)));
+    }
+
+    @Override
+    public List<List<Object[]>> selectRetainedRows(List<RowSampler> samplers) {
+        if (samplers.size() <= 1) {
+            return super.selectRetainedRows(samplers);
+        }
+
+        // decide how many rows of the merged sample come from each copy, as if drawing without replacement from the
+        // rows of all copies together
+        final Random random = new Random(getSeed());
+        final long[] remaining = new long[samplers.size()];
+        long totalRemaining = 0;
+        for (int i = 0; i < remaining.length; i++) {
+            remaining[i] = samplers.get(i).getRowsSeen();
+            totalRemaining += remaining[i];
+        }
+        final int[] counts = new int[samplers.size()];
+        final long sampleSize = Math.min(size, totalRemaining);
+        for (long n = 0; n < sampleSize; n++) {
+            long pick = (long) (random.nextDouble() * totalRemaining);
+            int i = 0;
+            while (pick >= remaining[i]) {
+                pick -= remaining[i];
+                i++;
+            }
+            counts[i]++;
+            remaining[i]--;
+            totalRemaining--;
+        }
+
+        final List<List<Object[]>> result = new ArrayList<>(samplers.size());
+        for (int i = 0; i < counts.length; i++) {
+            final List<Object[]> rows = new ArrayList<>(samplers.get(i).getRetainedRows());
+            // a random subset of the reservoir is still a uniform sample of the rows of the copy
+            for (int j = 0; j < counts[i]; j++) {
+                Collections.swap(rows, j, j + random.nextInt(rows.size() - j));
+            }
+            result.add(rows.subList(0, counts[i]));
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, String> getProperties() {
+        final Map<String, String> properties = super.getProperties();
+        properties.put(PROPERTY_SIZE, Integer.toString(size));
+        return properties;
+    }
+
+    @Override
+    public String getDescription() {
+        return "reservoir of " + size + " rows";
+    }
+
+    private static final class ReservoirSampler extends RowSampler {
+
+        private final int size;
+        private final Random random;
+        private final List<Object[]> reservoir;
+        private double w;
+        private long nextRow;
+
+        ReservoirSampler(int size, Random random) {
+            this.size = size;
+            this.random = random;
+            this.reservoir = new ArrayList<>(Math.min(size, 1024));
+            this.w = Math.exp(Math.log(random.nextDouble()) / size);
+            this.nextRow = size - 1;
+            if (size == 0) {
+                nextRow = Long.MAX_VALUE;
+            } else {
+                advance();
+            }
+        }
+
+        @Override
+        protected boolean sample(long rowNumber, Object[] row) {
+            if (rowNumber < size) {
+                reservoir.add(row);
+            } else if (rowNumber == nextRow) {
+                reservoir.set(random.nextInt(size), row);
+                w *= Math.exp(Math.log(random.nextDouble()) / size);
+                advance();
+            }
+            return false;
+        }
+
+        private void advance() {
+            final double skip = Math.floor(Math.log(random.nextDouble()) / Math.log(1 - w));
+            if (!(skip >= 0) || skip >= Long.MAX_VALUE - nextRow - 1) {
+                nextRow = Long.MAX_VALUE;
+            } else {
+                nextRow = nextRow + (long) skip + 1;
+            }
+        }
+
+        @Override
+        public List<Object[]> getRetainedRows() {
+            return reservoir;
+        }
+    }
+}
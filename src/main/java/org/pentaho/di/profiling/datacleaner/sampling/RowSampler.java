@@ -0,0 +1,61 @@
+package org.pentaho.di.profiling.datacleaner.sampling;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.pentaho.di.core.row.RowMetaInterface;
+
+/**
+ * Decides which rows of one step copy are captured, see {@link SamplingPolicy}. A sampler is only used by the thread
+ * of its step copy.
+ */
+public abstract class RowSampler {
+
+    private long rowsSeen;
+    private RowMetaInterface rowMeta;
+
+    protected RowSampler() {
+        this.rowsSeen = 0;
+        this.rowMeta = null;
+    }
+
+    /**
+     * Offers a row to the sampler.
+     *
+     * @param rowMeta
+     * @param row
+     * @return true if the row should be captured right away
+     */
+    public final boolean offer(RowMetaInterface rowMeta, Object[] row) {
+        this.rowMeta = rowMeta;
+        return sample(rowsSeen++, row);
+    }
+
+    /**
+     * @param rowNumber the zero based number of the row within the step copy
+     * @param row
+     * @return true if the row should be captured right away
+     */
+    protected abstract boolean sample(long rowNumber, Object[] row);
+
+    /**
+     * @return the rows that the sampler has held back, to be captured when the step has finished
+     */
+    public List<Object[]> getRetainedRows() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * @return the number of rows offered to the sampler
+     */
+    public long getRowsSeen() {
+        return rowsSeen;
+    }
+
+    /**
+     * @return the row metadata of the last row offered, or null if no rows were offered
+     */
+    public RowMetaInterface getRowMeta() {
+        return rowMeta;
+    }
+}
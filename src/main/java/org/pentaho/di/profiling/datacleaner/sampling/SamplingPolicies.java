@@ -0,0 +1,46 @@
+package org.pentaho.di.profiling.datacleaner.sampling;
+
+/**
+ * Creates {@link SamplingPolicy} instances by name.
+ */
+public final class SamplingPolicies {
+
+    /**
+     * Name for capturing all rows, without sampling.
+     */
+    public static final String NONE = "none";
+
+    private SamplingPolicies() {
+        // prevent instantiation
+    }
+
+    /**
+     * @param name the name of the policy, case insensitive: "none", "first", "bernoulli" or "reservoir". Null or empty
+     *            means no sampling.
+     * @param size the sample size, for the "first" and "reservoir" policies
+     * @param rate the sampling rate between 0 and 1, for the "bernoulli" policy
+     * @param seed the seed of the random generator
+     * @return the policy, or null for no sampling
+     * @throws IllegalArgumentException if no policy with the name exists or the parameters are invalid
+     */
+    public static SamplingPolicy create(String name, long size, double rate, long seed) {
+        if (name == null || name.trim().isEmpty() || NONE.equalsIgnoreCase(name.trim())) {
+            return null;
+        }
+        switch (name.trim().toLowerCase()) {
+        case FirstRowsSamplingPolicy.NAME:
+            return new FirstRowsSamplingPolicy(size, seed);
+        case BernoulliSamplingPolicy.NAME:
+            return new BernoulliSamplingPolicy(rate, seed);
+        case ReservoirSamplingPolicy.NAME:
+            if (size > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("Reservoir size too large: " + size);
+            }
+            return new ReservoirSamplingPolicy((int) size, seed);
+        default:
+            throw new IllegalArgumentException("No such sampling policy: " + name + ". Available policies: [" + NONE
+                    + ", " + FirstRowsSamplingPolicy.NAME + ", " + BernoulliSamplingPolicy.NAME + ", "
+                    + ReservoirSamplingPolicy.NAME + "]");
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.pentaho.di.profiling.datacleaner.sampling;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A policy for capturing a sample of the rows of a profiled step instead of all of them. A {@link RowSampler} is
+ * created for every step copy. The policy and its parameters are recorded in the capture, so that a sample can be
+ * told apart from a full capture and reproduced with the same seed.
+ */
+public abstract class SamplingPolicy {
+
+    /**
+     * Capture property holding the name of the policy.
+     */
+    public static final String PROPERTY_POLICY = "sampling";
+
+    /**
+     * Capture property holding the seed of the random generator.
+     */
+    public static final String PROPERTY_SEED = "sampling.seed";
+
+    /**
+     * Capture property holding the sample size, for policies with a fixed size.
+     */
+    public static final String PROPERTY_SIZE = "sampling.size";
+
+    /**
+     * Capture property holding the sampling rate, for policies with a rate.
+     */
+    public static final String PROPERTY_RATE = "sampling.rate";
+
+    /**
+     * Capture property holding the number of rows the step produced, including the ones not in the sample.
+     */
+    public static final String PROPERTY_ROWS_SEEN = "sampling.rows_seen";
+
+    /**
+     * Property holding the number of rows in the sample, for reports about the capture.
+     */
+    public static final String PROPERTY_ROWS_SAMPLED = "sampling.rows_sampled";
+
+    private final long seed;
+
+    protected SamplingPolicy(long seed) {
+        this.seed = seed;
+    }
+
+    public abstract String getName();
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Creates the sampler for one step copy. Each copy gets its own random sequence derived from the seed.
+     *
+     * @param copy the step copy number
+     * @return
+     */
+    public abstract RowSampler createSampler(int copy);
+
+    /**
+     * Selects which of the rows held back by the samplers are captured, once all step copies have finished.
+     *
+     * @param samplers the samplers of all step copies
+     * @return for every sampler, the rows to capture
+     */
+    public List<List<Object[]>> selectRetainedRows(List<RowSampler> samplers) {
+        final List<List<Object[]>> result = new ArrayList<>(samplers.size());
+        for (RowSampler sampler : samplers) {
+            result.add(sampler.getRetainedRows());
+        }
+        return result;
+    }
+
+    /**
+     * @return the properties describing the policy, to be recorded in the capture header
+     */
+    public Map<String, String> getProperties() {
+        final Map<String, String> properties = new LinkedHashMap<>();
+        properties.put(PROPERTY_POLICY, getName());
+        properties.put(PROPERTY_SEED, Long.toString(seed));
+        return properties;
+    }
+
+    /**
+     * @return a short description for log messages and reports, e.g. "reservoir of 10000 rows"
+     */
+    public abstract String getDescription();
+
+    protected long getSeed(int copy) {
+        // spread the seeds of the copies, so that copies don't make the same choices
+        return seed + copy * 0x9E3779B97F4A7C15L;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + getProperties() + "]";
+    }
+}
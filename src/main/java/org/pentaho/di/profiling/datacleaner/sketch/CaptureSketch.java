@@ -0,0 +1,136 @@
+package org.pentaho.di.profiling.datacleaner.sketch;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.pentaho.di.core.row.RowMetaInterface;
+
+/**
+ * The {@link ColumnSketch}es of all columns of a capture, computed while the rows are captured and stored with the
+ * capture, so that a first profile of the step is available without reading the rows.
+ * <p>
+ * A sketch is only used by a single thread while it is updated. Every step copy keeps its own, and they are merged
+ * when the capture is closed.
+ */
+public final class CaptureSketch {
+
+    private final List<ColumnSketch> columns;
+    private long rowCount;
+
+    private CaptureSketch(List<ColumnSketch> columns) {
+        this.columns = columns;
+        this.rowCount = 0;
+    }
+
+    /**
+     * Creates an empty sketch for rows of the given metadata.
+     *
+     * @param rowMeta
+     * @return
+     */
+    public static CaptureSketch create(RowMetaInterface rowMeta) {
+        final List<ColumnSketch> columns = new ArrayList<>(rowMeta.size());
+        for (int i = 0; i < rowMeta.size(); i++) {
+            columns.add(ColumnSketch.create(rowMeta.getValueMeta(i)));
+        }
+        return new CaptureSketch(columns);
+    }
+
+    /**
+     * Adds the values of a row.
+     *
+     * @param row
+     */
+    public void add(Object[] row) {
+        for (int i = 0; i < columns.size(); i++) {
+            columns.get(i).add(row[i]);
+        }
+        rowCount++;
+    }
+
+    /**
+     * Adds the rows seen by another sketch of the same columns.
+     *
+     * @param other
+     */
+    public void merge(CaptureSketch other) {
+        if (other.columns.size() != columns.size()) {
+            throw new IllegalArgumentException("Cannot merge a sketch of " + other.columns.size()
+                    + " columns into one of " + columns.size() + " columns");
+        }
+        for (int i = 0; i < columns.size(); i++) {
+            columns.get(i).merge(other.columns.get(i));
+        }
+        rowCount += other.rowCount;
+    }
+
+    /**
+     * @return the number of rows the sketch was computed from
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public List<ColumnSketch> getColumnSketches() {
+        return Collections.unmodifiableList(columns);
+    }
+
+    public ColumnSketch getColumnSketch(int index) {
+        return columns.get(index);
+    }
+
+    /**
+     * @param name the name of a column
+     * @return the sketch of the column, or null if there is no such column
+     */
+    public ColumnSketch getColumnSketch(String name) {
+        for (ColumnSketch column : columns) {
+            if (column.getName().equals(name)) {
+                return column;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes the sketch.
+     *
+     * <pre>
+     * row count (long), column count (int), per column: value count (long), null count (long), blank count (long),
+     *     ordered (boolean) and if so minimum and maximum (values as in the rows), strings (boolean) and if so
+     *     minimum length (int), maximum length (int), bucket count (int) and per bucket the string count (long),
+     *     then the distinct count sketch: precision (byte), non-zero register count (int), and either per non-zero
+     *     register its index (short) and value (byte), or all registers (bytes) when at least a third is non-zero
+     * </pre>
+     *
+     * @param outputStream
+     * @param rowMeta the metadata of the rows, for serializing the minimum and maximum values
+     * @throws IOException
+     */
+    public void write(DataOutputStream outputStream, RowMetaInterface rowMeta) throws IOException {
+        outputStream.writeLong(rowCount);
+        outputStream.writeInt(columns.size());
+        for (int i = 0; i < columns.size(); i++) {
+            columns.get(i).write(outputStream, rowMeta.getValueMeta(i));
+        }
+    }
+
+    public static CaptureSketch read(DataInputStream inputStream, RowMetaInterface rowMeta) throws IOException {
+        final long rowCount = inputStream.readLong();
+        final int columnCount = inputStream.readInt();
+        if (columnCount != rowMeta.size()) {
+            throw new IOException("The sketch has " + columnCount + " columns, the capture " + rowMeta.size());
+        }
+        final List<ColumnSketch> columns = new ArrayList<>(columnCount);
+        for (int i = 0; i < columnCount; i++) {
+            columns.add(ColumnSketch.read(inputStream, rowMeta.getValueMeta(i)));
+        }
+        final CaptureSketch sketch = new CaptureSketch(columns);
+        sketch.rowCount = rowCount;
+        return sketch;
+    }
+}
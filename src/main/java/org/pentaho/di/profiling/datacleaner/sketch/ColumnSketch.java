@@ -0,0 +1,368 @@
+package org.pentaho.di.profiling.datacleaner.sketch;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Date;
+
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+/**
+ * A single pass summary of the values of one column: the number of values, nulls and blank strings, the smallest and
+ * largest value, the range and a histogram of the string lengths, and the approximate number of distinct values.
+ * <p>
+ * The smallest and largest value are only kept for columns with normal storage and an ordered type, and are dropped
+ * when the column holds a string longer than {@link #MAX_STRING_LENGTH}, to keep the footer small. The string
+ * statistics are only kept for string columns with normal storage. The distinct count is kept for every column.
+ */
+public final class ColumnSketch {
+
+    /**
+     * Strings longer than this are not recorded as the smallest or largest value of a column.
+     */
+    public static final int MAX_STRING_LENGTH = 256;
+
+    /**
+     * The number of buckets of the length histogram. Bucket 0 counts empty strings, bucket n counts the strings with a
+     * length from 2^(n-1) to 2^n - 1, and the last bucket counts all longer strings too.
+     */
+    public static final int LENGTH_BUCKETS = 17;
+
+    private final String name;
+    private long valueCount;
+    private long nullCount;
+    private long blankCount;
+    private boolean ordered;
+    private Object minimum;
+    private Object maximum;
+    private final boolean strings;
+    private int minLength;
+    private int maxLength;
+    private final long[] lengthCounts;
+    private final HyperLogLog distinct;
+
+    private ColumnSketch(String name, boolean ordered, boolean strings, HyperLogLog distinct) {
+        this.name = name;
+        this.ordered = ordered;
+        this.strings = strings;
+        this.minLength = -1;
+        this.maxLength = -1;
+        this.lengthCounts = new long[LENGTH_BUCKETS];
+        this.distinct = distinct;
+    }
+
+    /**
+     * Creates an empty sketch for the values of a column.
+     *
+     * @param valueMeta the metadata of the column
+     * @return
+     */
+    static ColumnSketch create(ValueMetaInterface valueMeta) {
+        final boolean normal = valueMeta.getStorageType() == ValueMetaInterface.STORAGE_TYPE_NORMAL;
+        return new ColumnSketch(valueMeta.getName(), normal && isOrdered(valueMeta.getType()),
+                normal && valueMeta.getType() == ValueMetaInterface.TYPE_STRING, new HyperLogLog());
+    }
+
+    private static boolean isOrdered(int type) {
+        switch (type) {
+        case ValueMetaInterface.TYPE_STRING:
+        case ValueMetaInterface.TYPE_NUMBER:
+        case ValueMetaInterface.TYPE_INTEGER:
+        case ValueMetaInterface.TYPE_DATE:
+        case ValueMetaInterface.TYPE_BIGNUMBER:
+        case ValueMetaInterface.TYPE_BOOLEAN:
+        case ValueMetaInterface.TYPE_TIMESTAMP:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Adds a value of the column.
+     *
+     * @param value the value, may be null
+     */
+    @SuppressWarnings("unchecked")
+    void add(Object value) {
+        if (value == null) {
+            nullCount++;
+            return;
+        }
+        valueCount++;
+        distinct.add(value);
+
+        if (strings && value instanceof String) {
+            final String string = (String) value;
+            final int length = string.length();
+            if (minLength == -1 || length < minLength) {
+                minLength = length;
+            }
+            if (length > maxLength) {
+                maxLength = length;
+            }
+            lengthCounts[getLengthBucket(length)]++;
+            if (isBlank(string)) {
+                blankCount++;
+            }
+            if (length > MAX_STRING_LENGTH) {
+                unorder();
+            }
+        }
+
+        if (ordered) {
+            try {
+                if (minimum == null || ((Comparable<Object>) value).compareTo(minimum) < 0) {
+                    minimum = copy(value);
+                }
+                if (maximum == null || ((Comparable<Object>) value).compareTo(maximum) > 0) {
+                    maximum = copy(value);
+                }
+            } catch (ClassCastException e) {
+                // mixed value classes in one column, don't guess at their order
+                unorder();
+            }
+        }
+    }
+
+    /**
+     * Adds the values seen by the sketch of the same column in another part of the capture, e.g. another step copy.
+     *
+     * @param other
+     */
+    @SuppressWarnings("unchecked")
+    void merge(ColumnSketch other) {
+        valueCount += other.valueCount;
+        nullCount += other.nullCount;
+        blankCount += other.blankCount;
+        distinct.merge(other.distinct);
+
+        if (other.minLength != -1 && (minLength == -1 || other.minLength < minLength)) {
+            minLength = other.minLength;
+        }
+        maxLength = Math.max(maxLength, other.maxLength);
+        for (int i = 0; i < LENGTH_BUCKETS; i++) {
+            lengthCounts[i] += other.lengthCounts[i];
+        }
+
+        if (!other.ordered) {
+            unorder();
+        } else if (ordered) {
+            try {
+                if (minimum == null || (other.minimum != null
+                        && ((Comparable<Object>) other.minimum).compareTo(minimum) < 0)) {
+                    minimum = other.minimum;
+                }
+                if (maximum == null || (other.maximum != null
+                        && ((Comparable<Object>) other.maximum).compareTo(maximum) > 0)) {
+                    maximum = other.maximum;
+                }
+            } catch (ClassCastException e) {
+                unorder();
+            }
+        }
+    }
+
+    private void unorder() {
+        ordered = false;
+        minimum = null;
+        maximum = null;
+    }
+
+    private static boolean isBlank(String string) {
+        for (int i = 0; i < string.length(); i++) {
+            if (!Character.isWhitespace(string.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Dates are mutable, and the row may be reused by the step that produced it.
+     */
+    private static Object copy(Object value) {
+        if (value instanceof Date) {
+            return ((Date) value).clone();
+        }
+        return value;
+    }
+
+    /**
+     * @param length a string length
+     * @return the bucket of the length histogram that counts strings of the length
+     */
+    public static int getLengthBucket(int length) {
+        if (length == 0) {
+            return 0;
+        }
+        return Math.min(LENGTH_BUCKETS - 1, 32 - Integer.numberOfLeadingZeros(length));
+    }
+
+    /**
+     * @param bucket a bucket of the length histogram
+     * @return the smallest string length counted by the bucket
+     */
+    public static int getLengthBucketMinimum(int bucket) {
+        return bucket == 0 ? 0 : 1 << (bucket - 1);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of non-null values
+     */
+    public long getValueCount() {
+        return valueCount;
+    }
+
+    public long getNullCount() {
+        return nullCount;
+    }
+
+    /**
+     * @return the number of strings that are empty or only hold whitespace
+     */
+    public long getBlankCount() {
+        return blankCount;
+    }
+
+    /**
+     * @return the approximate number of distinct non-null values
+     */
+    public long getDistinctCount() {
+        return Math.min(valueCount, distinct.estimate());
+    }
+
+    public HyperLogLog getDistinctSketch() {
+        return distinct;
+    }
+
+    /**
+     * @return true if the smallest and largest value of the column are known
+     */
+    public boolean hasMinimumAndMaximum() {
+        return ordered;
+    }
+
+    /**
+     * @return the smallest value, or null if it isn't known or the column only holds nulls
+     */
+    public Object getMinimum() {
+        return minimum;
+    }
+
+    /**
+     * @return the largest value, or null if it isn't known or the column only holds nulls
+     */
+    public Object getMaximum() {
+        return maximum;
+    }
+
+    /**
+     * @return true if the string statistics (lengths and blanks) are kept for the column
+     */
+    public boolean hasStringStatistics() {
+        return strings;
+    }
+
+    /**
+     * @return the length of the shortest string, or -1 if there are none
+     */
+    public int getMinLength() {
+        return minLength;
+    }
+
+    /**
+     * @return the length of the longest string, or -1 if there are none
+     */
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * @param bucket a bucket of the length histogram, see {@link #getLengthBucket(int)}
+     * @return the number of strings with a length in the bucket
+     */
+    public long getLengthCount(int bucket) {
+        return lengthCounts[bucket];
+    }
+
+    void write(DataOutputStream outputStream, ValueMetaInterface valueMeta) throws IOException {
+        outputStream.writeLong(valueCount);
+        outputStream.writeLong(nullCount);
+        outputStream.writeLong(blankCount);
+        outputStream.writeBoolean(ordered);
+        if (ordered) {
+            try {
+                valueMeta.writeData(outputStream, minimum);
+                valueMeta.writeData(outputStream, maximum);
+            } catch (KettleException e) {
+                throw new IOException("Unable to write the sketch of column " + name, e);
+            }
+        }
+        outputStream.writeBoolean(strings);
+        if (strings) {
+            outputStream.writeInt(minLength);
+            outputStream.writeInt(maxLength);
+            outputStream.writeInt(LENGTH_BUCKETS);
+            for (long lengthCount : lengthCounts) {
+                outputStream.writeLong(lengthCount);
+            }
+        }
+        distinct.write(outputStream);
+    }
+
+    static ColumnSketch read(DataInputStream inputStream, ValueMetaInterface valueMeta) throws IOException {
+        final long valueCount = inputStream.readLong();
+        final long nullCount = inputStream.readLong();
+        final long blankCount = inputStream.readLong();
+        final boolean ordered = inputStream.readBoolean();
+        Object minimum = null;
+        Object maximum = null;
+        if (ordered) {
+            try {
+                minimum = valueMeta.readData(inputStream);
+                maximum = valueMeta.readData(inputStream);
+            } catch (KettleException e) {
+                throw new IOException("Unable to read the sketch of column " + valueMeta.getName(), e);
+            }
+        }
+        final boolean strings = inputStream.readBoolean();
+        int minLength = -1;
+        int maxLength = -1;
+        long[] lengthCounts = null;
+        if (strings) {
+            minLength = inputStream.readInt();
+            maxLength = inputStream.readInt();
+            lengthCounts = new long[inputStream.readInt()];
+            for (int i = 0; i < lengthCounts.length; i++) {
+                lengthCounts[i] = inputStream.readLong();
+            }
+        }
+
+        final ColumnSketch sketch =
+                new ColumnSketch(valueMeta.getName(), ordered, strings, HyperLogLog.read(inputStream));
+        sketch.valueCount = valueCount;
+        sketch.nullCount = nullCount;
+        sketch.blankCount = blankCount;
+        sketch.minimum = minimum;
+        sketch.maximum = maximum;
+        sketch.minLength = minLength;
+        sketch.maxLength = maxLength;
+        if (lengthCounts != null) {
+            System.arraycopy(lengthCounts, 0, sketch.lengthCounts, 0, Math.min(LENGTH_BUCKETS, lengthCounts.length));
+        }
+        return sketch;
+    }
+
+    @Override
+    public String toString() {
+        return "ColumnSketch[name=" + name + ",values=" + valueCount + ",nulls=" + nullCount + ",blanks=" + blankCount
+                + ",distinct=" + getDistinctCount() + ",min=" + minimum + ",max=" + maximum + ",minLength="
+                + minLength + ",maxLength=" + maxLength + "]";
+    }
+}
@@ -0,0 +1,236 @@
+package org.pentaho.di.profiling.datacleaner.sketch;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Estimates the number of distinct values seen, in a fixed amount of memory. Each value is hashed to 64 bits, the
+ * first bits pick one of the registers and the register keeps the longest run of leading zeros seen in the rest.
+ * Sketches of the same precision can be merged, so every step copy can keep its own and they are combined when the
+ * capture is closed.
+ * <p>
+ * With the default precision of 12 (4096 registers) the standard error of the estimate is about 1.6%.
+ */
+public final class HyperLogLog {
+
+    public static final int DEFAULT_PRECISION = 12;
+
+    private static final long FNV_OFFSET_BASIS = 0xCBF29CE484222325L;
+    private static final long FNV_PRIME = 0x100000001B3L;
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 16) {
+            throw new IllegalArgumentException("Precision must be between 4 and 16: " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * @return the relative standard error of {@link #estimate()}, 1.04 divided by the square root of the number of
+     *         registers
+     */
+    public double getStandardError() {
+        return 1.04 / Math.sqrt(registers.length);
+    }
+
+    /**
+     * Adds a value. Values that are equal by {@link Object#equals(Object)} count once, numbers are compared by value so
+     * that e.g. 1.0 and 1.00 as {@link BigDecimal}s count once too.
+     *
+     * @param value a non-null value
+     */
+    public void add(Object value) {
+        addHash(hash(value));
+    }
+
+    /**
+     * Adds a value that has already been hashed to 64 well mixed bits.
+     *
+     * @param hash
+     */
+    public void addHash(long hash) {
+        final int index = (int) (hash >>> (64 - precision));
+        final long remaining = (hash << precision) | (1L << (precision - 1));
+        final byte rank = (byte) (Long.numberOfLeadingZeros(remaining) + 1);
+        if (rank > registers[index]) {
+            registers[index] = rank;
+        }
+    }
+
+    /**
+     * Adds the values seen by another sketch.
+     *
+     * @param other a sketch of the same precision
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Cannot merge a sketch of precision " + other.precision
+                    + " into one of precision " + precision);
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    /**
+     * @return the estimated number of distinct values
+     */
+    public long estimate() {
+        final int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        final double alpha;
+        switch (m) {
+        case 16:
+            alpha = 0.673;
+            break;
+        case 32:
+            alpha = 0.697;
+            break;
+        case 64:
+            alpha = 0.709;
+            break;
+        default:
+            alpha = 0.7213 / (1 + 1.079 / m);
+            break;
+        }
+        final double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            // linear counting is more accurate for small cardinalities
+            return Math.round(m * Math.log((double) m / zeros));
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * Writes the precision and the registers. Sketches of few values are written sparsely, as the index and value of
+     * the non-zero registers.
+     *
+     * @param outputStream
+     * @throws IOException
+     */
+    public void write(DataOutputStream outputStream) throws IOException {
+        int nonZero = 0;
+        for (byte register : registers) {
+            if (register != 0) {
+                nonZero++;
+            }
+        }
+        outputStream.writeByte(precision);
+        outputStream.writeInt(nonZero);
+        if (nonZero * 3 < registers.length) {
+            for (int i = 0; i < registers.length; i++) {
+                if (registers[i] != 0) {
+                    outputStream.writeShort(i);
+                    outputStream.writeByte(registers[i]);
+                }
+            }
+        } else {
+            outputStream.write(registers);
+        }
+    }
+
+    public static HyperLogLog read(DataInputStream inputStream) throws IOException {
+        final HyperLogLog sketch = new HyperLogLog(inputStream.readUnsignedByte());
+        final int nonZero = inputStream.readInt();
+        if (nonZero * 3 < sketch.registers.length) {
+            for (int i = 0; i < nonZero; i++) {
+                final int index = inputStream.readUnsignedShort();
+                sketch.registers[index] = inputStream.readByte();
+            }
+        } else {
+            inputStream.readFully(sketch.registers);
+        }
+        return sketch;
+    }
+
+    /**
+     * Hashes a value to 64 bits, without allocating for the common value types of Kettle.
+     */
+    static long hash(Object value) {
+        if (value instanceof String) {
+            final String string = (String) value;
+            long hash = FNV_OFFSET_BASIS;
+            for (int i = 0; i < string.length(); i++) {
+                hash = (hash ^ string.charAt(i)) * FNV_PRIME;
+            }
+            return mix(hash);
+        }
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return mix(((Number) value).longValue());
+        }
+        if (value instanceof Double) {
+            final double d = (Double) value;
+            // 0.0 and -0.0 are the same number
+            return mix(Double.doubleToLongBits(d == 0.0 ? 0.0 : d));
+        }
+        if (value instanceof BigDecimal) {
+            final BigDecimal bigDecimal = (BigDecimal) value;
+            return hash(bigDecimal.signum() == 0 ? "0" : bigDecimal.stripTrailingZeros().toString());
+        }
+        if (value instanceof Date) {
+            return mix(((Date) value).getTime() ^ 0x5DEECE66DL);
+        }
+        if (value instanceof Boolean) {
+            return mix((Boolean) value ? 1 : 2);
+        }
+        if (value instanceof byte[]) {
+            long hash = FNV_OFFSET_BASIS;
+            for (byte b : (byte[]) value) {
+                hash = (hash ^ (b & 0xFF)) * FNV_PRIME;
+            }
+            return mix(hash);
+        }
+        return hash(value.toString());
+    }
+
+    /**
+     * The finalizer of MurmurHash3, spreads every input bit over the whole result.
+     */
+    private static long mix(long value) {
+        long hash = value;
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof HyperLogLog)) {
+            return false;
+        }
+        return Arrays.equals(registers, ((HyperLogLog) obj).registers);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(registers);
+    }
+}
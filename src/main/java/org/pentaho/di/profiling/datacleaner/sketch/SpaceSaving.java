@@ -0,0 +1,188 @@
+package org.pentaho.di.profiling.datacleaner.sketch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the most frequent values of a stream with a fixed number of counters (the Space-Saving algorithm). A value
+ * that is not counted yet takes over the counter with the lowest count, and inherits that count as its possible
+ * overcount. Every value that occurs more often than the number of values divided by the number of counters is
+ * guaranteed to have a counter, and the true count of a counted value lies between its count minus its error and its
+ * count.
+ * <p>
+ * The counters are kept in a binary min-heap on their counts, so the counter with the lowest count is found right
+ * away and adding a value takes O(log k) for k counters. Counts grow by arbitrary amounts in
+ * {@link #add(Object, long)}, so the O(1) bucket list of the original paper, which relies on increments of one, does
+ * not apply.
+ */
+public final class SpaceSaving<E> {
+
+    /**
+     * A counted value.
+     */
+    public static final class Counter<E> {
+
+        private final E value;
+        private final long count;
+        private final long error;
+
+        Counter(E value, long count, long error) {
+            this.value = value;
+            this.count = count;
+            this.error = error;
+        }
+
+        public E getValue() {
+            return value;
+        }
+
+        /**
+         * @return the counted number of occurrences, which may be too high by up to {@link #getError()}
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the largest possible overcount
+         */
+        public long getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return value + "=" + count + (error == 0 ? "" : "(+-" + error + ")");
+        }
+    }
+
+    private final int capacity;
+    private final Map<E, Integer> slots;
+    private final List<E> values;
+    private final long[] counts;
+    private final long[] errors;
+    private final int[] heap;
+    private final int[] heapPositions;
+    private long totalCount;
+
+    /**
+     * @param capacity the number of counters
+     */
+    public SpaceSaving(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.slots = new HashMap<>(capacity * 2);
+        this.values = new ArrayList<>(capacity);
+        this.counts = new long[capacity];
+        this.errors = new long[capacity];
+        this.heap = new int[capacity];
+        this.heapPositions = new int[capacity];
+        this.totalCount = 0;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void add(E value) {
+        add(value, 1);
+    }
+
+    /**
+     * Adds a number of occurrences of a value.
+     *
+     * @param value a non-null value
+     * @param count the number of occurrences
+     */
+    public void add(E value, long count) {
+        totalCount += count;
+        final Integer slot = slots.get(value);
+        if (slot != null) {
+            counts[slot] += count;
+            siftDown(heapPositions[slot]);
+            return;
+        }
+        if (values.size() < capacity) {
+            final int newSlot = values.size();
+            slots.put(value, newSlot);
+            counts[newSlot] = count;
+            errors[newSlot] = 0;
+            values.add(value);
+            heap[newSlot] = newSlot;
+            heapPositions[newSlot] = newSlot;
+            siftUp(newSlot);
+            return;
+        }
+
+        // the root of the heap is the counter with the lowest count
+        final int smallest = heap[0];
+        slots.remove(values.get(smallest));
+        slots.put(value, smallest);
+        values.set(smallest, value);
+        errors[smallest] = counts[smallest];
+        counts[smallest] += count;
+        siftDown(0);
+    }
+
+    private void siftUp(int position) {
+        while (position > 0) {
+            final int parent = (position - 1) / 2;
+            if (counts[heap[parent]] <= counts[heap[position]]) {
+                return;
+            }
+            swap(parent, position);
+            position = parent;
+        }
+    }
+
+    private void siftDown(int position) {
+        final int size = values.size();
+        while (true) {
+            final int left = 2 * position + 1;
+            if (left >= size) {
+                return;
+            }
+            final int right = left + 1;
+            final int child = right < size && counts[heap[right]] < counts[heap[left]] ? right : left;
+            if (counts[heap[position]] <= counts[heap[child]]) {
+                return;
+            }
+            swap(position, child);
+            position = child;
+        }
+    }
+
+    private void swap(int position1, int position2) {
+        final int slot1 = heap[position1];
+        final int slot2 = heap[position2];
+        heap[position1] = slot2;
+        heap[position2] = slot1;
+        heapPositions[slot2] = position1;
+        heapPositions[slot1] = position2;
+    }
+
+    /**
+     * @return the number of occurrences added
+     */
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * @param k the number of values to return
+     * @return the k values with the highest counts, highest first
+     */
+    public List<Counter<E>> getTop(int k) {
+        final List<Counter<E>> counters = new ArrayList<>(values.size());
+        for (int i = 0; i < values.size(); i++) {
+            counters.add(new Counter<>(values.get(i), counts[i], errors[i]));
+        }
+        Collections.sort(counters, (c1, c2) -> Long.compare(c2.count, c1.count));
+        return counters.subList(0, Math.min(k, counters.size()));
+    }
+}
@@ -0,0 +1,276 @@
+package org.pentaho.di.profiling.datacleaner.sketch;
+
+import java.util.Arrays;
+
+/**
+ * Estimates quantiles of a stream of numbers in a bounded amount of memory (a merging t-digest). Values are collected
+ * in a buffer, which is sorted and merged into a list of centroids (mean and weight) when it is full. Centroids near
+ * the median may hold many values, centroids in the tails only a few, so extreme quantiles stay accurate.
+ * <p>
+ * The number of centroids stays below about the compression, so the memory use does not depend on the number of
+ * values. The smallest and largest value are kept exactly.
+ */
+public final class TDigest {
+
+    public static final double DEFAULT_COMPRESSION = 100;
+
+    private final double compression;
+
+    private double[] means;
+    private double[] weights;
+    private int centroidCount;
+
+    private final double[] buffer;
+    private int bufferCount;
+
+    private double totalWeight;
+    private double min;
+    private double max;
+
+    public TDigest() {
+        this(DEFAULT_COMPRESSION);
+    }
+
+    public TDigest(double compression) {
+        if (compression < 10) {
+            throw new IllegalArgumentException("Compression must be at least 10: " + compression);
+        }
+        this.compression = compression;
+        final int capacity = (int) Math.ceil(compression) * 2 + 10;
+        this.means = new double[capacity];
+        this.weights = new double[capacity];
+        this.centroidCount = 0;
+        this.buffer = new double[capacity * 5];
+        this.bufferCount = 0;
+        this.totalWeight = 0;
+        this.min = Double.NaN;
+        this.max = Double.NaN;
+    }
+
+    public double getCompression() {
+        return compression;
+    }
+
+    /**
+     * Adds a value.
+     *
+     * @param value a value, NaN is ignored
+     */
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        if (bufferCount == buffer.length) {
+            flush();
+        }
+        buffer[bufferCount++] = value;
+        if (totalWeight == 0 && bufferCount == 1) {
+            min = value;
+            max = value;
+        } else {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        totalWeight++;
+    }
+
+    /**
+     * Adds a value several times.
+     *
+     * @param value a value, NaN is ignored
+     * @param count the number of times
+     */
+    public void add(double value, int count) {
+        if (count == 1 || Double.isNaN(value)) {
+            add(value);
+            return;
+        }
+        flush();
+        mergeCentroids(new double[] { value }, new double[] { count }, 1);
+        min = totalWeight == 0 ? value : Math.min(min, value);
+        max = totalWeight == 0 ? value : Math.max(max, value);
+        totalWeight += count;
+    }
+
+    /**
+     * Adds the values seen by another digest.
+     *
+     * @param other
+     */
+    public void merge(TDigest other) {
+        if (other.totalWeight == 0) {
+            return;
+        }
+        other.flush();
+        flush();
+        mergeCentroids(other.means, other.weights, other.centroidCount);
+        min = totalWeight == 0 ? other.min : Math.min(min, other.min);
+        max = totalWeight == 0 ? other.max : Math.max(max, other.max);
+        totalWeight += other.totalWeight;
+    }
+
+    /**
+     * @return the number of values added
+     */
+    public long getCount() {
+        return (long) totalWeight;
+    }
+
+    /**
+     * @return the smallest value, or NaN if no values were added
+     */
+    public double getMin() {
+        return min;
+    }
+
+    /**
+     * @return the largest value, or NaN if no values were added
+     */
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * @return the number of centroids, a measure of the memory used
+     */
+    public int getCentroidCount() {
+        flush();
+        return centroidCount;
+    }
+
+    /**
+     * Estimates a quantile.
+     *
+     * @param q the quantile, between 0 and 1
+     * @return the estimated value, or NaN if no values were added
+     */
+    public double quantile(double q) {
+        if (q < 0 || q > 1) {
+            throw new IllegalArgumentException("Quantile must be between 0 and 1: " + q);
+        }
+        flush();
+        if (centroidCount == 0) {
+            return Double.NaN;
+        }
+        if (centroidCount == 1) {
+            return means[0];
+        }
+        final double rank = q * totalWeight;
+        if (rank < weights[0] / 2) {
+            return interpolate(min, means[0], rank / (weights[0] / 2));
+        }
+        double cumulative = weights[0] / 2;
+        for (int i = 0; i < centroidCount - 1; i++) {
+            final double step = (weights[i] + weights[i + 1]) / 2;
+            if (rank <= cumulative + step) {
+                return interpolate(means[i], means[i + 1], (rank - cumulative) / step);
+            }
+            cumulative += step;
+        }
+        final double lastHalf = weights[centroidCount - 1] / 2;
+        return interpolate(means[centroidCount - 1], max, Math.min(1, (rank - cumulative) / lastHalf));
+    }
+
+    /**
+     * Gives an upper bound for the error of {@link #quantile(double)}, as a fraction of the number of values: the
+     * estimate lies between the values at ranks q - error and q + error, where the error is the weight of the
+     * centroids around the quantile.
+     *
+     * @param q the quantile, between 0 and 1
+     * @return the rank error bound, between 0 and 1
+     */
+    public double rankError(double q) {
+        flush();
+        if (centroidCount <= 1 || totalWeight <= 1) {
+            return 0;
+        }
+        final double rank = q * totalWeight;
+        double cumulative = 0;
+        for (int i = 0; i < centroidCount; i++) {
+            cumulative += weights[i];
+            if (rank <= cumulative || i == centroidCount - 1) {
+                double weight = weights[i];
+                if (i + 1 < centroidCount) {
+                    weight = Math.max(weight, weights[i + 1]);
+                }
+                return weight <= 1 ? 0 : weight / totalWeight;
+            }
+        }
+        return 0;
+    }
+
+    private static double interpolate(double from, double to, double fraction) {
+        return from + (to - from) * fraction;
+    }
+
+    private void flush() {
+        if (bufferCount == 0) {
+            return;
+        }
+        Arrays.sort(buffer, 0, bufferCount);
+        final double[] bufferWeights = new double[bufferCount];
+        Arrays.fill(bufferWeights, 1);
+        final int count = bufferCount;
+        bufferCount = 0;
+        mergeCentroids(buffer, bufferWeights, count);
+    }
+
+    /**
+     * Merges sorted centroids into the digest, combining neighbours as long as the scale function allows.
+     */
+    private void mergeCentroids(double[] addedMeans, double[] addedWeights, int addedCount) {
+        final int count = centroidCount + addedCount;
+        final double[] sortedMeans = new double[count];
+        final double[] sortedWeights = new double[count];
+        double total = 0;
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < count; k++) {
+            if (j >= addedCount || (i < centroidCount && means[i] <= addedMeans[j])) {
+                sortedMeans[k] = means[i];
+                sortedWeights[k] = weights[i++];
+            } else {
+                sortedMeans[k] = addedMeans[j];
+                sortedWeights[k] = addedWeights[j++];
+            }
+            total += sortedWeights[k];
+        }
+
+        int merged = 0;
+        double mean = sortedMeans[0];
+        double weight = sortedWeights[0];
+        double weightSoFar = 0;
+        double kLeft = scale(0);
+        for (int k = 1; k < count; k++) {
+            final double proposed = weight + sortedWeights[k];
+            if (scale((weightSoFar + proposed) / total) - kLeft <= 1) {
+                mean += (sortedMeans[k] - mean) * sortedWeights[k] / proposed;
+                weight = proposed;
+            } else {
+                merged = append(merged, mean, weight);
+                weightSoFar += weight;
+                kLeft = scale(weightSoFar / total);
+                mean = sortedMeans[k];
+                weight = sortedWeights[k];
+            }
+        }
+        centroidCount = append(merged, mean, weight);
+    }
+
+    private int append(int index, double mean, double weight) {
+        if (index == means.length) {
+            means = Arrays.copyOf(means, means.length * 2);
+            weights = Arrays.copyOf(weights, weights.length * 2);
+        }
+        means[index] = mean;
+        weights[index] = weight;
+        return index + 1;
+    }
+
+    /**
+     * The k1 scale function, small steps near the tails and large ones near the median.
+     */
+    private double scale(double q) {
+        return compression / (2 * Math.PI) * Math.asin(2 * Math.min(1, Math.max(0, q)) - 1);
+    }
+}
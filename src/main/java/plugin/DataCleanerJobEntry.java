@@ -2,16 +2,20 @@ package plugin;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.vfs2.FileObject;
 import org.datacleaner.kettle.configuration.DataCleanerSpoonConfiguration;
+import org.datacleaner.kettle.jobentry.DataCleanerExecutionMode;
 import org.datacleaner.kettle.jobentry.DataCleanerJobEntryConfiguration;
 import org.datacleaner.kettle.jobentry.DataCleanerJobEntryDialog;
 import org.datacleaner.kettle.jobentry.DataCleanerOutputType;
 import org.pentaho.di.cluster.SlaveServer;
+import org.pentaho.di.core.Const;
 import org.pentaho.di.core.Result;
 import org.pentaho.di.core.ResultFile;
 import org.pentaho.di.core.annotations.JobEntry;
@@ -20,16 +24,23 @@ import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettleXMLException;
 import org.pentaho.di.core.logging.LogChannel;
 import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.variables.VariableSpace;
 import org.pentaho.di.core.vfs.KettleVFS;
 import org.pentaho.di.core.xml.XMLHandler;
 import org.pentaho.di.job.entry.JobEntryBase;
 import org.pentaho.di.job.entry.JobEntryInterface;
+import org.pentaho.di.profiling.datacleaner.DataCleanerProgress;
+import org.pentaho.di.profiling.datacleaner.DataCleanerWorkerClient;
+import org.pentaho.di.profiling.datacleaner.JobResultCache;
 import org.pentaho.di.profiling.datacleaner.ModelerHelper;
+import org.pentaho.di.profiling.datacleaner.TaskRunnerSizing;
 import org.pentaho.di.repository.ObjectId;
 import org.pentaho.di.repository.Repository;
 import org.pentaho.metastore.api.IMetaStore;
 import org.w3c.dom.Node;
 
+import plugin.EveryRowExecution.JobRun;
+
 /**
  * A job entry for executing DataCleaner jobs
  * 
@@ -48,50 +59,223 @@ public class DataCleanerJobEntry extends JobEntryBase implements JobEntryInterfa
     @Override
     public Result execute(Result result, int nr) throws KettleException {
         final LogChannelInterface log = new LogChannel(LOGCHANNEL_NAME);
-        int exitCode = -1;
-
         final DataCleanerSpoonConfiguration dataCleanerSpoonConfiguration =
                 ModelerHelper.getDataCleanerSpoonConfigurationOrShowError();
-        final String outputFilename = environmentSubstitute(configuration.getOutputFilename());
-        final String jobFilename = environmentSubstitute(configuration.getJobFilename());
+
+        if (configuration.isExecuteForEveryRow()) {
+            return executeForEveryRow(result, dataCleanerSpoonConfiguration, log);
+        }
+
+        final JobRun run = runJob(dataCleanerSpoonConfiguration, this, Runtime.getRuntime().availableProcessors(), log);
+        result.setExitStatus(run.getExitCode());
+        result.setResult(run.getExitCode() == 0);
+        result.setNrLinesRead(result.getNrLinesRead() + run.getRowsProcessed());
+        if (run.getResultFile() != null) {
+            final Map<String, ResultFile> files = new ConcurrentHashMap<String, ResultFile>();
+            files.put(run.getOutputFilename(), run.getResultFile());
+            result.setResultFiles(files);
+        }
+        return result;
+    }
+
+    /**
+     * Runs the job once for every row of the result of the previous job entry.
+     */
+    private Result executeForEveryRow(Result result, DataCleanerSpoonConfiguration dataCleanerSpoonConfiguration,
+            LogChannelInterface log) throws KettleException {
+        final EveryRowExecution execution = new EveryRowExecution(this, configuration.getOutputFilename(),
+                configuration.getParallelRuns(), configuration.isFailFast(), parentJob::isStopped,
+                Runtime.getRuntime().availableProcessors(), log);
+        return execution.execute(result,
+                (space, processors) -> runJob(dataCleanerSpoonConfiguration, space, processors, log));
+    }
+
+    /**
+     * Runs the job once.
+     *
+     * @param dataCleanerSpoonConfiguration the configuration, or null if there is none
+     * @param space the variables to substitute in the job file, output file and additional arguments
+     * @param processors the number of processors the run may use
+     * @param log
+     * @return the outcome of the run
+     * @throws KettleException
+     */
+    private JobRun runJob(DataCleanerSpoonConfiguration dataCleanerSpoonConfiguration, VariableSpace space,
+            int processors, LogChannelInterface log) throws KettleException {
+        int exitCode = -1;
+
+        final String outputFilename = space.environmentSubstitute(configuration.getOutputFilename());
+        final String jobFilename = space.environmentSubstitute(configuration.getJobFilename());
         final String outputFiletype = configuration.getOutputType().toString();
-        final String additionalArguments = environmentSubstitute(configuration.getAdditionalArguments());
+        final String additionalArguments = space.environmentSubstitute(configuration.getAdditionalArguments());
+        String resultFilename = outputFilename;
+
+        if (dataCleanerSpoonConfiguration == null) {
+            return new JobRun(exitCode, outputFilename, null, 0);
+        }
+
+        final DataCleanerExecutionMode executionMode = getExecutionMode(additionalArguments, log);
+        final String jobXml;
+        final TaskRunnerSizing sizing;
+        if (executionMode == DataCleanerExecutionMode.PROCESS) {
+            // the task runner of the conf.xml of the plugin folder is used
+            jobXml = null;
+            sizing = null;
+        } else {
+            jobXml = readJobFile(jobFilename, dataCleanerSpoonConfiguration);
+            sizing = TaskRunnerSizing.size(processors, configuration.getMaxThreads(), "Max threads of the job entry",
+                    TaskRunnerSizing.countAnalyzers(jobXml), 1, TaskRunnerSizing.Source.OTHER);
+            log.logBasic(sizing.getReport());
+        }
 
-        if (dataCleanerSpoonConfiguration != null) {
-            exitCode = ModelerHelper.launchDataCleanerSimple(dataCleanerSpoonConfiguration, jobFilename, outputFiletype,
-                    outputFilename, additionalArguments);
+        final String fingerprint = getFingerprint(jobFilename, jobXml, outputFiletype, additionalArguments,
+                dataCleanerSpoonConfiguration, log);
+        final JobResultCache resultCache =
+                fingerprint == null ? null : createResultCache(space, dataCleanerSpoonConfiguration);
+        JobResultCache.CachedResult cachedResult = null;
+        long rowsProcessed = 0;
+        if (resultCache != null) {
+            try {
+                cachedResult = resultCache.restore(fingerprint, outputFiletype, outputFilename);
+            } catch (IOException e) {
+                log.logError("Unable to restore the cached DataCleaner result, running the job", e);
+            }
+            if (cachedResult != null) {
+                log.logBasic("The DataCleaner job and its inputs are unchanged, reusing the result of the previous "
+                        + "run: " + cachedResult.getOutputFile());
+                exitCode = cachedResult.getExitCode();
+                resultFilename = cachedResult.getOutputFile().getAbsolutePath();
+            }
         }
-        result.setExitStatus(exitCode);
-        result.setResult(true);
 
-        if (configuration.isOutputFileInResult()) {
-            File outputFile = new File(outputFilename);
-            if (!outputFile.exists()) {
-                outputFile = new File(dataCleanerSpoonConfiguration.getPluginFolderPath(), outputFilename);
+        if (cachedResult == null) {
+            switch (executionMode) {
+            case IN_PROCESS:
+                exitCode = ModelerHelper.runDataCleanerInProcess(dataCleanerSpoonConfiguration, null, jobXml,
+                        outputFiletype, outputFilename, sizing.getThreads(), null);
+                break;
+            case WORKER:
+                final DataCleanerWorkerClient.WorkerResult workerResult = ModelerHelper.runDataCleanerOnWorker(
+                        dataCleanerSpoonConfiguration, jobXml, outputFiletype, outputFilename, sizing.getThreads(),
+                        Const.toInt(getVariable(ModelerHelper.VARIABLE_WORKER_MAX_JOBS), 0));
+                exitCode = workerResult.getExitCode();
+                resultFilename = workerResult.getOutputFilename();
+                break;
+            default:
+                final DataCleanerProgress progress = new DataCleanerProgress();
+                exitCode = ModelerHelper.launchDataCleanerSimple(dataCleanerSpoonConfiguration, jobFilename,
+                        outputFiletype, outputFilename, additionalArguments, progress);
+                rowsProcessed = progress.getRowsProcessed();
+                log.logBasic("DataCleaner job progress: " + progress);
             }
 
-            if (outputFile.exists()) {
-                final Map<String, ResultFile> files = new ConcurrentHashMap<String, ResultFile>();
-                FileObject fileObject;
+            final File outputFile = findOutputFile(resultFilename, outputFilename, dataCleanerSpoonConfiguration);
+            if (resultCache != null && exitCode == 0 && outputFile != null) {
                 try {
-                    fileObject = KettleVFS.getFileObject(outputFile.getCanonicalPath(), this);
+                    resultCache.store(fingerprint, outputFiletype, exitCode, outputFilename, outputFile);
                 } catch (IOException e) {
-                    log.logError("Exception " + e.getMessage());
-                    throw new KettleException("IO exception" + e.getMessage());
+                    log.logError("Unable to cache the DataCleaner result", e);
                 }
-                final ResultFile resultFile =
-                        new ResultFile(ResultFile.FILE_TYPE_GENERAL, fileObject, parentJob.getJobname(), toString());
-                files.put(outputFilename, resultFile);
-                result.setResultFiles(files);
             }
         }
 
-        if (exitCode != 0) {
-            result.setResult(false);
+        if (!configuration.isOutputFileInResult()) {
+            return new JobRun(exitCode, outputFilename, null, rowsProcessed);
+        }
+        final File outputFile = findOutputFile(resultFilename, outputFilename, dataCleanerSpoonConfiguration);
+        if (outputFile == null) {
+            return new JobRun(exitCode, outputFilename, null, rowsProcessed);
         }
+        final FileObject fileObject;
+        try {
+            fileObject = KettleVFS.getFileObject(outputFile.getCanonicalPath(), space);
+        } catch (IOException e) {
+            log.logError("Exception " + e.getMessage());
+            throw new KettleException("IO exception" + e.getMessage());
+        }
+        return new JobRun(exitCode, outputFilename,
+                new ResultFile(ResultFile.FILE_TYPE_GENERAL, fileObject, parentJob.getJobname(), toString()),
+                rowsProcessed);
+    }
 
-        return result;
+    /**
+     * @return the file the job wrote its result to, or null if there is none
+     */
+    private File findOutputFile(String resultFilename, String outputFilename,
+            DataCleanerSpoonConfiguration dataCleanerSpoonConfiguration) {
+        File outputFile = new File(resultFilename);
+        if (!outputFile.exists()) {
+            outputFile = new File(dataCleanerSpoonConfiguration.getPluginFolderPath(), outputFilename);
+        }
+        return outputFile.exists() ? outputFile : null;
+    }
+
+    /**
+     * @return the fingerprint of the run for the {@link JobResultCache}, or null if the result is not cached
+     */
+    private String getFingerprint(String jobFilename, String jobXml, String outputFiletype, String additionalArguments,
+            DataCleanerSpoonConfiguration dataCleanerSpoonConfiguration, LogChannelInterface log)
+            throws KettleException {
+        if (!configuration.isResultCache()) {
+            return null;
+        }
+        try {
+            final String fingerprint = JobResultCache.fingerprint(
+                    jobXml == null ? readJobFile(jobFilename, dataCleanerSpoonConfiguration) : jobXml,
+                    ModelerHelper.readConfXml(dataCleanerSpoonConfiguration), outputFiletype, additionalArguments,
+                    new File(dataCleanerSpoonConfiguration.getPluginFolderPath()),
+                    configuration.isResultCacheHashInputs());
+            if (fingerprint == null) {
+                log.logBasic("The DataCleaner job does not only read files of datastores of the conf.xml of the "
+                        + "plugin folder, its result is not cached");
+            }
+            return fingerprint;
+        } catch (IOException e) {
+            log.logError("Unable to read the inputs of the DataCleaner job, its result is not cached", e);
+            return null;
+        }
+    }
 
+    private JobResultCache createResultCache(VariableSpace space,
+            DataCleanerSpoonConfiguration dataCleanerSpoonConfiguration) {
+        final String directory = space.getVariable(JobResultCache.VARIABLE_DIRECTORY);
+        final long maxMegabytes =
+                Const.toInt(space.getVariable(JobResultCache.VARIABLE_MAX_MB), JobResultCache.DEFAULT_MAX_MB);
+        return new JobResultCache(Const.isEmpty(directory)
+                ? new File(dataCleanerSpoonConfiguration.getPluginFolderPath(), JobResultCache.DEFAULT_DIRECTORY_NAME)
+                : new File(directory), maxMegabytes * 1024 * 1024);
+    }
+
+    /**
+     * @return how to run the job. HTML output and command line arguments need the DataCleaner command line, so the job
+     *         is forked for those.
+     */
+    private DataCleanerExecutionMode getExecutionMode(String additionalArguments, LogChannelInterface log) {
+        final DataCleanerExecutionMode executionMode = configuration.getExecutionMode();
+        if (executionMode == DataCleanerExecutionMode.PROCESS) {
+            return executionMode;
+        }
+        if (configuration.getOutputType() == DataCleanerOutputType.HTML
+                || !Const.isEmpty(additionalArguments)) {
+            log.logBasic("HTML output and additional arguments are not supported in process or on a worker, "
+                    + "starting DataCleaner");
+            return DataCleanerExecutionMode.PROCESS;
+        }
+        return executionMode;
+    }
+
+    private String readJobFile(String jobFilename, DataCleanerSpoonConfiguration dataCleanerSpoonConfiguration)
+            throws KettleException {
+        File jobFile = new File(jobFilename);
+        if (!jobFile.exists()) {
+            // relative to DATACLEANER_HOME, like the forked process
+            jobFile = new File(dataCleanerSpoonConfiguration.getPluginFolderPath(), jobFilename);
+        }
+        try {
+            return new String(Files.readAllBytes(jobFile.toPath()), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new KettleException("Unable to read DataCleaner job: " + jobFilename, e);
+        }
     }
 
     @Override
@@ -120,6 +304,16 @@ public class DataCleanerJobEntry extends JobEntryBase implements JobEntryInterfa
                 .append(XMLHandler.addTagValue("output_file_in_result", configuration.isOutputFileInResult()));
         retval.append("      ")
                 .append(XMLHandler.addTagValue("additional_arguments", configuration.getAdditionalArguments()));
+        retval.append("      ")
+                .append(XMLHandler.addTagValue("execution_mode", configuration.getExecutionMode().toString()));
+        retval.append("      ").append(XMLHandler.addTagValue("max_threads", configuration.getMaxThreads()));
+        retval.append("      ")
+                .append(XMLHandler.addTagValue("execute_every_row", configuration.isExecuteForEveryRow()));
+        retval.append("      ").append(XMLHandler.addTagValue("parallel_runs", configuration.getParallelRuns()));
+        retval.append("      ").append(XMLHandler.addTagValue("fail_fast", configuration.isFailFast()));
+        retval.append("      ").append(XMLHandler.addTagValue("result_cache", configuration.isResultCache()));
+        retval.append("      ").append(
+                XMLHandler.addTagValue("result_cache_hash_inputs", configuration.isResultCacheHashInputs()));
 
         return retval.toString();
     }
@@ -139,6 +333,16 @@ public class DataCleanerJobEntry extends JobEntryBase implements JobEntryInterfa
             }
 
             configuration.setAdditionalArguments(XMLHandler.getTagValue(entrynode, "additional_arguments"));
+            configuration.setExecutionMode(parseExecutionMode(XMLHandler.getTagValue(entrynode, "execution_mode"),
+                    "Y".equalsIgnoreCase(XMLHandler.getTagValue(entrynode, "in_process"))));
+            configuration.setMaxThreads(Const.toInt(XMLHandler.getTagValue(entrynode, "max_threads"), 0));
+            configuration.setExecuteForEveryRow(
+                    "Y".equalsIgnoreCase(XMLHandler.getTagValue(entrynode, "execute_every_row")));
+            configuration.setParallelRuns(Const.toInt(XMLHandler.getTagValue(entrynode, "parallel_runs"), 1));
+            configuration.setFailFast("Y".equalsIgnoreCase(XMLHandler.getTagValue(entrynode, "fail_fast")));
+            configuration.setResultCache("Y".equalsIgnoreCase(XMLHandler.getTagValue(entrynode, "result_cache")));
+            configuration.setResultCacheHashInputs(
+                    "Y".equalsIgnoreCase(XMLHandler.getTagValue(entrynode, "result_cache_hash_inputs")));
 
         } catch (KettleXMLException e) {
             throw new KettleXMLException("Unable to load job entry from XML node", e);
@@ -155,6 +359,15 @@ public class DataCleanerJobEntry extends JobEntryBase implements JobEntryInterfa
         rep.saveJobEntryAttribute(id_job, getObjectId(), "output_file_in_result", configuration.isOutputFileInResult());
         rep.saveJobEntryAttribute(id_job, getObjectId(), "additional_arguments",
                 configuration.getAdditionalArguments());
+        rep.saveJobEntryAttribute(id_job, getObjectId(), "execution_mode",
+                configuration.getExecutionMode().toString());
+        rep.saveJobEntryAttribute(id_job, getObjectId(), "max_threads", configuration.getMaxThreads());
+        rep.saveJobEntryAttribute(id_job, getObjectId(), "execute_every_row", configuration.isExecuteForEveryRow());
+        rep.saveJobEntryAttribute(id_job, getObjectId(), "parallel_runs", configuration.getParallelRuns());
+        rep.saveJobEntryAttribute(id_job, getObjectId(), "fail_fast", configuration.isFailFast());
+        rep.saveJobEntryAttribute(id_job, getObjectId(), "result_cache", configuration.isResultCache());
+        rep.saveJobEntryAttribute(id_job, getObjectId(), "result_cache_hash_inputs",
+                configuration.isResultCacheHashInputs());
     }
 
     @Override
@@ -169,5 +382,26 @@ public class DataCleanerJobEntry extends JobEntryBase implements JobEntryInterfa
         configuration
                 .setOutputFileInResult(rep.getJobEntryAttributeBoolean(id_jobentry, "output_file_in_result", true));
         configuration.setAdditionalArguments(rep.getJobEntryAttributeString(id_jobentry, "additional_arguments"));
+        configuration.setExecutionMode(
+                parseExecutionMode(rep.getJobEntryAttributeString(id_jobentry, "execution_mode"),
+                        rep.getJobEntryAttributeBoolean(id_jobentry, "in_process", false)));
+        configuration.setMaxThreads((int) rep.getJobEntryAttributeInteger(id_jobentry, "max_threads"));
+        configuration.setExecuteForEveryRow(rep.getJobEntryAttributeBoolean(id_jobentry, "execute_every_row", false));
+        configuration.setParallelRuns((int) rep.getJobEntryAttributeInteger(id_jobentry, "parallel_runs"));
+        configuration.setFailFast(rep.getJobEntryAttributeBoolean(id_jobentry, "fail_fast", false));
+        configuration.setResultCache(rep.getJobEntryAttributeBoolean(id_jobentry, "result_cache", false));
+        configuration.setResultCacheHashInputs(
+                rep.getJobEntryAttributeBoolean(id_jobentry, "result_cache_hash_inputs", false));
+    }
+
+    /**
+     * @param executionMode the stored execution mode, or null for job entries saved before there were workers
+     * @param inProcess the stored flag of those job entries
+     */
+    private static DataCleanerExecutionMode parseExecutionMode(String executionMode, boolean inProcess) {
+        if (!Const.isEmpty(executionMode)) {
+            return DataCleanerExecutionMode.valueOf(executionMode);
+        }
+        return inProcess ? DataCleanerExecutionMode.IN_PROCESS : DataCleanerExecutionMode.PROCESS;
     }
 }
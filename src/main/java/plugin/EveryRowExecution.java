@@ -0,0 +1,224 @@
+package plugin;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.pentaho.di.core.Result;
+import org.pentaho.di.core.ResultFile;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.variables.VariableSpace;
+import org.pentaho.di.core.variables.Variables;
+
+/**
+ * Runs a DataCleaner job once for every row of the result of the previous job entry, up to a number of runs at the
+ * same time. The fields of every row are variables of its run.
+ */
+final class EveryRowExecution {
+
+    /**
+     * Runs the job once.
+     */
+    interface Runner {
+
+        /**
+         * @param space the variables of the run
+         * @param processors the number of processors the run may use
+         * @return the outcome of the run
+         * @throws KettleException
+         */
+        JobRun run(VariableSpace space, int processors) throws KettleException;
+    }
+
+    private final VariableSpace parentSpace;
+    private final String outputFilename;
+    private final int parallelRuns;
+    private final boolean failFast;
+    private final BooleanSupplier stopped;
+    private final int availableProcessors;
+    private final LogChannelInterface log;
+
+    /**
+     * @param parentSpace the variables of the job entry, inherited by every run
+     * @param outputFilename the output filename, before variable substitution
+     * @param parallelRuns the maximum number of runs at the same time
+     * @param failFast true to skip the remaining runs once a run has failed
+     * @param stopped tells if the job has been stopped, which skips the remaining runs
+     * @param availableProcessors the processors to share among the parallel runs
+     * @param log
+     */
+    EveryRowExecution(VariableSpace parentSpace, String outputFilename, int parallelRuns, boolean failFast,
+            BooleanSupplier stopped, int availableProcessors, LogChannelInterface log) {
+        this.parentSpace = parentSpace;
+        this.outputFilename = outputFilename;
+        this.parallelRuns = parallelRuns;
+        this.failFast = failFast;
+        this.stopped = stopped;
+        this.availableProcessors = availableProcessors;
+        this.log = log;
+    }
+
+    /**
+     * Runs the job for every row of the result. The exit status is the one of the first failed run (in the order of
+     * the rows), and the result files of all runs are added to the result.
+     *
+     * @param result the result of the previous job entry
+     * @param runner
+     * @return the result
+     * @throws KettleException if rows run in parallel write to the same output file
+     */
+    Result execute(Result result, Runner runner) throws KettleException {
+        final List<RowMetaAndData> rows = result.getRows();
+        if (rows == null || rows.isEmpty()) {
+            log.logBasic("No result rows, the DataCleaner job is not executed");
+            result.setExitStatus(0);
+            result.setResult(true);
+            return result;
+        }
+
+        final List<VariableSpace> spaces = new ArrayList<>(rows.size());
+        final Map<String, Integer> outputFilenames = new HashMap<>();
+        for (int i = 0; i < rows.size(); i++) {
+            final RowMetaAndData row = rows.get(i);
+            final VariableSpace space = new Variables();
+            space.initializeVariablesFrom(parentSpace);
+            for (int j = 0; j < row.size(); j++) {
+                space.setVariable(row.getRowMeta().getValueMeta(j).getName(), row.getString(j, ""));
+            }
+            spaces.add(space);
+
+            final Integer previousRow = outputFilenames.put(space.environmentSubstitute(outputFilename), i + 1);
+            if (previousRow != null && parallelRuns > 1) {
+                throw new KettleException("Result rows " + previousRow + " and " + (i + 1)
+                        + " write to the same output file, use a field in the output filename to run them in "
+                        + "parallel: " + outputFilename);
+            }
+        }
+
+        final int threads = Math.min(parallelRuns, rows.size());
+        final int processors = Math.max(1, availableProcessors / threads);
+        log.logBasic("Executing the DataCleaner job for " + rows.size() + " result rows, " + threads + " at a time");
+
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        final AtomicInteger threadNumber = new AtomicInteger(0);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "DataCleaner job entry run " + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        final List<Future<JobRun>> futures = new ArrayList<>(rows.size());
+        try {
+            for (int i = 0; i < rows.size(); i++) {
+                final VariableSpace space = spaces.get(i);
+                final int rowNumber = i + 1;
+                futures.add(executor.submit(() -> {
+                    if ((failFast && failed.get()) || stopped.getAsBoolean()) {
+                        return null;
+                    }
+                    log.logBasic("Executing the DataCleaner job for result row " + rowNumber);
+                    final JobRun run = runner.run(space, processors);
+                    if (run.getExitCode() != 0) {
+                        failed.set(true);
+                    }
+                    return run;
+                }));
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        int exitCode = 0;
+        int failures = 0;
+        int skipped = 0;
+        long rowsProcessed = 0;
+        final Map<String, ResultFile> files = new ConcurrentHashMap<String, ResultFile>();
+        for (int i = 0; i < futures.size(); i++) {
+            JobRun run;
+            try {
+                run = futures.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                executor.shutdownNow();
+                throw new KettleException("Interrupted while waiting for the DataCleaner jobs", e);
+            } catch (ExecutionException e) {
+                log.logError("DataCleaner job for result row " + (i + 1) + " failed", e.getCause());
+                failed.set(true);
+                run = new JobRun(1, null, null, 0);
+            }
+            if (run == null) {
+                skipped++;
+                continue;
+            }
+            rowsProcessed += run.getRowsProcessed();
+            if (run.getExitCode() != 0) {
+                failures++;
+                if (exitCode == 0) {
+                    exitCode = run.getExitCode();
+                }
+            }
+            if (run.getResultFile() != null) {
+                files.put(run.getOutputFilename(), run.getResultFile());
+            }
+        }
+        log.logBasic("Executed the DataCleaner job for " + rows.size() + " result rows: "
+                + (rows.size() - failures - skipped) + " succeeded, " + failures + " failed, " + skipped + " skipped");
+
+        result.setExitStatus(exitCode);
+        result.setNrErrors(result.getNrErrors() + failures);
+        result.setNrLinesRead(result.getNrLinesRead() + rowsProcessed);
+        result.setResult(failures == 0 && skipped == 0);
+        result.setResultFiles(files);
+        return result;
+    }
+
+    /**
+     * The outcome of one run of the job.
+     */
+    static final class JobRun {
+
+        private final int exitCode;
+        private final String outputFilename;
+        private final ResultFile resultFile;
+        private final long rowsProcessed;
+
+        /**
+         * @param exitCode
+         * @param outputFilename the output filename of the run, after variable substitution
+         * @param resultFile the output file to add to the result, or null if there is none
+         * @param rowsProcessed
+         */
+        JobRun(int exitCode, String outputFilename, ResultFile resultFile, long rowsProcessed) {
+            this.exitCode = exitCode;
+            this.outputFilename = outputFilename;
+            this.resultFile = resultFile;
+            this.rowsProcessed = rowsProcessed;
+        }
+
+        int getExitCode() {
+            return exitCode;
+        }
+
+        String getOutputFilename() {
+            return outputFilename;
+        }
+
+        ResultFile getResultFile() {
+            return resultFile;
+        }
+
+        long getRowsProcessed() {
+            return rowsProcessed;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+
+import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.profiling.datacleaner.codec.NoCompressionCodec;
+import org.pentaho.di.trans.step.RowListener;
+
+import junit.framework.TestCase;
+
+public class AsyncCaptureWriterTest extends TestCase {
+
+    private final RowMetaInterface rowMeta = new RowMeta();
+
+    @Override
+    protected void setUp() throws Exception {
+        rowMeta.addValueMeta(new ValueMetaInteger("id"));
+        rowMeta.addValueMeta(new ValueMetaString("name"));
+    }
+
+    public void testCloseDrainsQueue() throws Exception {
+        final KettleStreamWriter streamWriter = createStreamWriter(new ByteArrayOutputStream());
+        final AsyncCaptureWriter asyncWriter = new AsyncCaptureWriter(createOptions(CaptureBackpressure.BLOCK, 64));
+        final RowListener copy0 = asyncWriter.createRowListener(streamWriter.createSegmentWriter(0), null);
+        final RowListener copy1 = asyncWriter.createRowListener(streamWriter.createSegmentWriter(1), null);
+        asyncWriter.start();
+        for (long i = 0; i < 5000; i++) {
+            copy0.rowWrittenEvent(rowMeta, new Object[] { i, "copy 0" });
+            copy1.rowWrittenEvent(rowMeta, new Object[] { i, "copy 1" });
+        }
+        asyncWriter.close();
+        streamWriter.close();
+
+        assertEquals(10000, streamWriter.getRowCount());
+        assertEquals(0, asyncWriter.getDroppedRows());
+        assertEquals(64, asyncWriter.getQueueCapacity());
+        assertTrue(asyncWriter.getHighWaterMark() <= 64);
+    }
+
+    public void testDrop() throws Exception {
+        final KettleStreamWriter streamWriter = createStreamWriter(new ByteArrayOutputStream());
+        final AsyncCaptureWriter asyncWriter = new AsyncCaptureWriter(createOptions(CaptureBackpressure.DROP, 8));
+        final RowListener listener = asyncWriter.createRowListener(streamWriter.createSegmentWriter(0), null);
+
+        // the writer thread is not started yet, so the queue fills up
+        for (long i = 0; i < 20; i++) {
+            listener.rowWrittenEvent(rowMeta, new Object[] { i, "row" });
+        }
+        assertEquals(12, asyncWriter.getDroppedRows());
+        assertEquals(8, asyncWriter.getHighWaterMark());
+
+        asyncWriter.start();
+        asyncWriter.close();
+        streamWriter.close();
+        assertEquals(8, streamWriter.getRowCount());
+    }
+
+    public void testOverflow() throws Exception {
+        final AsyncCaptureWriter.Overflow sample = new AsyncCaptureWriter.Overflow(CaptureBackpressure.SAMPLE, 3);
+        final StringBuilder decisions = new StringBuilder();
+        for (int i = 0; i < 7; i++) {
+            decisions.append(sample.drop() ? 'd' : 'w');
+        }
+        // every third row waits for room, the others are dropped
+        assertEquals("wddwddw", decisions.toString());
+        assertEquals(4, sample.getDroppedRows());
+
+        final AsyncCaptureWriter.Overflow drop = new AsyncCaptureWriter.Overflow(CaptureBackpressure.DROP, 3);
+        final AsyncCaptureWriter.Overflow block = new AsyncCaptureWriter.Overflow(CaptureBackpressure.BLOCK, 3);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(drop.drop());
+            assertFalse(block.drop());
+        }
+        assertEquals(5, drop.getDroppedRows());
+        assertEquals(0, block.getDroppedRows());
+    }
+
+    public void testWriterFailure() throws Exception {
+        final FailingOutputStream out = new FailingOutputStream();
+        final KettleStreamWriter streamWriter = createStreamWriter(out);
+        final AsyncCaptureWriter asyncWriter = new AsyncCaptureWriter(createOptions(CaptureBackpressure.BLOCK, 8));
+        final RowListener listener = asyncWriter.createRowListener(streamWriter.createSegmentWriter(0), null);
+        out.failing = true;
+        asyncWriter.start();
+
+        // the producer learns about the failure at the latest when it waits for room in the full queue
+        KettleStepException failure = null;
+        for (long i = 0; i < 100000 && failure == null; i++) {
+            try {
+                listener.rowWrittenEvent(rowMeta, new Object[] { i, "row" });
+            } catch (KettleStepException e) {
+                failure = e;
+            }
+        }
+        assertNotNull(failure);
+        assertTrue(failure.getCause() instanceof IOException);
+
+        try {
+            asyncWriter.close();
+            fail("Exception expected");
+        } catch (IOException e) {
+            assertEquals("Capture writer failed", e.getMessage());
+        }
+    }
+
+    private KettleStreamWriter createStreamWriter(OutputStream out) throws Exception {
+        // small blocks, so that every few rows are written to the stream
+        final KettleStreamWriter streamWriter = new KettleStreamWriter(out, new NoCompressionCodec(), 32);
+        streamWriter.writeHeader("trans", "step", rowMeta, new LinkedHashMap<String, String>());
+        return streamWriter;
+    }
+
+    private static CaptureOptions createOptions(CaptureBackpressure backpressure, int queueSize) {
+        final CaptureOptions options = new CaptureOptions();
+        options.setAsync(true);
+        options.setBackpressure(backpressure);
+        options.setQueueSize(queueSize);
+        return options;
+    }
+
+    private static final class FailingOutputStream extends OutputStream {
+
+        private volatile boolean failing;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (failing) {
+                throw new IOException("Disk full");
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (failing) {
+                throw new IOException("Disk full");
+            }
+        }
+    }
+}
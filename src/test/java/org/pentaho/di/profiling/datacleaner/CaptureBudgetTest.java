@@ -0,0 +1,165 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+import junit.framework.TestCase;
+
+public class CaptureBudgetTest extends TestCase {
+
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final CaptureBudget budget = new CaptureBudget(new Runnable() {
+        @Override
+        public void run() {
+            stopped.countDown();
+        }
+    }, createLog());
+
+    public void testSingleStep() throws Exception {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final CaptureBudget.Step step = budget.register("step", 3, running::get);
+
+        for (int i = 0; i < 2; i++) {
+            capture(step);
+        }
+        assertFalse(budget.isStopIssued());
+        capture(step);
+        assertTrue(budget.isStopIssued());
+
+        // the step keeps running after the grace period, so it has more rows
+        assertTrue(stopped.await(10, TimeUnit.SECONDS));
+        assertTrue(step.isTruncated());
+    }
+
+    public void testSingleStepEndingAtBudget() throws Exception {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final CaptureBudget.Step step = budget.register("step", 2, running::get);
+
+        for (int i = 0; i < 2; i++) {
+            capture(step);
+        }
+        running.set(false);
+        assertTrue(stopped.await(10, TimeUnit.SECONDS));
+        assertFalse(step.isTruncated());
+    }
+
+    public void testRowBeyondBudget() throws Exception {
+        final CaptureBudget.Step step = budget.register("step", 1, () -> false);
+        assertTrue(step.isWithinBudget(step.nextRow()));
+        assertFalse(step.isTruncated());
+        assertFalse(step.isWithinBudget(step.nextRow()));
+        assertTrue(step.isTruncated());
+    }
+
+    public void testMultiStep() throws Exception {
+        final AtomicBoolean budgetedRunning = new AtomicBoolean(true);
+        final AtomicBoolean otherRunning = new AtomicBoolean(true);
+        final CaptureBudget.Step budgeted = budget.register("budgeted", 2, budgetedRunning::get);
+        final CaptureBudget.Step other = budget.register("other", Long.MAX_VALUE, otherRunning::get);
+
+        for (int i = 0; i < 2; i++) {
+            capture(budgeted);
+        }
+        for (int i = 0; i < 10; i++) {
+            capture(other);
+        }
+
+        // the other step still needs the transformation
+        assertFalse(budget.isStopIssued());
+        other.stepFinished();
+        assertFalse(budget.isStopIssued());
+
+        otherRunning.set(false);
+        other.stepFinished();
+        assertTrue(budget.isStopIssued());
+        assertTrue(stopped.await(10, TimeUnit.SECONDS));
+        assertTrue(budgeted.isTruncated());
+        assertFalse(other.isTruncated());
+    }
+
+    public void testNoBudgetReached() throws Exception {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final CaptureBudget.Step step = budget.register("step", 5, running::get);
+        capture(step);
+        running.set(false);
+        step.stepFinished();
+        assertFalse(budget.isStopIssued());
+        assertFalse(step.isTruncated());
+    }
+
+    public void testConcurrentCopies() throws Exception {
+        final AtomicInteger stops = new AtomicInteger();
+        final CountDownLatch copiesStopped = new CountDownLatch(1);
+        final CaptureBudget copiesBudget = new CaptureBudget(new Runnable() {
+            @Override
+            public void run() {
+                stops.incrementAndGet();
+                copiesStopped.countDown();
+            }
+        }, createLog());
+        final CaptureBudget.Step step = copiesBudget.register("step", 1000, () -> true);
+
+        // copies racing for the last rows of the budget
+        final AtomicLong captured = new AtomicLong();
+        final CyclicBarrier start = new CyclicBarrier(8);
+        final List<Thread> copies = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            final Thread copy = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (Exception e) {
+                        return;
+                    }
+                    for (int row = 0; row < 500; row++) {
+                        final long rowNumber = step.nextRow();
+                        if (step.isWithinBudget(rowNumber)) {
+                            captured.incrementAndGet();
+                            step.rowCaptured(rowNumber);
+                        }
+                    }
+                }
+            };
+            copy.start();
+            copies.add(copy);
+        }
+        for (Thread copy : copies) {
+            copy.join();
+        }
+
+        assertEquals(1000, captured.get());
+        assertTrue(copiesBudget.isStopIssued());
+        assertTrue(copiesStopped.await(10, TimeUnit.SECONDS));
+        Thread.sleep(2 * CaptureBudget.STOP_GRACE_MILLIS);
+        assertEquals(1, stops.get());
+        assertTrue(step.isTruncated());
+    }
+
+    private static void capture(CaptureBudget.Step step) {
+        final long rowNumber = step.nextRow();
+        assertTrue(step.isWithinBudget(rowNumber));
+        step.rowCaptured(rowNumber);
+    }
+
+    private LogChannelInterface createLog() {
+        return (LogChannelInterface) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { LogChannelInterface.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        return null;
+                    }
+                });
+    }
+}
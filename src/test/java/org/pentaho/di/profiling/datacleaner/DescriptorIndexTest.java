@@ -0,0 +1,42 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class DescriptorIndexTest extends TestCase {
+
+    public void testIndexFileFollowsJars() throws Exception {
+        final File folder = Files.createTempDirectory("descriptor-index").toFile();
+        final File jar = new File(folder, "DataCleaner-engine.jar");
+        Files.write(jar.toPath(), new byte[] { 1, 2, 3 });
+        final List<File> jars = Arrays.asList(jar);
+
+        final File indexFile = DescriptorIndex.getIndexFile(folder, jars);
+        assertEquals(folder, indexFile.getParentFile());
+        assertEquals(indexFile, DescriptorIndex.getIndexFile(folder, jars));
+
+        Files.write(jar.toPath(), new byte[] { 1, 2, 3, 4 });
+        final File upgradedIndexFile = DescriptorIndex.getIndexFile(folder, jars);
+        assertFalse(indexFile.equals(upgradedIndexFile));
+
+        final Map<String, List<String>> classNames = new LinkedHashMap<>();
+        classNames.put(DescriptorIndex.ANALYZER, Arrays.asList("org.datacleaner.beans.StringAnalyzer",
+                "org.datacleaner.beans.NumberAnalyzer"));
+        classNames.put(DescriptorIndex.RENDERER, Arrays.asList("org.datacleaner.result.renderer.Foo"));
+        DescriptorIndex.write(indexFile, classNames);
+        DescriptorIndex.write(upgradedIndexFile, classNames);
+        assertEquals(classNames, DescriptorIndex.read(upgradedIndexFile));
+
+        DescriptorIndex.deleteStaleIndexFiles(upgradedIndexFile);
+        assertFalse(indexFile.exists());
+        assertTrue(upgradedIndexFile.exists());
+        assertTrue(jar.exists());
+        assertEquals(2, folder.list().length);
+    }
+}
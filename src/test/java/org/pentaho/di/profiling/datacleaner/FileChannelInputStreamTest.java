@@ -0,0 +1,89 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import junit.framework.TestCase;
+
+public class FileChannelInputStreamTest extends TestCase {
+
+    public void testReadAcrossBuffers() throws Exception {
+        final File file = new File("target/channel_buffers.bin");
+
+        // write through a buffer that is smaller than some of the writes
+        final FileChannel writeChannel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        try (DataOutputStream out = new DataOutputStream(new FileChannelOutputStream(writeChannel, 100))) {
+            for (int i = 0; i < 10000; i++) {
+                out.writeInt(i);
+                out.writeUTF("value " + i);
+            }
+            out.write(new byte[250]);
+        }
+
+        // use a tiny buffer, so that values are split between fills
+        final FileChannel readChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try (DataInputStream in = new DataInputStream(new FileChannelInputStream(readChannel, 0, 97))) {
+            in.mark(0);
+            assertEquals(0, in.readInt());
+            in.reset();
+            for (int i = 0; i < 10000; i++) {
+                assertEquals(i, in.readInt());
+                assertEquals("value " + i, in.readUTF());
+            }
+            assertEquals(250, in.skip(1000));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    public void testStartAtPosition() throws Exception {
+        final File file = new File("target/channel_position.bin");
+        final FileChannel writeChannel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        try (DataOutputStream out = new DataOutputStream(new FileChannelOutputStream(writeChannel, 1024))) {
+            for (int i = 0; i < 1000; i++) {
+                out.writeLong(i);
+            }
+        }
+
+        final FileChannel readChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try (FileChannelInputStream in = new FileChannelInputStream(readChannel, 8 * 500, 64)) {
+            assertEquals(8 * 500, in.getPosition());
+            assertEquals(500, new DataInputStream(in).readLong());
+            assertEquals(8 * 501, in.getPosition());
+        }
+    }
+
+    public void testLargeReadAndDelete() throws Exception {
+        final File file = new File("target/channel_large.bin");
+        final byte[] bytes = new byte[1000];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        final FileChannel writeChannel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        try (FileChannelOutputStream out = new FileChannelOutputStream(writeChannel, 64)) {
+            out.write(bytes);
+        }
+
+        final FileChannel readChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try (FileChannelInputStream in = new FileChannelInputStream(readChannel, 0, 64)) {
+            assertEquals(0, in.read());
+            // the rest of the buffer, then past the buffer
+            final byte[] read = new byte[999];
+            assertEquals(63, in.read(read, 0, 999));
+            assertEquals(936, in.read(read, 63, 936));
+            for (int i = 0; i < read.length; i++) {
+                assertEquals(bytes[i + 1], read[i]);
+            }
+            assertEquals(1000, in.getPosition());
+            assertEquals(-1, in.read(read, 0, 100));
+        }
+
+        // no mapping keeps the file open
+        assertTrue(file.delete());
+    }
+}
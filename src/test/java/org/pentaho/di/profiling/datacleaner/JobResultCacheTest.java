@@ -0,0 +1,137 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import junit.framework.TestCase;
+
+public class JobResultCacheTest extends TestCase {
+
+    private static final String JOB_XML = "<job><source><data-context ref=\"orders\" /></source></job>";
+
+    private File folder;
+
+    @Override
+    protected void setUp() throws Exception {
+        folder = Files.createTempDirectory("JobResultCacheTest").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(folder);
+    }
+
+    public void testFingerprint() throws Exception {
+        final File input = new File(folder, "orders.csv");
+        write(input, "id,amount\n1,10\n");
+        final String confXml = "<configuration><datastore-catalog><csv-datastore name=\"orders\">"
+                + "<filename>orders.csv</filename></csv-datastore><jdbc-datastore name=\"db\">"
+                + "<url>jdbc:h2:mem:</url></jdbc-datastore></datastore-catalog></configuration>";
+
+        final String fingerprint = JobResultCache.fingerprint(JOB_XML, confXml, "SERIALIZED", "", folder, false);
+        assertNotNull(fingerprint);
+        assertEquals(fingerprint, JobResultCache.fingerprint(JOB_XML, confXml, "SERIALIZED", "", folder, false));
+        assertFalse(fingerprint.equals(JobResultCache.fingerprint(JOB_XML, confXml, "TEXT", "", folder, false)));
+        assertFalse(fingerprint.equals(JobResultCache.fingerprint(JOB_XML, confXml, "SERIALIZED", "-v", folder,
+                false)));
+
+        final String hashed = JobResultCache.fingerprint(JOB_XML, confXml, "SERIALIZED", "", folder, true);
+        write(input, "id,amount\n1,20\n");
+        input.setLastModified(input.lastModified() + 2000);
+        assertFalse(fingerprint.equals(JobResultCache.fingerprint(JOB_XML, confXml, "SERIALIZED", "", folder, false)));
+        assertFalse(hashed.equals(JobResultCache.fingerprint(JOB_XML, confXml, "SERIALIZED", "", folder, true)));
+
+        // databases and unknown datastores are not cached
+        assertNull(JobResultCache.fingerprint(JOB_XML.replace("orders", "db"), confXml, "SERIALIZED", "", folder,
+                false));
+        assertNull(JobResultCache.fingerprint(JOB_XML.replace("orders", "foo"), confXml, "SERIALIZED", "", folder,
+                false));
+        assertNull(JobResultCache.fingerprint(JOB_XML, null, "SERIALIZED", "", folder, false));
+    }
+
+    public void testStoreAndRestore() throws Exception {
+        final JobResultCache cache = new JobResultCache(new File(folder, "cache"), 1000);
+        final File output = new File(folder, "out.dat");
+        final File restored = new File(folder, "restored/out.dat");
+        assertNull(cache.restore("a", "SERIALIZED", restored.getPath()));
+
+        write(output, "result a");
+        cache.store("a", "SERIALIZED", 0, output.getPath(), output);
+        assertNull(cache.restore("a", "TEXT", restored.getPath()));
+        final JobResultCache.CachedResult result = cache.restore("a", "SERIALIZED", restored.getPath());
+        assertEquals(0, result.getExitCode());
+        assertEquals(restored, result.getOutputFile());
+        assertEquals("result a", read(restored));
+    }
+
+    public void testRestoreRelativeOutput() throws Exception {
+        final JobResultCache cache = new JobResultCache(new File(folder, "cache"), 1000);
+        // the run resolved the relative output filename against its own folder
+        final File output = new File(folder, "worker/out.dat");
+        output.getParentFile().mkdirs();
+        write(output, "result a");
+        cache.store("a", "SERIALIZED", 0, "out.dat", output);
+        output.delete();
+
+        assertNull(cache.restore("a", "SERIALIZED", "other.dat"));
+        final JobResultCache.CachedResult result = cache.restore("a", "SERIALIZED", "out.dat");
+        assertEquals(output.getAbsoluteFile(), result.getOutputFile());
+        assertEquals("result a", read(output));
+    }
+
+    public void testDoctypeNotParsed() throws Exception {
+        final File input = new File(folder, "orders.csv");
+        write(input, "id,amount\n1,10\n");
+        final String confXml = "<configuration><datastore-catalog><csv-datastore name=\"orders\">"
+                + "<filename>orders.csv</filename></csv-datastore></datastore-catalog></configuration>";
+        assertNotNull(JobResultCache.getInputFiles(JOB_XML, confXml, folder));
+
+        final String doctype = "<!DOCTYPE job [<!ENTITY name SYSTEM \"" + input.toURI() + "\">]>";
+        assertNull(JobResultCache.getInputFiles(doctype + JOB_XML.replace("orders", "&name;"), confXml, folder));
+        assertNull(JobResultCache.getInputFiles(JOB_XML, doctype + confXml, folder));
+    }
+
+    public void testEvictLeastRecentlyUsed() throws Exception {
+        final File cacheFolder = new File(folder, "cache");
+        final JobResultCache cache = new JobResultCache(cacheFolder, 250);
+        final File output = new File(folder, "out.dat");
+        final long now = System.currentTimeMillis();
+        for (String fingerprint : new String[] { "a", "b" }) {
+            write(output, new String(new char[100]));
+            cache.store(fingerprint, "SERIALIZED", 0, output.getPath(), output);
+        }
+        new File(cacheFolder, "a.properties").setLastModified(now - 20000);
+        new File(cacheFolder, "b.properties").setLastModified(now - 10000);
+
+        // using a makes b the least recently used entry
+        assertNotNull(cache.restore("a", "SERIALIZED", new File(folder, "restored.dat").getPath()));
+        cache.store("c", "SERIALIZED", 0, output.getPath(), output);
+        assertNotNull(cache.restore("a", "SERIALIZED", new File(folder, "restored.dat").getPath()));
+        assertNull(cache.restore("b", "SERIALIZED", new File(folder, "restored.dat").getPath()));
+        assertNotNull(cache.restore("c", "SERIALIZED", new File(folder, "restored.dat").getPath()));
+
+        // larger than the cache
+        write(output, new String(new char[300]));
+        cache.store("d", "SERIALIZED", 0, output.getPath(), output);
+        assertNull(cache.restore("d", "SERIALIZED", new File(folder, "restored.dat").getPath()));
+    }
+
+    private static String read(File file) throws Exception {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static void write(File file, String content) throws Exception {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void delete(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -1,16 +1,40 @@
 package org.pentaho.di.profiling.datacleaner;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.metamodel.data.DataSet;
+import org.apache.metamodel.query.Query;
 import org.apache.metamodel.schema.Table;
 import org.pentaho.di.core.plugins.PluginRegistry;
 import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaBigNumber;
+import org.pentaho.di.core.row.value.ValueMetaBinary;
+import org.pentaho.di.core.row.value.ValueMetaBoolean;
+import org.pentaho.di.core.row.value.ValueMetaDate;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
 import org.pentaho.di.core.row.value.ValueMetaNumber;
 import org.pentaho.di.core.row.value.ValueMetaPluginType;
 import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.core.row.value.ValueMetaTimestamp;
+import org.pentaho.di.profiling.datacleaner.codec.CaptureCodec;
+import org.pentaho.di.profiling.datacleaner.codec.CaptureCodecs;
+import org.pentaho.di.profiling.datacleaner.sketch.CaptureSketch;
+import org.pentaho.di.profiling.datacleaner.sketch.ColumnSketch;
 
 import junit.framework.TestCase;
 
@@ -69,4 +93,658 @@ public class KettleDataContextTest extends TestCase {
         assertFalse(ds.next());
         ds.close();
     }
+
+    public void testReadBlockFramedFile() throws Exception {
+        for (CaptureCodec codec : CaptureCodecs.getCodecs()) {
+            readBlockFramedFile(codec);
+        }
+    }
+
+    private void readBlockFramedFile(CaptureCodec codec) throws Exception {
+        ValueMetaPluginType pluginType = ValueMetaPluginType.getInstance();
+        pluginType.searchPlugins();
+
+        PluginRegistry.init();
+        PluginRegistry.addPluginType(pluginType);
+
+        final String filename = "target/block_framed_data_" + codec.getName() + ".kettlestream";
+
+        final RowMeta rowMeta = new RowMeta();
+        rowMeta.addValueMeta(new ValueMetaString("name"));
+        rowMeta.addValueMeta(new ValueMetaNumber("age"));
+
+        // use a tiny block size to get several blocks
+        final KettleStreamWriter writer = new KettleStreamWriter(new FileOutputStream(filename), codec, 32);
+        try {
+            writer.writeHeader("hmm", "Data Grid", rowMeta, new LinkedHashMap<String, String>());
+            for (int i = 0; i < 100; i++) {
+                writer.writeRow(rowMeta, new Object[] { "Person " + i, (double) i });
+            }
+        } finally {
+            writer.close();
+        }
+
+        final KettleDataContext dc = new KettleDataContext(filename);
+        final Table table = dc.getDefaultSchema().getTableByName("Data Grid");
+        assertEquals(2, table.getColumnCount());
+
+        DataSet ds = dc.query().from(table).select(table.getColumns()).execute();
+        int count = 0;
+        while (ds.next()) {
+            assertEquals("Row[values=[Person " + count + ", " + (double) count + "]]", ds.getRow().toString());
+            count++;
+        }
+        ds.close();
+        assertEquals(100, count);
+
+        ds = dc.query().from(table).select(table.getColumns()).firstRow(42).maxRows(3).execute();
+        assertTrue(ds.next());
+        assertEquals("Row[values=[Person 41, 41.0]]", ds.getRow().toString());
+        assertTrue(ds.next());
+        assertEquals("Row[values=[Person 42, 42.0]]", ds.getRow().toString());
+        assertTrue(ds.next());
+        assertEquals("Row[values=[Person 43, 43.0]]", ds.getRow().toString());
+        assertFalse(ds.next());
+        ds.close();
+
+        ds = dc.query().from(table).select(table.getColumns()).firstRow(101).execute();
+        assertFalse(ds.next());
+        ds.close();
+    }
+
+    public void testReadConcurrentlyWrittenSegments() throws Exception {
+        ValueMetaPluginType pluginType = ValueMetaPluginType.getInstance();
+        pluginType.searchPlugins();
+
+        PluginRegistry.init();
+        PluginRegistry.addPluginType(pluginType);
+
+        final String filename = "target/segmented_data.kettlestream";
+
+        final RowMeta rowMeta = new RowMeta();
+        rowMeta.addValueMeta(new ValueMetaString("name"));
+        rowMeta.addValueMeta(new ValueMetaNumber("age"));
+
+        final int copies = 4;
+        final int rowsPerCopy = 500;
+        final KettleStreamWriter writer =
+                new KettleStreamWriter(new FileOutputStream(filename), CaptureCodecs.getCodec("lz4"), 64);
+        final List<Throwable> errors = new ArrayList<>();
+        try {
+            writer.writeHeader("hmm", "Data Grid", rowMeta, new LinkedHashMap<String, String>());
+            final List<Thread> threads = new ArrayList<>();
+            for (int copy = 0; copy < copies; copy++) {
+                final KettleStreamSegmentWriter segmentWriter = writer.createSegmentWriter(copy);
+                threads.add(new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int i = 0; i < rowsPerCopy; i++) {
+                                segmentWriter.writeRow(rowMeta,
+                                        new Object[] { "Copy " + segmentWriter.getSegment(), (double) i });
+                            }
+                        } catch (Exception e) {
+                            synchronized (errors) {
+                                errors.add(e);
+                            }
+                        }
+                    }
+                });
+            }
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } finally {
+            writer.close();
+        }
+        assertEquals("[]", errors.toString());
+
+        final KettleDataContext dc = new KettleDataContext(filename);
+        final Table table = dc.getDefaultSchema().getTableByName("Data Grid");
+        final DataSet ds = dc.query().from(table).select(table.getColumns()).execute();
+        final Set<String> rows = new HashSet<>();
+        while (ds.next()) {
+            assertTrue(rows.add(ds.getRow().toString()));
+        }
+        ds.close();
+        assertEquals(copies * rowsPerCopy, rows.size());
+        assertTrue(rows.contains("Row[values=[Copy 3, 499.0]]"));
+    }
+
+    public void testFollowStreamingCapture() throws Exception {
+        ValueMetaPluginType pluginType = ValueMetaPluginType.getInstance();
+        pluginType.searchPlugins();
+
+        PluginRegistry.init();
+        PluginRegistry.addPluginType(pluginType);
+
+        final String filename = "target/streaming_data.kettlestream";
+
+        final RowMeta rowMeta = new RowMeta();
+        rowMeta.addValueMeta(new ValueMetaString("name"));
+        rowMeta.addValueMeta(new ValueMetaNumber("age"));
+
+        final KettleStreamWriter writer =
+                new KettleStreamWriter(new FileOutputStream(filename), CaptureCodecs.getCodec("lz4"), 64);
+        writer.setStreaming(10000);
+        writer.writeHeader("hmm", "Data Grid", rowMeta, new LinkedHashMap<String, String>());
+
+        // keep writing while the rows are being read
+        final List<Throwable> errors = new ArrayList<>();
+        final Thread writerThread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 200; i++) {
+                        writer.writeRow(rowMeta, new Object[] { "Person " + i, (double) i });
+                        if (i % 50 == 0) {
+                            Thread.sleep(100);
+                        }
+                    }
+                    writer.close();
+                } catch (Exception e) {
+                    errors.add(e);
+                }
+            }
+        };
+        writerThread.start();
+
+        final KettleDataContext dc = new KettleDataContext(filename);
+        final Table table = dc.getDefaultSchema().getTableByName("Data Grid");
+        final DataSet ds = dc.query().from(table).select(table.getColumns()).execute();
+        int count = 0;
+        while (ds.next()) {
+            assertEquals("Row[values=[Person " + count + ", " + (double) count + "]]", ds.getRow().toString());
+            count++;
+        }
+        ds.close();
+        writerThread.join();
+
+        assertEquals("[]", errors.toString());
+        assertEquals(200, count);
+    }
+
+    public void testFirstRow() throws Exception {
+        ValueMetaPluginType pluginType = ValueMetaPluginType.getInstance();
+        pluginType.searchPlugins();
+
+        PluginRegistry.init();
+        PluginRegistry.addPluginType(pluginType);
+
+        final RowMeta rowMeta = new RowMeta();
+        rowMeta.addValueMeta(new ValueMetaString("name"));
+        rowMeta.addValueMeta(new ValueMetaNumber("age"));
+        final int rows = 20000;
+
+        // a version 1 file, which needs the sidecar index
+        final String v1Filename = "target/first_row_v1.kettlestream";
+        KettleRowIndex.getIndexFile(v1Filename).delete();
+        try (DataOutputStream dataOutputStream = new DataOutputStream(new FileOutputStream(v1Filename))) {
+            dataOutputStream.writeUTF("hmm");
+            dataOutputStream.writeUTF("Data Grid");
+            rowMeta.writeMeta(dataOutputStream);
+            for (int i = 0; i < rows; i++) {
+                rowMeta.writeData(dataOutputStream, new Object[] { "Person " + i, (double) i });
+            }
+        }
+
+        // a version 2 file, which has its own index
+        final String v2Filename = "target/first_row_v2.kettlestream";
+        final KettleStreamWriter writer =
+                new KettleStreamWriter(new FileOutputStream(v2Filename), CaptureCodecs.getCodec("lz4"), 4096);
+        try {
+            writer.writeHeader("hmm", "Data Grid", rowMeta, new LinkedHashMap<String, String>());
+            for (int i = 0; i < rows; i++) {
+                writer.writeRow(rowMeta, new Object[] { "Person " + i, (double) i });
+            }
+        } finally {
+            writer.close();
+        }
+
+        for (String filename : new String[] { v1Filename, v2Filename }) {
+            final KettleDataContext dc = new KettleDataContext(filename);
+            final Table table = dc.getDefaultSchema().getTableByName("Data Grid");
+
+            // consecutive ranges that start in the middle of blocks and index intervals
+            final int[] firstRows = { 1, 5001, 9999, 15000 };
+            int count = 0;
+            for (int i = 0; i < firstRows.length; i++) {
+                final Query query = dc.query().from(table).select(table.getColumns()).toQuery();
+                query.setFirstRow(firstRows[i]);
+                if (i < firstRows.length - 1) {
+                    query.setMaxRows(firstRows[i + 1] - firstRows[i]);
+                }
+                final DataSet ds = dc.executeQuery(query);
+                while (ds.next()) {
+                    assertEquals("Row[values=[Person " + count + ", " + (double) count + "]]",
+                            ds.getRow().toString());
+                    count++;
+                }
+                ds.close();
+            }
+            assertEquals(rows, count);
+        }
+        assertNotNull(KettleRowIndex.read(KettleRowIndex.getIndexFile(v1Filename), new File(v1Filename)));
+    }
+
+    public void testReadSelectedColumnsOfWideRows() throws Exception {
+        ValueMetaPluginType pluginType = ValueMetaPluginType.getInstance();
+        pluginType.searchPlugins();
+
+        PluginRegistry.init();
+        PluginRegistry.addPluginType(pluginType);
+
+        final String filename = "target/wide_data.kettlestream";
+
+        final RowMeta rowMeta = new RowMeta();
+        rowMeta.addValueMeta(new ValueMetaString("string"));
+        rowMeta.addValueMeta(new ValueMetaInteger("integer"));
+        rowMeta.addValueMeta(new ValueMetaTimestamp("timestamp"));
+        rowMeta.addValueMeta(new ValueMetaDate("date"));
+        rowMeta.addValueMeta(new ValueMetaBoolean("boolean"));
+        rowMeta.addValueMeta(new ValueMetaBigNumber("bignumber"));
+        rowMeta.addValueMeta(new ValueMetaBinary("binary"));
+        rowMeta.addValueMeta(new ValueMetaNumber("number"));
+
+        final KettleStreamWriter writer =
+                new KettleStreamWriter(new FileOutputStream(filename), CaptureCodecs.getCodec("lz4"), 1024);
+        try {
+            writer.writeHeader("hmm", "Wide", rowMeta, new LinkedHashMap<String, String>());
+            for (int i = 0; i < 100; i++) {
+                final boolean nulls = i % 3 == 0;
+                writer.writeRow(rowMeta, new Object[] { nulls ? null : "s" + i, nulls ? null : (long) i,
+                        nulls ? null : new Timestamp(i), nulls ? null : new Date(i), nulls ? null : i % 2 == 0,
+                        nulls ? null : new BigDecimal(i + ".5"), nulls ? null : new byte[i], (double) i });
+            }
+        } finally {
+            writer.close();
+        }
+
+        final KettleDataContext dc = new KettleDataContext(filename);
+        final Table table = dc.getDefaultSchema().getTableByName("Wide");
+        final DataSet ds = dc.query().from(table).select("number", "string").firstRow(50).execute();
+        int i = 49;
+        while (ds.next()) {
+            assertEquals("Row[values=[" + (double) i + ", " + (i % 3 == 0 ? null : "s" + i) + "]]",
+                    ds.getRow().toString());
+            i++;
+        }
+        ds.close();
+        assertEquals(100, i);
+    }
+
+    public void testRewrittenCaptureIsNotServedCachedHeader() throws Exception {
+        final String filename = "target/rewritten_data.kettlestream";
+
+        final RowMeta rowMeta = new RowMeta();
+        rowMeta.addValueMeta(new ValueMetaString("name"));
+
+        for (String stepName : new String[] { "Step A", "Step B" }) {
+            final KettleStreamWriter writer =
+                    new KettleStreamWriter(new FileOutputStream(filename), CaptureCodecs.getCodec("none"), 1024);
+            try {
+                writer.writeHeader("hmm", stepName, rowMeta, new LinkedHashMap<String, String>());
+                writer.writeRow(rowMeta, new Object[] { "Kasper" });
+            } finally {
+                writer.close();
+            }
+            // same length, so only the modification time tells the captures apart
+            new File(filename).setLastModified(stepName.equals("Step A") ? 1000000L : 2000000L);
+
+            final KettleDataContext dc = new KettleDataContext(filename);
+            assertEquals(stepName, dc.getStepName());
+            assertEquals(stepName, new KettleDataContext(filename).getStepName());
+        }
+    }
+
+    public void testCountRows() throws Exception {
+        final String filename = "target/counted_data.kettlestream";
+
+        final RowMeta rowMeta = new RowMeta();
+        rowMeta.addValueMeta(new ValueMetaString("name"));
+        rowMeta.addValueMeta(new ValueMetaNumber("age"));
+
+        final KettleStreamWriter writer =
+                new KettleStreamWriter(new FileOutputStream(filename), CaptureCodecs.getCodec("none"), 1024);
+        // streaming, so that every block is flushed to the file
+        writer.setStreaming(60000);
+        try {
+            writer.writeHeader("hmm", "Data Grid", rowMeta, new LinkedHashMap<String, String>());
+            for (int i = 0; i < 5000; i++) {
+                writer.writeRow(rowMeta, new Object[] { "Person " + (i % 10), (double) i });
+            }
+
+            // while being written, only an estimate is available
+            final KettleDataContext dc = new KettleDataContext(filename);
+            final Table table = dc.getDefaultSchema().getTableByName("Data Grid");
+            final long estimate = countAll(dc, table, true);
+            assertTrue("Estimate was " + estimate, estimate > 4000 && estimate <= 5000);
+        } finally {
+            writer.close();
+        }
+
+        final KettleDataContext dc = new KettleDataContext(filename);
+        final Table table = dc.getDefaultSchema().getTableByName("Data Grid");
+        assertEquals(5000, countAll(dc, table, false));
+        assertEquals(5000, countAll(dc, table, true));
+
+        final DataSet ds = dc.query().from(table).selectCount().where("age").lessThan(10).execute();
+        assertTrue(ds.next());
+        assertEquals(10, ((Number) ds.getRow().getValue(0)).intValue());
+        ds.close();
+    }
+
+    public void testReadTruncatedCapture() throws Exception {
+        final String filename = "target/truncated_data.kettlestream";
+
+        final RowMeta rowMeta = new RowMeta();
+        rowMeta.addValueMeta(new ValueMetaString("name"));
+
+        final Map<String, String> properties = new LinkedHashMap<>();
+        properties.put(KettleStreamFormat.PROPERTY_ROW_BUDGET, "100");
+        final KettleStreamWriter writer = new KettleStreamWriter(new FileOutputStream(filename));
+        writer.writeHeader("hmm", "Data Grid", rowMeta, properties);
+        for (int i = 0; i < 100; i++) {
+            writer.writeRow(rowMeta, new Object[] { "Person " + i });
+        }
+        writer.setFooterProperty(KettleStreamFormat.PROPERTY_TRUNCATED, "true");
+        writer.close();
+
+        final KettleDataContext dc = new KettleDataContext(filename);
+        assertTrue(dc.isTruncated());
+        assertFalse(dc.isSampled());
+        assertEquals("100", dc.getCaptureProperties().get(KettleStreamFormat.PROPERTY_ROW_BUDGET));
+        assertEquals(100, dc.getRowCount());
+        final Table table = dc.getDefaultSchema().getTableByName("Data Grid");
+        assertEquals("First 100 rows, the transformation was stopped at the row budget", table.getRemarks());
+        assertEquals(100, countAll(dc, table, false));
+    }
+
+    public void testReadCaptureSketch() throws Exception {
+        final String filename = "target/sketched_data.kettlestream";
+
+        final RowMeta rowMeta = new RowMeta();
+        rowMeta.addValueMeta(new ValueMetaInteger("id"));
+        rowMeta.addValueMeta(new ValueMetaString("name"));
+
+        final KettleStreamWriter writer =
+                new KettleStreamWriter(new FileOutputStream(filename), CaptureCodecs.getCodec("lz4"), 1024);
+        writer.setSketching(true);
+        writer.writeHeader("hmm", "Data Grid", rowMeta, new HashMap<String, String>());
+        final KettleStreamSegmentWriter copy0 = writer.createSegmentWriter(0);
+        final KettleStreamSegmentWriter copy1 = writer.createSegmentWriter(1);
+        for (int i = 0; i < 10000; i++) {
+            final String name = i % 10 == 0 ? null : (i % 10 == 1 ? " " : "Person " + (i % 1000));
+            (i % 2 == 0 ? copy0 : copy1).writeRow(rowMeta, new Object[] { (long) i, name });
+        }
+        writer.close();
+
+        final KettleDataContext dc = new KettleDataContext(filename);
+        final CaptureSketch sketch = dc.getCaptureSketch();
+        assertEquals(10000, sketch.getRowCount());
+
+        final Table table = dc.getDefaultSchema().getTableByName("Data Grid");
+        final ColumnSketch id = dc.getColumnSketch(table.getColumnByName("id"));
+        assertEquals(10000, id.getValueCount());
+        assertEquals(0L, id.getMinimum());
+        assertEquals(9999L, id.getMaximum());
+        assertFalse(id.hasStringStatistics());
+        assertEquals(10000, id.getDistinctCount(), 300);
+
+        final ColumnSketch name = dc.getColumnSketch(table.getColumnByName("name"));
+        assertEquals(1000, name.getNullCount());
+        assertEquals(1000, name.getBlankCount());
+        assertEquals(" ", name.getMinimum());
+        assertEquals("Person 999", name.getMaximum());
+        assertEquals(1, name.getMinLength());
+        assertEquals(10, name.getMaxLength());
+        assertEquals(1000, name.getLengthCount(ColumnSketch.getLengthBucket(1)));
+        assertEquals(8000, name.getLengthCount(ColumnSketch.getLengthBucket(8)));
+        assertEquals(801, name.getDistinctCount(), 30);
+
+        // the rows are still read as usual
+        assertEquals(10000, countAll(dc, table, false));
+
+        final KettleStreamWriter unsketchedWriter = new KettleStreamWriter(new FileOutputStream(filename));
+        unsketchedWriter.writeHeader("hmm", "Data Grid", rowMeta, new HashMap<String, String>());
+        unsketchedWriter.writeRow(rowMeta, new Object[] { 1L, "foo" });
+        unsketchedWriter.close();
+        assertNull(new KettleDataContext(filename).getCaptureSketch());
+    }
+
+    public void testReadCapturesOfSeveralSteps() throws Exception {
+        final RowMeta inputRowMeta = new RowMeta();
+        inputRowMeta.addValueMeta(new ValueMetaString("name"));
+        inputRowMeta.addValueMeta(new ValueMetaNumber("age"));
+        final RowMeta outputRowMeta = new RowMeta();
+        outputRowMeta.addValueMeta(new ValueMetaString("name"));
+        outputRowMeta.addValueMeta(new ValueMetaInteger("age_group"));
+
+        final List<String> filenames = new ArrayList<>();
+        filenames.add("target/input_step_data.kettlestream");
+        filenames.add("target/output_step_data.kettlestream");
+        final KettleStreamWriter inputWriter = new KettleStreamWriter(new FileOutputStream(filenames.get(0)),
+                CaptureCodecs.getCodec("none"), KettleStreamFormat.DEFAULT_BLOCK_SIZE);
+        final KettleStreamWriter outputWriter = new KettleStreamWriter(new FileOutputStream(filenames.get(1)),
+                CaptureCodecs.getCodec("none"), KettleStreamFormat.DEFAULT_BLOCK_SIZE);
+        try {
+            inputWriter.writeHeader("hmm", "Input", inputRowMeta, new LinkedHashMap<String, String>());
+            outputWriter.writeHeader("hmm", "Output", outputRowMeta, new LinkedHashMap<String, String>());
+            for (int i = 0; i < 300; i++) {
+                inputWriter.writeRow(inputRowMeta, new Object[] { "Person " + i, (double) (i % 90) });
+                if (i % 3 == 0) {
+                    outputWriter.writeRow(outputRowMeta, new Object[] { "Person " + i, (long) (i % 90 / 10) });
+                }
+            }
+        } finally {
+            inputWriter.close();
+            outputWriter.close();
+        }
+
+        final KettleDataContext dc = new KettleDataContext(KettleDataContext.joinFilenames(filenames));
+        assertEquals(filenames, KettleDataContext.splitFilenames(dc.getFilename()));
+        assertEquals("[information_schema, hmm]", dc.getSchemaNames().toString());
+        assertEquals("[Input, Output]", dc.getDefaultSchema().getTableNames().toString());
+        assertEquals(2, dc.getStepContexts().size());
+
+        final Table input = dc.getDefaultSchema().getTableByName("Input");
+        final Table output = dc.getDefaultSchema().getTableByName("Output");
+        assertEquals("[name, age]", input.getColumnNames().toString());
+        assertEquals("[name, age_group]", output.getColumnNames().toString());
+        assertEquals(300, countAll(dc, input, false));
+        assertEquals(100, countAll(dc, output, false));
+
+        try (DataSet ds = dc.query().from(output).select("name", "age_group").where("age_group").eq(8L).execute()) {
+            assertEquals(9, count(ds));
+        }
+        try (DataSet ds = dc.query().from(input).select("name").where("age").lessThan(1.0).execute()) {
+            assertTrue(ds.next());
+            assertEquals("Person 0", ds.getRow().getValue(0));
+        }
+
+        // schema navigation while building a job, before the steps are captured
+        final Map<String, RowMetaInterface> stepFields = new LinkedHashMap<>();
+        stepFields.put("Input", inputRowMeta);
+        stepFields.put("Output", outputRowMeta);
+        final KettleDataContext navigation = new KettleDataContext("hmm", stepFields);
+        assertEquals("[Input, Output]", navigation.getDefaultSchema().getTableNames().toString());
+        assertEquals("[name, age_group]",
+                navigation.getDefaultSchema().getTableByName("Output").getColumnNames().toString());
+    }
+
+    private static long countAll(KettleDataContext dc, Table table, boolean approximate) {
+        final Query query = dc.query().from(table).selectCount().toQuery();
+        query.getSelectClause().getItem(0).setFunctionApproximationAllowed(approximate);
+        try (DataSet ds = dc.executeQuery(query)) {
+            assertTrue(ds.next());
+            return ((Number) ds.getRow().getValue(0)).longValue();
+        }
+    }
+
+    public void testSkipBlocksUsingZoneMaps() throws Exception {
+        final String filename = "target/zone_mapped_data.kettlestream";
+
+        final RowMeta rowMeta = new RowMeta();
+        rowMeta.addValueMeta(new ValueMetaInteger("id"));
+        rowMeta.addValueMeta(new ValueMetaString("name"));
+
+        final KettleStreamWriter writer =
+                new KettleStreamWriter(new FileOutputStream(filename), CaptureCodecs.getCodec("lz4"), 1024);
+        try {
+            writer.writeHeader("hmm", "Orders", rowMeta, new LinkedHashMap<String, String>());
+            for (int i = 0; i < 10000; i++) {
+                writer.writeRow(rowMeta, new Object[] { (long) i, i % 1000 == 0 ? null : "Order " + i });
+            }
+        } finally {
+            writer.close();
+        }
+
+        final KettleDataContext dc = new KettleDataContext(filename);
+        final Table table = dc.getDefaultSchema().getTableByName("Orders");
+
+        assertEquals(10, count(dc.query().from(table).select("name").where("id").greaterThan(9989).execute()));
+        assertEquals(1, count(dc.query().from(table).select("name").where("id").eq(4242).execute()));
+        assertEquals(3, count(dc.query().from(table).selectAll().where("id").in(5L, 500L, 5000L).execute()));
+        assertEquals(10, count(dc.query().from(table).select("id").where("name").isNull().execute()));
+        assertEquals(0, count(dc.query().from(table).select("id").where("id").lessThan(0).execute()));
+        assertEquals(2, count(dc.query().from(table).select("id").where("id").lessThan(1).or("id").greaterThan(9998)
+                .execute()));
+
+        final DataSet ds = dc.query().from(table).select("name").where("id").greaterThanOrEquals(5000).firstRow(3)
+                .maxRows(2).execute();
+        assertTrue(ds.next());
+        assertEquals("Row[values=[Order 5002]]", ds.getRow().toString());
+        assertTrue(ds.next());
+        assertEquals("Row[values=[Order 5003]]", ds.getRow().toString());
+        assertFalse(ds.next());
+        ds.close();
+
+        // a selective filter only reads a few of the blocks
+        final Query query = dc.query().from(table).select("name").where("id").greaterThan(9989).toQuery();
+        try (RandomAccessFile file = new RandomAccessFile(filename, "r")) {
+            final KettleStreamFooter footer = KettleStreamFooter.read(file);
+            final boolean[] selectedBlocks = new KettleZoneMapFilter(rowMeta).selectBlocks(
+                    query.getWhereClause().getItems(), footer.getBlocks(), footer.readZoneMaps(file, rowMeta));
+            int selectedCount = 0;
+            for (boolean selected : selectedBlocks) {
+                selectedCount += selected ? 1 : 0;
+            }
+            assertTrue(footer.getBlocks().size() > 50);
+            assertTrue(selectedCount <= 2);
+        }
+    }
+
+    private static int count(DataSet ds) {
+        int count = 0;
+        while (ds.next()) {
+            count++;
+        }
+        ds.close();
+        return count;
+    }
+
+    public void testDictionaryEncodedStrings() throws Exception {
+        final String filename = "target/dictionary_data.kettlestream";
+        final String[] countries = { "DK", "NL", "US", "DE" };
+
+        final RowMeta rowMeta = new RowMeta();
+        rowMeta.addValueMeta(new ValueMetaString("country"));
+        rowMeta.addValueMeta(new ValueMetaString("reference"));
+
+        final ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        final DataOutputStream plainOutputStream = new DataOutputStream(plain);
+        final KettleStreamWriter writer =
+                new KettleStreamWriter(new FileOutputStream(filename), CaptureCodecs.getCodec("none"), 1024);
+        try {
+            writer.writeHeader("hmm", "Customers", rowMeta, new LinkedHashMap<String, String>());
+            for (int i = 0; i < 5000; i++) {
+                final Object[] row =
+                        new Object[] { i % 7 == 0 ? null : new String(countries[i % 4]), "Reference " + i };
+                writer.writeRow(rowMeta, row);
+                rowMeta.writeData(plainOutputStream, row);
+            }
+        } finally {
+            writer.close();
+        }
+        assertTrue(new File(filename).length() < plain.size());
+
+        final KettleDataContext dc = new KettleDataContext(filename);
+        final Table table = dc.getDefaultSchema().getTableByName("Customers");
+
+        // start in the middle of a block, the dictionary entries of the skipped rows are still needed
+        final DataSet ds = dc.query().from(table).select("country", "reference").firstRow(1001).execute();
+        final Map<String, Object> canonical = new HashMap<>();
+        int i = 1000;
+        while (ds.next()) {
+            final Object country = ds.getRow().getValue(0);
+            assertEquals(i % 7 == 0 ? null : countries[i % 4], country);
+            assertEquals("Reference " + i, ds.getRow().getValue(1));
+            if (country != null) {
+                canonical.putIfAbsent((String) country, country);
+                assertSame(canonical.get(country), country);
+            }
+            i++;
+        }
+        ds.close();
+        assertEquals(5000, i);
+    }
+
+    public void testDictionaryEncodingAdapts() throws Exception {
+        final RowMeta rowMeta = new RowMeta();
+        rowMeta.addValueMeta(new ValueMetaString("code"));
+
+        // a block with a distinct value per row turns the dictionary off, a block with few values turns it back on
+        final KettleDictionaryEncoder encoder = new KettleDictionaryEncoder(rowMeta);
+        assertTrue(encodeBlock(encoder, rowMeta, 0, 100, 100));
+        assertFalse(encodeBlock(encoder, rowMeta, 100, 100, 3));
+        assertTrue(encodeBlock(encoder, rowMeta, 200, 100, 3));
+        assertTrue(encodeBlock(encoder, rowMeta, 300, 100, 100));
+        assertFalse(encodeBlock(encoder, rowMeta, 400, 100, 100));
+        assertFalse(encodeBlock(encoder, rowMeta, 500, 100, 100));
+
+        // the reader follows the encoding from block to block
+        final String filename = "target/adaptive_dictionary_data.kettlestream";
+        final KettleStreamWriter writer =
+                new KettleStreamWriter(new FileOutputStream(filename), CaptureCodecs.getCodec("none"), 1024);
+        try {
+            writer.writeHeader("hmm", "Codes", rowMeta, new LinkedHashMap<String, String>());
+            for (int i = 0; i < 3000; i++) {
+                writer.writeRow(rowMeta, new Object[] { code(i, i < 500 ? 500 : 3) });
+            }
+        } finally {
+            writer.close();
+        }
+        final KettleDataContext dc = new KettleDataContext(filename);
+        final Table table = dc.getDefaultSchema().getTableByName("Codes");
+        final DataSet ds = dc.query().from(table).select("code").execute();
+        int i = 0;
+        while (ds.next()) {
+            assertEquals(code(i, i < 500 ? 500 : 3), ds.getRow().getValue(0));
+            i++;
+        }
+        ds.close();
+        assertEquals(3000, i);
+    }
+
+    private static String code(int row, int distinctValues) {
+        return "Code " + row % distinctValues;
+    }
+
+    /**
+     * @return whether the block was dictionary encoded
+     */
+    private static boolean encodeBlock(KettleDictionaryEncoder encoder, RowMetaInterface rowMeta, int firstRow,
+            int rowCount, int distinctValues) throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream outputStream = new DataOutputStream(bytes);
+        encoder.startBlock(outputStream);
+        for (int i = firstRow; i < firstRow + rowCount; i++) {
+            encoder.writeRow(outputStream, new Object[] { code(i, distinctValues) });
+        }
+        encoder.endBlock(rowCount);
+        return bytes.toByteArray()[0] != 0;
+    }
 }
@@ -0,0 +1,103 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.io.FileOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+
+import org.apache.metamodel.data.DataSet;
+import org.apache.metamodel.data.Row;
+import org.apache.metamodel.schema.Table;
+import org.pentaho.di.core.plugins.PluginRegistry;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaPluginType;
+import org.pentaho.di.profiling.datacleaner.codec.CaptureCodecs;
+
+import junit.framework.TestCase;
+
+/**
+ * Measures the bytes allocated while reading a wide capture, with and without row reuse.
+ */
+public class KettleDataSetAllocationTest extends TestCase {
+
+    private static final int COLUMNS = 100;
+    private static final int ROWS = 20000;
+
+    public void testReusedRowsAllocateLess() throws Exception {
+        final com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threadBean.isThreadAllocatedMemorySupported()) {
+            return;
+        }
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        ValueMetaPluginType pluginType = ValueMetaPluginType.getInstance();
+        pluginType.searchPlugins();
+
+        PluginRegistry.init();
+        PluginRegistry.addPluginType(pluginType);
+
+        final String filename = "target/wide_integer_data.kettlestream";
+
+        final RowMeta rowMeta = new RowMeta();
+        for (int i = 0; i < COLUMNS; i++) {
+            rowMeta.addValueMeta(new ValueMetaInteger("column" + i));
+        }
+
+        final KettleStreamWriter writer =
+                new KettleStreamWriter(new FileOutputStream(filename), CaptureCodecs.getCodec("none"), 1024);
+        try {
+            writer.writeHeader("hmm", "Wide", rowMeta, new LinkedHashMap<String, String>());
+            for (int i = 0; i < ROWS; i++) {
+                final Object[] row = new Object[COLUMNS];
+                for (int j = 0; j < COLUMNS; j++) {
+                    row[j] = (long) ((i + j) % 100);
+                }
+                writer.writeRow(rowMeta, row);
+            }
+        } finally {
+            writer.close();
+        }
+
+        final KettleDataContext dc = new KettleDataContext(filename);
+
+        // warm up both paths before measuring
+        readAll(dc, false);
+        readAll(dc, true);
+
+        final long fresh = readAll(dc, false);
+        final long reused = readAll(dc, true);
+
+        // a fresh row holds at least a reference per column
+        assertTrue("Allocated " + fresh + " bytes with fresh rows and " + reused + " bytes with reused rows",
+                fresh - reused >= (long) ROWS * COLUMNS * 4);
+    }
+
+    /**
+     * @return the number of bytes allocated by this thread while reading all rows
+     */
+    private long readAll(KettleDataContext dc, boolean reuseRows) {
+        final com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+
+        dc.setReuseRows(reuseRows);
+        final Table table = dc.getDefaultSchema().getTableByName("Wide");
+
+        final long before = threadBean.getThreadAllocatedBytes(threadId);
+        long sum = 0;
+        int count = 0;
+        try (DataSet ds = dc.query().from(table).selectAll().execute()) {
+            while (ds.next()) {
+                final Row row = ds.getRow();
+                sum += (Long) row.getValue(COLUMNS - 1);
+                count++;
+            }
+        }
+        final long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals(ROWS, count);
+        assertTrue(sum > 0);
+        return allocated;
+    }
+}
@@ -0,0 +1,51 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.pentaho.di.profiling.datacleaner.codec.CaptureCodecs;
+import org.pentaho.di.profiling.datacleaner.codec.NoCompressionCodec;
+
+import junit.framework.TestCase;
+
+public class PrefetchingBlockReaderTest extends TestCase {
+
+    public void testCorruptBlock() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        for (int i = 0; i < 3; i++) {
+            writeBlock(out, 4, new byte[] { 1, 2, 3, 4 });
+        }
+        // a negative length, which fails with a runtime exception
+        writeBlock(out, -5, new byte[] { 1, 2, 3, 4 });
+        out.flush();
+
+        // a depth of 1, so the queue is full when the corrupt block is read
+        try (PrefetchingBlockReader reader = new PrefetchingBlockReader(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())),
+                CaptureCodecs.getCodec(NoCompressionCodec.NAME), null, 0, 1)) {
+            Thread.sleep(100);
+            for (int i = 0; i < 3; i++) {
+                assertEquals(4, reader.readBlock().length);
+            }
+            try {
+                reader.readBlock();
+                fail("Exception expected");
+            } catch (IOException e) {
+                assertEquals("Failed to read capture block", e.getMessage());
+                assertTrue(e.getCause() instanceof NegativeArraySizeException);
+            }
+            assertNull(reader.readBlock());
+        }
+    }
+
+    private static void writeBlock(DataOutputStream out, int length, byte[] payload) throws IOException {
+        out.writeInt(1);
+        out.writeInt(length);
+        out.writeInt(payload.length);
+        out.write(payload);
+    }
+}
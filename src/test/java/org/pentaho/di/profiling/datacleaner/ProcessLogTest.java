@@ -0,0 +1,109 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+import junit.framework.TestCase;
+
+public class ProcessLogTest extends TestCase {
+
+    private final List<String> messages = new ArrayList<>();
+
+    public void testBatchAndSummarize() throws Exception {
+        final StringBuilder output = new StringBuilder();
+        output.append("Starting job\n");
+        for (int i = 0; i < 1000; i++) {
+            output.append("WARN Invalid value in row ").append(i).append('\n');
+        }
+        for (int i = 1; i <= 10; i++) {
+            output.append(i * 1000).append(" rows processed from table: orders\n");
+        }
+        output.append("Component 'Value distribution' finished\n");
+        for (int i = 0; i < 200; i++) {
+            output.append("Line ").append((char) ('a' + i % 26)).append(i / 26).append('\n');
+        }
+        output.append("Job finished\n");
+
+        final File spillFile = File.createTempFile("ProcessLogTest", ".log");
+        try {
+            final DataCleanerProgress progress = new DataCleanerProgress();
+            final ProcessLog processLog = new ProcessLog(createLog(), spillFile, progress, 50, 1024 * 1024);
+            processLog.pump(new ByteArrayInputStream(output.toString().getBytes(StandardCharsets.UTF_8)), false);
+            processLog.join();
+
+            // the full log is spilled
+            final List<String> spilled = Files.readAllLines(spillFile.toPath(), StandardCharsets.UTF_8);
+            assertEquals(1213, spilled.size());
+            assertEquals("WARN Invalid value in row 999", spilled.get(1000));
+
+            final String logged = String.join("\n", messages);
+            assertTrue(logged, logged.contains("basic: DC: Starting job\nDC: WARN Invalid value in row 0\n"
+                    + "DC: (similar line repeated 999 more times)"));
+            assertFalse(logged, logged.contains("DC: 1000 rows processed"));
+            assertTrue(logged, logged.contains("more lines not logged"));
+            assertTrue(logged, logged.contains("DC progress: 10000 rows processed, 1 components finished, "
+                    + "job finished"));
+            assertTrue(logged, logged.contains("the full DataCleaner log is in " + spillFile));
+            // far fewer log calls than lines
+            assertTrue(messages.toString(), messages.size() < 20);
+
+            assertEquals(10000, progress.getRowsProcessed());
+            assertEquals(10000, progress.getRowsProcessed("orders"));
+            assertEquals("[Value distribution]", progress.getFinishedComponents().toString());
+            assertTrue(progress.isJobFinished());
+        } finally {
+            spillFile.delete();
+        }
+    }
+
+    public void testErrorStream() throws Exception {
+        final DataCleanerProgress progress = new DataCleanerProgress();
+        final ProcessLog processLog = new ProcessLog(createLog(), null, progress);
+        processLog.pump(new ByteArrayInputStream(("Exception in thread main\n"
+                + "Failed after 500 rows processed from table: orders\n").getBytes(StandardCharsets.UTF_8)), true);
+        processLog.join();
+        assertEquals("[error: DC: Exception in thread main\n"
+                + "DC: Failed after 500 rows processed from table: orders]", messages.toString());
+        assertEquals(0, progress.getRowsProcessed());
+    }
+
+    public void testProgress() throws Exception {
+        final DataCleanerProgress progress = new DataCleanerProgress();
+        assertFalse(progress.parse("Loading configuration"));
+        assertTrue(progress.parse("Progress of customers: 1,500 rows processed"));
+        assertTrue(progress.parse("500 rows processed from table: orders"));
+        assertTrue(progress.parse("Progress of customers: 1,000 rows processed"));
+        assertTrue(progress.parse("Analyzer String analyzer has finished"));
+        assertEquals(2000, progress.getRowsProcessed());
+        assertEquals(1500, progress.getRowsProcessed("customers"));
+        assertEquals("[String analyzer]", progress.getFinishedComponents().toString());
+        assertFalse(progress.isJobFinished());
+
+        assertFalse(progress.parse("99999999999999999999 rows processed from table: orders"));
+        assertEquals(500, progress.getRowsProcessed("orders"));
+    }
+
+    private LogChannelInterface createLog() {
+        return (LogChannelInterface) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { LogChannelInterface.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("logBasic")) {
+                            messages.add("basic: " + args[0]);
+                        } else if (method.getName().equals("logError")) {
+                            messages.add("error: " + args[0]);
+                        }
+                        return null;
+                    }
+                });
+    }
+}
@@ -0,0 +1,58 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+
+import junit.framework.TestCase;
+
+public class RowRingBufferTest extends TestCase {
+
+    public void testCapacity() throws Exception {
+        assertEquals(8, new RowRingBuffer(5).getCapacity());
+        assertEquals(8, new RowRingBuffer(8).getCapacity());
+        assertEquals(16, new RowRingBuffer(9).getCapacity());
+    }
+
+    public void testWrapAround() throws Exception {
+        final RowMetaInterface rowMeta = new RowMeta();
+        rowMeta.addValueMeta(new ValueMetaInteger("id"));
+        final RowRingBuffer queue = new RowRingBuffer(8);
+        final List<Object> drained = new ArrayList<>();
+        final RowRingBuffer.RowConsumer consumer = (meta, row) -> drained.add(row[0]);
+
+        long next = 0;
+        for (int i = 0; i < 8; i++) {
+            assertTrue(queue.offer(rowMeta, new Object[] { next++ }));
+        }
+        assertFalse(queue.offer(rowMeta, new Object[] { next }));
+        assertEquals(8, queue.getHighWaterMark());
+
+        // free some slots at the start, the next rows go around the end of the array
+        assertEquals(3, queue.drain(consumer, 3));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(queue.offer(rowMeta, new Object[] { next++ }));
+        }
+        assertFalse(queue.offer(rowMeta, new Object[] { next }));
+
+        // several times around the array
+        for (int round = 0; round < 5; round++) {
+            assertEquals(5, queue.drain(consumer, 5));
+            for (int i = 0; i < 5; i++) {
+                assertTrue(queue.offer(rowMeta, new Object[] { next++ }));
+            }
+        }
+        assertEquals(8, queue.drain(consumer, 100));
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.drain(consumer, 100));
+
+        assertEquals(next, drained.size());
+        for (int i = 0; i < drained.size(); i++) {
+            assertEquals(Long.valueOf(i), drained.get(i));
+        }
+        assertEquals(8, queue.getHighWaterMark());
+    }
+}
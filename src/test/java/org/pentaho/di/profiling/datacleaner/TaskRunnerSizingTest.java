@@ -0,0 +1,36 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import junit.framework.TestCase;
+
+public class TaskRunnerSizingTest extends TestCase {
+
+    public void testSize() throws Exception {
+        // one capture, few analyzers on a big machine: no idle threads
+        TaskRunnerSizing sizing = TaskRunnerSizing.size(64, 0, "foo", 4, 1, TaskRunnerSizing.Source.CAPTURE);
+        assertEquals(5, sizing.getThreads());
+        assertEquals("DataCleaner task runner: 5 threads, 1 for reading 1 capture(s) sequentially and "
+                + "4 for 4 analyzer(s) on 64 processor(s). Set foo to override.", sizing.getReport());
+
+        // many analyzers on a laptop: no oversubscription
+        sizing = TaskRunnerSizing.size(4, 0, "foo", 40, 2, TaskRunnerSizing.Source.CAPTURE);
+        assertEquals(6, sizing.getThreads());
+
+        sizing = TaskRunnerSizing.size(4, 0, "foo", 40, 1, TaskRunnerSizing.Source.DATABASE);
+        assertEquals(6, sizing.getThreads());
+
+        // analyzers not known yet
+        sizing = TaskRunnerSizing.size(8, 0, "foo", 0, 1, TaskRunnerSizing.Source.CAPTURE);
+        assertEquals(9, sizing.getThreads());
+
+        sizing = TaskRunnerSizing.size(8, 30, "foo", 4, 1, TaskRunnerSizing.Source.CAPTURE);
+        assertEquals(30, sizing.getThreads());
+        assertEquals("DataCleaner task runner: 30 threads, set by foo", sizing.getReport());
+        assertEquals("<multithreaded-taskrunner max-threads=\"30\" />", sizing.getTaskRunnerXml());
+    }
+
+    public void testCountAnalyzers() throws Exception {
+        assertEquals(0, TaskRunnerSizing.countAnalyzers("<job><analysis></analysis></job>"));
+        assertEquals(2, TaskRunnerSizing.countAnalyzers("<job><analysis><analyzer><descriptor ref=\"a\"/></analyzer>"
+                + "<analyzer name=\"b\">\n</analyzer><analyzers-foo/></analysis></job>"));
+    }
+}
@@ -0,0 +1,39 @@
+package org.pentaho.di.profiling.datacleaner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+public class WorkerProtocolTest extends TestCase {
+
+    public void testReadString() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        WorkerProtocol.writeString(out, "token");
+        WorkerProtocol.writeString(out, null);
+        WorkerProtocol.writeString(out, "\u00e9t\u00e9");
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals("token", WorkerProtocol.readString(in, WorkerProtocol.MAX_TOKEN_LENGTH));
+        assertNull(WorkerProtocol.readString(in));
+        assertEquals("\u00e9t\u00e9", WorkerProtocol.readString(in));
+    }
+
+    public void testInvalidLength() throws Exception {
+        for (int length : new int[] { -2, Integer.MIN_VALUE, WorkerProtocol.MAX_TOKEN_LENGTH + 1, Integer.MAX_VALUE }) {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            new DataOutputStream(bytes).writeInt(length);
+            try {
+                WorkerProtocol.readString(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())),
+                        WorkerProtocol.MAX_TOKEN_LENGTH);
+                fail("Exception expected for length " + length);
+            } catch (IOException e) {
+                assertEquals("Invalid string length: " + length, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.pentaho.di.profiling.datacleaner.codec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class CaptureCodecsTest extends TestCase {
+
+    public void testGetCodec() throws Exception {
+        assertEquals("none", CaptureCodecs.getCodec(null).getName());
+        assertEquals("lz4", CaptureCodecs.getCodec("LZ4").getName());
+        assertEquals("deflate", CaptureCodecs.getCodec(" deflate ").getName());
+        try {
+            CaptureCodecs.getCodec("foo");
+            fail("Exception expected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("No such capture codec: foo. Available codecs: [none, lz4, deflate]", e.getMessage());
+        }
+    }
+
+    public void testRoundTrip() throws Exception {
+        final Random random = new Random(1234);
+
+        final byte[] randomBytes = new byte[100000];
+        random.nextBytes(randomBytes);
+
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            sb.append("DK;Copenhagen;ACTIVE;").append(random.nextInt(100)).append('\n');
+        }
+        final byte[] repetitiveBytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+        final byte[] runBytes = new byte[70000];
+        Arrays.fill(runBytes, (byte) 'x');
+
+        for (CaptureCodec codec : CaptureCodecs.getCodecs()) {
+            assertRoundTrip(codec, new byte[0]);
+            assertRoundTrip(codec, "hello".getBytes(StandardCharsets.UTF_8));
+            assertRoundTrip(codec, randomBytes);
+            assertRoundTrip(codec, runBytes);
+            final int compressedLength = assertRoundTrip(codec, repetitiveBytes);
+            if (!NoCompressionCodec.NAME.equals(codec.getName())) {
+                assertTrue(codec.getName() + " did not compress: " + compressedLength,
+                        compressedLength < repetitiveBytes.length / 3);
+            }
+        }
+    }
+
+    private int assertRoundTrip(CaptureCodec codec, byte[] bytes) throws Exception {
+        final byte[] compressed = new byte[codec.getMaxCompressedLength(bytes.length)];
+        final int compressedLength = codec.compress(bytes, bytes.length, compressed);
+        assertTrue(compressedLength <= compressed.length);
+
+        final byte[] decompressed = new byte[bytes.length];
+        codec.decompress(compressed, compressedLength, decompressed, bytes.length);
+        assertTrue(codec.getName(), Arrays.equals(bytes, decompressed));
+        return compressedLength;
+    }
+}
@@ -0,0 +1,92 @@
+package org.pentaho.di.profiling.datacleaner.sampling;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class SamplingPolicyTest extends TestCase {
+
+    public void testCreate() throws Exception {
+        assertNull(SamplingPolicies.create(null, 10, 0.1, 1));
+        assertNull(SamplingPolicies.create("None", 10, 0.1, 1));
+        assertEquals("{sampling=reservoir, sampling.seed=1, sampling.size=10}",
+                SamplingPolicies.create("reservoir", 10, 0.1, 1).getProperties().toString());
+        try {
+            SamplingPolicies.create("foo", 10, 0.1, 1);
+            fail("Exception expected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("No such sampling policy: foo. Available policies: [none, first, bernoulli, reservoir]",
+                    e.getMessage());
+        }
+    }
+
+    public void testFirstRows() throws Exception {
+        final SamplingPolicy policy = new FirstRowsSamplingPolicy(5, 1);
+        final RowSampler sampler1 = policy.createSampler(0);
+        final RowSampler sampler2 = policy.createSampler(1);
+        int accepted = 0;
+        for (int i = 0; i < 10; i++) {
+            accepted += sampler1.offer(null, new Object[] { i }) ? 1 : 0;
+            accepted += sampler2.offer(null, new Object[] { i }) ? 1 : 0;
+        }
+        assertEquals(5, accepted);
+        assertEquals(20, sampler1.getRowsSeen() + sampler2.getRowsSeen());
+    }
+
+    public void testBernoulliIsReproducible() throws Exception {
+        final List<Integer> sample1 = bernoulliSample(42);
+        final List<Integer> sample2 = bernoulliSample(42);
+        assertEquals(sample1, sample2);
+        assertFalse(sample1.equals(bernoulliSample(43)));
+        // 10% of 100000 rows, within a generous margin
+        assertTrue(sample1.size() > 9000 && sample1.size() < 11000);
+    }
+
+    private List<Integer> bernoulliSample(long seed) {
+        final RowSampler sampler = new BernoulliSamplingPolicy(0.1, seed).createSampler(0);
+        final List<Integer> sample = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            if (sampler.offer(null, new Object[] { i })) {
+                sample.add(i);
+            }
+        }
+        return sample;
+    }
+
+    public void testReservoirIsUniform() throws Exception {
+        // sample 10 of 100 rows many times, every row should be picked about 1000 times
+        final int[] picks = new int[100];
+        for (int seed = 0; seed < 10000; seed++) {
+            final RowSampler sampler = new ReservoirSamplingPolicy(10, seed).createSampler(0);
+            for (int i = 0; i < 100; i++) {
+                assertFalse(sampler.offer(null, new Object[] { i }));
+            }
+            assertEquals(10, sampler.getRetainedRows().size());
+            for (Object[] row : sampler.getRetainedRows()) {
+                picks[(Integer) row[0]]++;
+            }
+        }
+        for (int i = 0; i < picks.length; i++) {
+            assertTrue("Row " + i + " picked " + picks[i] + " times", picks[i] > 850 && picks[i] < 1150);
+        }
+    }
+
+    public void testReservoirMergesCopies() throws Exception {
+        final ReservoirSamplingPolicy policy = new ReservoirSamplingPolicy(100, 7);
+        final RowSampler sampler1 = policy.createSampler(0);
+        final RowSampler sampler2 = policy.createSampler(1);
+        for (int i = 0; i < 9000; i++) {
+            sampler1.offer(null, new Object[] { i });
+        }
+        for (int i = 0; i < 50; i++) {
+            sampler2.offer(null, new Object[] { i });
+        }
+
+        final List<List<Object[]>> rows = policy.selectRetainedRows(Arrays.asList(sampler1, sampler2));
+        assertEquals(100, rows.get(0).size() + rows.get(1).size());
+        // the second copy saw less than 1% of the rows
+        assertTrue(rows.get(1).size() < 5);
+    }
+}
@@ -0,0 +1,75 @@
+package org.pentaho.di.profiling.datacleaner.sketch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.math.BigDecimal;
+
+import junit.framework.TestCase;
+
+public class HyperLogLogTest extends TestCase {
+
+    public void testEstimate() throws Exception {
+        final HyperLogLog sketch = new HyperLogLog();
+        assertEquals(0, sketch.estimate());
+        for (int i = 0; i < 10; i++) {
+            sketch.add("foo" + i);
+            sketch.add("foo" + i);
+        }
+        assertEquals(10, sketch.estimate());
+
+        for (long i = 0; i < 1000000; i++) {
+            sketch.add(i);
+        }
+        assertEquals(1000010, sketch.estimate(), 1000010 * 0.05);
+    }
+
+    public void testNumbersAreComparedByValue() throws Exception {
+        final HyperLogLog sketch = new HyperLogLog();
+        sketch.add(new BigDecimal("1.0"));
+        sketch.add(new BigDecimal("1.00"));
+        sketch.add(BigDecimal.ZERO);
+        sketch.add(new BigDecimal("0.000"));
+        sketch.add(0.0);
+        sketch.add(-0.0);
+        assertEquals(3, sketch.estimate());
+    }
+
+    public void testMergeAndSerialize() throws Exception {
+        final HyperLogLog copy0 = new HyperLogLog();
+        final HyperLogLog copy1 = new HyperLogLog();
+        final HyperLogLog all = new HyperLogLog();
+        for (int i = 0; i < 20000; i++) {
+            (i % 2 == 0 ? copy0 : copy1).add("value " + (i % 15000));
+            all.add("value " + (i % 15000));
+        }
+        copy0.merge(copy1);
+        assertEquals(all, copy0);
+        assertEquals(15000, copy0.estimate(), 15000 * 0.05);
+
+        // dense
+        assertEquals(all, roundTrip(all));
+
+        // sparse
+        final HyperLogLog few = new HyperLogLog();
+        few.add("foo");
+        few.add("bar");
+        final HyperLogLog readFew = roundTrip(few);
+        assertEquals(few, readFew);
+        assertEquals(2, readFew.estimate());
+
+        try {
+            copy0.merge(new HyperLogLog(10));
+            fail("Exception expected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Cannot merge a sketch of precision 10 into one of precision 12", e.getMessage());
+        }
+    }
+
+    private static HyperLogLog roundTrip(HyperLogLog sketch) throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        sketch.write(new DataOutputStream(bytes));
+        return HyperLogLog.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+}
@@ -0,0 +1,65 @@
+package org.pentaho.di.profiling.datacleaner.sketch;
+
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class SpaceSavingTest extends TestCase {
+
+    public void testTopValues() throws Exception {
+        final SpaceSaving<String> summary = new SpaceSaving<>(20);
+        final Random random = new Random(42);
+        int frequent = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (random.nextInt(10) < 3) {
+                summary.add("frequent");
+                frequent++;
+            } else if (random.nextInt(10) < 2) {
+                summary.add("common");
+            } else {
+                summary.add("rare " + random.nextInt(100000));
+            }
+        }
+        assertEquals(100000, summary.getTotalCount());
+
+        final List<SpaceSaving.Counter<String>> top = summary.getTop(2);
+        assertEquals("frequent", top.get(0).getValue());
+        assertEquals("common", top.get(1).getValue());
+        final SpaceSaving.Counter<String> counter = top.get(0);
+        assertTrue(counter.getCount() - counter.getError() <= frequent && frequent <= counter.getCount());
+    }
+
+    public void testEvictLowestCount() throws Exception {
+        final SpaceSaving<String> summary = new SpaceSaving<>(3);
+        summary.add("a", 5);
+        summary.add("b", 1);
+        summary.add("c", 3);
+        summary.add("b", 5);
+
+        // c has the lowest count
+        summary.add("d");
+        assertEquals("[b=6, a=5, d=4(+-3)]", summary.getTop(3).toString());
+
+        // weighted adds reorder the counters
+        summary.add("a", 10);
+        summary.add("e", 3);
+        assertEquals("[a=15, e=7(+-4), b=6]", summary.getTop(3).toString());
+        summary.add("f", 2);
+        assertEquals("[a=15, f=8(+-6), e=7(+-4)]", summary.getTop(3).toString());
+        assertEquals(30, summary.getTotalCount());
+    }
+
+    public void testExactWhenFewValues() throws Exception {
+        final SpaceSaving<Integer> summary = new SpaceSaving<>(10);
+        for (int i = 0; i < 1000; i++) {
+            summary.add(i % 4, 2);
+        }
+        final List<SpaceSaving.Counter<Integer>> top = summary.getTop(10);
+        assertEquals(4, top.size());
+        for (SpaceSaving.Counter<Integer> counter : top) {
+            assertEquals(500, counter.getCount());
+            assertEquals(0, counter.getError());
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.pentaho.di.profiling.datacleaner.sketch;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TDigestTest extends TestCase {
+
+    public void testQuantiles() throws Exception {
+        final TDigest digest = new TDigest();
+        assertTrue(Double.isNaN(digest.quantile(0.5)));
+
+        final Random random = new Random(42);
+        final double[] values = new double[200000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextGaussian() * 10 + 100;
+            digest.add(values[i]);
+        }
+        Arrays.sort(values);
+
+        assertEquals(values.length, digest.getCount());
+        assertEquals(values[0], digest.getMin());
+        assertEquals(values[values.length - 1], digest.getMax());
+        assertEquals(values[0], digest.quantile(0));
+        assertEquals(values[values.length - 1], digest.quantile(1));
+        assertTrue(digest.getCentroidCount() < 2 * TDigest.DEFAULT_COMPRESSION);
+
+        for (double q : new double[] { 0.01, 0.05, 0.25, 0.5, 0.75, 0.95, 0.99 }) {
+            // the estimate lies between the values at the ranks allowed by the error bound
+            final double error = digest.rankError(q);
+            assertTrue("Rank error " + error + " at " + q, error < 0.05);
+            final double estimate = digest.quantile(q);
+            final double low = values[(int) Math.max(0, (q - error) * values.length)];
+            final double high = values[(int) Math.min(values.length - 1, (q + error) * values.length)];
+            assertTrue(low + " <= " + estimate + " <= " + high + " at " + q, low <= estimate && estimate <= high);
+        }
+    }
+
+    public void testMerge() throws Exception {
+        final TDigest copy0 = new TDigest();
+        final TDigest copy1 = new TDigest();
+        for (int i = 0; i < 10000; i++) {
+            (i % 2 == 0 ? copy0 : copy1).add(i);
+        }
+        copy0.merge(copy1);
+        assertEquals(10000, copy0.getCount());
+        assertEquals(0.0, copy0.getMin());
+        assertEquals(9999.0, copy0.getMax());
+        assertEquals(5000, copy0.quantile(0.5), 100);
+        assertEquals(9000, copy0.quantile(0.9), 100);
+    }
+
+    public void testWeightedValues() throws Exception {
+        final TDigest digest = new TDigest();
+        final List<Double> values = Arrays.asList(1.0, 2.0, 3.0);
+        for (double value : values) {
+            digest.add(value, 100);
+        }
+        assertEquals(300, digest.getCount());
+        assertEquals(2.0, digest.quantile(0.5), 0.5);
+        assertEquals(1.0, digest.getMin());
+        assertEquals(3.0, digest.getMax());
+    }
+}
@@ -0,0 +1,230 @@
+package plugin;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.pentaho.di.core.Result;
+import org.pentaho.di.core.ResultFile;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.core.variables.VariableSpace;
+import org.pentaho.di.core.variables.Variables;
+import org.pentaho.di.core.vfs.KettleVFS;
+
+import junit.framework.TestCase;
+
+import plugin.EveryRowExecution.JobRun;
+
+public class EveryRowExecutionTest extends TestCase {
+
+    private static final String OUTPUT_FILENAME = "${dir}/${name}.analysis.result.dat";
+
+    private final RowMetaInterface rowMeta = new RowMeta();
+    private final VariableSpace parentSpace = new Variables();
+
+    @Override
+    protected void setUp() throws Exception {
+        rowMeta.addValueMeta(new ValueMetaString("name"));
+        rowMeta.addValueMeta(new ValueMetaInteger("id"));
+        parentSpace.setVariable("dir", "/data");
+    }
+
+    public void testNoRows() throws Exception {
+        final Result result = execute(resultOf(), 2, false, (space, processors) -> {
+            throw new AssertionError("No run expected");
+        });
+        assertEquals(0, result.getExitStatus());
+        assertTrue(result.getResult());
+    }
+
+    public void testVariablesOfRows() throws Exception {
+        final Map<String, String> outputFilenames = new ConcurrentHashMap<>();
+        final Result result = execute(resultOf("customers", "orders", "products"), 2, false,
+                (space, processors) -> {
+                    final String outputFilename = space.environmentSubstitute(OUTPUT_FILENAME);
+                    outputFilenames.put(space.getVariable("id"), outputFilename);
+                    return new JobRun(0, outputFilename, null, 10);
+                });
+
+        assertEquals(3, outputFilenames.size());
+        assertEquals("/data/customers.analysis.result.dat", outputFilenames.get("1"));
+        assertEquals("/data/orders.analysis.result.dat", outputFilenames.get("2"));
+        assertEquals("/data/products.analysis.result.dat", outputFilenames.get("3"));
+        assertEquals(0, result.getExitStatus());
+        assertTrue(result.getResult());
+        assertEquals(30, result.getNrLinesRead());
+    }
+
+    public void testSameOutputFile() throws Exception {
+        try {
+            execute(resultOf("customers", "orders", "customers"), 2, false, (space, processors) -> {
+                throw new AssertionError("No run expected");
+            });
+            fail("Exception expected");
+        } catch (KettleException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Result rows 1 and 3 write to the same output file"));
+        }
+
+        // one after the other, the later rows overwrite the output file
+        final AtomicInteger runs = new AtomicInteger();
+        final Result result = execute(resultOf("customers", "orders", "customers"), 1, false,
+                (space, processors) -> {
+                    runs.incrementAndGet();
+                    return new JobRun(0, space.environmentSubstitute(OUTPUT_FILENAME), null, 0);
+                });
+        assertEquals(3, runs.get());
+        assertTrue(result.getResult());
+    }
+
+    public void testFailFast() throws Exception {
+        final List<String> runs = Collections.synchronizedList(new ArrayList<String>());
+        final EveryRowExecution.Runner runner = (space, processors) -> {
+            final String name = space.getVariable("name");
+            runs.add(name);
+            return new JobRun("orders".equals(name) ? 3 : 0, space.environmentSubstitute(OUTPUT_FILENAME), null, 0);
+        };
+
+        final Result result =
+                execute(resultOf("customers", "orders", "products", "suppliers"), 1, true, runner);
+        assertEquals("[customers, orders]", runs.toString());
+        assertEquals(3, result.getExitStatus());
+        assertEquals(1, result.getNrErrors());
+        assertFalse(result.getResult());
+
+        // without fail fast the remaining rows still run
+        runs.clear();
+        final Result allRows = execute(resultOf("customers", "orders", "products", "suppliers"), 1, false, runner);
+        assertEquals("[customers, orders, products, suppliers]", runs.toString());
+        assertEquals(3, allRows.getExitStatus());
+        assertEquals(1, allRows.getNrErrors());
+        assertFalse(allRows.getResult());
+    }
+
+    public void testStopped() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        final Result result = new EveryRowExecution(parentSpace, OUTPUT_FILENAME, 2, false, () -> true, 8,
+                createLog()).execute(resultOf("customers", "orders"), (space, processors) -> {
+                    runs.incrementAndGet();
+                    return new JobRun(0, null, null, 0);
+                });
+        assertEquals(0, runs.get());
+        assertEquals(0, result.getExitStatus());
+        assertFalse(result.getResult());
+    }
+
+    public void testParallelRuns() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final Set<Integer> processorCounts = Collections.synchronizedSet(new TreeSet<Integer>());
+        // every run waits for another one, so two runs are known to overlap
+        final CyclicBarrier pairs = new CyclicBarrier(2);
+        final Result result = execute(resultOf("a", "b", "c", "d", "e", "f"), 2, false, (space, processors) -> {
+            final int nowRunning = running.incrementAndGet();
+            maxRunning.accumulateAndGet(nowRunning, Math::max);
+            processorCounts.add(processors);
+            try {
+                pairs.await(10, TimeUnit.SECONDS);
+                Thread.sleep(10);
+            } catch (Exception e) {
+                throw new KettleException(e);
+            } finally {
+                running.decrementAndGet();
+            }
+            return new JobRun(0, space.environmentSubstitute(OUTPUT_FILENAME), null, 0);
+        });
+        assertTrue(result.getResult());
+        assertEquals(2, maxRunning.get());
+        assertEquals("[4]", processorCounts.toString());
+
+        // not more runs at the same time than rows
+        processorCounts.clear();
+        final Set<String> threads = Collections.synchronizedSet(new TreeSet<String>());
+        execute(resultOf("a", "b"), 4, false, (space, processors) -> {
+            processorCounts.add(processors);
+            threads.add(Thread.currentThread().getName());
+            return new JobRun(0, space.environmentSubstitute(OUTPUT_FILENAME), null, 0);
+        });
+        assertEquals("[4]", processorCounts.toString());
+        assertTrue(threads.toString(), threads.size() <= 2);
+    }
+
+    public void testMergeResults() throws Exception {
+        final ResultFile customersFile = createResultFile("customers");
+        final ResultFile productsFile = createResultFile("products");
+        final Result previousResult = resultOf("customers", "orders", "products", "suppliers");
+        previousResult.setNrErrors(2);
+        previousResult.setNrLinesRead(5);
+
+        final Result result = execute(previousResult, 4, false, (space, processors) -> {
+            final String name = space.getVariable("name");
+            final String outputFilename = space.environmentSubstitute(OUTPUT_FILENAME);
+            switch (name) {
+            case "customers":
+                return new JobRun(0, outputFilename, customersFile, 100);
+            case "orders":
+                return new JobRun(4, outputFilename, null, 20);
+            case "products":
+                return new JobRun(0, outputFilename, productsFile, 50);
+            default:
+                throw new IllegalStateException("Job file not found");
+            }
+        });
+
+        final Map<String, ResultFile> files = result.getResultFiles();
+        assertEquals(2, files.size());
+        assertSame(customersFile, files.get("/data/customers.analysis.result.dat"));
+        assertSame(productsFile, files.get("/data/products.analysis.result.dat"));
+        // the exit status of the first failed row, and a failure for the exception of the last row
+        assertEquals(4, result.getExitStatus());
+        assertEquals(4, result.getNrErrors());
+        assertEquals(175, result.getNrLinesRead());
+        assertFalse(result.getResult());
+    }
+
+    private Result execute(Result result, int parallelRuns, boolean failFast, EveryRowExecution.Runner runner)
+            throws KettleException {
+        return new EveryRowExecution(parentSpace, OUTPUT_FILENAME, parallelRuns, failFast, () -> false, 8,
+                createLog()).execute(result, runner);
+    }
+
+    private Result resultOf(String... names) {
+        final List<RowMetaAndData> rows = new ArrayList<>();
+        for (int i = 0; i < names.length; i++) {
+            rows.add(new RowMetaAndData(rowMeta, names[i], Long.valueOf(i + 1)));
+        }
+        final Result result = new Result();
+        result.setRows(rows);
+        return result;
+    }
+
+    private static ResultFile createResultFile(String name) throws KettleException {
+        return new ResultFile(ResultFile.FILE_TYPE_GENERAL,
+                KettleVFS.getFileObject("/data/" + name + ".analysis.result.dat"), "job", "DataCleaner");
+    }
+
+    private LogChannelInterface createLog() {
+        return (LogChannelInterface) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { LogChannelInterface.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        return null;
+                    }
+                });
+    }
+}